@@ -0,0 +1,89 @@
+package com.nieran;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 生成真实的 String 碰撞键，用于攻击测试（HashCollisionAttack 只用了 hashCode 固定为 1 的合成键）
+ * 1.sameHash：String.hashCode 完全相同，任何表大小、任何不带密钥的扰动函数下都落在同一个桶
+ * 2.sameBucket：针对 SafeHashMap.perturb 暴力搜索，hashCode 各不相同，但在容量不超过 2^tableBits 的表中落在同一个桶
+ */
+public final class CollisionKeyGenerator {
+    // 暴力搜索前缀使用的字符
+    private static final char[] ALPHABET =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz-_".toCharArray();
+    // 前缀长度：64^6 个候选，足够找到 2^30 以内任意目标
+    private static final int PREFIX_LENGTH = 6;
+
+    private CollisionKeyGenerator() {
+    }
+
+    /**
+     * n 个 hashCode 完全相同、互不相等的字符串
+     * "Aa" 与 "BB" 的 hashCode 相同，ceil(log2 n) 个块的任意组合得到至多 2^blocks 个碰撞字符串，取前 n 个
+     */
+    public static String[] sameHash(int n) {
+        int blocks = Math.max(1, 32 - Integer.numberOfLeadingZeros(n - 1));
+        String[] result = new String[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = blocks(i, blocks);
+        }
+        return result;
+    }
+
+    /**
+     * n 个落入 SafeHashMap 同一个桶的字符串：perturb(hashCode) 的低 tableBits 位都等于 bucket，
+     * 因此在容量不超过 2^tableBits 的所有表中都落在同一个桶（更大的表才会把它们分开）
+     * 先暴力枚举前缀，使前缀拼接 blocks 个 "Aa"/"BB" 块后的哈希命中目标，每个命中的前缀再展开成 2^blocks 个键。
+     * 每个前缀平均尝试 2^tableBits 次，blocks 越大需要搜索的前缀越少，但键中 hashCode 完全相同的比例越高
+     */
+    public static String[] sameBucket(int n, int tableBits, int bucket, int blocks) {
+        if (tableBits < 0 || tableBits > 30 || blocks < 0 || blocks > 20)
+            throw new IllegalArgumentException("tableBits: " + tableBits + ", blocks: " + blocks);
+        int mask = (1 << tableBits) - 1;
+        int target = bucket & mask;
+        int perPrefix = 1 << blocks;
+        // hash(p + s) = hash(p) * 31^len(s) + hash(s)，所有块组合的 hash(s) 相同
+        int multiplier = 1;
+        for (int i = 0; i < blocks * 2; i++) {
+            multiplier *= 31;
+        }
+        int suffixHash = blocks(0, blocks).hashCode();
+        String[] result = new String[n];
+        int count = 0;
+        char[] prefix = new char[PREFIX_LENGTH];
+        Set<Integer> used = new HashSet<>();
+        for (long k = 0; count < n; k++) {
+            if (k == 1L << (6 * PREFIX_LENGTH))
+                throw new IllegalStateException("prefix space exhausted after " + count + " keys");
+            // 按顺序枚举时前缀的 hashCode 集中在很小的范围内，先用黄金比例乘法打散
+            long c = (k * 0x9E3779B97F4A7C15L) >>> (64 - 6 * PREFIX_LENGTH);
+            // 直接按字符计算前缀的 hashCode，命中时才创建字符串
+            int h = 0;
+            for (int i = 0; i < PREFIX_LENGTH; i++) {
+                char ch = ALPHABET[(int) (c & 63)];
+                c >>>= 6;
+                prefix[i] = ch;
+                h = 31 * h + ch;
+            }
+            int full = h * multiplier + suffixHash;
+            // 不同前缀也可能 hashCode 相同，跳过它们，保证不同前缀的键只在桶下标上相同
+            if ((SafeHashMap.perturb(full) & mask) != target || !used.add(full))
+                continue;
+            String p = new String(prefix);
+            for (int i = 0; i < perPrefix && count < n; i++) {
+                result[count++] = p + blocks(i, blocks);
+            }
+        }
+        return result;
+    }
+
+    // 第 i 个由 blocks 个 "Aa"/"BB" 块组成的字符串
+    private static String blocks(int i, int blocks) {
+        StringBuilder sb = new StringBuilder(blocks * 2);
+        for (int b = 0; b < blocks; b++) {
+            sb.append(((i >>> b) & 1) == 0 ? "Aa" : "BB");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,636 @@
+package com.nieran;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * 列式存储的安全 HashMap，对外接口与 SafeHashMap 相同，但每个条目不分配任何对象
+ * 1.条目按插入顺序紧凑存放在平行数组 hashes / keys / values / next 中，删除时把最后一个条目移入空位，
+ *   数组始终没有空洞；桶数组 buckets 只存条目下标。每条目约 16 字节加上桶数组，Node 布局为 32 字节加上桶数组
+ * 2.冲突链用 next 数组中的下标串联，链长达到树化阈值时与 SafeHashMap 一样先判断是否遭到攻击（换种子重哈希），
+ *   否则转为树桶
+ * 3.树桶是按 (hash, compareTo) 排序的条目下标数组，用二分查找代替红黑树的指针，插入时移动下标；
+ *   hash 相同且不可比较的键只能在相同 hash 的区间内线性比较
+ * 4.扩容直接按紧凑数组重建桶，不需要拆分链表
+ */
+public class CompactSafeHashMap<K, V> extends AbstractMap<K, V> {
+    // 默认初始容量
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+    // 最大容量
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+    // 默认负载因子
+    static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    // 桶数组：大于 0 为链表首条目下标 + 1，小于 0 为树桶编号 -(id + 1)，0 为空桶
+    int[] buckets;
+    // 条目数组，下标 [0, size) 有效
+    int[] hashes;
+    Object[] keys;
+    Object[] values;
+    // 链表中下一个条目的下标 + 1，0 表示链尾；树桶中的条目不使用
+    int[] next;
+    // 树桶：排好序的条目下标、有效长度、键的可比较类型（混入其他类型后为 null）
+    int[][] treeBins;
+    int[] treeBinSizes;
+    Class<?>[] treeBinClasses;
+    int treeBinCount;
+    // 键值对数量
+    int size;
+    // 修改计数器
+    int modCount;
+    // 扩容阈值
+    int threshold;
+    // 负载因子
+    final float loadFactor;
+    // 哈希方式与 SafeHashMap 相同
+    boolean keyedHashing;
+    boolean seededHashing;
+    long hashSeed0, hashSeed1;
+    // 上次重哈希以来的超长桶事件数
+    int longBucketCount;
+    // 上次重哈希时的元素数量
+    int lastRehashSize;
+    // 因检测到攻击而重哈希的次数
+    int attackRehashCount;
+    // entrySet 视图
+    Set<Map.Entry<K, V>> entrySet;
+
+    /**
+     * 默认构造函数
+     */
+    public CompactSafeHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * 带初始容量的构造函数
+     */
+    public CompactSafeHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * 完整构造函数
+     */
+    public CompactSafeHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+        if (loadFactor <= 0 || Float.isNaN(loadFactor))
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        this.loadFactor = loadFactor;
+        int capacity = SafeHashMap.tableSizeFor(Math.max(1, Math.min(initialCapacity, MAXIMUM_CAPACITY)));
+        buckets = new int[capacity];
+        threshold = thresholdFor(capacity);
+        int entryCapacity = Math.max(1, Math.min(threshold, initialCapacity));
+        hashes = new int[entryCapacity];
+        keys = new Object[entryCapacity];
+        values = new Object[entryCapacity];
+        next = new int[entryCapacity];
+    }
+
+    private int thresholdFor(int capacity) {
+        float ft = capacity * loadFactor;
+        return capacity < MAXIMUM_CAPACITY && ft < (float) Integer.MAX_VALUE ? (int) ft : Integer.MAX_VALUE;
+    }
+
+    /**
+     * 计算哈希，与 SafeHashMap.hash 一致
+     */
+    final int hash(Object key) {
+        return keyedHashing ? SafeHashMap.keyedHash(key, seededHashing, hashSeed0, hashSeed1)
+                : SafeHashMap.safeHash(key);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 因检测到攻击而重哈希的次数
+     */
+    public int getAttackRehashCount() {
+        return attackRehashCount;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    public boolean containsValue(Object value) {
+        Object[] vs = values;
+        for (int i = 0; i < size; i++) {
+            Object v = vs[i];
+            if (v == value || (value != null && value.equals(v)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * 查找键所在的条目下标，不存在时返回 -1
+     */
+    final int indexOf(Object key) {
+        int h = hash(key);
+        int b = buckets[h & (buckets.length - 1)];
+        if (b < 0)
+            return treeFind(-b - 1, h, key);
+        Object[] ks = keys;
+        int[] hs = hashes, nx = next;
+        for (int i = b - 1; i >= 0; i = nx[i] - 1) {
+            Object k;
+            if (hs[i] == h && ((k = ks[i]) == key || (key != null && key.equals(k))))
+                return i;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        int h = hash(key);
+        int index = h & (buckets.length - 1);
+        int b = buckets[index];
+        if (b < 0) {
+            int id = -b - 1;
+            int found = treeFind(id, h, key);
+            if (found >= 0) {
+                V old = (V) values[found];
+                values[found] = value;
+                return old;
+            }
+            int i = appendEntry(h, key, value);
+            treeInsert(id, i);
+            // 与 SafeHashMap.treeBinGrown 相同：只有与已有键 hash 完全相同的字符串键计入超长桶事件
+            if (key instanceof String && treeHasSameHash(id, h) && countLongBucket())
+                rebuild(buckets.length, true);
+            afterInsert();
+            return null;
+        }
+        int binCount = 0;
+        Object[] ks = keys;
+        for (int i = b - 1; i >= 0; i = next[i] - 1) {
+            Object k;
+            if (hashes[i] == h && ((k = ks[i]) == key || (key != null && key.equals(k)))) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+            binCount++;
+        }
+        int i = appendEntry(h, key, value);
+        next[i] = b;
+        buckets[index] = i + 1;
+        if (binCount >= SafeHashMap.TREEIFY_THRESHOLD - 1)
+            longChain(index);
+        afterInsert();
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int h = hash(key);
+        int index = h & (buckets.length - 1);
+        int b = buckets[index];
+        int i;
+        if (b < 0) {
+            int id = -b - 1;
+            if ((i = treeFind(id, h, key)) < 0)
+                return null;
+            treeRemove(id, i);
+            if (treeBinSizes[id] <= SafeHashMap.UNTREEIFY_THRESHOLD)
+                untreeify(index, id);
+        } else {
+            Object[] ks = keys;
+            int prev = -1;
+            for (i = b - 1; i >= 0; prev = i, i = next[i] - 1) {
+                Object k;
+                if (hashes[i] == h && ((k = ks[i]) == key || (key != null && key.equals(k))))
+                    break;
+            }
+            if (i < 0)
+                return null;
+            if (prev < 0)
+                buckets[index] = next[i];
+            else
+                next[prev] = next[i];
+        }
+        V old = (V) values[i];
+        removeEntry(i);
+        modCount++;
+        return old;
+    }
+
+    public void clear() {
+        modCount++;
+        Arrays.fill(buckets, 0);
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        treeBins = null;
+        treeBinSizes = null;
+        treeBinClasses = null;
+        treeBinCount = 0;
+        size = 0;
+    }
+
+    /**
+     * 按紧凑数组顺序遍历，不创建任何对象
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        int mc = modCount;
+        Object[] ks = keys, vs = values;
+        for (int i = 0; i < size && mc == modCount; i++)
+            action.accept((K) ks[i], (V) vs[i]);
+        if (mc != modCount)
+            throw new ConcurrentModificationException();
+    }
+
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    // ---------------- 条目数组 ----------------
+
+    /**
+     * 在紧凑数组末尾追加条目（不挂到桶上），返回其下标
+     */
+    private int appendEntry(int h, Object key, Object value) {
+        int i = size;
+        if (i == keys.length)
+            growEntries(Math.max(i + 1, Math.min(threshold + 1, i + (i >>> 1) + 1)));
+        hashes[i] = h;
+        keys[i] = key;
+        values[i] = value;
+        next[i] = 0;
+        size = i + 1;
+        modCount++;
+        return i;
+    }
+
+    private void growEntries(int newLength) {
+        hashes = Arrays.copyOf(hashes, newLength);
+        keys = Arrays.copyOf(keys, newLength);
+        values = Arrays.copyOf(values, newLength);
+        next = Arrays.copyOf(next, newLength);
+    }
+
+    /**
+     * 插入完成后检查是否需要扩容
+     */
+    private void afterInsert() {
+        if (size > threshold && buckets.length < MAXIMUM_CAPACITY)
+            rebuild(buckets.length << 1, false);
+    }
+
+    /**
+     * 删除下标 i 的条目（调用前已从桶中摘除）：把最后一个条目移到 i，并修正指向它的链接
+     */
+    private void removeEntry(int i) {
+        int last = --size;
+        if (i != last) {
+            int lh = hashes[last];
+            int index = lh & (buckets.length - 1);
+            int b = buckets[index];
+            if (b < 0) {
+                int[] bin = treeBins[-b - 1];
+                for (int p = 0; ; p++) {
+                    if (bin[p] == last) {
+                        bin[p] = i;
+                        break;
+                    }
+                }
+            } else if (b == last + 1) {
+                buckets[index] = i + 1;
+            } else {
+                int p = b - 1;
+                while (next[p] != last + 1)
+                    p = next[p] - 1;
+                next[p] = i + 1;
+            }
+            hashes[i] = lh;
+            keys[i] = keys[last];
+            values[i] = values[last];
+            next[i] = next[last];
+        }
+        keys[last] = null;
+        values[last] = null;
+    }
+
+    // ---------------- 攻击检测与重建 ----------------
+
+    /**
+     * 链表达到树化阈值：与 SafeHashMap.treeifyBin 相同，先判断是否遭到攻击，否则扩容或树化
+     */
+    private void longChain(int index) {
+        // 新条目在链首，只统计与它 hash 完全相同的字符串键
+        int first = buckets[index] - 1, same = 0;
+        for (int i = first; i >= 0; i = next[i] - 1) {
+            if (hashes[i] == hashes[first] && keys[i] instanceof String)
+                same++;
+        }
+        if (same >= SafeHashMap.ATTACK_SAME_HASH && countLongBucket())
+            rebuild(buckets.length, true);
+        else if (buckets.length < SafeHashMap.MIN_TREEIFY_CAPACITY)
+            rebuild(buckets.length << 1, false);
+        else
+            treeify(index);
+    }
+
+    private boolean countLongBucket() {
+        return ++longBucketCount >= SafeHashMap.ATTACK_LONG_BUCKET_LIMIT + (buckets.length >>> 16) &&
+                size >= lastRehashSize << 1;
+    }
+
+    /**
+     * 按紧凑数组重建桶；reseed 为 true 时换用带种子的哈希（遭遇攻击），否则沿用保存的 hash
+     */
+    private void rebuild(int capacity, boolean reseed) {
+        if (reseed) {
+            keyedHashing = true;
+            seededHashing = true;
+            hashSeed0 = SafeHashMap.newSeed0();
+            hashSeed1 = SafeHashMap.newSeed1();
+            longBucketCount = 0;
+            lastRehashSize = size;
+            attackRehashCount++;
+        }
+        if (capacity != buckets.length) {
+            buckets = new int[capacity];
+            threshold = thresholdFor(capacity);
+        } else {
+            Arrays.fill(buckets, 0);
+        }
+        treeBins = null;
+        treeBinSizes = null;
+        treeBinClasses = null;
+        treeBinCount = 0;
+        int mask = capacity - 1;
+        int[] counts = new int[capacity];
+        boolean longChains = false;
+        for (int i = 0; i < size; i++) {
+            int h = reseed ? (hashes[i] = hash(keys[i])) : hashes[i];
+            int index = h & mask;
+            next[i] = buckets[index];
+            buckets[index] = i + 1;
+            longChains |= ++counts[index] >= SafeHashMap.TREEIFY_THRESHOLD;
+        }
+        // 重建后仍然过长的桶（例如 hashCode 完全相同的键）直接树化
+        if (longChains && capacity >= SafeHashMap.MIN_TREEIFY_CAPACITY) {
+            for (int index = 0; index < capacity; index++) {
+                if (counts[index] >= SafeHashMap.TREEIFY_THRESHOLD)
+                    treeify(index);
+            }
+        }
+    }
+
+    // ---------------- 树桶 ----------------
+
+    /**
+     * 比较两个条目在树桶中的顺序：先比较 hash，相同时用 compareTo（键类型为 kc 时）
+     */
+    private int compare(int h, Object key, int i, Class<?> kc) {
+        int ih = hashes[i];
+        if (h != ih)
+            return h < ih ? -1 : 1;
+        return kc == null ? 0 : SafeHashMap.compareComparables(kc, key, keys[i]);
+    }
+
+    private void treeify(int index) {
+        int count = 0;
+        int[] bin = new int[SafeHashMap.TREEIFY_THRESHOLD << 1];
+        for (int i = buckets[index] - 1; i >= 0; i = next[i] - 1) {
+            if (count == bin.length)
+                bin = Arrays.copyOf(bin, count << 1);
+            bin[count++] = i;
+        }
+        Class<?> kc = SafeHashMap.comparableClassFor(keys[bin[0]]);
+        for (int p = 1; p < count && kc != null; p++) {
+            if (keys[bin[p]] == null || keys[bin[p]].getClass() != kc)
+                kc = null;
+        }
+        final Class<?> c = kc;
+        Integer[] boxed = new Integer[count];
+        for (int p = 0; p < count; p++)
+            boxed[p] = bin[p];
+        Arrays.sort(boxed, (a, b) -> compare(hashes[a], keys[a], b, c));
+        for (int p = 0; p < count; p++)
+            bin[p] = boxed[p];
+
+        if (treeBins == null) {
+            treeBins = new int[4][];
+            treeBinSizes = new int[4];
+            treeBinClasses = new Class<?>[4];
+        } else if (treeBinCount == treeBins.length) {
+            treeBins = Arrays.copyOf(treeBins, treeBinCount << 1);
+            treeBinSizes = Arrays.copyOf(treeBinSizes, treeBinCount << 1);
+            treeBinClasses = Arrays.copyOf(treeBinClasses, treeBinCount << 1);
+        }
+        int id = treeBinCount++;
+        treeBins[id] = bin;
+        treeBinSizes[id] = count;
+        treeBinClasses[id] = kc;
+        buckets[index] = -(id + 1);
+    }
+
+    /**
+     * 树桶退化为链表，并把最后一个树桶移到空出的编号
+     */
+    private void untreeify(int index, int id) {
+        int[] bin = treeBins[id];
+        int head = 0;
+        for (int p = treeBinSizes[id] - 1; p >= 0; p--) {
+            next[bin[p]] = head;
+            head = bin[p] + 1;
+        }
+        buckets[index] = head;
+        int last = --treeBinCount;
+        if (id != last) {
+            int[] moved = treeBins[last];
+            treeBins[id] = moved;
+            treeBinSizes[id] = treeBinSizes[last];
+            treeBinClasses[id] = treeBinClasses[last];
+            buckets[hashes[moved[0]] & (buckets.length - 1)] = -(id + 1);
+        }
+        treeBins[last] = null;
+        treeBinClasses[last] = null;
+    }
+
+    /**
+     * 在树桶中二分查找：先定位 hash 相同的区间，键可比较时在区间内继续二分，否则线性比较
+     */
+    private int treeFind(int id, int h, Object key) {
+        int[] bin = treeBins[id];
+        int n = treeBinSizes[id];
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (hashes[bin[mid]] < h)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        int start = lo;
+        Class<?> kc = treeBinClasses[id];
+        if (kc != null && key != null && key.getClass() == kc) {
+            hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int i = bin[mid];
+                int d = compare(h, key, i, kc);
+                if (d == 0) {
+                    Object k = keys[i];
+                    if (k == key || key.equals(k))
+                        return i;
+                    break; // compareTo 与 equals 不一致，退回线性比较
+                }
+                if (d < 0)
+                    hi = mid;
+                else
+                    lo = mid + 1;
+            }
+        }
+        for (int p = start; p < n; p++) {
+            int i = bin[p];
+            if (hashes[i] != h)
+                break;
+            Object k = keys[i];
+            if (k == key || (key != null && key.equals(k)))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 树桶中 hash 为 h 的条目是否不止一个（二分定位区间起点后看相邻的条目）
+     */
+    private boolean treeHasSameHash(int id, int h) {
+        int[] bin = treeBins[id];
+        int n = treeBinSizes[id];
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (hashes[bin[mid]] < h)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo + 1 < n && hashes[bin[lo]] == h && hashes[bin[lo + 1]] == h;
+    }
+
+    private void treeInsert(int id, int i) {
+        int[] bin = treeBins[id];
+        int n = treeBinSizes[id];
+        Class<?> kc = treeBinClasses[id];
+        Object key = keys[i];
+        if (kc != null && (key == null || key.getClass() != kc))
+            treeBinClasses[id] = kc = null;
+        int h = hashes[i];
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(h, key, bin[mid], kc) >= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        if (n == bin.length)
+            treeBins[id] = bin = Arrays.copyOf(bin, n << 1);
+        System.arraycopy(bin, lo, bin, lo + 1, n - lo);
+        bin[lo] = i;
+        treeBinSizes[id] = n + 1;
+    }
+
+    private void treeRemove(int id, int i) {
+        int[] bin = treeBins[id];
+        int n = treeBinSizes[id];
+        for (int p = 0; p < n; p++) {
+            if (bin[p] == i) {
+                System.arraycopy(bin, p + 1, bin, p, n - p - 1);
+                treeBinSizes[id] = n - 1;
+                return;
+            }
+        }
+    }
+
+    // ---------------- 视图 ----------------
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            CompactSafeHashMap.this.clear();
+        }
+
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+    }
+
+    /**
+     * 按紧凑数组顺序遍历；删除时最后一个条目移入当前位置，因此下一次仍从当前位置开始
+     */
+    final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        int cursor;
+        int last = -1;
+        int expectedModCount = modCount;
+
+        public boolean hasNext() {
+            return cursor < size;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (cursor >= size)
+                throw new NoSuchElementException();
+            int i = last = cursor++;
+            return new Entry((K) keys[i], (V) values[i]);
+        }
+
+        public void remove() {
+            if (last < 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            CompactSafeHashMap.this.remove(keys[last]);
+            cursor = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    final class Entry extends AbstractMap.SimpleEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        Entry(K key, V value) {
+            super(key, value);
+        }
+
+        public V setValue(V value) {
+            super.setValue(value);
+            return put(getKey(), value);
+        }
+    }
+}
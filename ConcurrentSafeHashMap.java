@@ -0,0 +1,1390 @@
+package com.nieran;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.nieran.SafeHashMap.comparableClassFor;
+import static com.nieran.SafeHashMap.compareComparables;
+
+/**
+ * 并发版 SafeHashMap，结构参考 ConcurrentHashMap：
+ * 1.读操作无锁，桶数组通过 VarHandle 以 acquire/release 语义访问
+ * 2.写操作只锁住桶的首节点，空桶用 CAS 直接放入
+ * 3.元素计数与 ConcurrentHashMap 相同：无竞争时 CAS 更新 baseCount，CAS 失败后才分散到计数单元，
+ *   只有计数单元存在且桶中已有节点时才汇总全部计数判断扩容
+ * 4.扩容时其他线程遇到转发节点会认领一段桶协助迁移
+ * 哈希沿用 SafeHashMap.safeHash 的扰动，冲突桶同样树化为红黑树。
+ * 与 ConcurrentHashMap 一样不允许 null 键和 null 值
+ * 适用范围：只提供 get/containsKey/put/putIfAbsent/remove/size/isEmpty，没有实现 Map/ConcurrentMap，
+ * 不支持遍历、clear、compute/merge 和条件 replace，不能直接替换 ConcurrentHashMap；
+ * 需要这些操作时使用 ConcurrentHashMap，或用一把锁保护 SafeHashMap
+ */
+public class ConcurrentSafeHashMap<K, V> {
+    // 最大容量
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+    // 默认初始容量
+    static final int DEFAULT_CAPACITY = 16;
+    // 树化阈值
+    static final int TREEIFY_THRESHOLD = 8;
+    // 反树化阈值
+    static final int UNTREEIFY_THRESHOLD = 6;
+    // 最小树化容量
+    static final int MIN_TREEIFY_CAPACITY = 64;
+    // 每个线程每次认领的最少迁移桶数
+    private static final int MIN_TRANSFER_STRIDE = 16;
+    // sizeCtl 中记录扩容标记所用的位数
+    private static final int RESIZE_STAMP_BITS = 16;
+    // 同时参与扩容的最大线程数
+    private static final int MAX_RESIZERS = (1 << (32 - RESIZE_STAMP_BITS)) - 1;
+    private static final int RESIZE_STAMP_SHIFT = 32 - RESIZE_STAMP_BITS;
+
+    // 特殊节点的 hash
+    static final int MOVED = -1;   // 转发节点
+    static final int TREEBIN = -2; // 树桶
+    // 普通节点 hash 可用的位，保证非负
+    static final int HASH_BITS = 0x7fffffff;
+
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    // 底层存储数组，长度总是 2 的幂
+    volatile Node<K, V>[] table;
+    // 扩容时的新数组，其余时间为 null
+    private volatile Node<K, V>[] nextTable;
+    // 为负数时表示正在初始化或扩容；为正数时表示下一次扩容的阈值（或初始容量）
+    private volatile int sizeCtl;
+    // 扩容时下一个待认领区间的上界（不含）
+    private volatile int transferIndex;
+    // 无竞争时的元素计数
+    private volatile long baseCount;
+    // 计数单元数组创建或扩容时的自旋锁
+    private volatile int cellsBusy;
+    // 竞争时使用的计数单元，长度为 2 的幂
+    private volatile CounterCell[] counterCells;
+
+    /**
+     * 计数单元，前后填充避免相邻单元落在同一缓存行
+     */
+    static final class CounterCell {
+        long p0, p1, p2, p3, p4, p5, p6;
+        volatile long value;
+        long q0, q1, q2, q3, q4, q5, q6;
+
+        CounterCell(long x) {
+            value = x;
+        }
+    }
+
+    /**
+     * 普通链表节点，val 与 next 为 volatile，供无锁读取
+     */
+    static class Node<K, V> {
+        final int hash;
+        final K key;
+        volatile V val;
+        volatile Node<K, V> next;
+
+        Node(int hash, K key, V val) {
+            this.hash = hash;
+            this.key = key;
+            this.val = val;
+        }
+
+        Node(int hash, K key, V val, Node<K, V> next) {
+            this(hash, key, val);
+            this.next = next;
+        }
+
+        public final K getKey() { return key; }
+        public final V getValue() { return val; }
+
+        public final String toString() {
+            return key + "=" + val;
+        }
+
+        /**
+         * 从当前节点开始查找，特殊节点会覆盖该方法
+         */
+        Node<K, V> find(int h, Object k) {
+            Node<K, V> e = this;
+            if (k != null) {
+                do {
+                    K ek;
+                    if (e.hash == h &&
+                            ((ek = e.key) == k || (ek != null && k.equals(ek))))
+                        return e;
+                } while ((e = e.next) != null);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 扩容时放在已迁移桶上的转发节点，查找会转到新数组
+     */
+    static final class ForwardingNode<K, V> extends Node<K, V> {
+        final Node<K, V>[] nextTable;
+
+        ForwardingNode(Node<K, V>[] tab) {
+            super(MOVED, null, null);
+            this.nextTable = tab;
+        }
+
+        Node<K, V> find(int h, Object k) {
+            // 用循环代替递归，避免连续扩容时转发过深
+            outer:
+            for (Node<K, V>[] tab = nextTable; ; ) {
+                Node<K, V> e;
+                int n;
+                if (k == null || tab == null || (n = tab.length) == 0 ||
+                        (e = tabAt(tab, (n - 1) & h)) == null)
+                    return null;
+                for (; ; ) {
+                    int eh;
+                    K ek;
+                    if ((eh = e.hash) == h &&
+                            ((ek = e.key) == k || (ek != null && k.equals(ek))))
+                        return e;
+                    if (eh < 0) {
+                        if (e instanceof ForwardingNode) {
+                            tab = ((ForwardingNode<K, V>) e).nextTable;
+                            continue outer;
+                        } else
+                            return e.find(h, k);
+                    }
+                    if ((e = e.next) == null)
+                        return null;
+                }
+            }
+        }
+    }
+
+    /* ---------------- 桶数组访问 -------------- */
+
+    private static final VarHandle TAB = MethodHandles.arrayElementVarHandle(Node[].class);
+    private static final VarHandle SIZECTL;
+    private static final VarHandle TRANSFERINDEX;
+    private static final VarHandle BASECOUNT;
+    private static final VarHandle CELLSBUSY;
+    private static final VarHandle CELLVALUE;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            SIZECTL = l.findVarHandle(ConcurrentSafeHashMap.class, "sizeCtl", int.class);
+            TRANSFERINDEX = l.findVarHandle(ConcurrentSafeHashMap.class, "transferIndex", int.class);
+            BASECOUNT = l.findVarHandle(ConcurrentSafeHashMap.class, "baseCount", long.class);
+            CELLSBUSY = l.findVarHandle(ConcurrentSafeHashMap.class, "cellsBusy", int.class);
+            CELLVALUE = l.findVarHandle(CounterCell.class, "value", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> Node<K, V> tabAt(Node<K, V>[] tab, int i) {
+        return (Node<K, V>) TAB.getAcquire(tab, i);
+    }
+
+    static <K, V> boolean casTabAt(Node<K, V>[] tab, int i, Node<K, V> c, Node<K, V> v) {
+        return TAB.compareAndSet(tab, i, c, v);
+    }
+
+    static <K, V> void setTabAt(Node<K, V>[] tab, int i, Node<K, V> v) {
+        TAB.setRelease(tab, i, v);
+    }
+
+    /**
+     * 计算哈希值：沿用 SafeHashMap 的扰动，再去掉符号位（负数留给特殊节点）
+     */
+    static final int spread(Object key) {
+        return SafeHashMap.safeHash(key) & HASH_BITS;
+    }
+
+    /**
+     * 扩容标记，写在 sizeCtl 的高 16 位，用于判断多个线程是否在协助同一次扩容
+     */
+    static final int resizeStamp(int n) {
+        return Integer.numberOfLeadingZeros(n) | (1 << (RESIZE_STAMP_BITS - 1));
+    }
+
+    /**
+     * 默认构造函数
+     */
+    public ConcurrentSafeHashMap() {
+    }
+
+    /**
+     * 带初始容量的构造函数，保证放入 initialCapacity 个元素前不需要扩容
+     */
+    public ConcurrentSafeHashMap(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+        this.sizeCtl = (initialCapacity >= (MAXIMUM_CAPACITY >>> 1)) ? MAXIMUM_CAPACITY :
+                SafeHashMap.tableSizeFor(initialCapacity + (initialCapacity >>> 1) + 1);
+    }
+
+    /**
+     * 键值对数量
+     */
+    public int size() {
+        long n = sumCount();
+        return (n < 0L) ? 0 : (n > (long) Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) n;
+    }
+
+    /**
+     * 是否为空
+     */
+    public boolean isEmpty() {
+        return sumCount() <= 0L;
+    }
+
+    /**
+     * 获取元素，全程无锁
+     */
+    public V get(Object key) {
+        if (key == null)
+            throw new NullPointerException();
+        Node<K, V>[] tab;
+        Node<K, V> e, p;
+        int n, eh;
+        K ek;
+        int h = spread(key);
+        if ((tab = table) != null && (n = tab.length) > 0 &&
+                (e = tabAt(tab, (n - 1) & h)) != null) {
+            if ((eh = e.hash) == h) {
+                if ((ek = e.key) == key || (ek != null && key.equals(ek)))
+                    return e.val;
+            }
+            // 转发节点或树桶
+            else if (eh < 0)
+                return (p = e.find(h, key)) != null ? p.val : null;
+            while ((e = e.next) != null) {
+                if (e.hash == h &&
+                        ((ek = e.key) == key || (ek != null && key.equals(ek))))
+                    return e.val;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 是否包含指定键
+     */
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * 放入元素
+     */
+    public V put(K key, V value) {
+        return putVal(key, value, false);
+    }
+
+    /**
+     * 键不存在时才放入
+     */
+    public V putIfAbsent(K key, V value) {
+        return putVal(key, value, true);
+    }
+
+    /**
+     * 核心的放入实现
+     */
+    final V putVal(K key, V value, boolean onlyIfAbsent) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        int hash = spread(key);
+        int binCount = 0;
+        for (Node<K, V>[] tab = table; ; ) {
+            Node<K, V> f;
+            int n, i, fh;
+            K fk;
+            V fv;
+            if (tab == null || (n = tab.length) == 0)
+                tab = initTable();
+            // 空桶：CAS 放入，不加锁
+            else if ((f = tabAt(tab, i = (n - 1) & hash)) == null) {
+                if (casTabAt(tab, i, null, new Node<>(hash, key, value)))
+                    break;
+            }
+            // 正在扩容：先协助迁移
+            else if ((fh = f.hash) == MOVED)
+                tab = helpTransfer(tab, f);
+            // putIfAbsent 命中首节点时不需要加锁
+            else if (onlyIfAbsent && fh == hash &&
+                    ((fk = f.key) == key || (fk != null && key.equals(fk))) &&
+                    (fv = f.val) != null)
+                return fv;
+            else {
+                V oldVal = null;
+                // 只锁住当前桶
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        if (fh >= 0) {
+                            binCount = 1;
+                            for (Node<K, V> e = f; ; ++binCount) {
+                                K ek;
+                                if (e.hash == hash &&
+                                        ((ek = e.key) == key ||
+                                                (ek != null && key.equals(ek)))) {
+                                    oldVal = e.val;
+                                    if (!onlyIfAbsent)
+                                        e.val = value;
+                                    break;
+                                }
+                                Node<K, V> pred = e;
+                                if ((e = e.next) == null) {
+                                    pred.next = new Node<>(hash, key, value);
+                                    break;
+                                }
+                            }
+                        } else if (f instanceof TreeBin) {
+                            Node<K, V> p;
+                            binCount = 2;
+                            if ((p = ((TreeBin<K, V>) f).putTreeVal(hash, key, value)) != null) {
+                                oldVal = p.val;
+                                if (!onlyIfAbsent)
+                                    p.val = value;
+                            }
+                        }
+                    }
+                }
+                // binCount 为 0 说明加锁前桶已被替换，重试
+                if (binCount != 0) {
+                    if (binCount >= TREEIFY_THRESHOLD)
+                        treeifyBin(tab, i);
+                    if (oldVal != null)
+                        return oldVal;
+                    break;
+                }
+            }
+        }
+        addCount(1L, binCount);
+        return null;
+    }
+
+    /**
+     * 删除元素
+     */
+    public V remove(Object key) {
+        return replaceNode(key, null, null);
+    }
+
+    /**
+     * 删除或替换的内部实现：value 为 null 时删除；cv 不为 null 时要求当前值等于 cv
+     */
+    final V replaceNode(Object key, V value, Object cv) {
+        if (key == null)
+            throw new NullPointerException();
+        int hash = spread(key);
+        for (Node<K, V>[] tab = table; ; ) {
+            Node<K, V> f;
+            int n, i, fh;
+            if (tab == null || (n = tab.length) == 0 ||
+                    (f = tabAt(tab, i = (n - 1) & hash)) == null)
+                break;
+            else if ((fh = f.hash) == MOVED)
+                tab = helpTransfer(tab, f);
+            else {
+                V oldVal = null;
+                boolean validated = false;
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        if (fh >= 0) {
+                            validated = true;
+                            for (Node<K, V> e = f, pred = null; ; ) {
+                                K ek;
+                                if (e.hash == hash &&
+                                        ((ek = e.key) == key ||
+                                                (ek != null && key.equals(ek)))) {
+                                    V ev = e.val;
+                                    if (cv == null || cv == ev ||
+                                            (ev != null && cv.equals(ev))) {
+                                        oldVal = ev;
+                                        if (value != null)
+                                            e.val = value;
+                                        else if (pred != null)
+                                            pred.next = e.next;
+                                        else
+                                            setTabAt(tab, i, e.next);
+                                    }
+                                    break;
+                                }
+                                pred = e;
+                                if ((e = e.next) == null)
+                                    break;
+                            }
+                        } else if (f instanceof TreeBin) {
+                            validated = true;
+                            TreeBin<K, V> t = (TreeBin<K, V>) f;
+                            TreeNode<K, V> r, p;
+                            if ((r = t.root) != null &&
+                                    (p = r.findTreeNode(hash, key, null)) != null) {
+                                V pv = p.val;
+                                if (cv == null || cv == pv ||
+                                        (pv != null && cv.equals(pv))) {
+                                    oldVal = pv;
+                                    if (value != null)
+                                        p.val = value;
+                                    else if (t.removeTreeNode(p))
+                                        setTabAt(tab, i, untreeify(t.first));
+                                }
+                            }
+                        }
+                    }
+                }
+                if (validated) {
+                    if (oldVal != null) {
+                        if (value == null)
+                            addCount(-1L, -1);
+                        return oldVal;
+                    }
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
+    /* ---------------- 初始化与扩容 -------------- */
+
+    /**
+     * 用 sizeCtl 做 CAS 保证只有一个线程创建数组
+     */
+    private Node<K, V>[] initTable() {
+        Node<K, V>[] tab;
+        int sc;
+        while ((tab = table) == null || tab.length == 0) {
+            if ((sc = sizeCtl) < 0)
+                Thread.yield(); // 其他线程正在初始化
+            else if (SIZECTL.compareAndSet(this, sc, -1)) {
+                try {
+                    if ((tab = table) == null || tab.length == 0) {
+                        int n = (sc > 0) ? sc : DEFAULT_CAPACITY;
+                        @SuppressWarnings({"rawtypes", "unchecked"})
+                        Node<K, V>[] nt = (Node<K, V>[]) new Node[n];
+                        table = tab = nt;
+                        sc = n - (n >>> 2); // 0.75 * n
+                    }
+                } finally {
+                    sizeCtl = sc;
+                }
+                break;
+            }
+        }
+        return tab;
+    }
+
+    /**
+     * 更新计数，check >= 0 时检查是否需要扩容（或协助正在进行的扩容）
+     * baseCount 的 CAS 成功时直接用写入的值判断，不读计数单元；已经分散到计数单元时，
+     * 只有 check > 1（桶中原本就有节点）才汇总，CAS 冲突进入 fullAddCount 后本次不检查
+     */
+    private void addCount(long x, int check) {
+        CounterCell[] cs;
+        long b, s;
+        if ((cs = counterCells) != null ||
+                !BASECOUNT.compareAndSet(this, b = baseCount, s = b + x)) {
+            CounterCell c;
+            long v;
+            int m;
+            boolean uncontended = true;
+            if (cs == null || (m = cs.length - 1) < 0 ||
+                    (c = cs[probe() & m]) == null ||
+                    !(uncontended = CELLVALUE.compareAndSet(c, v = c.value, v + x))) {
+                fullAddCount(x, uncontended);
+                return;
+            }
+            if (check <= 1)
+                return;
+            s = sumCount();
+        }
+        if (check >= 0) {
+            Node<K, V>[] tab, nt;
+            int n, sc;
+            while (s >= (long) (sc = sizeCtl) && (tab = table) != null &&
+                    (n = tab.length) < MAXIMUM_CAPACITY) {
+                int rs = resizeStamp(n) << RESIZE_STAMP_SHIFT;
+                if (sc < 0) {
+                    // 扩容已结束、参与线程已满或没有剩余区间可认领
+                    if (sc == rs + MAX_RESIZERS || sc == rs + 1 ||
+                            (nt = nextTable) == null || transferIndex <= 0)
+                        break;
+                    if (SIZECTL.compareAndSet(this, sc, sc + 1))
+                        transfer(tab, nt);
+                } else if (SIZECTL.compareAndSet(this, sc, rs + 2))
+                    transfer(tab, null);
+                s = sumCount();
+            }
+        }
+    }
+
+    /**
+     * baseCount 加上所有计数单元
+     */
+    final long sumCount() {
+        CounterCell[] cs = counterCells;
+        long sum = baseCount;
+        if (cs != null) {
+            for (CounterCell c : cs) {
+                if (c != null)
+                    sum += c.value;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 当前线程选择计数单元的起点：线程 id 乘以黄金比例常数，不同线程大概率落在不同单元
+     */
+    private static int probe() {
+        return (int) Thread.currentThread().getId() * 0x9E3779B9;
+    }
+
+    /**
+     * 竞争路径：创建计数单元数组、在空位放入新单元，或在所选单元上 CAS；
+     * 同一单元连续冲突时把数组翻倍（不超过 CPU 核数），并换一个单元重试
+     */
+    private void fullAddCount(long x, boolean wasUncontended) {
+        int h = probe();
+        boolean collide = false; // 上一次选中的单元非空且 CAS 失败
+        for (;;) {
+            CounterCell[] cs;
+            CounterCell c;
+            int n;
+            long v;
+            if ((cs = counterCells) != null && (n = cs.length) > 0) {
+                if ((c = cs[(n - 1) & h]) == null) {
+                    if (cellsBusy == 0) {
+                        CounterCell r = new CounterCell(x);
+                        if (cellsBusy == 0 && CELLSBUSY.compareAndSet(this, 0, 1)) {
+                            boolean created = false;
+                            try {
+                                CounterCell[] rs;
+                                int m, j;
+                                if ((rs = counterCells) != null && (m = rs.length) > 0 &&
+                                        rs[j = (m - 1) & h] == null) {
+                                    rs[j] = r;
+                                    created = true;
+                                }
+                            } finally {
+                                cellsBusy = 0;
+                            }
+                            if (created)
+                                break;
+                            continue;
+                        }
+                    }
+                    collide = false;
+                } else if (!wasUncontended) {
+                    // addCount 中已经在这个单元上 CAS 失败，先换单元
+                    wasUncontended = true;
+                } else if (CELLVALUE.compareAndSet(c, v = c.value, v + x)) {
+                    break;
+                } else if (counterCells != cs || n >= NCPU) {
+                    collide = false;
+                } else if (!collide) {
+                    collide = true;
+                } else if (cellsBusy == 0 && CELLSBUSY.compareAndSet(this, 0, 1)) {
+                    try {
+                        if (counterCells == cs)
+                            counterCells = Arrays.copyOf(cs, n << 1);
+                    } finally {
+                        cellsBusy = 0;
+                    }
+                    collide = false;
+                    continue;
+                }
+                // xorshift 换一个单元
+                h ^= h << 13;
+                h ^= h >>> 17;
+                h ^= h << 5;
+            } else if (cellsBusy == 0 && counterCells == cs &&
+                    CELLSBUSY.compareAndSet(this, 0, 1)) {
+                boolean init = false;
+                try {
+                    if (counterCells == cs) {
+                        CounterCell[] rs = new CounterCell[2];
+                        rs[h & 1] = new CounterCell(x);
+                        counterCells = rs;
+                        init = true;
+                    }
+                } finally {
+                    cellsBusy = 0;
+                }
+                if (init)
+                    break;
+            } else if (BASECOUNT.compareAndSet(this, v = baseCount, v + x)) {
+                // 其他线程正在创建数组，退回 baseCount
+                break;
+            }
+        }
+    }
+
+    /**
+     * 遇到转发节点时协助扩容
+     */
+    final Node<K, V>[] helpTransfer(Node<K, V>[] tab, Node<K, V> f) {
+        Node<K, V>[] nextTab;
+        int sc;
+        if (tab != null && (f instanceof ForwardingNode) &&
+                (nextTab = ((ForwardingNode<K, V>) f).nextTable) != null) {
+            int rs = resizeStamp(tab.length) << RESIZE_STAMP_SHIFT;
+            while (nextTab == nextTable && table == tab &&
+                    (sc = sizeCtl) < 0) {
+                if (sc == rs + MAX_RESIZERS || sc == rs + 1 ||
+                        transferIndex <= 0)
+                    break;
+                if (SIZECTL.compareAndSet(this, sc, sc + 1)) {
+                    transfer(tab, nextTab);
+                    break;
+                }
+            }
+            return nextTab;
+        }
+        return table;
+    }
+
+    /**
+     * 扩容到至少能容纳 size 个元素（树化前容量不足时使用）
+     */
+    private void tryPresize(int size) {
+        int c = (size >= (MAXIMUM_CAPACITY >>> 1)) ? MAXIMUM_CAPACITY :
+                SafeHashMap.tableSizeFor(size + (size >>> 1) + 1);
+        int sc;
+        while ((sc = sizeCtl) >= 0) {
+            Node<K, V>[] tab = table;
+            int n;
+            if (tab == null || (n = tab.length) == 0) {
+                n = (sc > c) ? sc : c;
+                if (SIZECTL.compareAndSet(this, sc, -1)) {
+                    try {
+                        if (table == tab) {
+                            @SuppressWarnings({"rawtypes", "unchecked"})
+                            Node<K, V>[] nt = (Node<K, V>[]) new Node[n];
+                            table = nt;
+                            sc = n - (n >>> 2);
+                        }
+                    } finally {
+                        sizeCtl = sc;
+                    }
+                }
+            } else if (c <= sc || n >= MAXIMUM_CAPACITY)
+                break;
+            else if (tab == table) {
+                int rs = resizeStamp(n);
+                if (SIZECTL.compareAndSet(this, sc, (rs << RESIZE_STAMP_SHIFT) + 2))
+                    transfer(tab, null);
+            }
+        }
+    }
+
+    /**
+     * 把 tab 中的节点迁移到 nextTab。每个线程每次认领 stride 个桶（从高位向低位），
+     * 迁移完的桶放入转发节点；最后一个退出的线程重新扫描一遍后提交新数组
+     */
+    private void transfer(Node<K, V>[] tab, Node<K, V>[] nextTab) {
+        int n = tab.length, stride;
+        if ((stride = (NCPU > 1) ? (n >>> 3) / NCPU : n) < MIN_TRANSFER_STRIDE)
+            stride = MIN_TRANSFER_STRIDE;
+        // 发起扩容的线程负责创建新数组
+        if (nextTab == null) {
+            try {
+                @SuppressWarnings({"rawtypes", "unchecked"})
+                Node<K, V>[] nt = (Node<K, V>[]) new Node[n << 1];
+                nextTab = nt;
+            } catch (Throwable ex) { // 内存不足时放弃扩容
+                sizeCtl = Integer.MAX_VALUE;
+                return;
+            }
+            nextTable = nextTab;
+            transferIndex = n;
+        }
+        int nextn = nextTab.length;
+        ForwardingNode<K, V> fwd = new ForwardingNode<>(nextTab);
+        boolean advance = true;
+        boolean finishing = false; // 提交新数组前确保整个数组已扫描
+        for (int i = 0, bound = 0; ; ) {
+            Node<K, V> f;
+            int fh;
+            // 认领下一个桶或下一段区间
+            while (advance) {
+                int nextIndex, nextBound;
+                if (--i >= bound || finishing)
+                    advance = false;
+                else if ((nextIndex = transferIndex) <= 0) {
+                    i = -1;
+                    advance = false;
+                } else if (TRANSFERINDEX.compareAndSet(this, nextIndex,
+                        nextBound = (nextIndex > stride ? nextIndex - stride : 0))) {
+                    bound = nextBound;
+                    i = nextIndex - 1;
+                    advance = false;
+                }
+            }
+            if (i < 0 || i >= n || i + n >= nextn) {
+                int sc;
+                if (finishing) {
+                    nextTable = null;
+                    table = nextTab;
+                    sizeCtl = (n << 1) - (n >>> 1);
+                    return;
+                }
+                if (SIZECTL.compareAndSet(this, sc = sizeCtl, sc - 1)) {
+                    // 不是最后一个线程，直接退出
+                    if ((sc - 2) != resizeStamp(n) << RESIZE_STAMP_SHIFT)
+                        return;
+                    finishing = advance = true;
+                    i = n; // 提交前重新检查
+                }
+            } else if ((f = tabAt(tab, i)) == null)
+                advance = casTabAt(tab, i, null, fwd);
+            else if ((fh = f.hash) == MOVED)
+                advance = true; // 已经迁移
+            else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        Node<K, V> ln, hn;
+                        if (fh >= 0) {
+                            // 末尾连续落在同一侧的节点可以整体复用
+                            int runBit = fh & n;
+                            Node<K, V> lastRun = f;
+                            for (Node<K, V> p = f.next; p != null; p = p.next) {
+                                int b = p.hash & n;
+                                if (b != runBit) {
+                                    runBit = b;
+                                    lastRun = p;
+                                }
+                            }
+                            if (runBit == 0) {
+                                ln = lastRun;
+                                hn = null;
+                            } else {
+                                hn = lastRun;
+                                ln = null;
+                            }
+                            // 其余节点复制，旧数组上的读线程仍能看到完整链表
+                            for (Node<K, V> p = f; p != lastRun; p = p.next) {
+                                int ph = p.hash;
+                                K pk = p.key;
+                                V pv = p.val;
+                                if ((ph & n) == 0)
+                                    ln = new Node<>(ph, pk, pv, ln);
+                                else
+                                    hn = new Node<>(ph, pk, pv, hn);
+                            }
+                            setTabAt(nextTab, i, ln);
+                            setTabAt(nextTab, i + n, hn);
+                            setTabAt(tab, i, fwd);
+                            advance = true;
+                        } else if (f instanceof TreeBin) {
+                            TreeBin<K, V> t = (TreeBin<K, V>) f;
+                            TreeNode<K, V> lo = null, loTail = null;
+                            TreeNode<K, V> hi = null, hiTail = null;
+                            int lc = 0, hc = 0;
+                            for (Node<K, V> e = t.first; e != null; e = e.next) {
+                                int h = e.hash;
+                                TreeNode<K, V> p = new TreeNode<>(h, e.key, e.val, null, null);
+                                if ((h & n) == 0) {
+                                    if ((p.prev = loTail) == null)
+                                        lo = p;
+                                    else
+                                        loTail.next = p;
+                                    loTail = p;
+                                    ++lc;
+                                } else {
+                                    if ((p.prev = hiTail) == null)
+                                        hi = p;
+                                    else
+                                        hiTail.next = p;
+                                    hiTail = p;
+                                    ++hc;
+                                }
+                            }
+                            ln = (lc <= UNTREEIFY_THRESHOLD) ? untreeify(lo) :
+                                    (hc != 0) ? new TreeBin<>(lo) : t;
+                            hn = (hc <= UNTREEIFY_THRESHOLD) ? untreeify(hi) :
+                                    (lc != 0) ? new TreeBin<>(hi) : t;
+                            setTabAt(nextTab, i, ln);
+                            setTabAt(nextTab, i + n, hn);
+                            setTabAt(tab, i, fwd);
+                            advance = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /* ---------------- 树化 -------------- */
+
+    /**
+     * 容量不足时扩容，否则把桶替换为 TreeBin
+     */
+    private void treeifyBin(Node<K, V>[] tab, int index) {
+        Node<K, V> b;
+        int n;
+        if (tab != null) {
+            if ((n = tab.length) < MIN_TREEIFY_CAPACITY)
+                tryPresize(n << 1);
+            else if ((b = tabAt(tab, index)) != null && b.hash >= 0) {
+                synchronized (b) {
+                    if (tabAt(tab, index) == b) {
+                        TreeNode<K, V> hd = null, tl = null;
+                        for (Node<K, V> e = b; e != null; e = e.next) {
+                            TreeNode<K, V> p = new TreeNode<>(e.hash, e.key, e.val, null, null);
+                            if ((p.prev = tl) == null)
+                                hd = p;
+                            else
+                                tl.next = p;
+                            tl = p;
+                        }
+                        setTabAt(tab, index, new TreeBin<>(hd));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 把树节点链表还原为普通链表
+     */
+    static <K, V> Node<K, V> untreeify(Node<K, V> b) {
+        Node<K, V> hd = null, tl = null;
+        for (Node<K, V> q = b; q != null; q = q.next) {
+            Node<K, V> p = new Node<>(q.hash, q.key, q.val);
+            if (tl == null)
+                hd = p;
+            else
+                tl.next = p;
+            tl = p;
+        }
+        return hd;
+    }
+
+    /**
+     * 树桶中的节点，排序规则与 SafeHashMap.TreeNode 一致
+     */
+    static final class TreeNode<K, V> extends Node<K, V> {
+        TreeNode<K, V> parent;
+        TreeNode<K, V> left;
+        TreeNode<K, V> right;
+        TreeNode<K, V> prev; // 删除时用于摘除 next 链
+        boolean red;
+
+        TreeNode(int hash, K key, V val, Node<K, V> next, TreeNode<K, V> parent) {
+            super(hash, key, val, next);
+            this.parent = parent;
+        }
+
+        Node<K, V> find(int h, Object k) {
+            return findTreeNode(h, k, null);
+        }
+
+        /**
+         * 从当前节点开始查找，hash 和 Comparable 都无法区分时两侧都查
+         */
+        final TreeNode<K, V> findTreeNode(int h, Object k, Class<?> kc) {
+            if (k != null) {
+                TreeNode<K, V> p = this;
+                do {
+                    int ph, dir;
+                    K pk;
+                    TreeNode<K, V> q;
+                    TreeNode<K, V> pl = p.left, pr = p.right;
+                    if ((ph = p.hash) > h)
+                        p = pl;
+                    else if (ph < h)
+                        p = pr;
+                    else if ((pk = p.key) == k || (pk != null && k.equals(pk)))
+                        return p;
+                    else if (pl == null)
+                        p = pr;
+                    else if (pr == null)
+                        p = pl;
+                    else if ((kc != null ||
+                            (kc = comparableClassFor(k)) != null) &&
+                            (dir = compareComparables(kc, k, pk)) != 0)
+                        p = (dir < 0) ? pl : pr;
+                    else if ((q = pr.findTreeNode(h, k, kc)) != null)
+                        return q;
+                    else
+                        p = pl;
+                } while (p != null);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 树桶的首节点，持有红黑树的根。
+     * 写线程已经持有桶锁，这里的读写锁只用于协调"重新平衡"与无锁读：
+     * 有写线程等待或正在平衡时，读线程改为沿 next 链线性查找，不会被阻塞
+     */
+    static final class TreeBin<K, V> extends Node<K, V> {
+        TreeNode<K, V> root;
+        volatile TreeNode<K, V> first;
+        volatile Thread waiter;
+        volatile int lockState;
+        // lockState 的取值
+        static final int WRITER = 1; // 持有写锁
+        static final int WAITER = 2; // 等待写锁
+        static final int READER = 4; // 每个读线程加 4
+
+        private static final VarHandle LOCKSTATE;
+        private static final VarHandle WAITERTHREAD;
+
+        static {
+            try {
+                MethodHandles.Lookup l = MethodHandles.lookup();
+                LOCKSTATE = l.findVarHandle(TreeBin.class, "lockState", int.class);
+                WAITERTHREAD = l.findVarHandle(TreeBin.class, "waiter", Thread.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        /**
+         * 以 b 开头的树节点链表构建红黑树
+         */
+        TreeBin(TreeNode<K, V> b) {
+            super(TREEBIN, null, null);
+            this.first = b;
+            TreeNode<K, V> r = null;
+            for (TreeNode<K, V> x = b, next; x != null; x = next) {
+                next = (TreeNode<K, V>) x.next;
+                x.left = x.right = null;
+                if (r == null) {
+                    x.parent = null;
+                    x.red = false;
+                    r = x;
+                } else {
+                    K k = x.key;
+                    int h = x.hash;
+                    Class<?> kc = null;
+                    for (TreeNode<K, V> p = r; ; ) {
+                        int dir, ph;
+                        K pk = p.key;
+                        if ((ph = p.hash) > h)
+                            dir = -1;
+                        else if (ph < h)
+                            dir = 1;
+                        else if ((kc == null &&
+                                (kc = comparableClassFor(k)) == null) ||
+                                (dir = compareComparables(kc, k, pk)) == 0)
+                            dir = SafeHashMap.TreeNode.tieBreakOrder(k, pk);
+                        TreeNode<K, V> xp = p;
+                        if ((p = (dir <= 0) ? p.left : p.right) == null) {
+                            x.parent = xp;
+                            if (dir <= 0)
+                                xp.left = x;
+                            else
+                                xp.right = x;
+                            r = balanceInsertion(r, x);
+                            break;
+                        }
+                    }
+                }
+            }
+            this.root = r;
+        }
+
+        /**
+         * 获取写锁（重新平衡前调用）
+         */
+        private void lockRoot() {
+            if (!LOCKSTATE.compareAndSet(this, 0, WRITER))
+                contendedLock();
+        }
+
+        private void unlockRoot() {
+            lockState = 0;
+        }
+
+        /**
+         * 有读线程时阻塞等待，最后一个读线程退出时唤醒
+         */
+        private void contendedLock() {
+            Thread current = Thread.currentThread(), w;
+            for (int s; ; ) {
+                if (((s = lockState) & ~WAITER) == 0) {
+                    if (LOCKSTATE.compareAndSet(this, s, WRITER)) {
+                        if (waiter == current)
+                            WAITERTHREAD.compareAndSet(this, current, null);
+                        return;
+                    }
+                } else if ((s & WAITER) == 0)
+                    LOCKSTATE.compareAndSet(this, s, s | WAITER);
+                else if ((w = waiter) == null)
+                    WAITERTHREAD.compareAndSet(this, null, current);
+                else if (w == current)
+                    LockSupport.park(this);
+            }
+        }
+
+        /**
+         * 无锁查找：能加读锁就走红黑树，否则沿链表线性查找
+         */
+        final Node<K, V> find(int h, Object k) {
+            if (k != null) {
+                for (Node<K, V> e = first; e != null; ) {
+                    int s;
+                    K ek;
+                    if (((s = lockState) & (WAITER | WRITER)) != 0) {
+                        if (e.hash == h &&
+                                ((ek = e.key) == k || (ek != null && k.equals(ek))))
+                            return e;
+                        e = e.next;
+                    } else if (LOCKSTATE.compareAndSet(this, s, s + READER)) {
+                        TreeNode<K, V> r, p;
+                        try {
+                            p = ((r = root) == null ? null :
+                                    r.findTreeNode(h, k, null));
+                        } finally {
+                            Thread w;
+                            if ((int) LOCKSTATE.getAndAdd(this, -READER) ==
+                                    (READER | WAITER) && (w = waiter) != null)
+                                LockSupport.unpark(w);
+                        }
+                        return p;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 树版本的 putVal（调用方持有桶锁），找到已有节点时返回该节点
+         */
+        final TreeNode<K, V> putTreeVal(int h, K k, V v) {
+            Class<?> kc = null;
+            boolean searched = false;
+            for (TreeNode<K, V> p = root; ; ) {
+                int dir, ph;
+                K pk;
+                if (p == null) {
+                    first = root = new TreeNode<>(h, k, v, null, null);
+                    break;
+                } else if ((ph = p.hash) > h)
+                    dir = -1;
+                else if (ph < h)
+                    dir = 1;
+                else if ((pk = p.key) == k || (pk != null && k.equals(pk)))
+                    return p;
+                else if ((kc == null &&
+                        (kc = comparableClassFor(k)) == null) ||
+                        (dir = compareComparables(kc, k, pk)) == 0) {
+                    if (!searched) {
+                        TreeNode<K, V> q, ch;
+                        searched = true;
+                        if (((ch = p.left) != null &&
+                                (q = ch.findTreeNode(h, k, kc)) != null) ||
+                                ((ch = p.right) != null &&
+                                        (q = ch.findTreeNode(h, k, kc)) != null))
+                            return q;
+                    }
+                    dir = SafeHashMap.TreeNode.tieBreakOrder(k, pk);
+                }
+
+                TreeNode<K, V> xp = p;
+                if ((p = (dir <= 0) ? p.left : p.right) == null) {
+                    // 新节点插到 next 链表头部，读线程随时能看到
+                    TreeNode<K, V> x, f = first;
+                    first = x = new TreeNode<>(h, k, v, f, xp);
+                    if (f != null)
+                        f.prev = x;
+                    if (dir <= 0)
+                        xp.left = x;
+                    else
+                        xp.right = x;
+                    if (!xp.red)
+                        x.red = true;
+                    else {
+                        // 只有需要旋转时才与读线程互斥
+                        lockRoot();
+                        try {
+                            root = balanceInsertion(root, x);
+                        } finally {
+                            unlockRoot();
+                        }
+                    }
+                    break;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 删除节点（调用方持有桶锁），返回 true 表示树过小需要还原为链表
+         */
+        final boolean removeTreeNode(TreeNode<K, V> p) {
+            TreeNode<K, V> next = (TreeNode<K, V>) p.next;
+            TreeNode<K, V> pred = p.prev;
+            TreeNode<K, V> r, rl;
+            if (pred == null)
+                first = next;
+            else
+                pred.next = next;
+            if (next != null)
+                next.prev = pred;
+            if (first == null) {
+                root = null;
+                return true;
+            }
+            if ((r = root) == null || r.right == null || // 太小
+                    (rl = r.left) == null || rl.left == null)
+                return true;
+            lockRoot();
+            try {
+                TreeNode<K, V> replacement;
+                TreeNode<K, V> pl = p.left;
+                TreeNode<K, V> pr = p.right;
+                if (pl != null && pr != null) {
+                    // 与后继节点交换位置
+                    TreeNode<K, V> s = pr, sl;
+                    while ((sl = s.left) != null)
+                        s = sl;
+                    boolean c = s.red; s.red = p.red; p.red = c;
+                    TreeNode<K, V> sr = s.right;
+                    TreeNode<K, V> pp = p.parent;
+                    if (s == pr) {
+                        p.parent = s;
+                        s.right = p;
+                    } else {
+                        TreeNode<K, V> sp = s.parent;
+                        if ((p.parent = sp) != null) {
+                            if (s == sp.left)
+                                sp.left = p;
+                            else
+                                sp.right = p;
+                        }
+                        if ((s.right = pr) != null)
+                            pr.parent = s;
+                    }
+                    p.left = null;
+                    if ((p.right = sr) != null)
+                        sr.parent = p;
+                    if ((s.left = pl) != null)
+                        pl.parent = s;
+                    if ((s.parent = pp) == null)
+                        r = s;
+                    else if (p == pp.left)
+                        pp.left = s;
+                    else
+                        pp.right = s;
+                    if (sr != null)
+                        replacement = sr;
+                    else
+                        replacement = p;
+                } else if (pl != null)
+                    replacement = pl;
+                else if (pr != null)
+                    replacement = pr;
+                else
+                    replacement = p;
+                if (replacement != p) {
+                    TreeNode<K, V> pp = replacement.parent = p.parent;
+                    if (pp == null)
+                        r = replacement;
+                    else if (p == pp.left)
+                        pp.left = replacement;
+                    else
+                        pp.right = replacement;
+                    p.left = p.right = p.parent = null;
+                }
+
+                root = (p.red) ? r : balanceDeletion(r, replacement);
+
+                if (p == replacement) { // 摘除叶子节点
+                    TreeNode<K, V> pp;
+                    if ((pp = p.parent) != null) {
+                        if (p == pp.left)
+                            pp.left = null;
+                        else if (p == pp.right)
+                            pp.right = null;
+                        p.parent = null;
+                    }
+                }
+            } finally {
+                unlockRoot();
+            }
+            return false;
+        }
+
+        /* ------------------------------------------------------------ */
+        // 红黑树平衡操作，与 SafeHashMap.TreeNode 相同
+
+        static <K, V> TreeNode<K, V> rotateLeft(TreeNode<K, V> root, TreeNode<K, V> p) {
+            TreeNode<K, V> r, pp, rl;
+            if (p != null && (r = p.right) != null) {
+                if ((rl = p.right = r.left) != null)
+                    rl.parent = p;
+                if ((pp = r.parent = p.parent) == null)
+                    (root = r).red = false;
+                else if (pp.left == p)
+                    pp.left = r;
+                else
+                    pp.right = r;
+                r.left = p;
+                p.parent = r;
+            }
+            return root;
+        }
+
+        static <K, V> TreeNode<K, V> rotateRight(TreeNode<K, V> root, TreeNode<K, V> p) {
+            TreeNode<K, V> l, pp, lr;
+            if (p != null && (l = p.left) != null) {
+                if ((lr = p.left = l.right) != null)
+                    lr.parent = p;
+                if ((pp = l.parent = p.parent) == null)
+                    (root = l).red = false;
+                else if (pp.right == p)
+                    pp.right = l;
+                else
+                    pp.left = l;
+                l.right = p;
+                p.parent = l;
+            }
+            return root;
+        }
+
+        static <K, V> TreeNode<K, V> balanceInsertion(TreeNode<K, V> root, TreeNode<K, V> x) {
+            x.red = true;
+            for (TreeNode<K, V> xp, xpp, xppl, xppr; ; ) {
+                if ((xp = x.parent) == null) {
+                    x.red = false;
+                    return x;
+                } else if (!xp.red || (xpp = xp.parent) == null)
+                    return root;
+                if (xp == (xppl = xpp.left)) {
+                    if ((xppr = xpp.right) != null && xppr.red) {
+                        xppr.red = false;
+                        xp.red = false;
+                        xpp.red = true;
+                        x = xpp;
+                    } else {
+                        if (x == xp.right) {
+                            root = rotateLeft(root, x = xp);
+                            xpp = (xp = x.parent) == null ? null : xp.parent;
+                        }
+                        if (xp != null) {
+                            xp.red = false;
+                            if (xpp != null) {
+                                xpp.red = true;
+                                root = rotateRight(root, xpp);
+                            }
+                        }
+                    }
+                } else {
+                    if (xppl != null && xppl.red) {
+                        xppl.red = false;
+                        xp.red = false;
+                        xpp.red = true;
+                        x = xpp;
+                    } else {
+                        if (x == xp.left) {
+                            root = rotateRight(root, x = xp);
+                            xpp = (xp = x.parent) == null ? null : xp.parent;
+                        }
+                        if (xp != null) {
+                            xp.red = false;
+                            if (xpp != null) {
+                                xpp.red = true;
+                                root = rotateLeft(root, xpp);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        static <K, V> TreeNode<K, V> balanceDeletion(TreeNode<K, V> root, TreeNode<K, V> x) {
+            for (TreeNode<K, V> xp, xpl, xpr; ; ) {
+                if (x == null || x == root)
+                    return root;
+                else if ((xp = x.parent) == null) {
+                    x.red = false;
+                    return x;
+                } else if (x.red) {
+                    x.red = false;
+                    return root;
+                } else if ((xpl = xp.left) == x) {
+                    if ((xpr = xp.right) != null && xpr.red) {
+                        xpr.red = false;
+                        xp.red = true;
+                        root = rotateLeft(root, xp);
+                        xpr = (xp = x.parent) == null ? null : xp.right;
+                    }
+                    if (xpr == null)
+                        x = xp;
+                    else {
+                        TreeNode<K, V> sl = xpr.left, sr = xpr.right;
+                        if ((sr == null || !sr.red) &&
+                                (sl == null || !sl.red)) {
+                            xpr.red = true;
+                            x = xp;
+                        } else {
+                            if (sr == null || !sr.red) {
+                                if (sl != null)
+                                    sl.red = false;
+                                xpr.red = true;
+                                root = rotateRight(root, xpr);
+                                xpr = (xp = x.parent) == null ?
+                                        null : xp.right;
+                            }
+                            if (xpr != null) {
+                                xpr.red = (xp == null) ? false : xp.red;
+                                if ((sr = xpr.right) != null)
+                                    sr.red = false;
+                            }
+                            if (xp != null) {
+                                xp.red = false;
+                                root = rotateLeft(root, xp);
+                            }
+                            x = root;
+                        }
+                    }
+                } else { // 对称情况
+                    if (xpl != null && xpl.red) {
+                        xpl.red = false;
+                        xp.red = true;
+                        root = rotateRight(root, xp);
+                        xpl = (xp = x.parent) == null ? null : xp.left;
+                    }
+                    if (xpl == null)
+                        x = xp;
+                    else {
+                        TreeNode<K, V> sl = xpl.left, sr = xpl.right;
+                        if ((sl == null || !sl.red) &&
+                                (sr == null || !sr.red)) {
+                            xpl.red = true;
+                            x = xp;
+                        } else {
+                            if (sl == null || !sl.red) {
+                                if (sr != null)
+                                    sr.red = false;
+                                xpl.red = true;
+                                root = rotateLeft(root, xpl);
+                                xpl = (xp = x.parent) == null ?
+                                        null : xp.left;
+                            }
+                            if (xpl != null) {
+                                xpl.red = (xp == null) ? false : xp.red;
+                                if ((sl = xpl.left) != null)
+                                    sl.red = false;
+                            }
+                            if (xp != null) {
+                                xp.red = false;
+                                root = rotateRight(root, xp);
+                            }
+                            x = root;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.nieran;
+
+/**
+ * W-TinyLFU 使用的 count-min 频率草图
+ * 1.每个 long 存放 16 个 4 位计数器，一个键在 4 个 long 中各占一个计数器，频率取四者最小值，上限 15
+ * 2.累计增加次数达到样本数（10 倍容量）时全部计数减半，让频率反映近期热度而不是历史总量
+ * 3.计数器位置由每个实例的随机种子决定，攻击者无法离线构造专门挤占同一组计数器的键
+ */
+final class FrequencySketch {
+    // 每个 4 位计数器去掉最高位，用于减半
+    static final long RESET_MASK = 0x7777777777777777L;
+    // 每个 4 位计数器的最低位，用于统计减半时丢掉的奇数
+    static final long ONE_MASK = 0x1111111111111111L;
+    // 4 个哈希函数各自的乘数
+    static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    final long[] table;
+    final int tableMask;
+    // 达到这个增加次数后减半
+    final int sampleSize;
+    // 实例随机种子
+    final int seed;
+    int additions;
+
+    FrequencySketch(long maximumSize) {
+        int n = (int) Math.max(1L, Math.min(maximumSize, 1 << 26));
+        table = new long[SafeHashMap.tableSizeFor(n)];
+        tableMask = table.length - 1;
+        sampleSize = 10 * n;
+        seed = PrimitiveHashing.newSeed();
+    }
+
+    /**
+     * 估计频率（0 ~ 15）
+     */
+    int frequency(int hash) {
+        int h = PrimitiveHashing.mix(hash, seed);
+        // 在每个 long 的 16 个计数器中选定一组 4 个，第 i 个哈希函数用其中第 i 个
+        int start = (h & 3) << 2;
+        int frequency = 15;
+        for (int i = 0; i < 4; i++) {
+            int shift = (start + i) << 2;
+            int count = (int) ((table[indexOf(h, i)] >>> shift) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * 频率加一，四个计数器都已饱和时不计入样本
+     */
+    void increment(int hash) {
+        int h = PrimitiveHashing.mix(hash, seed);
+        int start = (h & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(h, i), start + i);
+        }
+        if (added && ++additions == sampleSize)
+            reset();
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int shift = counter << 2;
+        long mask = 0xfL << shift;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << shift;
+            return true;
+        }
+        return false;
+    }
+
+    private int indexOf(int h, int i) {
+        long hash = (h + SEEDS[i]) * SEEDS[i];
+        hash += hash >>> 32;
+        return (int) hash & tableMask;
+    }
+
+    /**
+     * 所有计数减半（老化）
+     */
+    void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions = (additions - (odd >>> 2)) >>> 1;
+    }
+}
@@ -0,0 +1,380 @@
+package com.nieran;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * 只读的安全 HashMap，用最小完美哈希（CHD：hash, displace and compress）在构建时消除所有冲突，
+ * 适合启动时构建一次、之后只读的路由表、配置、字典
+ * 1.指纹：String 用实例随机密钥的 64 位 SipHash-1-3，其他键把 hashCode 与种子混合成 64 位
+ * 2.构建：指纹高位决定所在的组（平均 3 个键），从大组到小组依次为每组找一个位移值，
+ *   使组内所有键落到互不相同的空槽；只有一个键的组最后直接分配剩余的空槽。槽数等于键数，没有空槽
+ * 3.查找：一次指纹计算、读一次位移值、一次探测和一次 equals，与键的分布无关，攻击者构造的键无法拖慢查找
+ * 4.hashCode 完全相同的非字符串键无论如何混合指纹都相同，不可能分开：这些键放入一个 SafeHashMap，
+ *   只有主表未命中时才查（树桶保证对数时间），没有这类键时不创建
+ * 5.某一组找不到位移值时换种子重新构建
+ * 不支持任何修改操作，构建后可以安全地被多个线程同时读取
+ */
+public class FrozenSafeHashMap<K, V> extends AbstractMap<K, V> {
+    // 每组平均键数，越大位移表越小、构建越慢
+    static final int KEYS_PER_BUCKET = 3;
+    // 单个组尝试的位移值上限，超过后换种子重建
+    static final int MAX_DISPLACEMENT = 1 << 20;
+    // 换种子重建的次数上限
+    static final int MAX_ATTEMPTS = 32;
+    // 黄金分割常数，用于把位移值展开成 64 位
+    static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    // 指纹密钥
+    long seed0, seed1;
+    // 每组的位移值；小于 0 表示组内唯一的键直接放在槽 -(d + 1)
+    int[] displacements;
+    // 按完美哈希排列的键值，槽 i 的键在 2i、值在 2i + 1，同一条目的键值在同一缓存行
+    Object[] table;
+    // 主表的槽数（即主表中的键数）
+    int slots;
+    // 指纹相同、无法放入主表的键，没有时为 null
+    SafeHashMap<K, V> overflow;
+    int size;
+    // entrySet 视图
+    Set<Map.Entry<K, V>> entrySet;
+
+    /**
+     * 复制 m 的所有映射并构建完美哈希
+     */
+    public FrozenSafeHashMap(Map<? extends K, ? extends V> m) {
+        int n = m.size();
+        Object[] allKeys = new Object[n];
+        Object[] allValues = new Object[n];
+        int count = 0;
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+            allKeys[count] = e.getKey();
+            allValues[count] = e.getValue();
+            count++;
+        }
+        if (count != n)
+            throw new java.util.ConcurrentModificationException();
+
+        for (int attempt = 0; ; attempt++) {
+            long s0 = SafeHashMap.newSeed0(), s1 = SafeHashMap.newSeed1();
+            long[] fingerprints = new long[n];
+            for (int i = 0; i < n; i++)
+                fingerprints[i] = fingerprint(allKeys[i], s0, s1);
+
+            // 找出指纹重复的键：非字符串键放入溢出表；字符串键的 64 位 SipHash 重复只能换种子
+            boolean[] duplicated = markDuplicates(fingerprints);
+            SafeHashMap<K, V> over = null;
+            boolean retry = false;
+            int mainCount = 0;
+            for (int i = 0; i < n; i++) {
+                if (!duplicated[i]) {
+                    mainCount++;
+                } else if (allKeys[i] instanceof String) {
+                    retry = true;
+                    break;
+                } else {
+                    if (over == null)
+                        over = new SafeHashMap<>();
+                    putOverflow(over, allKeys[i], allValues[i]);
+                }
+            }
+            int[] disp = retry ? null : build(fingerprints, duplicated, mainCount);
+            if (disp != null) {
+                seed0 = s0;
+                seed1 = s1;
+                displacements = disp;
+                slots = mainCount;
+                table = new Object[mainCount << 1];
+                for (int i = 0; i < n; i++) {
+                    if (!duplicated[i]) {
+                        int pos = slot(disp, fingerprints[i], mainCount);
+                        table[pos << 1] = allKeys[i];
+                        table[(pos << 1) + 1] = allValues[i];
+                    }
+                }
+                overflow = over;
+                size = n;
+                return;
+            }
+            if (attempt + 1 >= MAX_ATTEMPTS)
+                throw new IllegalStateException("Cannot build perfect hash for " + n + " keys");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> void putOverflow(SafeHashMap<K, V> over, Object key, Object value) {
+        over.put((K) key, (V) value);
+    }
+
+    /**
+     * 64 位指纹：String 用 SipHash，其他键（包括其他 CharSequence 和按引用比较的 byte[]）混合 hashCode 与种子
+     */
+    static long fingerprint(Object key, long seed0, long seed1) {
+        // 只判断 String 这一个精确类型：对 Integer 等键做接口 instanceof 失败时要扫描所有父接口，比整次查找还慢
+        if (key instanceof String)
+            return SipHash.hash13(seed0, seed1, (String) key);
+        return mix((key == null ? 0 : key.hashCode()) ^ seed0) + seed1;
+    }
+
+    /**
+     * 64 位混合（MurmurHash3 fmix64），双射
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 把 32 位无符号数映射到 [0, n)，用乘法代替取模
+     */
+    static int reduce(long hash32, int n) {
+        return (int) (((hash32 & 0xFFFFFFFFL) * n) >>> 32);
+    }
+
+    static int bucketOf(long fingerprint, int buckets) {
+        return reduce(fingerprint >>> 32, buckets);
+    }
+
+    static int position(long fingerprint, int d, int m) {
+        return reduce(mix(fingerprint + d * GOLDEN), m);
+    }
+
+    static int slot(int[] displacements, long fingerprint, int m) {
+        int d = displacements[bucketOf(fingerprint, displacements.length)];
+        return d < 0 ? -d - 1 : position(fingerprint, d, m);
+    }
+
+    /**
+     * 标记指纹出现不止一次的键
+     */
+    static boolean[] markDuplicates(long[] fingerprints) {
+        int n = fingerprints.length;
+        boolean[] duplicated = new boolean[n];
+        long[] sorted = fingerprints.clone();
+        Arrays.sort(sorted);
+        boolean any = false;
+        for (int i = 1; i < n && !any; i++)
+            any = sorted[i] == sorted[i - 1];
+        if (!any)
+            return duplicated;
+        java.util.HashSet<Long> repeated = new java.util.HashSet<>();
+        for (int i = 1; i < n; i++) {
+            if (sorted[i] == sorted[i - 1])
+                repeated.add(sorted[i]);
+        }
+        for (int i = 0; i < n; i++)
+            duplicated[i] = repeated.contains(fingerprints[i]);
+        return duplicated;
+    }
+
+    /**
+     * CHD 构建，返回位移表；某一组找不到位移值时返回 null
+     */
+    static int[] build(long[] fingerprints, boolean[] skip, int m) {
+        int n = fingerprints.length;
+        int bucketCount = Math.max(1, (m + KEYS_PER_BUCKET - 1) / KEYS_PER_BUCKET);
+        int[] displacements = new int[bucketCount];
+        if (m == 0)
+            return displacements;
+
+        // 按组计数排序：members[starts[b], starts[b + 1]) 是第 b 组的键
+        int[] starts = new int[bucketCount + 1];
+        for (int i = 0; i < n; i++) {
+            if (!skip[i])
+                starts[bucketOf(fingerprints[i], bucketCount) + 1]++;
+        }
+        int maxBucketSize = 0;
+        for (int b = 0; b < bucketCount; b++) {
+            maxBucketSize = Math.max(maxBucketSize, starts[b + 1]);
+            starts[b + 1] += starts[b];
+        }
+        int[] members = new int[m];
+        int[] fill = Arrays.copyOf(starts, bucketCount);
+        for (int i = 0; i < n; i++) {
+            if (!skip[i])
+                members[fill[bucketOf(fingerprints[i], bucketCount)]++] = i;
+        }
+        // 再按组大小计数排序，大组先放
+        int[] sizeStarts = new int[maxBucketSize + 2];
+        for (int b = 0; b < bucketCount; b++)
+            sizeStarts[maxBucketSize - (starts[b + 1] - starts[b]) + 1]++;
+        for (int s = 0; s <= maxBucketSize; s++)
+            sizeStarts[s + 1] += sizeStarts[s];
+        int[] order = new int[bucketCount];
+        for (int b = 0; b < bucketCount; b++)
+            order[sizeStarts[maxBucketSize - (starts[b + 1] - starts[b])]++] = b;
+
+        long[] occupied = new long[(m + 63) >>> 6];
+        int[] positions = new int[maxBucketSize];
+        int freeCursor = 0;
+        for (int b : order) {
+            int from = starts[b], bucketSize = starts[b + 1] - from;
+            if (bucketSize == 0)
+                break;
+            if (bucketSize == 1) {
+                // 单键组直接分配下一个空槽
+                while ((occupied[freeCursor >>> 6] & (1L << freeCursor)) != 0)
+                    freeCursor++;
+                occupied[freeCursor >>> 6] |= 1L << freeCursor;
+                displacements[b] = -(freeCursor + 1);
+                continue;
+            }
+            int d = 0;
+            search:
+            for (; ; d++) {
+                if (d >= MAX_DISPLACEMENT)
+                    return null;
+                for (int j = 0; j < bucketSize; j++) {
+                    int pos = position(fingerprints[members[from + j]], d, m);
+                    if ((occupied[pos >>> 6] & (1L << pos)) != 0)
+                        continue search;
+                    for (int k = 0; k < j; k++) {
+                        if (positions[k] == pos)
+                            continue search;
+                    }
+                    positions[j] = pos;
+                }
+                break;
+            }
+            for (int j = 0; j < bucketSize; j++)
+                occupied[positions[j] >>> 6] |= 1L << positions[j];
+            displacements[b] = d;
+        }
+        return displacements;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 主表中键所在的槽；主表为空时返回 -1
+     */
+    final int slotOf(Object key) {
+        int m = slots;
+        return m == 0 ? -1 : slot(displacements, fingerprint(key, seed0, seed1), m);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int pos = slotOf(key);
+        if (pos >= 0) {
+            Object k = table[pos << 1];
+            if (k == key || (key != null && key.equals(k)))
+                return (V) table[(pos << 1) + 1];
+        }
+        return overflow == null ? null : overflow.get(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue) {
+        int pos = slotOf(key);
+        if (pos >= 0) {
+            Object k = table[pos << 1];
+            if (k == key || (key != null && key.equals(k)))
+                return (V) table[(pos << 1) + 1];
+        }
+        return overflow == null ? defaultValue : overflow.getOrDefault(key, defaultValue);
+    }
+
+    public boolean containsKey(Object key) {
+        int pos = slotOf(key);
+        if (pos >= 0) {
+            Object k = table[pos << 1];
+            if (k == key || (key != null && key.equals(k)))
+                return true;
+        }
+        return overflow != null && overflow.containsKey(key);
+    }
+
+    public boolean containsValue(Object value) {
+        Object[] tab = table;
+        for (int i = 1; i < tab.length; i += 2) {
+            Object v = tab[i];
+            if (v == value || (value != null && value.equals(v)))
+                return true;
+        }
+        return overflow != null && overflow.containsValue(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        Object[] tab = table;
+        for (int i = 0; i < tab.length; i += 2)
+            action.accept((K) tab[i], (V) tab[i + 1]);
+        if (overflow != null)
+            overflow.forEach(action);
+    }
+
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        public int size() {
+            return size;
+        }
+
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object key = e.getKey();
+            if (!containsKey(key))
+                return false;
+            Object v = get(key), value = e.getValue();
+            return v == value || (value != null && value.equals(v));
+        }
+
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+    }
+
+    /**
+     * 先按槽顺序遍历主表，再遍历溢出表；不支持 remove
+     */
+    final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        int index;
+        Iterator<Map.Entry<K, V>> overflowIterator;
+
+        public boolean hasNext() {
+            if (index < slots)
+                return true;
+            if (overflow == null)
+                return false;
+            if (overflowIterator == null)
+                overflowIterator = overflow.entrySet().iterator();
+            return overflowIterator.hasNext();
+        }
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (index < slots) {
+                int i = (index++) << 1;
+                return new AbstractMap.SimpleImmutableEntry<>((K) table[i], (V) table[i + 1]);
+            }
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Map.Entry<K, V> e = overflowIterator.next();
+            return new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue());
+        }
+    }
+}
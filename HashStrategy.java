@@ -0,0 +1,52 @@
+package com.nieran;
+
+/**
+ * SafeHashMap 把 key.hashCode() 扩散成桶 hash 的方式（未开启带密钥哈希时使用）
+ * 表长是 2 的幂，桶下标只取 hash 的低位：好的策略要让高位的差异也传到低位，代价是每次查找多几条指令。
+ * 各策略在不同键集合上的分布质量和耗时见 HashStrategyAnalyzer
+ * 注意：检测到攻击后 SafeHashMap 换用带种子的哈希，不再使用这里的策略
+ */
+@FunctionalInterface
+public interface HashStrategy {
+
+    int spread(int h);
+
+    // 默认：SafeHashMap.perturb 双重扰动
+    HashStrategy PERTURB = Builtin.PERTURB;
+    // HashMap 的 h ^ (h >>> 16)
+    HashStrategy JDK = Builtin.JDK;
+    // MurmurHash3 的 fmix32 终结函数，雪崩效果最好
+    HashStrategy MURMUR3 = Builtin.MURMUR3;
+    // 不扰动，只适合 hashCode 本身已经均匀的键（如随机 Integer、已经哈希过的 id）
+    HashStrategy IDENTITY = Builtin.IDENTITY;
+
+    /**
+     * 内置策略，快照按序号记录使用的策略，新增策略只能加在末尾
+     */
+    enum Builtin implements HashStrategy {
+        PERTURB {
+            public int spread(int h) {
+                return SafeHashMap.perturb(h);
+            }
+        },
+        JDK {
+            public int spread(int h) {
+                return h ^ (h >>> 16);
+            }
+        },
+        MURMUR3 {
+            public int spread(int h) {
+                h ^= h >>> 16;
+                h *= 0x85EBCA6B;
+                h ^= h >>> 13;
+                h *= 0xC2B2AE35;
+                return h ^ (h >>> 16);
+            }
+        },
+        IDENTITY {
+            public int spread(int h) {
+                return h;
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.nieran;
+
+import java.util.SplittableRandom;
+
+/**
+ * 比较各 HashStrategy 在常见键集合上的分布质量和耗时，帮助按负载选择最便宜但仍然分布均匀的策略
+ * 用法：java -cp target/classes com.nieran.HashStrategyAnalyzer [键数] [--matrix]
+ * 每个键集合、每个策略输出：
+ * 1.卡方比：按负载因子 0.75 计算表长，桶占用的卡方值除以自由度，均匀分布时约为 1，越大说明扎堆越严重；同时给出最长桶
+ * 2.雪崩偏差：翻转 hashCode 的一位，统计决定桶下标的低位（表长对应的位数）翻转的概率与 0.5 的差，给出均值和最大值，0 最好。
+ *   PERTURB/JDK/IDENTITY 都是异或移位（线性）函数，翻转概率只有 0 和 1，偏差恒为 0.5，
+ *   所以再给出"盲位"：翻转后不改变任何桶位的输入位个数，这些位上的差异全部落在同一个桶
+ * 3.ns/hash：只算 spread，四个策略共用同一个调用点，结果包含一次无法内联的接口调用，只适合看相对差异；
+ *   ns/get：用该策略的 SafeHashMap 按随机顺序查找全部键（包含扎堆带来的额外比较）；
+ *   校验和是计时循环中 spread 结果之和，打印出来使 JIT 无法把循环当作死代码删除
+ * --matrix 额外打印随机输入下每个策略的 32x32 雪崩矩阵
+ */
+public class HashStrategyAnalyzer {
+    // 雪崩统计使用的样本数
+    static final int AVALANCHE_SAMPLES = 10_000;
+
+    public static void main(String[] args) {
+        int n = 1 << 20;
+        boolean matrix = false;
+        for (String arg : args) {
+            if (arg.equals("--matrix"))
+                matrix = true;
+            else
+                n = Integer.parseInt(arg);
+        }
+        SplittableRandom random = new SplittableRandom(42);
+        String[] names = {"顺序 Integer", "随机 Integer", "步长 2^16 Integer", "Double i/4", "时间戳 Long",
+                "顺序字符串", "随机十六进制字符串"};
+        Object[][] keySets = new Object[names.length][n];
+        for (int i = 0; i < n; i++) {
+            keySets[0][i] = i;
+            keySets[1][i] = random.nextInt();
+            keySets[2][i] = i << 16;
+            keySets[3][i] = i * 0.25;
+            keySets[4][i] = 1_700_000_000_000L + i * 1000L;
+            keySets[5][i] = "param_" + i;
+            keySets[6][i] = Long.toHexString(random.nextLong());
+        }
+        HashStrategy[] strategies = HashStrategy.Builtin.values();
+
+        // 第一遍预热 JIT，第二遍输出
+        for (boolean print : new boolean[]{false, true}) {
+            for (int s = 0; s < keySets.length; s++) {
+                if (print)
+                    System.out.printf("%n===== %s（%,d 个）=====%n%-9s %8s %6s %15s %15s %8s %8s %8s%n", names[s], n,
+                            "策略", "卡方比", "最长桶", "雪崩偏差 均值/最大", "盲位", "ns/hash", "ns/get", "校验和");
+                for (HashStrategy strategy : strategies) {
+                    report(strategy, keySets[s], random, print);
+                }
+            }
+        }
+        if (matrix) {
+            int[] samples = new int[AVALANCHE_SAMPLES];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = random.nextInt();
+            }
+            for (HashStrategy strategy : strategies) {
+                printMatrix(strategy, samples);
+            }
+        }
+    }
+
+    static void report(HashStrategy strategy, Object[] keys, SplittableRandom random, boolean print) {
+        int n = keys.length;
+        int[] hashCodes = new int[n];
+        for (int i = 0; i < n; i++) {
+            hashCodes[i] = keys[i].hashCode();
+        }
+        int capacity = SafeHashMap.tableSizeFor((int) Math.ceil(n / 0.75));
+        int[] counts = new int[capacity];
+        for (int h : hashCodes) {
+            counts[strategy.spread(h) & (capacity - 1)]++;
+        }
+        double expected = (double) n / capacity, chiSquare = 0;
+        int longest = 0;
+        for (int c : counts) {
+            chiSquare += (c - expected) * (c - expected) / expected;
+            longest = Math.max(longest, c);
+        }
+
+        int[] samples = new int[Math.min(n, AVALANCHE_SAMPLES)];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = hashCodes[random.nextInt(n)];
+        }
+        double[][] flips = avalanche(strategy, samples);
+        int indexBits = Integer.numberOfTrailingZeros(capacity);
+        double[] bias = bias(flips, indexBits);
+        int blind = 0;
+        for (int i = 0; i < 32; i++) {
+            double max = 0;
+            for (int j = 0; j < indexBits; j++) {
+                max = Math.max(max, flips[i][j]);
+            }
+            if (max == 0)
+                blind++;
+        }
+
+        double[] hashTiming = nsPerHash(strategy, hashCodes);
+        double nsPerGet = nsPerGet(strategy, keys, random);
+        if (print)
+            System.out.printf("%-9s %10.2f %8d %9.3f/%.3f %8d %9.2f %9.1f %08x%n", strategy,
+                    chiSquare / (capacity - 1), longest, bias[0], bias[1], blind, hashTiming[0], nsPerGet,
+                    (int) hashTiming[1]);
+    }
+
+    /**
+     * flips[i][j]：翻转输入第 i 位时输出第 j 位翻转的概率
+     */
+    static double[][] avalanche(HashStrategy strategy, int[] samples) {
+        long[][] counts = new long[32][32];
+        for (int h : samples) {
+            int base = strategy.spread(h);
+            for (int i = 0; i < 32; i++) {
+                int diff = base ^ strategy.spread(h ^ (1 << i));
+                for (int j = 0; j < 32; j++) {
+                    counts[i][j] += (diff >>> j) & 1;
+                }
+            }
+        }
+        double[][] flips = new double[32][32];
+        for (int i = 0; i < 32; i++) {
+            for (int j = 0; j < 32; j++) {
+                flips[i][j] = (double) counts[i][j] / samples.length;
+            }
+        }
+        return flips;
+    }
+
+    // 低 bits 个输出位的偏差均值和最大值
+    static double[] bias(double[][] flips, int bits) {
+        double sum = 0, max = 0;
+        for (int i = 0; i < 32; i++) {
+            for (int j = 0; j < bits; j++) {
+                double b = Math.abs(flips[i][j] - 0.5);
+                sum += b;
+                max = Math.max(max, b);
+            }
+        }
+        return new double[]{sum / (32 * bits), max};
+    }
+
+    // 返回 {ns/hash, 最后一轮 spread 结果之和}
+    static double[] nsPerHash(HashStrategy strategy, int[] hashCodes) {
+        long best = Long.MAX_VALUE;
+        int sink = 0;
+        for (int r = 0; r < 10; r++) {
+            long start = System.nanoTime();
+            int sum = 0;
+            for (int h : hashCodes) {
+                sum += strategy.spread(h);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            sink = sum;
+        }
+        return new double[]{(double) best / hashCodes.length, sink};
+    }
+
+    static double nsPerGet(HashStrategy strategy, Object[] keys, SplittableRandom random) {
+        SafeHashMap<Object, Object> map = new SafeHashMap<>();
+        map.setHashStrategy(strategy);
+        for (Object key : keys) {
+            map.put(key, Boolean.TRUE);
+        }
+        // 随机顺序查找，避免按插入顺序访问带来的内存局部性
+        Object[] order = keys.clone();
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Object tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        long best = Long.MAX_VALUE;
+        int hits = 0;
+        for (int r = 0; r < 3; r++) {
+            long start = System.nanoTime();
+            for (Object key : order) {
+                if (map.get(key) != null)
+                    hits++;
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (hits != 3 * keys.length)
+            throw new IllegalStateException("查找结果不完整: " + hits);
+        return (double) best / keys.length;
+    }
+
+    /**
+     * 每行是一个输入位，每列是一个输出位（从第 0 位开始），数字为翻转概率乘以 10 取整（5 最好，0 表示不受影响）
+     */
+    static void printMatrix(HashStrategy strategy, int[] samples) {
+        double[][] flips = avalanche(strategy, samples);
+        System.out.println("\n===== " + strategy + " 雪崩矩阵 =====");
+        for (int i = 0; i < 32; i++) {
+            StringBuilder sb = new StringBuilder(String.format("%2d ", i));
+            for (int j = 0; j < 32; j++) {
+                sb.append((char) ('0' + Math.min(9, (int) (flips[i][j] * 10))));
+            }
+            System.out.println(sb);
+        }
+    }
+}
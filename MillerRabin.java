@@ -0,0 +1,124 @@
+package com.example.test;
+
+/**
+ * long 范围内确定性的素数判定
+ * 1.先用 3..127 的小素数做整除预筛：按模逆元乘法判断整除（n * inv(p) <= (2^64-1)/p），不做除法，
+ *   连同偶数判断，随机数中约 88% 在这一步就被排除；n < 131^2 时预筛的结论就是最终结果
+ * 2.剩下的数做 Miller-Rabin，使用已知的确定性底数集合：n < 4,759,123,141 时 {2, 7, 61} 足够，
+ *   更大的数取 Jim Sinclair 的 7 个底数 {2, 325, 9375, 28178, 450775, 9780504, 1795265022}，对所有 n < 2^64 都没有伪素数
+ * 3.模乘使用 Montgomery 形式：每次乘法只有三次 64 位乘法（含一次 Math.multiplyHigh 取高位），没有除法
+ */
+public final class MillerRabin {
+    private static final long[] WITNESSES = {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+    private static final long[] SMALL_WITNESSES = {2, 7, 61};
+    // 小于它的数只需 SMALL_WITNESSES
+    private static final long SMALL_WITNESS_LIMIT = 4_759_123_141L;
+    // 预筛用的奇素数
+    private static final int[] SMALL_PRIMES = {3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47, 53, 59, 61,
+            67, 71, 73, 79, 83, 89, 97, 101, 103, 107, 109, 113, 127};
+    // 小于它的数只要不被上面的素数整除就是素数（下一个素数 131 的平方）
+    private static final long SMALL_LIMIT = 131L * 131;
+    // 每个小素数模 2^64 的逆元，以及 (2^64-1)/p：n * inverse <= limit（无符号比较）当且仅当 p 整除 n
+    private static final long[] INVERSES = new long[SMALL_PRIMES.length];
+    private static final long[] LIMITS = new long[SMALL_PRIMES.length];
+
+    static {
+        for (int i = 0; i < SMALL_PRIMES.length; i++) {
+            INVERSES[i] = inverse(SMALL_PRIMES[i]);
+            LIMITS[i] = Long.divideUnsigned(-1L, SMALL_PRIMES[i]);
+        }
+    }
+
+    private MillerRabin() {
+    }
+
+    /**
+     * n 是否为素数，负数、0 和 1 都不是
+     */
+    public static boolean isPrime(long n) {
+        if (n < 2)
+            return false;
+        if ((n & 1) == 0)
+            return n == 2;
+        for (int i = 0; i < SMALL_PRIMES.length; i++) {
+            if (Long.compareUnsigned(n * INVERSES[i], LIMITS[i]) <= 0)
+                return n == SMALL_PRIMES[i];
+        }
+        if (n < SMALL_LIMIT)
+            return true;
+        return millerRabin(n);
+    }
+
+    /**
+     * 奇数 n（n > 127）的 Miller-Rabin 判定
+     */
+    static boolean millerRabin(long n) {
+        long nInv = inverse(n);
+        // R = 2^64，Montgomery 形式的 1 是 R mod n，-1 是 n - R mod n
+        long one = Long.remainderUnsigned(-n, n);
+        long minusOne = n - one;
+        // R^2 mod n：把 R mod n 再左移 64 次，用于把普通数转换到 Montgomery 形式
+        long r2 = one;
+        for (int i = 0; i < 64; i++) {
+            // r2 < n < 2^63，左移后按无符号数不会溢出
+            r2 <<= 1;
+            if (Long.compareUnsigned(r2, n) >= 0)
+                r2 -= n;
+        }
+        long d = n - 1;
+        int s = Long.numberOfTrailingZeros(d);
+        d >>>= s;
+        witness:
+        for (long w : n < SMALL_WITNESS_LIMIT ? SMALL_WITNESSES : WITNESSES) {
+            long a = w % n;
+            if (a == 0)
+                continue;
+            long x = pow(mul(a, r2, n, nInv), d, one, n, nInv);
+            if (x == one || x == minusOne)
+                continue;
+            for (int r = 1; r < s; r++) {
+                x = mul(x, x, n, nInv);
+                if (x == minusOne)
+                    continue witness;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Montgomery 乘法：返回 a * b / R mod n，要求 0 <= a, b < n < 2^63
+     * a * b = hi * 2^64 + lo，m = lo * n^-1 使 m * n 的低 64 位等于 lo，于是 (a * b - m * n) / 2^64 = hi - mulhi(m, n)
+     */
+    static long mul(long a, long b, long n, long nInv) {
+        long hi = Math.multiplyHigh(a, b);
+        long m = a * b * nInv;
+        // m 按无符号数参与乘法，最高位为 1 时补上 n
+        long mn = Math.multiplyHigh(m, n) + ((m >> 63) & n);
+        long t = hi - mn;
+        return t < 0 ? t + n : t;
+    }
+
+    // Montgomery 形式的 base^e
+    private static long pow(long base, long e, long one, long n, long nInv) {
+        long result = one;
+        while (e != 0) {
+            if ((e & 1) != 0)
+                result = mul(result, base, n, nInv);
+            base = mul(base, base, n, nInv);
+            e >>>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * 奇数 n 模 2^64 的逆元：牛顿迭代，每次正确的低位数翻倍（x = n 时已有 3 位正确）
+     */
+    static long inverse(long n) {
+        long x = n;
+        for (int i = 0; i < 5; i++) {
+            x *= 2 - n * x;
+        }
+        return x;
+    }
+}
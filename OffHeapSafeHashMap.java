@@ -0,0 +1,468 @@
+package com.nieran;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * byte[] -> byte[] 的堆外哈希表，键值和桶索引都放在直接内存（direct ByteBuffer）中，
+ * 堆上只有少量分段缓冲区对象，条目再多堆大小也基本不变，GC 不需要扫描条目。
+ * 1.索引：线性探测的开放寻址表，每个槽 16 字节（4 字节哈希 + 4 字节填充 + 8 字节记录地址），
+ *   按 128MB 分段，单个 ByteBuffer 不受 2GB 上限限制
+ * 2.数据：键值记录追加写入按块分配的 arena，记录格式为 [键长 int][值长 int][键字节][值字节]，
+ *   地址高 32 位是块号、低 32 位是块内偏移
+ * 3.哈希：键字节用实例随机密钥的 SipHash-1-3 计算后再经过 SafeHashMap.perturb 扰动，
+ *   键按字节内容比较，所以与 SafeHashMap 对 String 的带密钥哈希做法相同；探测长度超过上限时换密钥重建索引，同一规模下再次超限则扩容
+ * 4.空间回收：删除和变长覆盖留下的旧记录计入垃圾字节，垃圾超过存活数据时整理 arena
+ * 按 (数组, 偏移, 长度) 访问的 get/put/remove 不创建对象；String 重载只是便捷方法，会编码/分配
+ * 不是线程安全的。Java 17 无法主动释放直接内存，close() 之后由 GC 回收缓冲区时释放
+ */
+public class OffHeapSafeHashMap implements AutoCloseable {
+    // 默认初始容量（槽数）
+    static final int DEFAULT_INITIAL_CAPACITY = 1 << 10;
+    // 最大容量（槽数）
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+    // 负载因子，线性探测在 0.5 以下探测长度最稳定
+    static final float LOAD_FACTOR = 0.5f;
+    // 探测长度上限的基数，实际上限为 MAX_PROBE_BASE + 3 * log2(容量)
+    static final int MAX_PROBE_BASE = 16;
+    // 每个索引槽的字节数
+    static final int SLOT_BYTES = 16;
+    // 每段索引的槽数（128MB）
+    static final int SEGMENT_SHIFT = 23;
+    static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+    // 哈希中标记"已占用"的位，0 表示空槽
+    static final int OCCUPIED = 0x80000000;
+    // arena 块大小从 64KB 开始翻倍，最大 64MB
+    static final int MIN_CHUNK_SIZE = 1 << 16;
+    static final int MAX_CHUNK_SIZE = 1 << 26;
+    // 记录头：键长 + 值长
+    static final int RECORD_HEADER = 8;
+    // 垃圾字节至少达到这个值才整理
+    static final long MIN_COMPACT_BYTES = 1 << 20;
+
+    // 索引分段
+    ByteBuffer[] index;
+    // 索引槽数（2 的幂）
+    int capacity;
+    // arena 数据块，chunkCount 之后的元素为 null
+    ByteBuffer[] chunks;
+    int chunkCount;
+    // 当前块的写入位置
+    int chunkPosition;
+    // 键值对数量
+    int size;
+    // 扩容阈值
+    int threshold;
+    // 存活记录和垃圾记录的字节数
+    long liveBytes;
+    long garbageBytes;
+    // 当前探测长度上限
+    int maxProbe;
+    // SipHash 密钥
+    long hashSeed0, hashSeed1;
+    // 上次换密钥时的元素数量，用于判断换密钥是否无效
+    int lastReseedSize = -1;
+    // 因探测过长而换密钥的次数
+    int reseedCount;
+    // 比较键和换密钥时复用的缓冲区
+    byte[] scratch = new byte[64];
+
+    /**
+     * 默认构造函数
+     */
+    public OffHeapSafeHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * 按预期条目数预先分配索引
+     */
+    public OffHeapSafeHashMap(int expectedEntries) {
+        if (expectedEntries < 0)
+            throw new IllegalArgumentException("Illegal expected entries: " + expectedEntries);
+        hashSeed0 = SafeHashMap.newSeed0();
+        hashSeed1 = SafeHashMap.newSeed1();
+        allocateIndex(PrimitiveHashing.capacityFor(expectedEntries, LOAD_FACTOR));
+        chunks = new ByteBuffer[4];
+    }
+
+    /**
+     * 键值对数量
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 是否为空
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 因探测过长而换密钥的次数，可用于监控碰撞攻击
+     */
+    public int getReseedCount() {
+        return reseedCount;
+    }
+
+    /**
+     * 占用的直接内存字节数（索引 + arena）
+     */
+    public long offHeapBytes() {
+        long bytes = (long) capacity * SLOT_BYTES;
+        for (int c = 0; c < chunkCount; c++)
+            bytes += chunks[c].capacity();
+        return bytes;
+    }
+
+    /**
+     * 获取元素：找到时把值复制到 dst[dstOffset...]（剩余空间不足时不复制）并返回值长度，不存在时返回 -1。
+     * 返回值大于 dst.length - dstOffset 时调用方应换更大的数组重试
+     */
+    public int get(byte[] key, int keyOffset, int keyLength, byte[] dst, int dstOffset) {
+        int i = find(key, keyOffset, keyLength, hash(key, keyOffset, keyLength));
+        if (i < 0)
+            return -1;
+        long address = slotAddress(i);
+        ByteBuffer chunk = chunks[(int) (address >>> 32)];
+        int pos = (int) address;
+        int valueLength = chunk.getInt(pos + 4);
+        if (valueLength <= dst.length - dstOffset)
+            chunk.get(pos + RECORD_HEADER + chunk.getInt(pos), dst, dstOffset, valueLength);
+        return valueLength;
+    }
+
+    /**
+     * 获取元素，不存在时返回 null（会分配结果数组）
+     */
+    public byte[] get(byte[] key) {
+        int i = find(key, 0, key.length, hash(key, 0, key.length));
+        if (i < 0)
+            return null;
+        long address = slotAddress(i);
+        ByteBuffer chunk = chunks[(int) (address >>> 32)];
+        int pos = (int) address;
+        byte[] value = new byte[chunk.getInt(pos + 4)];
+        chunk.get(pos + RECORD_HEADER + chunk.getInt(pos), value, 0, value.length);
+        return value;
+    }
+
+    public byte[] get(String key) {
+        return get(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 是否包含指定键
+     */
+    public boolean containsKey(byte[] key, int keyOffset, int keyLength) {
+        return find(key, keyOffset, keyLength, hash(key, keyOffset, keyLength)) >= 0;
+    }
+
+    public boolean containsKey(byte[] key) {
+        return containsKey(key, 0, key.length);
+    }
+
+    /**
+     * 放入元素，返回键是否已存在。
+     * 新值不比旧值长时原地覆盖，否则追加新记录，旧记录计入垃圾
+     */
+    public boolean put(byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength) {
+        int h = hash(key, keyOffset, keyLength);
+        int mask = capacity - 1;
+        int probe = 0;
+        for (int i = h & mask; ; i = (i + 1) & mask, probe++) {
+            int sh = slotHash(i);
+            if (sh == 0) {
+                long address = append(key, keyOffset, keyLength, value, valueOffset, valueLength);
+                setSlot(i, h | OCCUPIED, address);
+                afterInsert(probe);
+                return false;
+            }
+            if (sh == (h | OCCUPIED) && keyEquals(slotAddress(i), key, keyOffset, keyLength)) {
+                long address = slotAddress(i);
+                ByteBuffer chunk = chunks[(int) (address >>> 32)];
+                int pos = (int) address;
+                int oldLength = chunk.getInt(pos + 4);
+                if (valueLength <= oldLength) {
+                    chunk.putInt(pos + 4, valueLength);
+                    chunk.put(pos + RECORD_HEADER + keyLength, value, valueOffset, valueLength);
+                    liveBytes -= oldLength - valueLength;
+                    garbageBytes += oldLength - valueLength;
+                } else {
+                    long newAddress = append(key, keyOffset, keyLength, value, valueOffset, valueLength);
+                    setSlot(i, sh, newAddress);
+                    release(RECORD_HEADER + keyLength + oldLength);
+                }
+                return true;
+            }
+        }
+    }
+
+    public boolean put(byte[] key, byte[] value) {
+        return put(key, 0, key.length, value, 0, value.length);
+    }
+
+    public boolean put(String key, byte[] value) {
+        return put(key.getBytes(StandardCharsets.UTF_8), value);
+    }
+
+    /**
+     * 删除元素，返回键是否存在
+     */
+    public boolean remove(byte[] key, int keyOffset, int keyLength) {
+        int i = find(key, keyOffset, keyLength, hash(key, keyOffset, keyLength));
+        if (i < 0)
+            return false;
+        long address = slotAddress(i);
+        ByteBuffer chunk = chunks[(int) (address >>> 32)];
+        int pos = (int) address;
+        int recordLength = RECORD_HEADER + chunk.getInt(pos) + chunk.getInt(pos + 4);
+        shiftBackward(i);
+        size--;
+        release(recordLength);
+        return true;
+    }
+
+    public boolean remove(byte[] key) {
+        return remove(key, 0, key.length);
+    }
+
+    public boolean remove(String key) {
+        return remove(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 清空，保留已分配的索引，释放 arena
+     */
+    public void clear() {
+        for (int i = 0; i < capacity; i++)
+            setSlot(i, 0, 0L);
+        Arrays.fill(chunks, null);
+        chunkCount = 0;
+        chunkPosition = 0;
+        size = 0;
+        liveBytes = garbageBytes = 0;
+    }
+
+    /**
+     * 丢弃所有直接内存缓冲区的引用，之后不能再使用
+     */
+    public void close() {
+        index = null;
+        chunks = null;
+        capacity = chunkCount = size = 0;
+    }
+
+    // ---------------- 哈希与探测 ----------------
+
+    final int hash(byte[] key, int offset, int length) {
+        long h = SipHash.hash13(hashSeed0, hashSeed1, key, offset, length);
+        return SafeHashMap.perturb((int) (h ^ (h >>> 32)));
+    }
+
+    /**
+     * 查找键所在的槽，不存在时返回 -1
+     */
+    private int find(byte[] key, int keyOffset, int keyLength, int h) {
+        int mask = capacity - 1;
+        int expected = h | OCCUPIED;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int sh = slotHash(i);
+            if (sh == 0)
+                return -1;
+            if (sh == expected && keyEquals(slotAddress(i), key, keyOffset, keyLength))
+                return i;
+        }
+    }
+
+    private boolean keyEquals(long address, byte[] key, int keyOffset, int keyLength) {
+        ByteBuffer chunk = chunks[(int) (address >>> 32)];
+        int pos = (int) address;
+        if (chunk.getInt(pos) != keyLength)
+            return false;
+        byte[] buf = scratch(keyLength);
+        chunk.get(pos + RECORD_HEADER, buf, 0, keyLength);
+        return Arrays.equals(buf, 0, keyLength, key, keyOffset, keyOffset + keyLength);
+    }
+
+    private byte[] scratch(int length) {
+        byte[] buf = scratch;
+        if (buf.length < length)
+            scratch = buf = new byte[Math.max(length, buf.length << 1)];
+        return buf;
+    }
+
+    /**
+     * 删除位置 i 后，把后续探测链上的元素前移，保持"从理想位置到实际位置之间没有空槽"
+     */
+    private void shiftBackward(int i) {
+        int mask = capacity - 1;
+        for (int j = (i + 1) & mask; ; j = (j + 1) & mask) {
+            int sh = slotHash(j);
+            if (sh == 0)
+                break;
+            int ideal = sh & mask;
+            // 理想位置不在 (i, j] 区间内的元素可以移到 i
+            if (((j - ideal) & mask) >= ((j - i) & mask)) {
+                setSlot(i, sh, slotAddress(j));
+                i = j;
+            }
+        }
+        setSlot(i, 0, 0L);
+    }
+
+    /**
+     * 插入后检查容量和探测长度
+     */
+    private void afterInsert(int probe) {
+        if (++size > threshold)
+            rehash(capacity << 1, false);
+        else if (probe > maxProbe) {
+            // 规模没有翻倍又超限，说明换密钥无效，只能扩容
+            if (lastReseedSize >= 0 && size < lastReseedSize << 1)
+                rehash(capacity << 1, false);
+            else {
+                lastReseedSize = size;
+                reseedCount++;
+                rehash(capacity, true);
+            }
+        }
+    }
+
+    /**
+     * 重建索引；reseed 为 true 时换密钥并从 arena 读出键重新计算哈希，否则直接使用槽中缓存的哈希
+     */
+    private void rehash(int newCapacity, boolean reseed) {
+        if (newCapacity > MAXIMUM_CAPACITY)
+            throw new IllegalStateException("OffHeapSafeHashMap 容量超出上限");
+        ByteBuffer[] oldIndex = index;
+        int oldCapacity = capacity;
+        allocateIndex(newCapacity);
+        if (reseed) {
+            hashSeed0 = SafeHashMap.newSeed0();
+            hashSeed1 = SafeHashMap.newSeed1();
+        }
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldCapacity; j++) {
+            ByteBuffer segment = oldIndex[j >>> SEGMENT_SHIFT];
+            int offset = (j & SEGMENT_MASK) * SLOT_BYTES;
+            int sh = segment.getInt(offset);
+            if (sh == 0)
+                continue;
+            long address = segment.getLong(offset + 8);
+            if (reseed) {
+                ByteBuffer chunk = chunks[(int) (address >>> 32)];
+                int pos = (int) address, keyLength = chunk.getInt(pos);
+                byte[] buf = scratch(keyLength);
+                chunk.get(pos + RECORD_HEADER, buf, 0, keyLength);
+                sh = hash(buf, 0, keyLength) | OCCUPIED;
+            }
+            int i = sh & mask;
+            while (slotHash(i) != 0)
+                i = (i + 1) & mask;
+            setSlot(i, sh, address);
+        }
+    }
+
+    // ---------------- 索引槽 ----------------
+
+    private void allocateIndex(int newCapacity) {
+        int segments = Math.max(1, newCapacity >>> SEGMENT_SHIFT);
+        int slotsPerSegment = Math.min(newCapacity, 1 << SEGMENT_SHIFT);
+        ByteBuffer[] newIndex = new ByteBuffer[segments];
+        for (int s = 0; s < segments; s++)
+            newIndex[s] = ByteBuffer.allocateDirect(slotsPerSegment * SLOT_BYTES).order(ByteOrder.nativeOrder());
+        index = newIndex;
+        capacity = newCapacity;
+        threshold = (int) (newCapacity * LOAD_FACTOR);
+        maxProbe = PrimitiveHashing.maxProbe(MAX_PROBE_BASE, newCapacity);
+    }
+
+    private int slotHash(int i) {
+        return index[i >>> SEGMENT_SHIFT].getInt((i & SEGMENT_MASK) * SLOT_BYTES);
+    }
+
+    private long slotAddress(int i) {
+        return index[i >>> SEGMENT_SHIFT].getLong((i & SEGMENT_MASK) * SLOT_BYTES + 8);
+    }
+
+    private void setSlot(int i, int h, long address) {
+        ByteBuffer segment = index[i >>> SEGMENT_SHIFT];
+        int offset = (i & SEGMENT_MASK) * SLOT_BYTES;
+        segment.putInt(offset, h);
+        segment.putLong(offset + 8, address);
+    }
+
+    // ---------------- arena ----------------
+
+    /**
+     * 追加一条记录，返回地址
+     */
+    private long append(byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength) {
+        int recordLength = RECORD_HEADER + keyLength + valueLength;
+        if (recordLength < 0)
+            throw new IllegalArgumentException("记录过大: " + keyLength + " + " + valueLength);
+        ByteBuffer chunk = chunkCount == 0 ? null : chunks[chunkCount - 1];
+        if (chunk == null || chunk.capacity() - chunkPosition < recordLength)
+            chunk = newChunk(recordLength);
+        int pos = chunkPosition;
+        chunk.putInt(pos, keyLength);
+        chunk.putInt(pos + 4, valueLength);
+        chunk.put(pos + RECORD_HEADER, key, keyOffset, keyLength);
+        chunk.put(pos + RECORD_HEADER + keyLength, value, valueOffset, valueLength);
+        chunkPosition = pos + recordLength;
+        liveBytes += recordLength;
+        return ((long) (chunkCount - 1) << 32) | pos;
+    }
+
+    private ByteBuffer newChunk(int minLength) {
+        int chunkSize = chunkCount == 0 ? MIN_CHUNK_SIZE :
+                Math.min(MAX_CHUNK_SIZE, chunks[chunkCount - 1].capacity() << 1);
+        ByteBuffer chunk = ByteBuffer.allocateDirect(Math.max(chunkSize, minLength)).order(ByteOrder.nativeOrder());
+        if (chunkCount == chunks.length)
+            chunks = Arrays.copyOf(chunks, chunkCount << 1);
+        chunks[chunkCount++] = chunk;
+        chunkPosition = 0;
+        return chunk;
+    }
+
+    /**
+     * 记录失效；垃圾超过存活数据时整理
+     */
+    private void release(int recordLength) {
+        liveBytes -= recordLength;
+        garbageBytes += recordLength;
+        if (garbageBytes > liveBytes && garbageBytes >= MIN_COMPACT_BYTES)
+            compact();
+    }
+
+    /**
+     * 把所有存活记录按索引顺序复制到新的 arena，更新槽中的地址；原地覆盖留下的值尾部空隙同时被回收
+     */
+    public void compact() {
+        ByteBuffer[] oldChunks = chunks;
+        chunks = new ByteBuffer[4];
+        chunkCount = 0;
+        chunkPosition = 0;
+        liveBytes = garbageBytes = 0;
+        for (int i = 0; i < capacity; i++) {
+            if (slotHash(i) == 0)
+                continue;
+            long address = slotAddress(i);
+            ByteBuffer src = oldChunks[(int) (address >>> 32)];
+            int pos = (int) address;
+            int recordLength = RECORD_HEADER + src.getInt(pos) + src.getInt(pos + 4);
+            ByteBuffer chunk = chunkCount == 0 ? null : chunks[chunkCount - 1];
+            if (chunk == null || chunk.capacity() - chunkPosition < recordLength)
+                chunk = newChunk(recordLength);
+            chunk.put(chunkPosition, src, pos, recordLength);
+            setSlot(i, slotHash(i), ((long) (chunkCount - 1) << 32) | chunkPosition);
+            chunkPosition += recordLength;
+            liveBytes += recordLength;
+        }
+    }
+}
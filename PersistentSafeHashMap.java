@@ -0,0 +1,731 @@
+package com.nieran;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * 持久化（不可变、结构共享）的安全 HashMap：哈希数组映射前缀树（HAMT），按 SafeHashMap.safeHash 每 5 位分一层
+ * 1.plus/minus 返回新版本，只复制从根到被修改叶子路径上的节点（最多 7 层，每层至多 64 个引用），
+ *   其余子树与旧版本共享，因此向读线程发布一个只读快照是 O(1)，每次更新是 O(log32 n)
+ * 2.hash 完全相同的键放在冲突节点中，冲突节点内部是一棵持久化 AVL 树：不同类型的键按类名排序，
+ *   同一可比较类型（包括 String）按 compareTo 排序，查找、插入、删除都是 O(log n)，每次只复制树上的一条路径；
+ *   不可比较的同类型键只能两侧都查找（与 SafeHashMap 的红黑树桶相同）
+ * 3.asTransient() 返回批量编辑器：它创建或已经复制过的节点直接原地修改，不再逐次复制路径，
+ *   persistent() 之后编辑器失效，返回的版本与之后的任何编辑都不共享可变节点
+ * null 键单独存放在根上。所有版本都可以被多个线程同时读取；Transient 不是线程安全的
+ */
+public final class PersistentSafeHashMap<K, V> extends AbstractMap<K, V> {
+    // 每层使用的哈希位数
+    static final int BITS = 5;
+    static final int MASK = (1 << BITS) - 1;
+    // 查找未命中的标记
+    static final Object NOT_FOUND = new Object();
+
+    @SuppressWarnings("rawtypes")
+    static final PersistentSafeHashMap EMPTY = new PersistentSafeHashMap<>(null, 0, false, null);
+
+    // 根节点，空 map 为 null
+    final Node root;
+    final int size;
+    // null 键
+    final boolean hasNull;
+    final Object nullValue;
+    // entrySet 视图
+    Set<Map.Entry<K, V>> entrySet;
+
+    PersistentSafeHashMap(Node root, int size, boolean hasNull, Object nullValue) {
+        this.root = root;
+        this.size = size;
+        this.hasNull = hasNull;
+        this.nullValue = nullValue;
+    }
+
+    /**
+     * 空 map
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentSafeHashMap<K, V> empty() {
+        return (PersistentSafeHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * 复制 m 的所有映射（用批量编辑器构建）
+     */
+    public static <K, V> PersistentSafeHashMap<K, V> copyOf(Map<? extends K, ? extends V> m) {
+        Transient<K, V> t = PersistentSafeHashMap.<K, V>empty().asTransient();
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+            t.put(e.getKey(), e.getValue());
+        return t.persistent();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (key == null)
+            return hasNull ? (V) nullValue : null;
+        if (root == null)
+            return null;
+        Object v = root.find(0, SafeHashMap.safeHash(key), key);
+        return v == NOT_FOUND ? null : (V) v;
+    }
+
+    public boolean containsKey(Object key) {
+        if (key == null)
+            return hasNull;
+        return root != null && root.find(0, SafeHashMap.safeHash(key), key) != NOT_FOUND;
+    }
+
+    /**
+     * 返回加入（或替换）key 之后的新版本；值相同时返回 this
+     */
+    public PersistentSafeHashMap<K, V> plus(K key, V value) {
+        if (key == null) {
+            if (hasNull && nullValue == value)
+                return this;
+            return new PersistentSafeHashMap<>(root, hasNull ? size : size + 1, true, value);
+        }
+        Box box = new Box();
+        Node r = root == null ? BitmapNode.EMPTY : root;
+        Node newRoot = r.put(null, 0, SafeHashMap.safeHash(key), key, value, box);
+        if (newRoot == root)
+            return this;
+        return new PersistentSafeHashMap<>(newRoot, box.added ? size + 1 : size, hasNull, nullValue);
+    }
+
+    /**
+     * 返回删除 key 之后的新版本；key 不存在时返回 this
+     */
+    public PersistentSafeHashMap<K, V> minus(Object key) {
+        if (key == null)
+            return hasNull ? new PersistentSafeHashMap<>(root, size - 1, false, null) : this;
+        if (root == null)
+            return this;
+        Box box = new Box();
+        Node newRoot = root.remove(null, 0, SafeHashMap.safeHash(key), key, box);
+        if (box.old == NOT_FOUND)
+            return this;
+        return new PersistentSafeHashMap<>(newRoot, size - 1, hasNull, nullValue);
+    }
+
+    /**
+     * 返回以当前版本为起点的批量编辑器
+     */
+    public Transient<K, V> asTransient() {
+        return new Transient<>(this);
+    }
+
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        for (Map.Entry<K, V> e : entrySet())
+            action.accept(e.getKey(), e.getValue());
+    }
+
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        public int size() {
+            return size;
+        }
+
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator<>(PersistentSafeHashMap.this);
+        }
+    }
+
+    /**
+     * 批量编辑器：put/remove 原地修改本编辑器拥有的节点，persistent() 生成不可变版本后失效
+     */
+    public static final class Transient<K, V> {
+        // 所有权标记，persistent() 后置为 null
+        Edit edit = new Edit();
+        Node root;
+        int size;
+        boolean hasNull;
+        Object nullValue;
+        final Box box = new Box();
+
+        Transient(PersistentSafeHashMap<K, V> m) {
+            root = m.root;
+            size = m.size;
+            hasNull = m.hasNull;
+            nullValue = m.nullValue;
+        }
+
+        private void ensureEditable() {
+            if (edit == null)
+                throw new IllegalStateException("Transient used after persistent() call");
+        }
+
+        public int size() {
+            ensureEditable();
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V get(Object key) {
+            ensureEditable();
+            if (key == null)
+                return hasNull ? (V) nullValue : null;
+            if (root == null)
+                return null;
+            Object v = root.find(0, SafeHashMap.safeHash(key), key);
+            return v == NOT_FOUND ? null : (V) v;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V put(K key, V value) {
+            ensureEditable();
+            if (key == null) {
+                Object old = nullValue;
+                if (!hasNull)
+                    size++;
+                hasNull = true;
+                nullValue = value;
+                return (V) old;
+            }
+            Box b = box;
+            b.added = false;
+            b.old = NOT_FOUND;
+            Node r = root == null ? new BitmapNode(edit, 0, new Object[0]) : root;
+            root = r.put(edit, 0, SafeHashMap.safeHash(key), key, value, b);
+            if (b.added)
+                size++;
+            return b.old == NOT_FOUND ? null : (V) b.old;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V remove(Object key) {
+            ensureEditable();
+            if (key == null) {
+                Object old = nullValue;
+                if (hasNull)
+                    size--;
+                hasNull = false;
+                nullValue = null;
+                return (V) old;
+            }
+            if (root == null)
+                return null;
+            Box b = box;
+            b.old = NOT_FOUND;
+            root = root.remove(edit, 0, SafeHashMap.safeHash(key), key, b);
+            if (b.old == NOT_FOUND)
+                return null;
+            size--;
+            return (V) b.old;
+        }
+
+        /**
+         * 生成不可变版本，之后本编辑器不能再使用
+         */
+        public PersistentSafeHashMap<K, V> persistent() {
+            ensureEditable();
+            edit = null;
+            return size == 0 ? empty() : new PersistentSafeHashMap<>(root, size, hasNull, nullValue);
+        }
+    }
+
+    // ---------------- 节点 ----------------
+
+    /**
+     * 批量编辑器的所有权标记：节点的 edit 与编辑器相同时才能原地修改
+     */
+    static final class Edit {
+    }
+
+    /**
+     * 修改操作的附带结果：是否新增了键、被替换或删除的旧值
+     */
+    static final class Box {
+        boolean added;
+        Object old = NOT_FOUND;
+    }
+
+    /**
+     * 节点的 array 按 [键, 值] 成对存放；BitmapNode 中键为 null 的一对表示值是子节点
+     */
+    abstract static class Node {
+        final Edit edit;
+        Object[] array;
+
+        Node(Edit edit, Object[] array) {
+            this.edit = edit;
+            this.array = array;
+        }
+
+        final boolean ownedBy(Edit e) {
+            return e != null && edit == e;
+        }
+
+        /**
+         * 按 [键, 值] 成对排列的内容，遍历时使用
+         */
+        Object[] entries() {
+            return array;
+        }
+
+        abstract Object find(int shift, int hash, Object key);
+
+        abstract Node put(Edit e, int shift, int hash, Object key, Object value, Box box);
+
+        // 删除后为空时返回 null
+        abstract Node remove(Edit e, int shift, int hash, Object key, Box box);
+
+        /**
+         * 是否只剩一个键值对（且不是子节点），父节点据此把它收回为叶子
+         */
+        abstract boolean isSingleEntry();
+    }
+
+    /**
+     * 位图节点：bitmap 的第 i 位表示该层哈希片段为 i 的槽是否存在，槽按位序紧凑存放
+     */
+    static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(null, 0, new Object[0]);
+
+        int bitmap;
+
+        BitmapNode(Edit edit, int bitmap, Object[] array) {
+            super(edit, array);
+            this.bitmap = bitmap;
+        }
+
+        Object find(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return NOT_FOUND;
+            int idx = Integer.bitCount(bitmap & (bit - 1)) << 1;
+            Object k = array[idx];
+            if (k == null)
+                return ((Node) array[idx + 1]).find(shift + BITS, hash, key);
+            return k == key || key.equals(k) ? array[idx + 1] : NOT_FOUND;
+        }
+
+        Node put(Edit e, int shift, int hash, Object key, Object value, Box box) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int idx = Integer.bitCount(bitmap & (bit - 1)) << 1;
+            if ((bitmap & bit) != 0) {
+                Object k = array[idx], v = array[idx + 1];
+                if (k == null) {
+                    Node child = ((Node) v).put(e, shift + BITS, hash, key, value, box);
+                    return child == v ? this : set(e, idx + 1, child);
+                }
+                if (k == key || key.equals(k)) {
+                    box.old = v;
+                    return v == value ? this : set(e, idx + 1, value);
+                }
+                // 槽被另一个键占用：两个键下沉到新的子节点
+                box.added = true;
+                Node child = createNode(e, shift + BITS, k, v, hash, key, value);
+                return set(e, idx, null, child);
+            }
+            box.added = true;
+            int n = array.length;
+            Object[] newArray = new Object[n + 2];
+            System.arraycopy(array, 0, newArray, 0, idx);
+            newArray[idx] = key;
+            newArray[idx + 1] = value;
+            System.arraycopy(array, idx, newArray, idx + 2, n - idx);
+            if (ownedBy(e)) {
+                bitmap |= bit;
+                array = newArray;
+                return this;
+            }
+            return new BitmapNode(e, bitmap | bit, newArray);
+        }
+
+        Node remove(Edit e, int shift, int hash, Object key, Box box) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return this;
+            int idx = Integer.bitCount(bitmap & (bit - 1)) << 1;
+            Object k = array[idx], v = array[idx + 1];
+            if (k == null) {
+                Node child = ((Node) v).remove(e, shift + BITS, hash, key, box);
+                if (child == v)
+                    return this;
+                if (child != null) {
+                    // 子节点只剩一个键值对时收回为本层的叶子，保持树尽量浅
+                    if (child.isSingleEntry()) {
+                        Object[] single = child.entries();
+                        return set(e, idx, single[0], single[1]);
+                    }
+                    return set(e, idx + 1, child);
+                }
+            } else if (k == key || key.equals(k)) {
+                box.old = v;
+            } else {
+                return this;
+            }
+            // 删除这一对
+            if (bitmap == bit)
+                return null;
+            int n = array.length;
+            Object[] newArray = new Object[n - 2];
+            System.arraycopy(array, 0, newArray, 0, idx);
+            System.arraycopy(array, idx + 2, newArray, idx, n - idx - 2);
+            if (ownedBy(e)) {
+                bitmap ^= bit;
+                array = newArray;
+                return this;
+            }
+            return new BitmapNode(e, bitmap ^ bit, newArray);
+        }
+
+        boolean isSingleEntry() {
+            return array.length == 2 && array[0] != null;
+        }
+
+        private Node set(Edit e, int i, Object a) {
+            if (ownedBy(e)) {
+                array[i] = a;
+                return this;
+            }
+            Object[] newArray = array.clone();
+            newArray[i] = a;
+            return new BitmapNode(e, bitmap, newArray);
+        }
+
+        private Node set(Edit e, int i, Object a, Object b) {
+            if (ownedBy(e)) {
+                array[i] = a;
+                array[i + 1] = b;
+                return this;
+            }
+            Object[] newArray = array.clone();
+            newArray[i] = a;
+            newArray[i + 1] = b;
+            return new BitmapNode(e, bitmap, newArray);
+        }
+    }
+
+    /**
+     * 两个键在本层之前的哈希片段都相同：hash 完全相同时放入冲突节点，否则建一个包含两者的位图节点
+     */
+    static Node createNode(Edit e, int shift, Object k1, Object v1, int h2, Object k2, Object v2) {
+        int h1 = SafeHashMap.safeHash(k1);
+        if (h1 == h2)
+            return CollisionNode.of(e, h1, k1, v1, k2, v2);
+        Box ignored = new Box();
+        return new BitmapNode(e, 0, new Object[0])
+                .put(e, shift, h1, k1, v1, ignored)
+                .put(e, shift, h2, k2, v2, ignored);
+    }
+
+    /**
+     * 冲突节点：所有键的 hash 相同，键值对存放在持久化 AVL 树中
+     * 批量编辑器拥有的冲突节点直接替换树根，树节点本身始终不可变
+     */
+    static final class CollisionNode extends Node {
+        final int hash;
+        TreeNode tree;
+        int count;
+
+        CollisionNode(Edit edit, int hash, TreeNode tree, int count) {
+            super(edit, null);
+            this.hash = hash;
+            this.tree = tree;
+            this.count = count;
+        }
+
+        static CollisionNode of(Edit e, int hash, Object k1, Object v1, Object k2, Object v2) {
+            return new CollisionNode(e, hash, TreeNode.insert(TreeNode.insert(null, k1, v1), k2, v2), 2);
+        }
+
+        Object[] entries() {
+            Object[] a = new Object[count << 1];
+            TreeNode.fill(tree, a, 0);
+            return a;
+        }
+
+        Object find(int shift, int hash, Object key) {
+            if (hash != this.hash)
+                return NOT_FOUND;
+            return TreeNode.find(tree, key);
+        }
+
+        Node put(Edit e, int shift, int hash, Object key, Object value, Box box) {
+            if (hash != this.hash) {
+                // hash 不同的键到达这里：把冲突节点下沉一层
+                Object[] a = {null, this};
+                return new BitmapNode(e, 1 << ((this.hash >>> shift) & MASK), a)
+                        .put(e, shift, hash, key, value, box);
+            }
+            TreeNode t = TreeNode.replace(tree, key, value, box);
+            int n = count;
+            if (box.old == NOT_FOUND) {
+                box.added = true;
+                t = TreeNode.insert(tree, key, value);
+                n++;
+            } else if (t == tree) {
+                return this;
+            }
+            return update(e, t, n);
+        }
+
+        Node remove(Edit e, int shift, int hash, Object key, Box box) {
+            if (hash != this.hash)
+                return this;
+            TreeNode t = TreeNode.remove(tree, key, box);
+            if (box.old == NOT_FOUND)
+                return this;
+            return t == null ? null : update(e, t, count - 1);
+        }
+
+        private Node update(Edit e, TreeNode t, int n) {
+            if (ownedBy(e)) {
+                tree = t;
+                count = n;
+                return this;
+            }
+            return new CollisionNode(e, hash, t, n);
+        }
+
+        boolean isSingleEntry() {
+            return count == 1;
+        }
+    }
+
+    /**
+     * 冲突节点中的不可变 AVL 树节点，修改时复制从根到被修改位置的路径并重新平衡
+     * 排序：不同类型按类名；同一可比较类型按 compareTo；其余情况（不可比较、compareTo 与 equals 不一致）
+     * 视为无法区分，查找时两侧子树都要查，插入时用 identityHashCode 决定方向
+     */
+    static final class TreeNode {
+        final Object key, value;
+        final TreeNode left, right;
+        final int height;
+
+        TreeNode(Object key, Object value, TreeNode left, TreeNode right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+        }
+
+        static int height(TreeNode t) {
+            return t == null ? 0 : t.height;
+        }
+
+        /**
+         * 比较两个 hash 相同的键，无法区分时返回 0
+         */
+        static int order(Object a, Object b) {
+            Class<?> ca = a.getClass(), cb = b.getClass();
+            if (ca != cb) {
+                int d = ca.getName().compareTo(cb.getName());
+                return d != 0 ? d : Integer.compare(System.identityHashCode(ca), System.identityHashCode(cb));
+            }
+            Class<?> kc = SafeHashMap.comparableClassFor(a);
+            return kc == null ? 0 : SafeHashMap.compareComparables(kc, a, b);
+        }
+
+        static Object find(TreeNode t, Object key) {
+            while (t != null) {
+                Object k = t.key;
+                int d = order(key, k);
+                if (d < 0) {
+                    t = t.left;
+                } else if (d > 0) {
+                    t = t.right;
+                } else if (k == key || key.equals(k)) {
+                    return t.value;
+                } else {
+                    Object v = find(t.left, key);
+                    if (v != NOT_FOUND)
+                        return v;
+                    t = t.right;
+                }
+            }
+            return NOT_FOUND;
+        }
+
+        /**
+         * 替换已存在的键的值，把旧值记入 box.old；不存在时返回 t 本身，box.old 保持 NOT_FOUND
+         */
+        static TreeNode replace(TreeNode t, Object key, Object value, Box box) {
+            if (t == null)
+                return null;
+            Object k = t.key;
+            int d = order(key, k);
+            if (d == 0 && (k == key || key.equals(k))) {
+                box.old = t.value;
+                return t.value == value ? t : new TreeNode(k, value, t.left, t.right);
+            }
+            if (d <= 0) {
+                TreeNode l = replace(t.left, key, value, box);
+                if (l != t.left)
+                    return new TreeNode(k, t.value, l, t.right);
+                if (d < 0 || box.old != NOT_FOUND)
+                    return t;
+            }
+            TreeNode r = replace(t.right, key, value, box);
+            return r == t.right ? t : new TreeNode(k, t.value, t.left, r);
+        }
+
+        /**
+         * 插入一个不存在的键
+         */
+        static TreeNode insert(TreeNode t, Object key, Object value) {
+            if (t == null)
+                return new TreeNode(key, value, null, null);
+            int d = order(key, t.key);
+            if (d == 0)
+                d = System.identityHashCode(key) <= System.identityHashCode(t.key) ? -1 : 1;
+            if (d < 0)
+                return balance(t.key, t.value, insert(t.left, key, value), t.right);
+            return balance(t.key, t.value, t.left, insert(t.right, key, value));
+        }
+
+        /**
+         * 删除键，把旧值记入 box.old；不存在时返回 t 本身
+         */
+        static TreeNode remove(TreeNode t, Object key, Box box) {
+            if (t == null)
+                return null;
+            Object k = t.key;
+            int d = order(key, k);
+            if (d == 0 && (k == key || key.equals(k))) {
+                box.old = t.value;
+                if (t.left == null)
+                    return t.right;
+                if (t.right == null)
+                    return t.left;
+                TreeNode min = t.right;
+                while (min.left != null)
+                    min = min.left;
+                return balance(min.key, min.value, t.left, removeMin(t.right));
+            }
+            if (d <= 0) {
+                TreeNode l = remove(t.left, key, box);
+                if (box.old != NOT_FOUND)
+                    return balance(k, t.value, l, t.right);
+                if (d < 0)
+                    return t;
+            }
+            TreeNode r = remove(t.right, key, box);
+            return box.old == NOT_FOUND ? t : balance(k, t.value, t.left, r);
+        }
+
+        private static TreeNode removeMin(TreeNode t) {
+            if (t.left == null)
+                return t.right;
+            return balance(t.key, t.value, removeMin(t.left), t.right);
+        }
+
+        /**
+         * 以 (key, value) 为根、l 和 r 为子树建立节点，两侧高度差为 2 时旋转
+         */
+        private static TreeNode balance(Object key, Object value, TreeNode l, TreeNode r) {
+            int hl = height(l), hr = height(r);
+            if (hl > hr + 1) {
+                if (height(l.left) >= height(l.right))
+                    return new TreeNode(l.key, l.value, l.left, new TreeNode(key, value, l.right, r));
+                TreeNode lr = l.right;
+                return new TreeNode(lr.key, lr.value,
+                        new TreeNode(l.key, l.value, l.left, lr.left), new TreeNode(key, value, lr.right, r));
+            }
+            if (hr > hl + 1) {
+                if (height(r.right) >= height(r.left))
+                    return new TreeNode(r.key, r.value, new TreeNode(key, value, l, r.left), r.right);
+                TreeNode rl = r.left;
+                return new TreeNode(rl.key, rl.value,
+                        new TreeNode(key, value, l, rl.left), new TreeNode(r.key, r.value, rl.right, r.right));
+            }
+            return new TreeNode(key, value, l, r);
+        }
+
+        /**
+         * 中序写入 a[i..]，返回写入后的下标
+         */
+        static int fill(TreeNode t, Object[] a, int i) {
+            while (t != null) {
+                i = fill(t.left, a, i);
+                a[i++] = t.key;
+                a[i++] = t.value;
+                t = t.right;
+            }
+            return i;
+        }
+    }
+
+    /**
+     * 深度优先遍历：栈中保存每层节点的数组和下一个位置，null 键最先返回
+     */
+    static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        // 7 层位图节点 + 1 层冲突节点
+        final Object[][] arrays = new Object[8][];
+        final int[] positions = new int[8];
+        int depth = -1;
+        boolean pendingNull;
+        Object nullValue;
+        Map.Entry<K, V> next;
+
+        EntryIterator(PersistentSafeHashMap<K, V> m) {
+            pendingNull = m.hasNull;
+            nullValue = m.nullValue;
+            if (m.root != null) {
+                arrays[0] = m.root.entries();
+                depth = 0;
+            }
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            if (pendingNull) {
+                pendingNull = false;
+                next = new AbstractMap.SimpleImmutableEntry<>(null, (V) nullValue);
+                return;
+            }
+            while (depth >= 0) {
+                Object[] a = arrays[depth];
+                int i = positions[depth];
+                if (i >= a.length) {
+                    positions[depth] = 0;
+                    arrays[depth--] = null;
+                    continue;
+                }
+                positions[depth] = i + 2;
+                Object k = a[i];
+                if (k == null) {
+                    arrays[++depth] = ((Node) a[i + 1]).entries();
+                    positions[depth] = 0;
+                } else {
+                    next = new AbstractMap.SimpleImmutableEntry<>((K) k, (V) a[i + 1]);
+                    return;
+                }
+            }
+            next = null;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Map.Entry<K, V> next() {
+            Map.Entry<K, V> e = next;
+            if (e == null)
+                throw new NoSuchElementException();
+            advance();
+            return e;
+        }
+    }
+}
@@ -1,40 +1,100 @@
 package com.example.test;
 
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Scanner;
 
-import static java.lang.Math.acos;
-import static java.lang.Math.sqrt;
-
+/**
+ * 判断素数，支持 long 范围（判定见 MillerRabin）
+ * 用法：
+ *   无参数：交互式输入一个整数
+ *   --batch [文件]：从文件（省略时为标准输入）读取以空白分隔的整数，每个数输出一行"数 是素数/不是素数"，
+ *   边读边写，不把输入全部读进内存；吞吐量见 PrimeBenchmark
+ */
 public class PrimeJudgement {
-    public static void main(String[] args) {
-        Scanner s=new Scanner(System.in);
-        System.out.println("请输入一个整数：");
-        if (s.hasNext()) {
-            int number=s.nextInt();
-            if (number<=1){
-                System.out.println("请输入大于1的整数");
-            }
-            else{
-                int remainder =0;
-                for (int i=2;i<sqrt(number)+1;i++)
-                {
-                    remainder=number%i;
-                    if(remainder==0){
-                        break;
-                    }
-                }
-                if(remainder!=0){
-                    System.out.println(number+"是素数");
-                }
-                else {
-                    System.out.println(number+"不是素数");
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            if (args.length > 1) {
+                try (InputStream in = new FileInputStream(args[1])) {
+                    batch(in, System.out);
                 }
+            } else {
+                batch(System.in, System.out);
             }
+            return;
+        }
+        Scanner s = new Scanner(System.in);
+        System.out.println("请输入一个整数：");
+        if (s.hasNextLong()) {
+            long number = s.nextLong();
+            if (number <= 1) {
+                System.out.println("请输入大于1的整数");
+            } else if (MillerRabin.isPrime(number)) {
+                System.out.println(number + "是素数");
+            } else {
+                System.out.println(number + "不是素数");
             }
-        else {
+        } else {
             System.out.println("你的输入不是整数");
+        }
+    }
 
-        }    }
-
+    /**
+     * 逐个读取 in 中以空白分隔的整数并写出判定结果，返回素数个数；不是 long 的词输出"不是整数"后继续
+     * 输入暂时没有更多数据时先把已有结果写出，管道另一端可以边写边读
+     */
+    public static long batch(InputStream in, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        byte[] buffer = new byte[1 << 16];
+        byte[] token = new byte[64];
+        int tokenLength = 0;
+        long primes = 0;
+        while (true) {
+            if (in.available() == 0)
+                writer.flush();
+            int n = in.read(buffer);
+            for (int i = 0; i < n; i++) {
+                byte b = buffer[i];
+                if (b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f') {
+                    if (tokenLength > 0)
+                        primes += judge(token, tokenLength, writer);
+                    tokenLength = 0;
+                } else {
+                    if (tokenLength == token.length)
+                        token = Arrays.copyOf(token, tokenLength * 2);
+                    token[tokenLength++] = b;
+                }
+            }
+            if (n < 0)
+                break;
+        }
+        if (tokenLength > 0)
+            primes += judge(token, tokenLength, writer);
+        writer.flush();
+        return primes;
+    }
 
+    // 解析并判定一个词，写出一行结果，是素数时返回 1
+    private static int judge(byte[] token, int length, Writer writer) throws IOException {
+        String text = new String(token, 0, length, StandardCharsets.UTF_8);
+        long number;
+        try {
+            number = Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            writer.write(text);
+            writer.write(" 不是整数\n");
+            return 0;
+        }
+        boolean prime = MillerRabin.isPrime(number);
+        writer.write(text);
+        writer.write(prime ? " 是素数\n" : " 不是素数\n");
+        return prime ? 1 : 0;
+    }
 }
@@ -0,0 +1,58 @@
+package com.example.test;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrimeTest {
+
+    // 测试 Miller-Rabin：小整数、各底数集合的强伪素数、long 上界附近，以及批量模式的输出
+    @Test
+    void testMillerRabin() throws Exception {
+        for (long n = -10; n < 20_000; n++) {
+            assertEquals(n > 1 && BigInteger.valueOf(n).isProbablePrime(30), MillerRabin.isPrime(n), "n=" + n);
+        }
+        long[] composites = {2047L, 1373653L, 25326001L, 3215031751L, 4759123141L, 3825123056546413051L,
+                4611686014132420609L};
+        for (long n : composites) {
+            assertFalse(MillerRabin.isPrime(n), "n=" + n);
+        }
+        assertTrue(MillerRabin.isPrime(4759123129L));
+        assertTrue(MillerRabin.isPrime(Long.MAX_VALUE - 24));
+        assertFalse(MillerRabin.isPrime(Long.MAX_VALUE));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] input = "2 4\n97\tabc\n 9223372036854775783".getBytes(StandardCharsets.UTF_8);
+        assertEquals(3, PrimeJudgement.batch(new ByteArrayInputStream(input), out));
+        assertEquals("2 是素数\n4 不是素数\n97 是素数\nabc 不是整数\n9223372036854775783 是素数\n",
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    // 测试分段筛：跨段的区间计数、流式列出、前缀缓存与超出前缀后的 isPrime
+    @Test
+    void testSegmentedSieve() {
+        SegmentedSieve sieve = new SegmentedSieve(ForkJoinPool.commonPool(), 64, 10_000);
+        assertEquals(78498, sieve.countPrimes(0, 1_000_000));
+        assertEquals(0, sieve.countPrimes(24, 28));
+        assertEquals(1, sieve.countPrimes(2, 2));
+        assertEquals(0, sieve.countPrimes(10, 1));
+        long expected = 0;
+        for (long n = 999_000; n <= 1_001_000; n++) {
+            if (MillerRabin.isPrime(n))
+                expected++;
+        }
+        assertEquals(expected, sieve.countPrimes(999_000, 1_001_000));
+        assertArrayEquals(new long[]{2, 3, 5, 7, 11, 13, 17, 19, 23, 29}, sieve.primesIn(0, 30).toArray());
+        assertEquals(expected, sieve.primesIn(999_000, 1_001_000).filter(MillerRabin::isPrime).count());
+        for (long n = -1; n < 20_000; n++) {
+            assertEquals(MillerRabin.isPrime(n), sieve.isPrime(n), "n=" + n);
+        }
+        assertThrows(IllegalArgumentException.class, () -> sieve.countPrimes(-1, 10));
+    }
+}
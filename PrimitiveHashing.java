@@ -0,0 +1,51 @@
+package com.nieran;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 基本类型哈希表共用的哈希与容量计算
+ */
+final class PrimitiveHashing {
+
+    private PrimitiveHashing() {
+    }
+
+    /**
+     * int 键：先乘以奇数种子（双射）再扰动，攻击者无法预知桶位置
+     */
+    static int mix(int key, int seed) {
+        return SafeHashMap.perturb(key * seed);
+    }
+
+    /**
+     * long 键：高低 32 位折叠后同样处理，高位差异也会影响桶位置
+     */
+    static int mix(long key, int seed) {
+        long h = key * ((seed & 0xFFFFFFFFL) | 0x9E3779B900000000L);
+        return SafeHashMap.perturb((int) (h ^ (h >>> 32)));
+    }
+
+    /**
+     * 随机奇数种子
+     */
+    static int newSeed() {
+        return ThreadLocalRandom.current().nextInt() | 1;
+    }
+
+    /**
+     * 能容纳 expected 个元素且不超过负载因子的 2 的幂容量
+     */
+    static int capacityFor(int expected, float loadFactor) {
+        long cap = Math.max(2L, (long) Math.ceil(expected / (double) loadFactor));
+        if (cap > SafeHashMap.MAXIMUM_CAPACITY)
+            throw new IllegalArgumentException("容量超出上限: " + expected);
+        return SafeHashMap.tableSizeFor((int) cap);
+    }
+
+    /**
+     * 探测长度上限：负载因子 0.5 时随机数据的最长探测约为 2*log2(容量)，取 3 倍以上留出余量，超出即视为攻击
+     */
+    static int maxProbe(int base, int capacity) {
+        return base + 3 * (31 - Integer.numberOfLeadingZeros(capacity));
+    }
+}
@@ -0,0 +1,436 @@
+package com.nieran;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Robin Hood 开放寻址实现的安全 HashMap，对外接口与 SafeHashMap 相同
+ * 1.键值交错存放在同一个数组中（键在 2i，值在 2i+1），哈希缓存在平行的 int 数组中，
+ *   查找不需要跟随 next 指针，也没有节点对象
+ * 2.插入时"劫富济贫"：探测距离更短的元素让位给距离更长的元素，使各元素探测距离趋于平均
+ * 3.查找时一旦遇到探测距离比当前更短的元素即可判定不存在
+ * 4.删除采用向后移动（backward shift），不留墓碑
+ * 5.探测距离超过上限时换用带种子的哈希重建（与 SafeHashMap 遭遇攻击时一致），仍然超限则扩容
+ * 6.hashCode 完全相同且不是字符串的键无法靠换种子打散，扩容也无济于事：换种子后仍超限、且探测簇中
+ *   同一哈希的键达到 SafeHashMap.TREEIFY_THRESHOLD 个时，整张表转存到一个 CHAINED 引擎的 SafeHashMap，
+ *   之后所有操作都委托给它，同哈希的键在红黑树桶中按 Comparable 排序，查找为 O(log n)
+ */
+public class RobinHoodSafeHashMap<K, V> extends AbstractMap<K, V> {
+    // 默认初始容量
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+    // 最大容量
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+    // 默认负载因子
+    static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    // 探测长度上限的基数，默认上限为 MAX_PROBE_BASE + 3 * log2(容量)
+    static final int MAX_PROBE_BASE = 8;
+    // 哈希数组中标记"已占用"的位，0 表示空槽
+    static final int OCCUPIED = 0x80000000;
+
+    // 键值数组，槽位 i 的键在 2i，值在 2i+1，命中后读值与读键在同一缓存行
+    Object[] table;
+    // 每个槽位缓存的哈希（带 OCCUPIED 标记）
+    int[] hashes;
+    // 键值对数量
+    int size;
+    // 修改计数器
+    int modCount;
+    // 扩容阈值
+    int threshold;
+    // 负载因子
+    final float loadFactor;
+    // 构造时指定的探测长度上限，0 表示按容量自动计算
+    final int probeLimit;
+    // 当前生效的探测长度上限
+    int maxProbe;
+    // 是否已切换为带种子的哈希
+    boolean seeded;
+    long hashSeed0, hashSeed1;
+    // 上次换种子时的元素数量
+    int lastReseedSize = -1;
+    // 因探测过长而换种子的次数
+    int reseedCount;
+    // 同哈希键过多时转存的链式 map，非 null 后所有操作都委托给它
+    SafeHashMap<K, V> fallback;
+    // entrySet 视图
+    Set<Map.Entry<K, V>> entrySet;
+
+    /**
+     * 默认构造函数
+     */
+    public RobinHoodSafeHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, 0);
+    }
+
+    /**
+     * 带初始容量的构造函数
+     */
+    public RobinHoodSafeHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR, 0);
+    }
+
+    /**
+     * 完整构造函数
+     * maxProbeLength 为插入时允许的最大探测距离，超过后换种子重建或扩容；0 表示按容量自动计算
+     */
+    public RobinHoodSafeHashMap(int initialCapacity, float loadFactor, int maxProbeLength) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor))
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        if (maxProbeLength < 0)
+            throw new IllegalArgumentException("Illegal max probe length: " + maxProbeLength);
+        this.loadFactor = loadFactor;
+        this.probeLimit = maxProbeLength;
+        allocate(PrimitiveHashing.capacityFor(initialCapacity, loadFactor));
+    }
+
+    private void allocate(int capacity) {
+        table = new Object[capacity << 1];
+        hashes = new int[capacity];
+        threshold = Math.min(capacity - 1, (int) (capacity * loadFactor));
+        maxProbe = probeLimit > 0 ? probeLimit : PrimitiveHashing.maxProbe(MAX_PROBE_BASE, capacity);
+    }
+
+    /**
+     * 计算哈希：默认与 SafeHashMap.safeHash 相同，换种子后与 SafeHashMap 遭遇攻击后的哈希相同
+     */
+    final int hash(Object key) {
+        int h = seeded ? SafeHashMap.keyedHash(key, true, hashSeed0, hashSeed1)
+                : SafeHashMap.safeHash(key);
+        return h | OCCUPIED;
+    }
+
+    /**
+     * 因探测过长而换种子的次数
+     */
+    public int getReseedCount() {
+        return reseedCount;
+    }
+
+    /**
+     * 是否已因同哈希键过多而转存到链式 map
+     */
+    public boolean isFallback() {
+        return fallback != null;
+    }
+
+    public int size() {
+        return fallback != null ? fallback.size() : size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 查找键所在槽位，不存在时返回 -1
+     */
+    final int indexOf(Object key) {
+        return indexOf(hash(key), key);
+    }
+
+    /**
+     * 按已算好的哈希查找键所在槽位，不存在时返回 -1
+     */
+    final int indexOf(int h, Object key) {
+        int[] hs = hashes;
+        int mask = hs.length - 1;
+        Object[] tab = table;
+        for (int i = h & mask, d = 0; ; i = (i + 1) & mask, d++) {
+            int sh = hs[i];
+            Object k;
+            if (sh == h && ((k = tab[i << 1]) == key || (key != null && key.equals(k))))
+                return i;
+            // 空槽，或遇到探测距离更短的元素：键不可能在更后面
+            if (sh == 0 || ((i - sh) & mask) < d)
+                return -1;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (fallback != null)
+            return fallback.get(key);
+        int i = indexOf(key);
+        return i < 0 ? null : (V) table[(i << 1) + 1];
+    }
+
+    public boolean containsKey(Object key) {
+        if (fallback != null)
+            return fallback.containsKey(key);
+        return indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if (fallback != null)
+            return fallback.put(key, value);
+        int h = hash(key);
+        int i = indexOf(h, key);
+        if (i >= 0) {
+            V old = (V) table[(i << 1) + 1];
+            table[(i << 1) + 1] = value;
+            return old;
+        }
+        int probe = insert(h, key, value);
+        modCount++;
+        afterInsert(h, probe);
+        return null;
+    }
+
+    /**
+     * Robin Hood 插入（调用方已确认键不存在），返回插入过程中出现的最大探测距离
+     */
+    private int insert(int h, Object key, Object value) {
+        int[] hs = hashes;
+        Object[] tab = table;
+        int mask = hs.length - 1;
+        int maxDist = 0;
+        for (int i = h & mask, d = 0; ; i = (i + 1) & mask, d++) {
+            int sh = hs[i];
+            if (sh == 0) {
+                hs[i] = h;
+                tab[i << 1] = key;
+                tab[(i << 1) + 1] = value;
+                return Math.max(maxDist, d);
+            }
+            int sd = (i - sh) & mask;
+            // 当前槽位的元素离理想位置更近，把位置让出来，继续为它寻找新位置
+            if (sd < d) {
+                Object k = tab[i << 1], v = tab[(i << 1) + 1];
+                hs[i] = h;
+                tab[i << 1] = key;
+                tab[(i << 1) + 1] = value;
+                maxDist = Math.max(maxDist, d);
+                h = sh;
+                key = k;
+                value = v;
+                d = sd;
+            }
+        }
+    }
+
+    /**
+     * 插入后检查容量和探测长度，h 为刚插入的键的哈希
+     */
+    private void afterInsert(int h, int probe) {
+        if (++size > threshold)
+            rebuild(hashes.length << 1);
+        else if (probe > maxProbe) {
+            if (lastReseedSize < 0 || size >= lastReseedSize << 1) {
+                // 换一组种子后重建，攻击者预先构造的碰撞随之失效
+                lastReseedSize = size;
+                reseedCount++;
+                seeded = true;
+                hashSeed0 = SafeHashMap.newSeed0();
+                hashSeed1 = SafeHashMap.newSeed1();
+                rebuild(hashes.length);
+            } else if (countSameHash(h) >= SafeHashMap.TREEIFY_THRESHOLD) {
+                // 换种子也打不散，是 hashCode 完全相同的键：像链式引擎那样交给红黑树桶，而不是反复扩容
+                toFallback();
+            } else if (size >= hashes.length >>> 3 && hashes.length < MAXIMUM_CAPACITY) {
+                // 换种子无效时适度扩容；负载已很低仍超限说明是完全相同的哈希，扩容也无济于事
+                rebuild(hashes.length << 1);
+            }
+        }
+    }
+
+    /**
+     * 从哈希 h 的理想位置开始，统计探测簇中哈希等于 h 的元素个数
+     * Robin Hood 插入使同一理想位置的元素连续存放，遇到空槽或理想位置更靠后的元素即可停止
+     */
+    private int countSameHash(int h) {
+        int[] hs = hashes;
+        int mask = hs.length - 1;
+        int count = 0;
+        for (int i = h & mask, d = 0; ; i = (i + 1) & mask, d++) {
+            int sh = hs[i];
+            if (sh == 0 || ((i - sh) & mask) < d)
+                return count;
+            if (sh == h)
+                count++;
+        }
+    }
+
+    /**
+     * 把全部元素转存到链式 SafeHashMap，之后的操作都委托给它
+     */
+    @SuppressWarnings("unchecked")
+    private void toFallback() {
+        SafeHashMap<K, V> map = new SafeHashMap<>(size);
+        Object[] tab = table;
+        int[] hs = hashes;
+        for (int j = 0; j < hs.length; j++) {
+            if (hs[j] != 0)
+                map.put((K) tab[j << 1], (V) tab[(j << 1) + 1]);
+        }
+        fallback = map;
+        size = 0;
+        allocate(PrimitiveHashing.capacityFor(DEFAULT_INITIAL_CAPACITY, loadFactor));
+        modCount++;
+    }
+
+    private void rebuild(int newCapacity) {
+        if (newCapacity > MAXIMUM_CAPACITY)
+            throw new IllegalStateException("RobinHoodSafeHashMap 容量超出上限");
+        Object[] oldTab = table;
+        int[] oldHashes = hashes;
+        allocate(newCapacity);
+        for (int j = 0; j < oldHashes.length; j++) {
+            if (oldHashes[j] != 0) {
+                Object k = oldTab[j << 1];
+                // 换种子后必须重新计算哈希，否则沿用缓存的哈希
+                insert(seeded ? hash(k) : oldHashes[j], k, oldTab[(j << 1) + 1]);
+            }
+        }
+        modCount++;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        if (fallback != null)
+            return fallback.remove(key);
+        int i = indexOf(key);
+        if (i < 0)
+            return null;
+        V old = (V) table[(i << 1) + 1];
+        removeAt(i);
+        return old;
+    }
+
+    /**
+     * 删除槽位 i，并把后续不在理想位置上的元素依次前移一格
+     */
+    final void removeAt(int i) {
+        int[] hs = hashes;
+        Object[] tab = table;
+        int mask = hs.length - 1;
+        for (int j = (i + 1) & mask; ; i = j, j = (j + 1) & mask) {
+            int sh = hs[j];
+            if (sh == 0 || ((j - sh) & mask) == 0)
+                break;
+            hs[i] = sh;
+            tab[i << 1] = tab[j << 1];
+            tab[(i << 1) + 1] = tab[(j << 1) + 1];
+        }
+        hs[i] = 0;
+        tab[i << 1] = null;
+        tab[(i << 1) + 1] = null;
+        size--;
+        modCount++;
+    }
+
+    public void clear() {
+        modCount++;
+        // 清空后攻击数据已不存在，回到开放寻址（转存时主表已清空）
+        fallback = null;
+        if (size > 0) {
+            size = 0;
+            Arrays.fill(hashes, 0);
+            Arrays.fill(table, null);
+        }
+    }
+
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        public int size() { return RobinHoodSafeHashMap.this.size(); }
+        public void clear() { RobinHoodSafeHashMap.this.clear(); }
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return fallback != null ? fallback.entrySet().iterator() : new EntryIterator();
+        }
+        public boolean contains(Object o) {
+            if (fallback != null)
+                return fallback.entrySet().contains(o);
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            int i = indexOf(e.getKey());
+            return i >= 0 && Objects.equals(table[(i << 1) + 1], e.getValue());
+        }
+    }
+
+    /**
+     * 从一个空槽之后开始绕表一周遍历。向后移动删除只会把同一簇中尚未访问的元素移到当前位置，
+     * 不会跨过起始空槽，因此删除后重新检查当前位置即可保证每个元素只访问一次
+     */
+    final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        final int start;
+        int offset;          // 下一个要检查的位置相对 start 的偏移
+        int lastOffset = -1; // 上一次返回元素的偏移
+        int expectedModCount = modCount;
+
+        EntryIterator() {
+            int s = 0;
+            int[] hs = hashes;
+            while (hs[s] != 0) // 负载因子小于 1，一定存在空槽
+                s++;
+            start = s;
+            offset = 1;
+            advance();
+        }
+
+        private void advance() {
+            int[] hs = hashes;
+            int mask = hs.length - 1;
+            while (offset <= mask && hs[(start + offset) & mask] == 0)
+                offset++;
+        }
+
+        public boolean hasNext() {
+            return offset < hashes.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int i = (start + offset) & (hashes.length - 1);
+            lastOffset = offset++;
+            advance();
+            return new Entry((K) table[i << 1], (V) table[(i << 1) + 1]);
+        }
+
+        public void remove() {
+            if (lastOffset < 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            removeAt((start + lastOffset) & (hashes.length - 1));
+            // 后面的元素可能已前移到刚删除的位置
+            offset = lastOffset;
+            lastOffset = -1;
+            advance();
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * 迭代返回的条目，setValue 写回 map
+     */
+    final class Entry extends AbstractMap.SimpleEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        Entry(K key, V value) {
+            super(key, value);
+        }
+
+        public V setValue(V value) {
+            super.setValue(value);
+            return put(getKey(), value);
+        }
+    }
+}
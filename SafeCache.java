@@ -0,0 +1,352 @@
+package com.nieran;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * 基于 SafeHashMap 的有界缓存
+ * 1.哈希：默认开启带密钥哈希，并保留碰撞攻击检测，键由外部输入决定的缓存同样安全
+ * 2.容量：按条目数（每条权重 1）或按 weigher 计算的总权重限制
+ * 3.淘汰策略：
+ *   LRU：所有条目按访问顺序串成一个链表，超限时淘汰最久未访问的条目
+ *   W_TINY_LFU：新条目先进入 1% 的窗口 LRU，从窗口淘汰出来的候选者只有比主区试用队列队头的受害者
+ *   访问频率更高才被接纳；主区分为试用区（20%）和保护区（80%），试用区的条目再次被访问后晋升到保护区。
+ *   一次性扫描的大量冷键无法挤掉热点数据，频率由 FrequencySketch 估计
+ * 4.统计：命中、未命中、淘汰次数
+ * 与 SafeHashMap 一样不是线程安全的，多线程访问需要外部同步
+ */
+public class SafeCache<K, V> extends SafeHashMap<K, V> {
+    // 淘汰策略
+    public enum Policy { LRU, W_TINY_LFU }
+
+    // 队列编号：LRU 只使用 WINDOW
+    static final byte WINDOW = 0;
+    static final byte PROBATION = 1;
+    static final byte PROTECTED = 2;
+    // 窗口占总容量的比例
+    static final double WINDOW_RATIO = 0.01;
+    // 保护区占主区的比例
+    static final double PROTECTED_RATIO = 0.8;
+    // 攻击者可以反复访问受害者抬高其频率，让缓存拒绝所有新键；
+    // 频率达到这个值的候选者即使没有胜出，也有 1/128 的概率被接纳
+    static final int WARM_CANDIDATE_FREQUENCY = 6;
+
+    final Policy policy;
+    // 最大总权重
+    final long maximumWeight;
+    // 权重函数，按条目数限制时为 null（每条权重 1）
+    final ToIntBiFunction<? super K, ? super V> weigher;
+    // 窗口和保护区的最大权重（仅 W_TINY_LFU）
+    final long windowMaximum;
+    final long protectedMaximum;
+    // 频率草图（仅 W_TINY_LFU）
+    final FrequencySketch sketch;
+
+    // 各队列的头（最久未访问）、尾和总权重
+    final LinkedNode<K, V>[] heads;
+    final LinkedNode<K, V>[] tails;
+    final long[] queueWeights = new long[3];
+
+    long hitCount;
+    long missCount;
+    long evictionCount;
+
+    /**
+     * 按条目数限制的缓存
+     */
+    public SafeCache(long maximumSize, Policy policy) {
+        this(maximumSize, null, policy);
+    }
+
+    /**
+     * 按总权重限制的缓存，weigher 为 null 时每条权重为 1
+     * 权重在插入和 put 覆盖时计算，通过 Map.Entry.setValue 或 replaceAll 修改的值不会重新计算权重
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public SafeCache(long maximumWeight, ToIntBiFunction<? super K, ? super V> weigher, Policy policy) {
+        super(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, true);
+        if (maximumWeight < 0)
+            throw new IllegalArgumentException("Illegal maximum weight: " + maximumWeight);
+        this.policy = Objects.requireNonNull(policy);
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        if (policy == Policy.W_TINY_LFU) {
+            windowMaximum = Math.max(1L, (long) (maximumWeight * WINDOW_RATIO));
+            protectedMaximum = (long) ((maximumWeight - windowMaximum) * PROTECTED_RATIO);
+            // 按权重限制时条目数未知，草图大小按最大权重估计
+            sketch = new FrequencySketch(maximumWeight);
+        } else {
+            windowMaximum = maximumWeight;
+            protectedMaximum = 0;
+            sketch = null;
+        }
+        heads = new LinkedNode[3];
+        tails = new LinkedNode[3];
+    }
+
+    /**
+     * 获取元素并记录命中/未命中
+     * 未命中的访问也计入频率草图，否则刚被淘汰又反复回来的键永远比不过试用区里的冷键
+     */
+    public V get(Object key) {
+        int hash = hash(key);
+        Node<K, V> e;
+        if ((e = getNode(hash, key)) == null) {
+            missCount++;
+            if (sketch != null)
+                sketch.increment(hash);
+            return null;
+        }
+        hitCount++;
+        afterNodeAccess(e);
+        return e.value;
+    }
+
+    public void clear() {
+        super.clear();
+        Arrays.fill(heads, null);
+        Arrays.fill(tails, null);
+        Arrays.fill(queueWeights, 0L);
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * 命中率，没有任何 get 时返回 1.0
+     */
+    public double hitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    /**
+     * 当前总权重（按条目数限制时等于 size）
+     */
+    public long weightedSize() {
+        return queueWeights[WINDOW] + queueWeights[PROBATION] + queueWeights[PROTECTED];
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    // ---------------- 节点创建：新节点进入窗口队尾，替换节点继承原节点的位置 ----------------
+
+    Node<K, V> newNode(int hash, K key, V value, Node<K, V> next) {
+        LinkedNode<K, V> p = new LinkedNode<>(hash, key, value, next);
+        linkNewNode(p);
+        return p;
+    }
+
+    Node<K, V> replacementNode(Node<K, V> p, Node<K, V> next) {
+        LinkedNode<K, V> q = new LinkedNode<>(p.hash, p.key, p.value, next);
+        transferLinks((LinkedNode<K, V>) p, q);
+        return q;
+    }
+
+    TreeNode<K, V> newTreeNode(int hash, K key, V value, Node<K, V> next) {
+        TreeNode<K, V> p = new TreeNode<>(hash, key, value, next);
+        linkNewNode(p);
+        return p;
+    }
+
+    TreeNode<K, V> replacementTreeNode(Node<K, V> p, Node<K, V> next) {
+        TreeNode<K, V> q = new TreeNode<>(p.hash, p.key, p.value, next);
+        transferLinks((LinkedNode<K, V>) p, q);
+        return q;
+    }
+
+    Node<K, V> rehashedNode(Node<K, V> p, int hash, Node<K, V> next) {
+        LinkedNode<K, V> q = new LinkedNode<>(hash, p.key, p.value, next);
+        transferLinks((LinkedNode<K, V>) p, q);
+        return q;
+    }
+
+    // 节点必须按插入顺序进入淘汰队列，树桶拆分时的替换节点也要改写队列，不能并行创建
+    boolean supportsParallelLoad() {
+        return false;
+    }
+
+    // ---------------- SafeHashMap 回调 ----------------
+
+    void afterNodeAccess(Node<K, V> e) {
+        LinkedNode<K, V> p = (LinkedNode<K, V>) e;
+        boolean reweighed = weigher != null && reweigh(p);
+        if (policy == Policy.LRU) {
+            moveToTail(p);
+        } else {
+            sketch.increment(p.hash);
+            if (p.queue == PROBATION) {
+                // 试用区再次被访问，晋升到保护区；保护区超限时把最久未访问的降回试用区
+                unlink(p);
+                linkLast(p, PROTECTED);
+                while (queueWeights[PROTECTED] > protectedMaximum)
+                    move(heads[PROTECTED], PROBATION);
+            } else {
+                moveToTail(p);
+            }
+        }
+        if (reweighed)
+            evictEntries();
+    }
+
+    void afterNodeInsertion(boolean evict) {
+        if (evict)
+            evictEntries();
+    }
+
+    void afterNodeRemoval(Node<K, V> e) {
+        unlink((LinkedNode<K, V>) e);
+    }
+
+    // ---------------- 淘汰 ----------------
+
+    /**
+     * 淘汰条目直到总权重不超过上限
+     */
+    final void evictEntries() {
+        if (policy == Policy.W_TINY_LFU) {
+            // 窗口溢出的条目进入试用区队尾，成为候选者与试用区队头比较
+            while (queueWeights[WINDOW] > windowMaximum) {
+                LinkedNode<K, V> candidate = heads[WINDOW];
+                move(candidate, PROBATION);
+                admit(candidate);
+            }
+        }
+        // LRU，或者权重变化使总量超限：按 试用区 -> 保护区 -> 窗口 的顺序淘汰最久未访问的条目
+        while (weightedSize() > maximumWeight) {
+            LinkedNode<K, V> victim = heads[PROBATION] != null ? heads[PROBATION]
+                    : heads[PROTECTED] != null ? heads[PROTECTED] : heads[WINDOW];
+            evict(victim);
+        }
+    }
+
+    /**
+     * 候选者与受害者比较频率，淘汰失败的一方，直到总权重不超过上限
+     */
+    private void admit(LinkedNode<K, V> candidate) {
+        while (weightedSize() > maximumWeight) {
+            LinkedNode<K, V> victim = heads[PROBATION];
+            // 试用区只剩候选者本身时与保护区队头比较
+            if (victim == candidate)
+                victim = heads[PROTECTED];
+            if (victim == null || !admittable(candidate, victim)) {
+                evict(candidate);
+                return;
+            }
+            evict(victim);
+        }
+    }
+
+    private boolean admittable(LinkedNode<K, V> candidate, LinkedNode<K, V> victim) {
+        int candidateFrequency = sketch.frequency(candidate.hash);
+        if (candidateFrequency > sketch.frequency(victim.hash))
+            return true;
+        return candidateFrequency >= WARM_CANDIDATE_FREQUENCY &&
+                (ThreadLocalRandom.current().nextInt() & 127) == 0;
+    }
+
+    private void evict(LinkedNode<K, V> node) {
+        evictionCount++;
+        // removeNode 通过 afterNodeRemoval 把节点从队列中摘除
+        removeNode(node.hash, node.key, null, false, true);
+    }
+
+    private boolean reweigh(LinkedNode<K, V> p) {
+        int weight = weigh(p.key, p.value);
+        if (weight == p.weight)
+            return false;
+        queueWeights[p.queue] += weight - p.weight;
+        p.weight = weight;
+        return true;
+    }
+
+    private int weigh(K key, V value) {
+        if (weigher == null)
+            return 1;
+        int weight = weigher.applyAsInt(key, value);
+        if (weight < 0)
+            throw new IllegalArgumentException("Negative weight: " + weight);
+        return weight;
+    }
+
+    // ---------------- 双向链表操作 ----------------
+
+    private void linkNewNode(LinkedNode<K, V> p) {
+        p.weight = weigh(p.key, p.value);
+        if (sketch != null)
+            sketch.increment(p.hash);
+        linkLast(p, WINDOW);
+    }
+
+    private void linkLast(LinkedNode<K, V> p, byte queue) {
+        LinkedNode<K, V> last = tails[queue];
+        p.queue = queue;
+        p.before = last;
+        p.after = null;
+        tails[queue] = p;
+        if (last == null)
+            heads[queue] = p;
+        else
+            last.after = p;
+        queueWeights[queue] += p.weight;
+    }
+
+    private void unlink(LinkedNode<K, V> p) {
+        LinkedNode<K, V> b = p.before, a = p.after;
+        byte queue = p.queue;
+        p.before = p.after = null;
+        if (b == null)
+            heads[queue] = a;
+        else
+            b.after = a;
+        if (a == null)
+            tails[queue] = b;
+        else
+            a.before = b;
+        queueWeights[queue] -= p.weight;
+    }
+
+    private void moveToTail(LinkedNode<K, V> p) {
+        if (tails[p.queue] != p) {
+            byte queue = p.queue;
+            unlink(p);
+            linkLast(p, queue);
+        }
+    }
+
+    private void move(LinkedNode<K, V> p, byte queue) {
+        unlink(p);
+        linkLast(p, queue);
+    }
+
+    /**
+     * 用 dst 替换 src 在队列中的位置
+     */
+    private void transferLinks(LinkedNode<K, V> src, LinkedNode<K, V> dst) {
+        LinkedNode<K, V> b = dst.before = src.before;
+        LinkedNode<K, V> a = dst.after = src.after;
+        byte queue = dst.queue = src.queue;
+        dst.weight = src.weight;
+        if (b == null)
+            heads[queue] = dst;
+        else
+            b.after = dst;
+        if (a == null)
+            tails[queue] = dst;
+        else
+            a.before = dst;
+    }
+}
@@ -3,12 +3,14 @@ package com.nieran;
 import java.util.Map;
 import java.util.Objects;
 import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 
     /**
      * 安全 HashMap 实现，包含扰动函数和自动树化机制
      */
-    public class SafeHashMap<K, V> {
+    public class SafeHashMap<K, V> extends AbstractMap<K, V> {
         // 默认初始容量
         static final int DEFAULT_INITIAL_CAPACITY = 16;
         // 最大容量
@@ -21,9 +23,33 @@ import java.util.*;
         static final int UNTREEIFY_THRESHOLD = 6;
         // 最小树化容量
         static final int MIN_TREEIFY_CAPACITY = 64;
+        // 增量扩容时每次操作至少迁移的非空旧桶数（空桶最多再看 10 倍）
+        static final int TRANSFER_STEP = 4;
+        // 并行扩容时每个任务至少负责的旧桶数
+        static final int MIN_TRANSFER_STRIDE = 1 << 14;
+        // 批量加载的条目数达到这个值时走并行分区加载
+        static final int PARALLEL_LOAD_THRESHOLD = 1 << 16;
+        // 批量查找每批的键数：整批的桶首节点读取同时发出
+        static final int MULTI_GET_BATCH = 32;
+        // 判定为碰撞攻击所需的超长桶事件数（另加表长 / 65536）
+        static final int ATTACK_LONG_BUCKET_LIMIT = 4;
+        // 链表达到树化阈值时，桶中 hash 与新键完全相同的字符串键至少这么多个才算一次超长桶事件。
+        // 只看桶长会误报：perturb 对顺序 Integer、"key" + i 一类的键分布不均，千级数据就会出现超长桶；
+        // 而 perturb 是双射，hashCode 不同的键 hash 一定不同，正常数据中 4 个字符串 hashCode 完全相同的概率可以忽略
+        static final int ATTACK_SAME_HASH = TREEIFY_THRESHOLD / 2;
 
         // 底层存储数组
         Node<K, V>[] table;
+        // 增量扩容中尚未迁移完的旧桶数组，为 null 表示没有进行中的扩容
+        Node<K, V>[] oldTable;
+        // 增量扩容的顺序迁移游标，旧桶数组中它之前的桶都已迁移
+        int transferIndex;
+        // 是否启用增量扩容
+        boolean incrementalResize;
+        // 并行扩容使用的线程池，为 null 表示串行迁移
+        java.util.concurrent.ForkJoinPool resizePool;
+        // 旧表容量达到这个值才并行迁移
+        int parallelResizeThreshold;
         // 键值对数量
         int size;
         // 修改计数器
@@ -32,11 +58,45 @@ import java.util.*;
         int threshold;
         // 负载因子
         final float loadFactor;
+        // entrySet / keySet / values 视图，首次使用时创建
+        Set<Map.Entry<K, V>> entrySet;
+        Set<K> keySet;
+        Collection<V> values;
+        // 是否对 String 键启用带密钥哈希（检测到攻击后也会自动开启）
+        boolean keyedHashing;
+        // 检测到攻击后，其他类型的键也混入种子再扰动
+        boolean seededHashing;
+        // 未开启带密钥哈希时的扩散策略，null 表示默认的 perturb
+        HashStrategy hashStrategy;
+        // 每个实例独立的哈希密钥（仅 keyedHashing 为 true 时使用）
+        long hashSeed0, hashSeed1;
+        // 上次重哈希以来出现的超长桶事件数（链表达到树化阈值或树桶继续增长）
+        int longBucketCount;
+        // 上次重哈希时的元素数量，用于把重哈希开销摊还到插入上
+        int lastRehashSize;
+        // 本实例因检测到攻击而重哈希的次数
+        int attackRehashCount;
+        // TreeNode.findTreeSlot 的方向输出：0 表示找到，-1 / 1 表示插入到返回节点的左 / 右侧
+        int treeSlotDir;
+        // 运行统计，只有 -Dsafehashmap.stats=true 时才创建；所有记录点都先判断 static final 开关
+        final SafeHashMapStats stats = SafeHashMapStats.ENABLED ? new SafeHashMapStats(this) : null;
+
+        // 所有实例因检测到攻击而重哈希的总次数，供监控告警
+        private static final java.util.concurrent.atomic.AtomicLong TOTAL_ATTACK_REHASHES =
+                new java.util.concurrent.atomic.AtomicLong();
+
+        // 全局随机盐，类加载时由 SecureRandom 生成一次，避免每次构造都调用 SecureRandom
+        private static final long SEED_SALT0, SEED_SALT1;
+        static {
+            java.security.SecureRandom rnd = new java.security.SecureRandom();
+            SEED_SALT0 = rnd.nextLong();
+            SEED_SALT1 = rnd.nextLong();
+        }
 
         /**
          * 哈希桶节点基类
          */
-        static class Node<K, V> {
+        static class Node<K, V> implements Map.Entry<K, V> {
             final int hash;
             final K key;
             V value;
@@ -78,9 +138,24 @@ import java.util.*;
         }
 
         /**
-         * 红黑树节点类
+         * 带双向链表指针的节点，SafeCache 用它维护访问顺序和所在队列
+         */
+        static class LinkedNode<K, V> extends Node<K, V> {
+            LinkedNode<K, V> before, after;
+            // 缓存条目的权重
+            int weight;
+            // 所在的淘汰队列，见 SafeCache
+            byte queue;
+
+            LinkedNode(int hash, K key, V value, Node<K, V> next) {
+                super(hash, key, value, next);
+            }
+        }
+
+        /**
+         * 红黑树节点类（继承 LinkedNode，树桶中的条目同样可以参与 SafeCache 的淘汰顺序）
          */
-        static final class TreeNode<K, V> extends Node<K, V> {
+        static final class TreeNode<K, V> extends LinkedNode<K, V> {
             TreeNode<K, V> parent;
             TreeNode<K, V> left;
             TreeNode<K, V> right;
@@ -91,13 +166,644 @@ import java.util.*;
                 super(hash, key, val, next);
             }
 
-            // 树化方法
+            /**
+             * 返回包含当前节点的树的根节点
+             */
+            final TreeNode<K, V> root() {
+                for (TreeNode<K, V> r = this, p;;) {
+                    if ((p = r.parent) == null)
+                        return r;
+                    r = p;
+                }
+            }
+
+            /**
+             * 确保根节点是桶的首节点（链表顺序的第一个）
+             */
+            static <K, V> void moveRootToFront(Node<K, V>[] tab, TreeNode<K, V> root) {
+                int n;
+                if (root != null && tab != null && (n = tab.length) > 0) {
+                    int index = (n - 1) & root.hash;
+                    TreeNode<K, V> first = (TreeNode<K, V>)tab[index];
+                    if (root != first) {
+                        Node<K, V> rn;
+                        tab[index] = root;
+                        TreeNode<K, V> rp = root.prev;
+                        if ((rn = root.next) != null)
+                            ((TreeNode<K, V>)rn).prev = rp;
+                        if (rp != null)
+                            rp.next = rn;
+                        if (first != null)
+                            first.prev = root;
+                        root.next = first;
+                        root.prev = null;
+                    }
+                    assert checkInvariants(root);
+                }
+            }
+
+            /**
+             * 从当前节点开始查找，排序规则：hash -> Comparable -> 两侧都查
+             * kc 缓存 key 的 Comparable 类型，首次使用时计算
+             */
+            final TreeNode<K, V> find(int h, Object k, Class<?> kc) {
+                TreeNode<K, V> p = this;
+                do {
+                    int ph, dir;
+                    K pk;
+                    TreeNode<K, V> pl = p.left, pr = p.right, q;
+                    if ((ph = p.hash) > h)
+                        p = pl;
+                    else if (ph < h)
+                        p = pr;
+                    else if ((pk = p.key) == k || (k != null && k.equals(pk)))
+                        return p;
+                    else if (pl == null)
+                        p = pr;
+                    else if (pr == null)
+                        p = pl;
+                    else if ((kc != null ||
+                            (kc = comparableClassFor(k)) != null) &&
+                            (dir = compareComparables(kc, k, pk)) != 0)
+                        p = (dir < 0) ? pl : pr;
+                    // 不可比较或比较结果相等时，只能两侧都查找
+                    else if ((q = pr.find(h, k, kc)) != null)
+                        return q;
+                    else
+                        p = pl;
+                } while (p != null);
+                return null;
+            }
+
+            /**
+             * 树查找入口，总是从根节点开始
+             */
+            final TreeNode<K, V> getTreeNode(int h, Object k) {
+                return ((parent != null) ? root() : this).find(h, k, null);
+            }
+
+            /**
+             * 树中除键 k 所在节点外是否还有 hash 为 h 的节点，只比较 hash，O(log n)。
+             * 树按 hash 排序，hash 相同的节点在中序上连续，并且都在查找路径上最先遇到的那个节点的子树中，
+             * 所以只需看这个节点本身，或者它是 k 时看它的前驱和后继
+             */
+            final boolean hasOtherWithHash(int h, Object k) {
+                TreeNode<K, V> p = (parent != null) ? root() : this;
+                while (p != null && p.hash != h)
+                    p = (p.hash > h) ? p.left : p.right;
+                if (p == null)
+                    return false;
+                if (p.key != k)
+                    return true;
+                TreeNode<K, V> l = p.left, r = p.right;
+                if (l != null) {
+                    while (l.right != null)
+                        l = l.right;
+                    if (l.hash == h)
+                        return true;
+                }
+                if (r != null) {
+                    while (r.left != null)
+                        r = r.left;
+                    return r.hash == h;
+                }
+                return false;
+            }
+
+            /**
+             * 当 hash 相同且 key 不可比较时的决胜排序。
+             * 只要求插入时得到确定的方向，查找时不依赖它（find 会两侧都查）
+             */
+            static int tieBreakOrder(Object a, Object b) {
+                int d;
+                if (a == null || b == null ||
+                        (d = a.getClass().getName().
+                                compareTo(b.getClass().getName())) == 0)
+                    d = (System.identityHashCode(a) <= System.identityHashCode(b) ?
+                            -1 : 1);
+                return d;
+            }
+
+            /**
+             * 将以当前节点开头的链表构建为红黑树
+             */
             final void treeify(Node<K, V>[] tab) {
-                // 实际树化实现会放在这里
-                System.out.println("树化桶: " + (hash & (tab.length - 1)));
+                TreeNode<K, V> root = null;
+                for (TreeNode<K, V> x = this, next; x != null; x = next) {
+                    next = (TreeNode<K, V>)x.next;
+                    x.left = x.right = null;
+                    if (root == null) {
+                        x.parent = null;
+                        x.red = false;
+                        root = x;
+                    } else {
+                        K k = x.key;
+                        int h = x.hash;
+                        Class<?> kc = null;
+                        for (TreeNode<K, V> p = root;;) {
+                            int dir, ph;
+                            K pk = p.key;
+                            if ((ph = p.hash) > h)
+                                dir = -1;
+                            else if (ph < h)
+                                dir = 1;
+                            else if ((kc == null &&
+                                    (kc = comparableClassFor(k)) == null) ||
+                                    (dir = compareComparables(kc, k, pk)) == 0)
+                                dir = tieBreakOrder(k, pk);
+
+                            TreeNode<K, V> xp = p;
+                            if ((p = (dir <= 0) ? p.left : p.right) == null) {
+                                x.parent = xp;
+                                if (dir <= 0)
+                                    xp.left = x;
+                                else
+                                    xp.right = x;
+                                root = balanceInsertion(root, x);
+                                break;
+                            }
+                        }
+                    }
+                }
+                moveRootToFront(tab, root);
+            }
+
+            /**
+             * 反树化：把以当前节点开头的树节点链表还原为普通链表
+             */
+            final Node<K, V> untreeify(SafeHashMap<K, V> map) {
+                if (SafeHashMapStats.ENABLED)
+                    map.stats.recordUntreeify();
+                Node<K, V> hd = null, tl = null;
+                for (Node<K, V> q = this; q != null; q = q.next) {
+                    Node<K, V> p = map.replacementNode(q, null);
+                    if (tl == null)
+                        hd = p;
+                    else
+                        tl.next = p;
+                    tl = p;
+                }
+                return hd;
+            }
+
+            /**
+             * 树版本的 putVal，找到已有节点时返回该节点，否则插入并返回 null
+             */
+            final TreeNode<K, V> putTreeVal(SafeHashMap<K, V> map, Node<K, V>[] tab,
+                                            int h, K k, V v) {
+                Class<?> kc = null;
+                boolean searched = false;
+                TreeNode<K, V> root = (parent != null) ? root() : this;
+                for (TreeNode<K, V> p = root;;) {
+                    int dir, ph;
+                    K pk;
+                    if ((ph = p.hash) > h)
+                        dir = -1;
+                    else if (ph < h)
+                        dir = 1;
+                    else if ((pk = p.key) == k || (k != null && k.equals(pk)))
+                        return p;
+                    else if ((kc == null &&
+                            (kc = comparableClassFor(k)) == null) ||
+                            (dir = compareComparables(kc, k, pk)) == 0) {
+                        // 无法区分方向时先在左右子树中完整查找一次，避免重复插入
+                        if (!searched) {
+                            TreeNode<K, V> q, ch;
+                            searched = true;
+                            if (((ch = p.left) != null &&
+                                    (q = ch.find(h, k, kc)) != null) ||
+                                    ((ch = p.right) != null &&
+                                            (q = ch.find(h, k, kc)) != null))
+                                return q;
+                        }
+                        dir = tieBreakOrder(k, pk);
+                    }
+
+                    TreeNode<K, V> xp = p;
+                    if ((p = (dir <= 0) ? p.left : p.right) == null) {
+                        root.linkTreeVal(map, tab, xp, dir, h, k, v);
+                        return null;
+                    }
+                }
+            }
+
+            /**
+             * 查找或定位插入点，只从根下降一次，比较规则与 putTreeVal 相同。
+             * 找到时返回该节点并把 map.treeSlotDir 置 0；
+             * 未找到时返回插入位置的父节点，treeSlotDir 为 -1（挂左侧）或 1（挂右侧）。
+             * 调用方要在执行用户函数之前把 treeSlotDir 读到局部变量，用户函数里的其他查找会覆盖它
+             */
+            final TreeNode<K, V> findTreeSlot(SafeHashMap<K, V> map, int h, Object k) {
+                Class<?> kc = null;
+                boolean searched = false;
+                for (TreeNode<K, V> p = (parent != null) ? root() : this;;) {
+                    int dir, ph;
+                    K pk;
+                    if ((ph = p.hash) > h)
+                        dir = -1;
+                    else if (ph < h)
+                        dir = 1;
+                    else if ((pk = p.key) == k || (k != null && k.equals(pk))) {
+                        map.treeSlotDir = 0;
+                        return p;
+                    } else if ((kc == null &&
+                            (kc = comparableClassFor(k)) == null) ||
+                            (dir = compareComparables(kc, k, pk)) == 0) {
+                        if (!searched) {
+                            TreeNode<K, V> q, ch;
+                            searched = true;
+                            if (((ch = p.left) != null &&
+                                    (q = ch.find(h, k, kc)) != null) ||
+                                    ((ch = p.right) != null &&
+                                            (q = ch.find(h, k, kc)) != null)) {
+                                map.treeSlotDir = 0;
+                                return q;
+                            }
+                        }
+                        dir = tieBreakOrder(k, pk);
+                    }
+
+                    TreeNode<K, V> xp = p;
+                    if ((p = (dir <= 0) ? p.left : p.right) == null) {
+                        map.treeSlotDir = (dir <= 0) ? -1 : 1;
+                        return xp;
+                    }
+                }
+            }
+
+            /**
+             * 在父节点 xp 的 dir 一侧挂上新节点，同时插到 xp 之后的 next 链中，再重新平衡
+             */
+            final void linkTreeVal(SafeHashMap<K, V> map, Node<K, V>[] tab, TreeNode<K, V> xp,
+                                   int dir, int h, K k, V v) {
+                TreeNode<K, V> root = (parent != null) ? root() : this;
+                Node<K, V> xpn = xp.next;
+                TreeNode<K, V> x = map.newTreeNode(h, k, v, xpn);
+                if (dir <= 0)
+                    xp.left = x;
+                else
+                    xp.right = x;
+                xp.next = x;
+                x.parent = x.prev = xp;
+                if (xpn != null)
+                    ((TreeNode<K, V>)xpn).prev = x;
+                moveRootToFront(tab, balanceInsertion(root, x));
+            }
+
+            /**
+             * 删除当前节点（调用前必须确认节点存在）。
+             * 树过小时（根或其子节点缺失）退化为链表
+             */
+            final void removeTreeNode(SafeHashMap<K, V> map, Node<K, V>[] tab,
+                                      boolean movable) {
+                int n;
+                if (tab == null || (n = tab.length) == 0)
+                    return;
+                int index = (n - 1) & hash;
+                TreeNode<K, V> first = (TreeNode<K, V>)tab[index], root = first, rl;
+                TreeNode<K, V> succ = (TreeNode<K, V>)next, pred = prev;
+                // 先从链表中摘除
+                if (pred == null)
+                    tab[index] = first = succ;
+                else
+                    pred.next = succ;
+                if (succ != null)
+                    succ.prev = pred;
+                if (first == null)
+                    return;
+                if (root.parent != null)
+                    root = root.root();
+                if (root == null
+                        || (movable
+                        && (root.right == null
+                        || (rl = root.left) == null
+                        || rl.left == null))) {
+                    tab[index] = first.untreeify(map);  // 太小
+                    return;
+                }
+                TreeNode<K, V> p = this, pl = left, pr = right, replacement;
+                if (pl != null && pr != null) {
+                    // 与后继节点交换位置
+                    TreeNode<K, V> s = pr, sl;
+                    while ((sl = s.left) != null)
+                        s = sl;
+                    boolean c = s.red; s.red = p.red; p.red = c;
+                    TreeNode<K, V> sr = s.right;
+                    TreeNode<K, V> pp = p.parent;
+                    if (s == pr) { // p 是 s 的直接父节点
+                        p.parent = s;
+                        s.right = p;
+                    } else {
+                        TreeNode<K, V> sp = s.parent;
+                        if ((p.parent = sp) != null) {
+                            if (s == sp.left)
+                                sp.left = p;
+                            else
+                                sp.right = p;
+                        }
+                        if ((s.right = pr) != null)
+                            pr.parent = s;
+                    }
+                    p.left = null;
+                    if ((p.right = sr) != null)
+                        sr.parent = p;
+                    if ((s.left = pl) != null)
+                        pl.parent = s;
+                    if ((s.parent = pp) == null)
+                        root = s;
+                    else if (p == pp.left)
+                        pp.left = s;
+                    else
+                        pp.right = s;
+                    if (sr != null)
+                        replacement = sr;
+                    else
+                        replacement = p;
+                } else if (pl != null)
+                    replacement = pl;
+                else if (pr != null)
+                    replacement = pr;
+                else
+                    replacement = p;
+                if (replacement != p) {
+                    TreeNode<K, V> pp = replacement.parent = p.parent;
+                    if (pp == null)
+                        (root = replacement).red = false;
+                    else if (p == pp.left)
+                        pp.left = replacement;
+                    else
+                        pp.right = replacement;
+                    p.left = p.right = p.parent = null;
+                }
+
+                TreeNode<K, V> r = p.red ? root : balanceDeletion(root, replacement);
+
+                if (replacement == p) {  // 摘除叶子节点
+                    TreeNode<K, V> pp = p.parent;
+                    p.parent = null;
+                    if (pp != null) {
+                        if (p == pp.left)
+                            pp.left = null;
+                        else if (p == pp.right)
+                            pp.right = null;
+                    }
+                }
+                if (movable)
+                    moveRootToFront(tab, r);
+            }
+
+            /**
+             * 扩容时把树桶拆分为高低两部分（与链表的 lo/hi 拆分一致）。
+             * 拆分后节点数不超过 UNTREEIFY_THRESHOLD 的部分退化为链表，否则重新树化。
+             * 利用 next 链表遍历，整体开销与节点数成线性关系
+             */
+            final void split(SafeHashMap<K, V> map, Node<K, V>[] tab, int index, int bit) {
+                TreeNode<K, V> b = this;
+                // 保留原顺序，重新链接为 lo 与 hi 两个链表
+                TreeNode<K, V> loHead = null, loTail = null;
+                TreeNode<K, V> hiHead = null, hiTail = null;
+                int lc = 0, hc = 0;
+                for (TreeNode<K, V> e = b, next; e != null; e = next) {
+                    next = (TreeNode<K, V>)e.next;
+                    e.next = null;
+                    if ((e.hash & bit) == 0) {
+                        if ((e.prev = loTail) == null)
+                            loHead = e;
+                        else
+                            loTail.next = e;
+                        loTail = e;
+                        ++lc;
+                    } else {
+                        if ((e.prev = hiTail) == null)
+                            hiHead = e;
+                        else
+                            hiTail.next = e;
+                        hiTail = e;
+                        ++hc;
+                    }
+                }
+
+                if (loHead != null) {
+                    if (lc <= UNTREEIFY_THRESHOLD)
+                        tab[index] = loHead.untreeify(map);
+                    else {
+                        tab[index] = loHead;
+                        if (hiHead != null) // 全部留在低位时原树结构仍然有效
+                            loHead.treeify(tab);
+                    }
+                }
+                if (hiHead != null) {
+                    if (hc <= UNTREEIFY_THRESHOLD)
+                        tab[index + bit] = hiHead.untreeify(map);
+                    else {
+                        tab[index + bit] = hiHead;
+                        if (loHead != null)
+                            hiHead.treeify(tab);
+                    }
+                }
+            }
+
+            /* ------------------------------------------------------------ */
+            // 红黑树平衡操作，参考 CLR《算法导论》
+
+            static <K, V> TreeNode<K, V> rotateLeft(TreeNode<K, V> root,
+                                                  TreeNode<K, V> p) {
+                TreeNode<K, V> r, pp, rl;
+                if (p != null && (r = p.right) != null) {
+                    if ((rl = p.right = r.left) != null)
+                        rl.parent = p;
+                    if ((pp = r.parent = p.parent) == null)
+                        (root = r).red = false;
+                    else if (pp.left == p)
+                        pp.left = r;
+                    else
+                        pp.right = r;
+                    r.left = p;
+                    p.parent = r;
+                }
+                return root;
+            }
+
+            static <K, V> TreeNode<K, V> rotateRight(TreeNode<K, V> root,
+                                                   TreeNode<K, V> p) {
+                TreeNode<K, V> l, pp, lr;
+                if (p != null && (l = p.left) != null) {
+                    if ((lr = p.left = l.right) != null)
+                        lr.parent = p;
+                    if ((pp = l.parent = p.parent) == null)
+                        (root = l).red = false;
+                    else if (pp.right == p)
+                        pp.right = l;
+                    else
+                        pp.left = l;
+                    l.right = p;
+                    p.parent = l;
+                }
+                return root;
+            }
+
+            static <K, V> TreeNode<K, V> balanceInsertion(TreeNode<K, V> root,
+                                                        TreeNode<K, V> x) {
+                x.red = true;
+                for (TreeNode<K, V> xp, xpp, xppl, xppr;;) {
+                    if ((xp = x.parent) == null) {
+                        x.red = false;
+                        return x;
+                    } else if (!xp.red || (xpp = xp.parent) == null)
+                        return root;
+                    if (xp == (xppl = xpp.left)) {
+                        if ((xppr = xpp.right) != null && xppr.red) {
+                            xppr.red = false;
+                            xp.red = false;
+                            xpp.red = true;
+                            x = xpp;
+                        } else {
+                            if (x == xp.right) {
+                                root = rotateLeft(root, x = xp);
+                                xpp = (xp = x.parent) == null ? null : xp.parent;
+                            }
+                            if (xp != null) {
+                                xp.red = false;
+                                if (xpp != null) {
+                                    xpp.red = true;
+                                    root = rotateRight(root, xpp);
+                                }
+                            }
+                        }
+                    } else {
+                        if (xppl != null && xppl.red) {
+                            xppl.red = false;
+                            xp.red = false;
+                            xpp.red = true;
+                            x = xpp;
+                        } else {
+                            if (x == xp.left) {
+                                root = rotateRight(root, x = xp);
+                                xpp = (xp = x.parent) == null ? null : xp.parent;
+                            }
+                            if (xp != null) {
+                                xp.red = false;
+                                if (xpp != null) {
+                                    xpp.red = true;
+                                    root = rotateLeft(root, xpp);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+
+            static <K, V> TreeNode<K, V> balanceDeletion(TreeNode<K, V> root,
+                                                       TreeNode<K, V> x) {
+                for (TreeNode<K, V> xp, xpl, xpr;;) {
+                    if (x == null || x == root)
+                        return root;
+                    else if ((xp = x.parent) == null) {
+                        x.red = false;
+                        return x;
+                    } else if (x.red) {
+                        x.red = false;
+                        return root;
+                    } else if ((xpl = xp.left) == x) {
+                        if ((xpr = xp.right) != null && xpr.red) {
+                            xpr.red = false;
+                            xp.red = true;
+                            root = rotateLeft(root, xp);
+                            xpr = (xp = x.parent) == null ? null : xp.right;
+                        }
+                        if (xpr == null)
+                            x = xp;
+                        else {
+                            TreeNode<K, V> sl = xpr.left, sr = xpr.right;
+                            if ((sr == null || !sr.red) &&
+                                    (sl == null || !sl.red)) {
+                                xpr.red = true;
+                                x = xp;
+                            } else {
+                                if (sr == null || !sr.red) {
+                                    if (sl != null)
+                                        sl.red = false;
+                                    xpr.red = true;
+                                    root = rotateRight(root, xpr);
+                                    xpr = (xp = x.parent) == null ?
+                                            null : xp.right;
+                                }
+                                if (xpr != null) {
+                                    xpr.red = (xp == null) ? false : xp.red;
+                                    if ((sr = xpr.right) != null)
+                                        sr.red = false;
+                                }
+                                if (xp != null) {
+                                    xp.red = false;
+                                    root = rotateLeft(root, xp);
+                                }
+                                x = root;
+                            }
+                        }
+                    } else { // 对称情况
+                        if (xpl != null && xpl.red) {
+                            xpl.red = false;
+                            xp.red = true;
+                            root = rotateRight(root, xp);
+                            xpl = (xp = x.parent) == null ? null : xp.left;
+                        }
+                        if (xpl == null)
+                            x = xp;
+                        else {
+                            TreeNode<K, V> sl = xpl.left, sr = xpl.right;
+                            if ((sl == null || !sl.red) &&
+                                    (sr == null || !sr.red)) {
+                                xpl.red = true;
+                                x = xp;
+                            } else {
+                                if (sl == null || !sl.red) {
+                                    if (sr != null)
+                                        sr.red = false;
+                                    xpl.red = true;
+                                    root = rotateLeft(root, xpl);
+                                    xpl = (xp = x.parent) == null ?
+                                            null : xp.left;
+                                }
+                                if (xpl != null) {
+                                    xpl.red = (xp == null) ? false : xp.red;
+                                    if ((sl = xpl.left) != null)
+                                        sl.red = false;
+                                }
+                                if (xp != null) {
+                                    xp.red = false;
+                                    root = rotateRight(root, xp);
+                                }
+                                x = root;
+                            }
+                        }
+                    }
+                }
             }
 
-            // 其他红黑树操作...
+            /**
+             * 递归检查红黑树与链表的一致性（仅在开启断言时使用）
+             */
+            static <K, V> boolean checkInvariants(TreeNode<K, V> t) {
+                TreeNode<K, V> tp = t.parent, tl = t.left, tr = t.right,
+                        tb = t.prev, tn = (TreeNode<K, V>)t.next;
+                if (tb != null && tb.next != t)
+                    return false;
+                if (tn != null && tn.prev != t)
+                    return false;
+                if (tp != null && t != tp.left && t != tp.right)
+                    return false;
+                if (tl != null && (tl.parent != t || tl.hash > t.hash))
+                    return false;
+                if (tr != null && (tr.parent != t || tr.hash < t.hash))
+                    return false;
+                if (t.red && tl != null && tl.red && tr != null && tr.red)
+                    return false;
+                if (tl != null && !checkInvariants(tl))
+                    return false;
+                if (tr != null && !checkInvariants(tr))
+                    return false;
+                return true;
+            }
         }
 
         /**
@@ -105,6 +811,7 @@ import java.util.*;
          */
         public SafeHashMap() {
             this.loadFactor = DEFAULT_LOAD_FACTOR;
+            this.keyedHashing = false;
         }
 
         /**
@@ -115,9 +822,18 @@ import java.util.*;
         }
 
         /**
-         * 完整构造函数
+         * 带初始容量和负载因子的构造函数
          */
         public SafeHashMap(int initialCapacity, float loadFactor) {
+            this(initialCapacity, loadFactor, false);
+        }
+
+        /**
+         * 完整构造函数
+         * keyedHashing 为 true 时，String 键使用每个实例随机密钥的 SipHash-1-3，
+         * 攻击者无法离线构造碰撞键（适合请求参数等外部输入的 Map）
+         */
+        public SafeHashMap(int initialCapacity, float loadFactor, boolean keyedHashing) {
             if (initialCapacity < 0)
                 throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
             if (initialCapacity > MAXIMUM_CAPACITY)
@@ -127,6 +843,26 @@ import java.util.*;
 
             this.loadFactor = loadFactor;
             this.threshold = tableSizeFor(initialCapacity);
+            this.keyedHashing = keyedHashing;
+            if (keyedHashing)
+                reseed();
+        }
+
+        /**
+         * 生成新的哈希密钥
+         */
+        final void reseed() {
+            hashSeed0 = newSeed0();
+            hashSeed1 = newSeed1();
+        }
+
+        // 随机种子：ThreadLocalRandom 与类加载时生成的 SecureRandom 盐混合
+        static long newSeed0() {
+            return java.util.concurrent.ThreadLocalRandom.current().nextLong() ^ SEED_SALT0;
+        }
+
+        static long newSeed1() {
+            return java.util.concurrent.ThreadLocalRandom.current().nextLong() ^ SEED_SALT1;
         }
 
         /**
@@ -156,18 +892,84 @@ import java.util.*;
             return h;
         }
 
+        /**
+         * 实例哈希：开启 keyedHashing 时对字符串内容做带密钥哈希，其他键仍使用 safeHash
+         */
+        final int hash(Object key) {
+            return keyedHashing ? keyedHash(key, seededHashing, hashSeed0, hashSeed1) : strategyHash(hashStrategy, key);
+        }
+
+        /**
+         * 按扩散策略计算哈希，strategy 为 null 时与 safeHash 相同（默认路径不经过接口调用）
+         */
+        static int strategyHash(HashStrategy strategy, Object key) {
+            return strategy == null ? safeHash(key) : key == null ? 0 : strategy.spread(key.hashCode());
+        }
+
+        /**
+         * 带密钥哈希：String 使用 SipHash-1-3；seededOthers 为 true 时其他键也混入种子。
+         * 只有 String 的 equals 按内容比较，StringBuilder、byte[] 等按引用比较的键按内容哈希换不来按值查找，
+         * 插入后修改内容还会找不到，所以和其他键一样使用 hashCode
+         */
+        static int keyedHash(Object key, boolean seededOthers, long seed0, long seed1) {
+            if (key instanceof String) {
+                long h = SipHash.hash13(seed0, seed1, (String) key);
+                return (int) (h ^ (h >>> 32));
+            }
+            if (seededOthers && key != null)
+                // 乘以奇数是双射，不会引入新的碰撞，但攻击者无法预知桶位置
+                return perturb((key.hashCode() ^ (int) seed0) * ((int) seed1 | 1));
+            return safeHash(key);
+        }
+
+        /**
+         * 如果 x 的类型形如 "class C implements Comparable<C>"，返回 C，否则返回 null。
+         * 树桶在 hash 相同时用它决定方向（参见 HashCollisionAttack1.HashCollisionKey）
+         */
+        static Class<?> comparableClassFor(Object x) {
+            if (x instanceof Comparable) {
+                Class<?> c;
+                java.lang.reflect.Type[] ts, as;
+                java.lang.reflect.ParameterizedType p;
+                if ((c = x.getClass()) == String.class) // 快速路径
+                    return c;
+                if ((ts = c.getGenericInterfaces()) != null) {
+                    for (java.lang.reflect.Type t : ts) {
+                        if ((t instanceof java.lang.reflect.ParameterizedType) &&
+                                ((p = (java.lang.reflect.ParameterizedType) t).getRawType() ==
+                                        Comparable.class) &&
+                                (as = p.getActualTypeArguments()) != null &&
+                                as.length == 1 && as[0] == c) // 类型参数是 c 本身
+                            return c;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 当 x 与 kc 类型一致时返回 k.compareTo(x)，否则返回 0
+         */
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        static int compareComparables(Class<?> kc, Object k, Object x) {
+            return (x == null || x.getClass() != kc ? 0 :
+                    ((Comparable) k).compareTo(x));
+        }
+
         /**
          * 获取元素
          */
         public V get(Object key) {
             Node<K, V> e;
-            return (e = getNode(safeHash(key), key)) == null ? null : e.value;
+            return (e = getNode(hash(key), key)) == null ? null : e.value;
         }
 
         /**
          * 内部获取实现
          */
         final Node<K, V> getNode(int hash, Object key) {
+            if (oldTable != null)
+                helpTransfer(hash);
             Node<K, V>[] tab = table;
             Node<K, V> first, e;
             int n;
@@ -197,17 +999,310 @@ import java.util.*;
             return null;
         }
 
+        /**
+         * 批量查找：把 keys 中每个键的值写入 out 的相同下标（不存在时写 null），返回找到的键数
+         * 每 MULTI_GET_BATCH 个键一批，先算整批哈希，再读整批桶首节点，最后逐个比较；
+         * 各次读取之间没有依赖，CPU 可以同时处理多个缓存缺失，而逐个 get 要依次等待
+         */
+        public int getAll(Object[] keys, V[] out) {
+            if (out.length < keys.length)
+                throw new IllegalArgumentException("out.length " + out.length + " < keys.length " + keys.length);
+            int[] hashes = new int[MULTI_GET_BATCH];
+            @SuppressWarnings({"rawtypes", "unchecked"})
+            Node<K, V>[] nodes = (Node<K, V>[]) new Node[MULTI_GET_BATCH];
+            int found = 0;
+            for (int from = 0; from < keys.length; from += MULTI_GET_BATCH) {
+                int len = Math.min(MULTI_GET_BATCH, keys.length - from);
+                findBatch(keys, from, len, hashes, nodes);
+                for (int i = 0; i < len; i++) {
+                    Node<K, V> e = nodes[i];
+                    out[from + i] = e == null ? null : e.value;
+                    if (e != null)
+                        found++;
+                }
+            }
+            return found;
+        }
+
+        /**
+         * 批量判断 keys 中的键是否全部存在，遇到第一批有缺失的键即返回
+         */
+        public boolean containsAll(Object[] keys) {
+            int[] hashes = new int[MULTI_GET_BATCH];
+            @SuppressWarnings({"rawtypes", "unchecked"})
+            Node<K, V>[] nodes = (Node<K, V>[]) new Node[MULTI_GET_BATCH];
+            for (int from = 0; from < keys.length; from += MULTI_GET_BATCH) {
+                int len = Math.min(MULTI_GET_BATCH, keys.length - from);
+                findBatch(keys, from, len, hashes, nodes);
+                for (int i = 0; i < len; i++) {
+                    if (nodes[i] == null)
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 查找 keys[from, from + len)，结果节点写入 nodes[0, len)
+         */
+        final void findBatch(Object[] keys, int from, int len, int[] hashes, Node<K, V>[] nodes) {
+            // 渐进式迁移进行中时逐个查找，每次查找顺带迁移
+            if (oldTable != null) {
+                for (int i = 0; i < len; i++) {
+                    Object key = keys[from + i];
+                    nodes[i] = getNode(hash(key), key);
+                }
+                return;
+            }
+            Node<K, V>[] tab = table;
+            if (tab == null || size == 0) {
+                Arrays.fill(nodes, 0, len, null);
+                return;
+            }
+            int mask = tab.length - 1;
+            // 第一遍：整批哈希（字符串的 hashCode 有缓存，SipHash 只读键本身）
+            for (int i = 0; i < len; i++)
+                hashes[i] = hash(keys[from + i]);
+            // 第二遍：读取整批桶首节点
+            for (int i = 0; i < len; i++)
+                nodes[i] = tab[hashes[i] & mask];
+            // 第三遍：逐个比较首节点，未命中再沿链表或树查找
+            for (int i = 0; i < len; i++) {
+                Node<K, V> first = nodes[i], e;
+                if (first == null)
+                    continue;
+                int hash = hashes[i];
+                Object key = keys[from + i];
+                K k;
+                if (first.hash == hash && ((k = first.key) == key || (key != null && key.equals(k))))
+                    continue;
+                e = null;
+                if (first.next != null) {
+                    if (first instanceof TreeNode) {
+                        e = ((TreeNode<K, V>) first).getTreeNode(hash, key);
+                    } else {
+                        for (e = first.next; e != null; e = e.next) {
+                            if (e.hash == hash && ((k = e.key) == key || (key != null && key.equals(k))))
+                                break;
+                        }
+                    }
+                }
+                nodes[i] = e;
+            }
+        }
+
         /**
          * 放入元素
          */
         public V put(K key, V value) {
-            return putVal(safeHash(key), key, value, false, true);
+            return putVal(hash(key), key, value, false, true);
+        }
+
+        /**
+         * 批量放入：按源 map 大小预先确定容量，避免逐个插入时的多次扩容。
+         * 当前为空且条目足够多时转为 bulkLoad 并行加载
+         */
+        public void putAll(Map<? extends K, ? extends V> m) {
+            int s = m.size();
+            if (s == 0)
+                return;
+            if (size == 0 && s >= PARALLEL_LOAD_THRESHOLD && supportsParallelLoad()) {
+                bulkLoad(m);
+                return;
+            }
+            presize(size + s);
+            for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+                K key = e.getKey();
+                putVal(hash(key), key, e.getValue(), false, true);
+            }
+        }
+
+        /**
+         * 按预期元素数量一次性确定容量（只扩大不缩小）
+         */
+        final void presize(int expected) {
+            float ft = ((float) expected / loadFactor) + 1.0F;
+            int t = ((ft < (float) MAXIMUM_CAPACITY) ? (int) ft : MAXIMUM_CAPACITY);
+            if (table == null) {
+                if (t > threshold)
+                    threshold = tableSizeFor(t);
+            } else {
+                while (expected > threshold && table.length < MAXIMUM_CAPACITY)
+                    resize();
+            }
+        }
+
+        /**
+         * 并行批量加载，要求当前 map 为空：
+         * 1.按源大小计算最终容量，一次分配桶数组
+         * 2.把条目分块，用 fork/join 并行计算哈希，并按桶下标的高位统计每个分区的条目数
+         * 3.前缀和后各块把条目下标并行写入自己的分区区间（计数排序，保持源顺序）
+         * 4.每个分区只负责一段连续的桶，并行挂链，互不竞争；链表达到树化阈值后不再往这个桶挂链，
+         *   之后落入这个桶的条目记下来留给第 5 步，链表长度始终有上限，碰撞键不会让挂链退化为平方复杂度
+         * 5.最后单线程树化超长桶（先做攻击检测），再把留下的条目逐个 putVal：它们走树桶插入，
+         *   树桶增长计入超长桶事件，攻击检测与换种子重哈希和逐个 put 时一致
+         */
+        public void bulkLoad(Map<? extends K, ? extends V> m) {
+            if (size != 0)
+                throw new IllegalStateException("bulkLoad 要求 map 为空");
+            int n = m.size();
+            if (n == 0)
+                return;
+            if (!supportsParallelLoad()) {
+                putAll(m);
+                return;
+            }
+            Object[] keys = new Object[n], values = new Object[n];
+            int count = 0;
+            for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+                if (count == n) // 源 map 在复制过程中变大
+                    throw new ConcurrentModificationException();
+                keys[count] = e.getKey();
+                values[count++] = e.getValue();
+            }
+            final int total = count;
+
+            presize(total);
+            // 表已存在时 presize 已经扩到足够大
+            Node<K, V>[] tab = (table == null) ? resize() : table;
+            finishTransfer();
+            int cap = tab.length, mask = cap - 1;
+            int parallelism = java.util.concurrent.ForkJoinPool.getCommonPoolParallelism();
+            int partitions = Math.min(cap, tableSizeFor(Math.max(1, parallelism) << 3));
+            int shift = Integer.numberOfTrailingZeros(cap) - Integer.numberOfTrailingZeros(partitions);
+            int chunkSize = Math.max(4096, (total + partitions - 1) / partitions);
+            int chunks = (total + chunkSize - 1) / chunkSize;
+
+            // 并行计算哈希并统计每块落在各分区的数量
+            int[] hashes = new int[total];
+            int[][] offsets = new int[chunks][partitions];
+            java.util.stream.IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] counts = offsets[c];
+                for (int i = c * chunkSize, end = Math.min(total, i + chunkSize); i < end; i++) {
+                    int h = hash(keys[i]);
+                    hashes[i] = h;
+                    counts[(h & mask) >>> shift]++;
+                }
+            });
+            // 前缀和：offsets[c][p] 变为块 c 在分区 p 中的起始位置
+            int[] partitionStart = new int[partitions + 1];
+            int pos = 0;
+            for (int p = 0; p < partitions; p++) {
+                partitionStart[p] = pos;
+                for (int c = 0; c < chunks; c++) {
+                    int k = offsets[c][p];
+                    offsets[c][p] = pos;
+                    pos += k;
+                }
+            }
+            partitionStart[partitions] = pos;
+            int[] order = new int[total];
+            java.util.stream.IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] next = offsets[c];
+                for (int i = c * chunkSize, end = Math.min(total, i + chunkSize); i < end; i++)
+                    order[next[(hashes[i] & mask) >>> shift]++] = i;
+            });
+
+            // 每个分区独占一段桶，并行挂链；源 map 的相等语义可能与 equals 不同，仍需检查重复键
+            int[] duplicates = new int[partitions];
+            int[][] longBuckets = new int[partitions][];
+            // 落入超长桶、留给 putVal 的条目下标（按源顺序）
+            int[][] deferred = new int[partitions][];
+            int[] deferredCounts = new int[partitions];
+            java.util.stream.IntStream.range(0, partitions).parallel().forEach(p -> {
+                int dup = 0, longCount = 0, deferCount = 0;
+                int[] longs = null, defers = null;
+                for (int j = partitionStart[p], end = partitionStart[p + 1]; j < end; j++) {
+                    int i = order[j], h = hashes[i], index = h & mask;
+                    @SuppressWarnings("unchecked") K key = (K) keys[i];
+                    @SuppressWarnings("unchecked") V value = (V) values[i];
+                    Node<K, V> e = tab[index];
+                    if (e == null) {
+                        tab[index] = newNode(h, key, value, null);
+                        continue;
+                    }
+                    int binCount = 1;
+                    for (;; binCount++) {
+                        Object k;
+                        if (e.hash == h && ((k = e.key) == key || (key != null && key.equals(k)))) {
+                            e.value = value;
+                            dup++;
+                            break;
+                        }
+                        if (e.next == null) {
+                            if (binCount >= TREEIFY_THRESHOLD) {
+                                if (defers == null)
+                                    defers = new int[16];
+                                else if (deferCount == defers.length)
+                                    defers = Arrays.copyOf(defers, deferCount << 1);
+                                defers[deferCount++] = i;
+                                break;
+                            }
+                            e.next = newNode(h, key, value, null);
+                            if (binCount + 1 == TREEIFY_THRESHOLD) {
+                                if (longs == null)
+                                    longs = new int[4];
+                                else if (longCount == longs.length)
+                                    longs = Arrays.copyOf(longs, longCount << 1);
+                                longs[longCount++] = index;
+                            }
+                            break;
+                        }
+                        e = e.next;
+                    }
+                }
+                duplicates[p] = dup;
+                longBuckets[p] = longs == null ? null : Arrays.copyOf(longs, longCount);
+                deferred[p] = defers;
+                deferredCounts[p] = deferCount;
+            });
+
+            int dup = 0, pending = 0;
+            for (int p = 0; p < partitions; p++) {
+                dup += duplicates[p];
+                pending += deferredCounts[p];
+            }
+            size = total - dup - pending;
+            ++modCount;
+            // 超长桶：和逐个 put 一样先判断是否遭到攻击（可能换种子重哈希），否则树化
+            treeify:
+            for (int[] longs : longBuckets) {
+                if (longs == null)
+                    continue;
+                for (int index : longs) {
+                    Node<K, V>[] t = table;
+                    if (t != tab)
+                        break treeify; // 已整体重哈希（或小表先扩容），超长桶已在重建时处理
+                    Node<K, V> first = t[index];
+                    if (first != null && !(first instanceof TreeNode))
+                        treeifyBin(t, first.hash);
+                }
+            }
+            // 留下的条目按源顺序逐个放入；重哈希后 hashes 中的值已失效，重新计算
+            for (int p = 0; p < partitions; p++) {
+                int[] defers = deferred[p];
+                for (int j = 0, end = deferredCounts[p]; j < end; j++) {
+                    int i = defers[j];
+                    @SuppressWarnings("unchecked") K key = (K) keys[i];
+                    @SuppressWarnings("unchecked") V value = (V) values[i];
+                    putVal(table == tab ? hashes[i] : hash(key), key, value, false, true);
+                }
+            }
+        }
+
+        /**
+         * bulkLoad 和并行扩容是否可以在多个线程中创建节点；SafeCache 创建和替换节点时要维护淘汰队列，只能单线程进行
+         */
+        boolean supportsParallelLoad() {
+            return true;
         }
 
         /**
          * 核心的放入实现
          */
         final V putVal(int hash, K key, V value, boolean onlyIfAbsent, boolean evict) {
+            if (oldTable != null)
+                helpTransfer(hash);
             Node<K, V>[] tab = table;
             Node<K, V> p;
             int n, i;
@@ -235,6 +1330,8 @@ import java.util.*;
                 // 如果是树节点
                 else if (p instanceof TreeNode) {
                     e = ((TreeNode<K, V>)p).putTreeVal(this, tab, hash, key, value);
+                    if (e == null)
+                        treeBinGrown(tab, p, hash, key);
                 }
                 // 否则遍历链表
                 else {
@@ -242,6 +1339,8 @@ import java.util.*;
                     while (true) {
                         if ((e = p.next) == null) {
                             p.next = newNode(hash, key, value, null);
+                            if (SafeHashMapStats.ENABLED)
+                                stats.recordProbe(binCount);
                             // 检查是否达到树化阈值
                             if (binCount >= TREEIFY_THRESHOLD - 1) {
                                 treeifyBin(tab, hash);
@@ -263,56 +1362,865 @@ import java.util.*;
                     if (!onlyIfAbsent || oldValue == null) {
                         e.value = value;
                     }
+                    afterNodeAccess(e);
                     return oldValue;
                 }
             }
 
+            ++modCount;
             // 更新大小并检查是否需要扩容
             if (++size > threshold) {
                 resize();
             }
+            afterNodeInsertion(evict);
             return null;
         }
 
         /**
-         * 树化处理
+         * 树桶插入了新节点：新的字符串键与树中已有的键 hash 完全相同时计入超长桶事件。
+         * hash 不同的键说明只是分布不均，hash 相同的普通键换种子也打不散，都不计入
          */
-        final void treeifyBin(Node<K, V>[] tab, int hash) {
-            int n, index;
-            Node<K, V> e;
+        final void treeBinGrown(Node<K, V>[] tab, Node<K, V> first, int hash, Object key) {
+            if (key instanceof String && ((TreeNode<K, V>) first).hasOtherWithHash(hash, key) &&
+                    countLongBucket(tab.length)) {
+                rehashWithNewSeed();
+            }
+        }
 
-            // 当容量不足时先扩容
-            if (tab == null || (n = tab.length) < MIN_TREEIFY_CAPACITY) {
+        /**
+         * 链表桶插入了新节点（binCount 为插入前的桶长度），达到树化阈值时树化
+         */
+        final void chainGrown(Node<K, V>[] tab, int hash, int binCount) {
+            if (SafeHashMapStats.ENABLED)
+                stats.recordProbe(binCount);
+            if (binCount >= TREEIFY_THRESHOLD - 1)
+                treeifyBin(tab, hash);
+        }
+
+        /**
+         * 插入新节点后的公共收尾：计数、扩容、回调
+         */
+        final void afterInsert() {
+            ++modCount;
+            if (++size > threshold)
                 resize();
-            }
-            // 当容量足够时进行树化
-            else if ((index = (n - 1) & hash) >= 0 &&
-                    (e = tab[index]) != null) {
+            afterNodeInsertion(true);
+        }
 
-                // 构建红黑树
-                TreeNode<K, V> hd = null, tl = null;
-                do {
-                    TreeNode<K, V> p = new TreeNode<>(e.hash, e.key, e.value, null);
-                    if (tl == null) {
-                        hd = p;
-                    } else {
-                        p.prev = tl;
-                        tl.next = p;
-                    }
-                    tl = p;
-                } while ((e = e.next) != null);
+        public V putIfAbsent(K key, V value) {
+            return putVal(hash(key), key, value, true, true);
+        }
 
-                // 执行实际树化
-                if ((tab[index] = hd) != null) {
-                    hd.treeify(tab);
-                }
-            }
+        public V getOrDefault(Object key, V defaultValue) {
+            Node<K, V> e;
+            return (e = getNode(hash(key), key)) == null ? defaultValue : e.value;
         }
 
         /**
-         * 扩容方法
+         * 键不存在（或值为 null）时计算并放入。只计算一次哈希、遍历一次桶：
+         * 遍历链表时记下桶长度，未找到就直接插到桶头，不再经过 putVal
+         */
+        public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+            if (mappingFunction == null)
+                throw new NullPointerException();
+            int hash = hash(key);
+            Node<K, V>[] tab;
+            Node<K, V> first;
+            int n, i;
+            int binCount = 0;
+            TreeNode<K, V> t = null, slot = null;
+            int slotDir = 0;
+            Node<K, V> old = null;
+            if (oldTable != null)
+                helpTransfer(hash);
+            if ((tab = table) == null || (n = tab.length) == 0)
+                n = (tab = resize()).length;
+            if ((first = tab[i = (n - 1) & hash]) != null) {
+                if (first instanceof TreeNode) {
+                    // 一次下降：命中返回节点，未命中记下插入点，插入时不再从根查找
+                    slot = (t = (TreeNode<K, V>) first).findTreeSlot(this, hash, key);
+                    if ((slotDir = treeSlotDir) == 0)
+                        old = slot;
+                } else {
+                    Node<K, V> e = first;
+                    K k;
+                    do {
+                        if (e.hash == hash &&
+                                ((k = e.key) == key || (key != null && key.equals(k)))) {
+                            old = e;
+                            break;
+                        }
+                        ++binCount;
+                    } while ((e = e.next) != null);
+                }
+                V oldValue;
+                if (old != null && (oldValue = old.value) != null) {
+                    afterNodeAccess(old);
+                    return oldValue;
+                }
+            }
+            int mc = modCount;
+            V v = mappingFunction.apply(key);
+            if (mc != modCount)
+                throw new ConcurrentModificationException();
+            if (v == null) {
+                return null;
+            } else if (old != null) {
+                old.value = v;
+                afterNodeAccess(old);
+                return v;
+            } else if (t != null) {
+                t.linkTreeVal(this, tab, slot, slotDir, hash, key, v);
+                treeBinGrown(tab, first, hash, key);
+            } else {
+                tab[i] = newNode(hash, key, v, first);
+                chainGrown(tab, hash, binCount);
+            }
+            afterInsert();
+            return v;
+        }
+
+        /**
+         * 键存在且值不为 null 时重新计算，结果为 null 则删除
+         */
+        public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            if (remappingFunction == null)
+                throw new NullPointerException();
+            Node<K, V> e;
+            V oldValue;
+            int hash = hash(key);
+            if ((e = getNode(hash, key)) != null &&
+                    (oldValue = e.value) != null) {
+                int mc = modCount;
+                V v = remappingFunction.apply(key, oldValue);
+                if (mc != modCount)
+                    throw new ConcurrentModificationException();
+                if (v != null) {
+                    e.value = v;
+                    afterNodeAccess(e);
+                    return v;
+                } else
+                    removeNode(hash, key, null, false, true);
+            }
+            return null;
+        }
+
+        /**
+         * 按旧值（不存在时为 null）计算新值，结果为 null 则删除；不存在时同样一次遍历直接插入
+         */
+        public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            if (remappingFunction == null)
+                throw new NullPointerException();
+            int hash = hash(key);
+            Node<K, V>[] tab;
+            Node<K, V> first;
+            int n, i;
+            int binCount = 0;
+            TreeNode<K, V> t = null, slot = null;
+            int slotDir = 0;
+            Node<K, V> old = null;
+            if (oldTable != null)
+                helpTransfer(hash);
+            if ((tab = table) == null || (n = tab.length) == 0)
+                n = (tab = resize()).length;
+            if ((first = tab[i = (n - 1) & hash]) != null) {
+                if (first instanceof TreeNode) {
+                    // 一次下降：命中返回节点，未命中记下插入点，插入时不再从根查找
+                    slot = (t = (TreeNode<K, V>) first).findTreeSlot(this, hash, key);
+                    if ((slotDir = treeSlotDir) == 0)
+                        old = slot;
+                } else {
+                    Node<K, V> e = first;
+                    K k;
+                    do {
+                        if (e.hash == hash &&
+                                ((k = e.key) == key || (key != null && key.equals(k)))) {
+                            old = e;
+                            break;
+                        }
+                        ++binCount;
+                    } while ((e = e.next) != null);
+                }
+            }
+            V oldValue = (old == null) ? null : old.value;
+            int mc = modCount;
+            V v = remappingFunction.apply(key, oldValue);
+            if (mc != modCount)
+                throw new ConcurrentModificationException();
+            if (old != null) {
+                if (v != null) {
+                    old.value = v;
+                    afterNodeAccess(old);
+                } else
+                    removeNode(hash, key, null, false, true);
+                return v;
+            }
+            if (v != null) {
+                if (t != null) {
+                    t.linkTreeVal(this, tab, slot, slotDir, hash, key, v);
+                    treeBinGrown(tab, first, hash, key);
+                } else {
+                    tab[i] = newNode(hash, key, v, first);
+                    chainGrown(tab, hash, binCount);
+                }
+                afterInsert();
+            }
+            return v;
+        }
+
+        /**
+         * 不存在（或值为 null）时放入 value，否则用 remappingFunction 合并，结果为 null 则删除
+         * 计数、求和这类 get + put 的场景只需一次哈希和一次遍历
+         */
+        public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+            if (value == null || remappingFunction == null)
+                throw new NullPointerException();
+            int hash = hash(key);
+            Node<K, V>[] tab;
+            Node<K, V> first;
+            int n, i;
+            int binCount = 0;
+            TreeNode<K, V> t = null, slot = null;
+            int slotDir = 0;
+            Node<K, V> old = null;
+            if (oldTable != null)
+                helpTransfer(hash);
+            if ((tab = table) == null || (n = tab.length) == 0)
+                n = (tab = resize()).length;
+            if ((first = tab[i = (n - 1) & hash]) != null) {
+                if (first instanceof TreeNode) {
+                    // 一次下降：命中返回节点，未命中记下插入点，插入时不再从根查找
+                    slot = (t = (TreeNode<K, V>) first).findTreeSlot(this, hash, key);
+                    if ((slotDir = treeSlotDir) == 0)
+                        old = slot;
+                } else {
+                    Node<K, V> e = first;
+                    K k;
+                    do {
+                        if (e.hash == hash &&
+                                ((k = e.key) == key || (key != null && key.equals(k)))) {
+                            old = e;
+                            break;
+                        }
+                        ++binCount;
+                    } while ((e = e.next) != null);
+                }
+            }
+            if (old != null) {
+                V v;
+                if (old.value != null) {
+                    int mc = modCount;
+                    v = remappingFunction.apply(old.value, value);
+                    if (mc != modCount)
+                        throw new ConcurrentModificationException();
+                } else {
+                    v = value;
+                }
+                if (v != null) {
+                    old.value = v;
+                    afterNodeAccess(old);
+                } else
+                    removeNode(hash, key, null, false, true);
+                return v;
+            }
+            if (t != null) {
+                t.linkTreeVal(this, tab, slot, slotDir, hash, key, value);
+                treeBinGrown(tab, first, hash, key);
+            } else {
+                tab[i] = newNode(hash, key, value, first);
+                chainGrown(tab, hash, binCount);
+            }
+            afterInsert();
+            return value;
+        }
+
+        /**
+         * 删除元素
+         */
+        public V remove(Object key) {
+            Node<K, V> e;
+            return (e = removeNode(hash(key), key, null, false, true)) == null ?
+                    null : e.value;
+        }
+
+        /**
+         * 内部删除实现
+         * matchValue 为 true 时只有值也相等才删除；movable 为 false 时不移动其他节点
+         */
+        final Node<K, V> removeNode(int hash, Object key, Object value,
+                                    boolean matchValue, boolean movable) {
+            Node<K, V>[] tab;
+            Node<K, V> p;
+            int n, index;
+
+            if (oldTable != null)
+                helpTransfer(hash);
+            if ((tab = table) != null && (n = tab.length) > 0 &&
+                    (p = tab[index = (n - 1) & hash]) != null) {
+                Node<K, V> node = null, e;
+                K k;
+                V v;
+
+                if (p.hash == hash &&
+                        ((k = p.key) == key || (key != null && key.equals(k))))
+                    node = p;
+                else if ((e = p.next) != null) {
+                    if (p instanceof TreeNode)
+                        node = ((TreeNode<K, V>)p).getTreeNode(hash, key);
+                    else {
+                        do {
+                            if (e.hash == hash &&
+                                    ((k = e.key) == key ||
+                                            (key != null && key.equals(k)))) {
+                                node = e;
+                                break;
+                            }
+                            p = e;
+                        } while ((e = e.next) != null);
+                    }
+                }
+
+                if (node != null && (!matchValue || (v = node.value) == value ||
+                        (value != null && value.equals(v)))) {
+                    if (node instanceof TreeNode)
+                        ((TreeNode<K, V>)node).removeTreeNode(this, tab, movable);
+                    else if (node == p)
+                        tab[index] = node.next;
+                    else
+                        p.next = node.next;
+                    ++modCount;
+                    --size;
+                    afterNodeRemoval(node);
+                    return node;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 构建只读副本：用最小完美哈希排列所有键，查找只需一次探测和一次 equals，见 FrozenSafeHashMap
+         * 之后对本 map 的修改不会反映到副本中
+         */
+        public FrozenSafeHashMap<K, V> freeze() {
+            return new FrozenSafeHashMap<>(this);
+        }
+
+        /**
+         * 写出二进制快照（桶布局、保存的 hash、经 codec 编码的键值），格式见 SafeHashMapSnapshot
+         */
+        public void writeSnapshot(java.nio.file.Path file, SnapshotCodec<? super K> keyCodec,
+                                  SnapshotCodec<? super V> valueCodec) throws java.io.IOException {
+            SafeHashMapSnapshot.write(this, file, keyCodec, valueCodec);
+        }
+
+        /**
+         * 从快照构建 map：内存映射读取，节点直接放回保存的桶位置，不重新计算哈希。
+         * 只需要按键查少量数据时用 SafeHashMapSnapshot.open，值在 get 时才解码
+         */
+        public static <K, V> SafeHashMap<K, V> loadSnapshot(java.nio.file.Path file, SnapshotCodec<K> keyCodec,
+                                                          SnapshotCodec<V> valueCodec) throws java.io.IOException {
+            try (SafeHashMapSnapshot<K, V> snapshot = SafeHashMapSnapshot.open(file, keyCodec, valueCodec)) {
+                return snapshot.toSafeHashMap();
+            }
+        }
+
+        /**
+         * 键值对数量
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * 是否为空
+         */
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * 是否包含指定键
+         */
+        public boolean containsKey(Object key) {
+            return getNode(hash(key), key) != null;
+        }
+
+        /**
+         * 清空
+         */
+        public void clear() {
+            Node<K, V>[] tab;
+            modCount++;
+            oldTable = null;
+            if ((tab = table) != null && size > 0) {
+                size = 0;
+                Arrays.fill(tab, null);
+            }
+        }
+
+        /**
+         * 是否包含指定值，需要遍历整个桶数组
+         */
+        public boolean containsValue(Object value) {
+            Node<K, V>[] tab;
+            V v;
+            finishTransfer();
+            if ((tab = table) != null && size > 0) {
+                for (Node<K, V> e : tab) {
+                    // 树节点同样通过 next 串联
+                    for (; e != null; e = e.next) {
+                        if ((v = e.value) == value ||
+                                (value != null && value.equals(v)))
+                            return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 直接遍历桶数组，不创建迭代器和 Entry 对象
+         */
+        public void forEach(java.util.function.BiConsumer<? super K, ? super V> action) {
+            Node<K, V>[] tab;
+            if (action == null)
+                throw new NullPointerException();
+            finishTransfer();
+            if (size > 0 && (tab = table) != null) {
+                int mc = modCount;
+                for (Node<K, V> e : tab) {
+                    for (; e != null; e = e.next)
+                        action.accept(e.key, e.value);
+                }
+                if (modCount != mc)
+                    throw new ConcurrentModificationException();
+            }
+        }
+
+        /**
+         * 原地替换所有值，只改值不改结构，因此不增加 modCount
+         */
+        public void replaceAll(java.util.function.BiFunction<? super K, ? super V, ? extends V> function) {
+            Node<K, V>[] tab;
+            if (function == null)
+                throw new NullPointerException();
+            finishTransfer();
+            if (size > 0 && (tab = table) != null) {
+                int mc = modCount;
+                for (Node<K, V> e : tab) {
+                    for (; e != null; e = e.next)
+                        e.value = function.apply(e.key, e.value);
+                }
+                if (modCount != mc)
+                    throw new ConcurrentModificationException();
+            }
+        }
+
+        /**
+         * 键视图，删除操作直接作用于 map
+         */
+        public Set<K> keySet() {
+            Set<K> ks;
+            return (ks = keySet) == null ? (keySet = new KeySet()) : ks;
+        }
+
+        final class KeySet extends AbstractSet<K> {
+            public final int size() { return size; }
+            public final void clear() { SafeHashMap.this.clear(); }
+            public final Iterator<K> iterator() { return new KeyIterator(); }
+            public final boolean contains(Object o) { return containsKey(o); }
+            public final boolean remove(Object key) {
+                return removeNode(hash(key), key, null, false, true) != null;
+            }
+            public final void forEach(java.util.function.Consumer<? super K> action) {
+                if (action == null)
+                    throw new NullPointerException();
+                SafeHashMap.this.forEach((k, v) -> action.accept(k));
+            }
+        }
+
+        /**
+         * 值视图
+         */
+        public Collection<V> values() {
+            Collection<V> vs;
+            return (vs = values) == null ? (values = new Values()) : vs;
+        }
+
+        final class Values extends AbstractCollection<V> {
+            public final int size() { return size; }
+            public final void clear() { SafeHashMap.this.clear(); }
+            public final Iterator<V> iterator() { return new ValueIterator(); }
+            public final boolean contains(Object o) { return containsValue(o); }
+            public final void forEach(java.util.function.Consumer<? super V> action) {
+                if (action == null)
+                    throw new NullPointerException();
+                SafeHashMap.this.forEach((k, v) -> action.accept(v));
+            }
+        }
+
+        /**
+         * 键值对视图
+         */
+        public Set<Map.Entry<K, V>> entrySet() {
+            Set<Map.Entry<K, V>> es;
+            return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+        }
+
+        final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+            public final int size() { return size; }
+            public final void clear() { SafeHashMap.this.clear(); }
+            public final Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+            public final Spliterator<Map.Entry<K, V>> spliterator() {
+                return new EntrySpliterator<>(SafeHashMap.this, 0, -1, 0, 0);
+            }
+            public final boolean contains(Object o) {
+                if (!(o instanceof Map.Entry))
+                    return false;
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                Object key = e.getKey();
+                Node<K, V> candidate = getNode(hash(key), key);
+                return candidate != null && candidate.equals(e);
+            }
+            public final boolean remove(Object o) {
+                if (o instanceof Map.Entry) {
+                    Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                    Object key = e.getKey();
+                    Object value = e.getValue();
+                    return removeNode(hash(key), key, value, true, true) != null;
+                }
+                return false;
+            }
+            public final void forEach(java.util.function.Consumer<? super Map.Entry<K, V>> action) {
+                Node<K, V>[] tab;
+                if (action == null)
+                    throw new NullPointerException();
+                finishTransfer();
+                if (size > 0 && (tab = table) != null) {
+                    int mc = modCount;
+                    for (Node<K, V> e : tab) {
+                        for (; e != null; e = e.next)
+                            action.accept(e);
+                    }
+                    if (modCount != mc)
+                        throw new ConcurrentModificationException();
+                }
+            }
+        }
+
+        /**
+         * 按桶顺序遍历的迭代器，发现并发修改时快速失败
+         */
+        abstract class HashIterator {
+            Node<K, V> next;        // 下一个返回的节点
+            Node<K, V> current;     // 当前节点
+            int expectedModCount;   // 快速失败
+            int index;              // 当前桶位置
+
+            HashIterator() {
+                finishTransfer();
+                expectedModCount = modCount;
+                Node<K, V>[] t = table;
+                current = next = null;
+                index = 0;
+                if (t != null && size > 0) { // 定位到第一个非空桶
+                    do {} while (index < t.length && (next = t[index++]) == null);
+                }
+            }
+
+            public final boolean hasNext() {
+                return next != null;
+            }
+
+            final Node<K, V> nextNode() {
+                Node<K, V>[] t;
+                Node<K, V> e = next;
+                if (modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                if (e == null)
+                    throw new NoSuchElementException();
+                if ((next = (current = e).next) == null && (t = table) != null) {
+                    do {} while (index < t.length && (next = t[index++]) == null);
+                }
+                return e;
+            }
+
+            public final void remove() {
+                Node<K, V> p = current;
+                if (p == null)
+                    throw new IllegalStateException();
+                if (modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                current = null;
+                removeNode(p.hash, p.key, null, false, false);
+                expectedModCount = modCount;
+            }
+        }
+
+        final class EntryIterator extends HashIterator
+                implements Iterator<Map.Entry<K, V>> {
+            public final Map.Entry<K, V> next() { return nextNode(); }
+        }
+
+        final class KeyIterator extends HashIterator
+                implements Iterator<K> {
+            public final K next() { return nextNode().key; }
+        }
+
+        final class ValueIterator extends HashIterator
+                implements Iterator<V> {
+            public final V next() { return nextNode().value; }
+        }
+
+        /**
+         * 按桶区间拆分的 Spliterator，trySplit 把剩余桶区间一分为二，
+         * entrySet().parallelStream() 的各个子任务各自遍历一段桶
+         */
+        static final class EntrySpliterator<K, V> implements Spliterator<Map.Entry<K, V>> {
+            final SafeHashMap<K, V> map;
+            Node<K, V> current;     // 当前节点
+            int index;              // 当前桶位置，trySplit 和遍历时推进
+            int fence;              // 桶区间上界（不含），-1 表示首次使用时再确定
+            int est;                // 估计的元素数量
+            int expectedModCount;   // 快速失败
+
+            EntrySpliterator(SafeHashMap<K, V> m, int origin, int fence, int est,
+                             int expectedModCount) {
+                this.map = m;
+                this.index = origin;
+                this.fence = fence;
+                this.est = est;
+                this.expectedModCount = expectedModCount;
+            }
+
+            // 首次使用时才绑定桶数组，创建 Spliterator 与开始遍历之间的修改也能被检测到
+            final int getFence() {
+                int hi;
+                if ((hi = fence) < 0) {
+                    SafeHashMap<K, V> m = map;
+                    m.finishTransfer();
+                    est = m.size;
+                    expectedModCount = m.modCount;
+                    Node<K, V>[] tab = m.table;
+                    hi = fence = (tab == null) ? 0 : tab.length;
+                }
+                return hi;
+            }
+
+            public long estimateSize() {
+                getFence();
+                return est;
+            }
+
+            public EntrySpliterator<K, V> trySplit() {
+                int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+                return (lo >= mid || current != null) ? null :
+                        new EntrySpliterator<>(map, lo, index = mid, est >>>= 1, expectedModCount);
+            }
+
+            public void forEachRemaining(java.util.function.Consumer<? super Map.Entry<K, V>> action) {
+                int i, hi, mc;
+                if (action == null)
+                    throw new NullPointerException();
+                SafeHashMap<K, V> m = map;
+                if (fence < 0)
+                    m.finishTransfer();
+                Node<K, V>[] tab = m.table;
+                if ((hi = fence) < 0) {
+                    mc = expectedModCount = m.modCount;
+                    hi = fence = (tab == null) ? 0 : tab.length;
+                } else
+                    mc = expectedModCount;
+                if (tab != null && tab.length >= hi &&
+                        (i = index) >= 0 && (i < (index = hi) || current != null)) {
+                    Node<K, V> p = current;
+                    current = null;
+                    do {
+                        if (p == null)
+                            p = tab[i++];
+                        else {
+                            action.accept(p);
+                            p = p.next;
+                        }
+                    } while (p != null || i < hi);
+                    if (m.modCount != mc)
+                        throw new ConcurrentModificationException();
+                }
+            }
+
+            public boolean tryAdvance(java.util.function.Consumer<? super Map.Entry<K, V>> action) {
+                int hi;
+                if (action == null)
+                    throw new NullPointerException();
+                Node<K, V>[] tab = map.table;
+                if (tab != null && tab.length >= (hi = getFence()) && index >= 0) {
+                    while (current != null || index < hi) {
+                        if (current == null)
+                            current = tab[index++];
+                        else {
+                            Node<K, V> e = current;
+                            current = current.next;
+                            action.accept(e);
+                            if (map.modCount != expectedModCount)
+                                throw new ConcurrentModificationException();
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+
+            public int characteristics() {
+                // 拆分后的大小只是估计值，只有未拆分时 SIZED 才准确
+                return (fence < 0 || est == map.size ? Spliterator.SIZED : 0) |
+                        Spliterator.DISTINCT;
+            }
+        }
+
+        /**
+         * 因检测到碰撞攻击而重哈希的次数
+         */
+        public int getAttackRehashCount() {
+            return attackRehashCount;
+        }
+
+        /**
+         * 运行统计（扩容、树化、桶深度等），未开启 -Dsafehashmap.stats=true 时返回 null
+         */
+        public SafeHashMapStats getStats() {
+            return stats;
+        }
+
+        /**
+         * 所有 SafeHashMap 实例因检测到碰撞攻击而重哈希的总次数
+         */
+        public static long getTotalAttackRehashCount() {
+            return TOTAL_ATTACK_REHASHES.get();
+        }
+
+        /**
+         * 树化处理
+         */
+        final void treeifyBin(Node<K, V>[] tab, int hash) {
+            int n, index;
+
+            // 桶长度达到树化阈值，先判断是否遭到攻击，是则换用新种子重哈希
+            if (tab != null && isUnderAttack(tab, hash)) {
+                rehashWithNewSeed();
+            }
+            // 当容量不足时先扩容
+            else if (tab == null || (n = tab.length) < MIN_TREEIFY_CAPACITY) {
+                resize();
+            }
+            // 当容量足够时进行树化
+            else if ((index = (n - 1) & hash) >= 0 &&
+                    tab[index] != null) {
+                treeifyBucket(tab, index);
+            }
+        }
+
+        /**
+         * 把指定桶的链表替换为红黑树
+         */
+        final void treeifyBucket(Node<K, V>[] tab, int index) {
+            Node<K, V> e = tab[index];
+
+            // 构建红黑树
+            TreeNode<K, V> hd = null, tl = null;
+            int binCount = 0;
+            do {
+                binCount++;
+                TreeNode<K, V> p = replacementTreeNode(e, null);
+                if (tl == null) {
+                    hd = p;
+                } else {
+                    p.prev = tl;
+                    tl.next = p;
+                }
+                tl = p;
+            } while ((e = e.next) != null);
+
+            // 执行实际树化
+            if ((tab[index] = hd) != null) {
+                hd.treeify(tab);
+            }
+            if (SafeHashMapStats.ENABLED)
+                stats.recordTreeify(tab.length, binCount, keyedHashing);
+        }
+
+        /**
+         * 链表达到树化阈值时统计超长桶并判断是否应当重哈希：只有 hash 与新键完全相同的字符串键达到
+         * ATTACK_SAME_HASH 个才计入。hash 各不相同的长链只是扰动函数分布不均，交给树化处理；
+         * hash 相同的非字符串键换种子也无法打散，同样只交给红黑树
+         */
+        final boolean isUnderAttack(Node<K, V>[] tab, int hash) {
+            int same = 0;
+            for (Node<K, V> e = tab[(tab.length - 1) & hash]; e != null; e = e.next) {
+                if (e.hash == hash && e.key instanceof String)
+                    same++;
+            }
+            return same >= ATTACK_SAME_HASH && countLongBucket(tab.length);
+        }
+
+        /**
+         * 记录一次超长桶事件，返回是否达到重哈希条件。
+         * 界限随表长增长，并要求上次重哈希后元素至少翻倍，保证重哈希总开销线性
+         */
+        final boolean countLongBucket(int n) {
+            return ++longBucketCount >= ATTACK_LONG_BUCKET_LIMIT + (n >>> 16) &&
+                    size >= lastRehashSize << 1;
+        }
+
+        /**
+         * 换用新种子的带密钥哈希，并把所有节点重新放入同样大小的新表（只做一次全量重哈希）
+         */
+        final void rehashWithNewSeed() {
+            finishTransfer();
+            Node<K, V>[] oldTab = table;
+            int n = oldTab.length;
+            keyedHashing = true;
+            seededHashing = true;
+            reseed();
+
+            @SuppressWarnings({"rawtypes", "unchecked"})
+            Node<K, V>[] newTab = (Node<K, V>[])new Node[n];
+            int[] binCounts = new int[n];
+            int moved = 0;
+            for (Node<K, V> e : oldTab) {
+                // 树节点同样通过 next 串联，可以统一遍历
+                for (; e != null; e = e.next) {
+                    int h = hash(e.key);
+                    int i = (n - 1) & h;
+                    newTab[i] = rehashedNode(e, h, newTab[i]);
+                    binCounts[i]++;
+                    moved++;
+                }
+            }
+            table = newTab;
+            // 重哈希后仍然过长的桶（例如 hashCode 完全相同的键）直接树化
+            if (n >= MIN_TREEIFY_CAPACITY) {
+                for (int i = 0; i < n; i++) {
+                    if (binCounts[i] >= TREEIFY_THRESHOLD)
+                        treeifyBucket(newTab, i);
+                }
+            }
+
+            ++modCount;
+            longBucketCount = 0;
+            lastRehashSize = moved;
+            attackRehashCount++;
+            TOTAL_ATTACK_REHASHES.incrementAndGet();
+        }
+
+        /**
+         * 扩容方法
          */
         final Node<K, V>[] resize() {
+            long startNanos = SafeHashMapStats.ENABLED ? System.nanoTime() : 0L;
+            // 上一次增量扩容还没迁移完时先全部迁移
+            finishTransfer();
             Node<K, V>[] oldTab = table;
             int oldCap = (oldTab == null) ? 0 : oldTab.length;
             int oldThr = threshold;
@@ -349,61 +2257,189 @@ import java.util.*;
             Node<K, V>[] newTab = (Node<K, V>[])new Node[newCap];
             table = newTab;
 
-            // 重新哈希现有元素
+            // 重新哈希现有元素；增量模式下只记下旧表，由后续操作分批迁移
             if (oldTab != null) {
-                for (int j = 0; j < oldCap; j++) {
-                    Node<K, V> e;
-                    if ((e = oldTab[j]) != null) {
-                        oldTab[j] = null;
+                if (incrementalResize) {
+                    oldTable = oldTab;
+                    transferIndex = 0;
+                } else if (resizePool != null && oldCap >= parallelResizeThreshold &&
+                        supportsParallelLoad()) {
+                    resizePool.invoke(new TransferTask<>(this, oldTab, newTab, 0, oldCap));
+                } else {
+                    for (int j = 0; j < oldCap; j++) {
+                        if (oldTab[j] != null)
+                            transferBucket(oldTab, newTab, j);
+                    }
+                }
+            }
+            if (SafeHashMapStats.ENABLED)
+                stats.recordResize(oldCap, newCap, startNanos);
+            return newTab;
+        }
 
-                        // 桶中只有一个节点
-                        if (e.next == null) {
-                            newTab[e.hash & (newCap - 1)] = e;
-                        }
-                        // 树节点处理
-                        else if (e instanceof TreeNode) {
-                            // 实际实现会拆分树
-                            System.out.println("树节点迁移: " + j);
-                        }
-                        // 链表节点处理
-                        else {
-                            // 保留原顺序
-                            Node<K, V> loHead = null, loTail = null;
-                            Node<K, V> hiHead = null, hiTail = null;
-                            Node<K, V> next;
-
-                            do {
-                                next = e.next;
-                                if ((e.hash & oldCap) == 0) {
-                                    if (loTail == null) {
-                                        loHead = e;
-                                    } else {
-                                        loTail.next = e;
-                                    }
-                                    loTail = e;
-                                } else {
-                                    if (hiTail == null) {
-                                        hiHead = e;
-                                    } else {
-                                        hiTail.next = e;
-                                    }
-                                    hiTail = e;
-                                }
-                            } while ((e = next) != null);
+        /**
+         * 把旧表第 j 个桶按高低位拆分到新表的 j 和 j + oldCap，保持原有顺序
+         */
+        final void transferBucket(Node<K, V>[] oldTab, Node<K, V>[] newTab, int j) {
+            int oldCap = oldTab.length;
+            Node<K, V> e = oldTab[j];
+            oldTab[j] = null;
 
-                            if (loTail != null) {
-                                loTail.next = null;
-                                newTab[j] = loHead;
-                            }
-                            if (hiTail != null) {
-                                hiTail.next = null;
-                                newTab[j + oldCap] = hiHead;
-                            }
+            // 桶中只有一个节点
+            if (e.next == null) {
+                newTab[e.hash & (newTab.length - 1)] = e;
+            }
+            // 树节点处理：按高低位拆分
+            else if (e instanceof TreeNode) {
+                ((TreeNode<K, V>)e).split(this, newTab, j, oldCap);
+            }
+            // 链表节点处理
+            else {
+                // 保留原顺序
+                Node<K, V> loHead = null, loTail = null;
+                Node<K, V> hiHead = null, hiTail = null;
+                Node<K, V> next;
+
+                do {
+                    next = e.next;
+                    if ((e.hash & oldCap) == 0) {
+                        if (loTail == null) {
+                            loHead = e;
+                        } else {
+                            loTail.next = e;
                         }
+                        loTail = e;
+                    } else {
+                        if (hiTail == null) {
+                            hiHead = e;
+                        } else {
+                            hiTail.next = e;
+                        }
+                        hiTail = e;
                     }
+                } while ((e = next) != null);
+
+                if (loTail != null) {
+                    loTail.next = null;
+                    newTab[j] = loHead;
+                }
+                if (hiTail != null) {
+                    hiTail.next = null;
+                    newTab[j + oldCap] = hiHead;
                 }
             }
-            return newTab;
+        }
+
+        /**
+         * 增量扩容的一步：先迁移 hash 所在的旧桶，保证本次操作只需查看新表；
+         * 再从游标处顺序迁移 TRANSFER_STEP 个非空桶（最多查看 10 倍的空桶），单次操作的开销有上界。
+         * 迁移不改变 map 的内容，因此不增加 modCount
+         */
+        final void helpTransfer(int hash) {
+            Node<K, V>[] old = oldTable, tab = table;
+            int n = old.length, j = hash & (n - 1);
+            if (old[j] != null)
+                transferBucket(old, tab, j);
+            int i = transferIndex, moved = 0, visits = TRANSFER_STEP * 10;
+            while (i < n && moved < TRANSFER_STEP && visits-- > 0) {
+                if (old[i] != null) {
+                    transferBucket(old, tab, i);
+                    moved++;
+                }
+                i++;
+            }
+            transferIndex = i;
+            if (i >= n)
+                oldTable = null;
+        }
+
+        /**
+         * 一次迁移完所有剩余旧桶；遍历、重哈希和再次扩容前调用
+         */
+        final void finishTransfer() {
+            Node<K, V>[] old = oldTable;
+            if (old != null) {
+                Node<K, V>[] tab = table;
+                for (int i = transferIndex; i < old.length; i++) {
+                    if (old[i] != null)
+                        transferBucket(old, tab, i);
+                }
+                oldTable = null;
+            }
+        }
+
+        /**
+         * 并行扩容的迁移任务：旧桶 j 只会写入新表的 j 和 j + oldCap，不同旧桶区间互不干扰，
+         * 因此把 [lo, hi) 对半拆分直到不超过 MIN_TRANSFER_STRIDE，各子任务独立迁移（包括树桶的拆分）
+         * ForkJoin 任务只在扩容期间存在，不会被序列化
+         */
+        @SuppressWarnings("serial")
+        static final class TransferTask<K, V> extends java.util.concurrent.RecursiveAction {
+            final SafeHashMap<K, V> map;
+            final Node<K, V>[] oldTab, newTab;
+            final int lo, hi;
+
+            TransferTask(SafeHashMap<K, V> map, Node<K, V>[] oldTab, Node<K, V>[] newTab, int lo, int hi) {
+                this.map = map;
+                this.oldTab = oldTab;
+                this.newTab = newTab;
+                this.lo = lo;
+                this.hi = hi;
+            }
+
+            protected void compute() {
+                if (hi - lo > MIN_TRANSFER_STRIDE) {
+                    int mid = (lo + hi) >>> 1;
+                    invokeAll(new TransferTask<>(map, oldTab, newTab, lo, mid),
+                            new TransferTask<>(map, oldTab, newTab, mid, hi));
+                    return;
+                }
+                for (int j = lo; j < hi; j++) {
+                    if (oldTab[j] != null)
+                        map.transferBucket(oldTab, newTab, j);
+                }
+            }
+        }
+
+        /**
+         * 开启后，旧表容量不小于 minCapacity 的扩容在 pool 中并行迁移，适合只关心吞吐量的批处理；pool 为 null 时关闭。
+         * 增量扩容优先：两者都开启时按增量方式迁移。并行迁移中树桶退化为链表的次数统计可能少计
+         */
+        public void setParallelResize(java.util.concurrent.ForkJoinPool pool, int minCapacity) {
+            if (minCapacity < 0)
+                throw new IllegalArgumentException("Illegal minimum capacity: " + minCapacity);
+            this.resizePool = pool;
+            this.parallelResizeThreshold = minCapacity;
+        }
+
+        /**
+         * 设置未开启带密钥哈希时的扩散策略，只能在 map 为空时设置（已有节点保存的 hash 不会重算）。
+         * 检测到攻击后仍会换用带种子的哈希，因此 IDENTITY 这类便宜的策略不会削弱攻击防护
+         */
+        public void setHashStrategy(HashStrategy strategy) {
+            if (strategy == null)
+                throw new NullPointerException();
+            if (size != 0)
+                throw new IllegalStateException("setHashStrategy 要求 map 为空");
+            this.hashStrategy = strategy == HashStrategy.PERTURB ? null : strategy;
+        }
+
+        /**
+         * 当前的扩散策略
+         */
+        public HashStrategy getHashStrategy() {
+            return hashStrategy == null ? HashStrategy.PERTURB : hashStrategy;
+        }
+
+        /**
+         * 开启后，超过阈值时只分配新桶数组，旧桶由之后的每次 get/put/remove 分批迁移（类似 Redis 的渐进式 rehash），
+         * 千万级元素扩容时单次 put 不再停顿几百毫秒；代价是扩容期间每次操作多迁移几个桶，旧表晚一些才能回收。
+         * 遍历、containsValue 等整表操作会先一次迁移完
+         */
+        public void setIncrementalResize(boolean incrementalResize) {
+            if (!incrementalResize)
+                finishTransfer();
+            this.incrementalResize = incrementalResize;
         }
 
         // 创建新节点
@@ -411,6 +2447,56 @@ import java.util.*;
             return new Node<>(hash, key, value, next);
         }
 
-        // 其他HashMap方法省略...
+        // 树节点转普通节点（反树化时使用）
+        Node<K, V> replacementNode(Node<K, V> p, Node<K, V> next) {
+            return new Node<>(p.hash, p.key, p.value, next);
+        }
+
+        // 创建新树节点
+        TreeNode<K, V> newTreeNode(int hash, K key, V value, Node<K, V> next) {
+            return new TreeNode<>(hash, key, value, next);
+        }
+
+        // 普通节点转树节点（树化时使用）
+        TreeNode<K, V> replacementTreeNode(Node<K, V> p, Node<K, V> next) {
+            return new TreeNode<>(p.hash, p.key, p.value, next);
+        }
+
+        // 换种子重哈希时用新的 hash 重建节点
+        Node<K, V> rehashedNode(Node<K, V> p, int hash, Node<K, V> next) {
+            return new Node<>(hash, p.key, p.value, next);
+        }
+
+        // 以下回调供 SafeCache 维护访问顺序和淘汰，SafeHashMap 本身为空实现
+        void afterNodeAccess(Node<K, V> p) { }
+        void afterNodeInsertion(boolean evict) { }
+        void afterNodeRemoval(Node<K, V> p) { }
+
+        /**
+         * 存储引擎
+         */
+        public enum Engine {
+            // 链地址法 + 红黑树桶（SafeHashMap）
+            CHAINED,
+            // Robin Hood 开放寻址（RobinHoodSafeHashMap）
+            ROBIN_HOOD,
+            // 列式紧凑存储，条目不分配对象（CompactSafeHashMap）
+            COMPACT
+        }
+
+        /**
+         * 按指定引擎创建 Map，各引擎对外提供相同的 Map 接口
+         */
+        public static <K, V> Map<K, V> newMap(Engine engine, int initialCapacity) {
+            switch (engine) {
+                case ROBIN_HOOD:
+                    return new RobinHoodSafeHashMap<>(initialCapacity);
+                case COMPACT:
+                    return new CompactSafeHashMap<>(initialCapacity);
+                case CHAINED:
+                default:
+                    return new SafeHashMap<>(initialCapacity);
+            }
+        }
     }
 
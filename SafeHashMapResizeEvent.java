@@ -0,0 +1,30 @@
+package com.nieran;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * SafeHashMap 扩容的 JFR 事件，开启统计（-Dsafehashmap.stats=true）后才会产生
+ */
+@Name("com.nieran.SafeHashMap.Resize")
+@Label("SafeHashMap Resize")
+@Category({"SafeHashMap"})
+@Description("SafeHashMap 桶数组扩容")
+final class SafeHashMapResizeEvent extends Event {
+    @Label("Old Capacity")
+    int oldCapacity;
+
+    @Label("New Capacity")
+    int newCapacity;
+
+    @Label("Size")
+    int size;
+
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long durationNanos;
+}
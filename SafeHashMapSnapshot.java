@@ -0,0 +1,361 @@
+package com.nieran;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * SafeHashMap 的二进制快照，按内存映射方式打开
+ * 文件格式（大端）：
+ *   头部 64 字节：魔数、版本、标志（带密钥哈希/种子哈希）、区域位数、容量、元素数、负载因子、
+ *   扩散策略（HashStrategy.Builtin 的序号，0 为默认的 PERTURB）、两个哈希种子、数据结束位置
+ *   桶目录：容量个 long，第 i 个是桶 i 第一条记录的文件偏移，0 表示空桶
+ *   记录：按桶顺序连续存放 [hash int][键长 int][值长 int][键字节][值字节]，同一个桶的记录相邻
+ * 文件按 2^regionShift 字节（默认 1GB）分区域映射，记录不跨区域：放不下时写入键长为 -1 的填充标记，跳到下一区域
+ *
+ * 打开快照只映射文件并读取头部，get 按保存的 hash 直接定位桶、只解码 hash 相同的键和命中的值（值延迟读取），
+ * 启动耗时取决于实际访问的页数而不是条目数；toSafeHashMap() 则一次性构建普通 SafeHashMap，
+ * 节点直接挂到保存的桶位置，不重新计算哈希、不比较键。
+ * 注意：
+ * 1.保存的 hash 只有在键的 hashCode 跨进程稳定时才有效（String、包装类型及由它们组成的值类型），
+ *   依赖对象地址的 hashCode 不能使用快照
+ * 2.文件中包含实例的哈希种子，应与数据本身一样限制访问权限
+ */
+public final class SafeHashMapSnapshot<K, V> implements AutoCloseable {
+    static final int MAGIC = 0x53484D53; // "SHMS"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int RECORD_HEADER = 12;
+    static final int DEFAULT_REGION_SHIFT = 30;
+    // 键长为 -1 表示填充到下一区域
+    static final int PADDING = -1;
+    // 长度为 -2 表示 null 键或 null 值
+    static final int NULL_LENGTH = -2;
+    static final int FLAG_KEYED = 1;
+    static final int FLAG_SEEDED = 2;
+
+    final FileChannel channel;
+    final ByteBuffer[] regions;
+    final int regionShift;
+    final long regionMask;
+    final SnapshotCodec<K> keyCodec;
+    final SnapshotCodec<V> valueCodec;
+    final boolean keyedHashing, seededHashing;
+    // 扩散策略，null 表示默认的 perturb
+    final HashStrategy hashStrategy;
+    final long hashSeed0, hashSeed1;
+    final int capacity;
+    final int size;
+    final float loadFactor;
+    final long dataEnd;
+
+    private SafeHashMapSnapshot(FileChannel channel, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec)
+            throws IOException {
+        this.channel = channel;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+        }
+        header.flip();
+        if (header.remaining() < HEADER_BYTES || header.getInt(0) != MAGIC)
+            throw new IOException("不是 SafeHashMap 快照文件");
+        if (header.getInt(4) != VERSION)
+            throw new IOException("不支持的快照版本: " + header.getInt(4));
+        int flags = header.getInt(8);
+        keyedHashing = (flags & FLAG_KEYED) != 0;
+        seededHashing = (flags & FLAG_SEEDED) != 0;
+        regionShift = header.getInt(12);
+        capacity = header.getInt(16);
+        size = header.getInt(20);
+        loadFactor = header.getFloat(24);
+        int strategy = header.getInt(28);
+        hashSeed0 = header.getLong(32);
+        hashSeed1 = header.getLong(40);
+        dataEnd = header.getLong(48);
+        if (regionShift < 12 || regionShift > 30 || Integer.bitCount(capacity) != 1 || dataEnd > channel.size())
+            throw new IOException("快照头部损坏");
+        if (strategy < 0 || strategy >= HashStrategy.Builtin.values().length)
+            throw new IOException("未知的扩散策略: " + strategy);
+        hashStrategy = strategy == 0 ? null : HashStrategy.Builtin.values()[strategy];
+
+        regionMask = (1L << regionShift) - 1;
+        long fileSize = channel.size();
+        int regionCount = (int) ((fileSize + regionMask) >>> regionShift);
+        regions = new ByteBuffer[regionCount];
+        for (int r = 0; r < regionCount; r++) {
+            long start = (long) r << regionShift;
+            regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << regionShift, fileSize - start));
+        }
+    }
+
+    /**
+     * 映射快照文件，只读取头部
+     */
+    public static <K, V> SafeHashMapSnapshot<K, V> open(Path file, SnapshotCodec<K> keyCodec,
+                                                      SnapshotCodec<V> valueCodec) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new SafeHashMapSnapshot<>(channel, keyCodec, valueCodec);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 把 map 写成快照文件
+     */
+    public static <K, V> void write(SafeHashMap<K, V> map, Path file, SnapshotCodec<? super K> keyCodec,
+                                    SnapshotCodec<? super V> valueCodec) throws IOException {
+        write(map, file, keyCodec, valueCodec, DEFAULT_REGION_SHIFT);
+    }
+
+    static <K, V> void write(SafeHashMap<K, V> map, Path file, SnapshotCodec<? super K> keyCodec,
+                             SnapshotCodec<? super V> valueCodec, int regionShift) throws IOException {
+        // 只有内置策略能按序号写入头部，自定义策略打开快照时无法还原
+        if (map.hashStrategy != null && !(map.hashStrategy instanceof HashStrategy.Builtin))
+            throw new IllegalArgumentException("自定义 HashStrategy 不能写入快照");
+        map.finishTransfer();
+        SafeHashMap.Node<K, V>[] tab = map.table;
+        int capacity = (tab == null) ? SafeHashMap.tableSizeFor(Math.max(1, map.threshold)) : tab.length;
+        long regionSize = 1L << regionShift;
+        long dataStart = HEADER_BYTES + (long) capacity * 8;
+        long[] directory = new long[capacity];
+        long pos = dataStart;
+        int mc = map.modCount;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(dataStart);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            if (tab != null) {
+                for (int i = 0; i < capacity; i++) {
+                    // 树桶同样通过 next 串联，按链表顺序写出
+                    for (SafeHashMap.Node<K, V> e = tab[i]; e != null; e = e.next) {
+                        byte[] key = e.key == null ? null : keyCodec.encode(e.key);
+                        byte[] value = e.value == null ? null : valueCodec.encode(e.value);
+                        int keyLength = key == null ? 0 : key.length, valueLength = value == null ? 0 : value.length;
+                        long recordLength = RECORD_HEADER + (long) keyLength + valueLength;
+                        if (recordLength > regionSize)
+                            throw new IOException("记录超过快照区域大小: " + recordLength);
+                        long remaining = regionSize - (pos & (regionSize - 1));
+                        if (recordLength > remaining) {
+                            // 放不下时填充到下一区域；不足一个记录头的尾部直接补零
+                            if (remaining >= RECORD_HEADER) {
+                                out.writeInt(0);
+                                out.writeInt(PADDING);
+                                out.writeInt(0);
+                                remaining -= RECORD_HEADER;
+                            }
+                            for (; remaining > 0; remaining--)
+                                out.write(0);
+                            pos = (pos + regionSize) & ~(regionSize - 1);
+                        }
+                        if (directory[i] == 0)
+                            directory[i] = pos;
+                        out.writeInt(e.hash);
+                        out.writeInt(key == null ? NULL_LENGTH : keyLength);
+                        out.writeInt(value == null ? NULL_LENGTH : valueLength);
+                        if (key != null)
+                            out.write(key);
+                        if (value != null)
+                            out.write(value);
+                        pos += recordLength;
+                    }
+                }
+            }
+            out.flush();
+            if (map.modCount != mc)
+                throw new java.util.ConcurrentModificationException();
+
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            long writePos = HEADER_BYTES;
+            for (long offset : directory) {
+                if (!buffer.hasRemaining()) {
+                    writePos += writeFully(channel, buffer, writePos);
+                }
+                buffer.putLong(offset);
+            }
+            writeFully(channel, buffer, writePos);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION)
+                    .putInt((map.keyedHashing ? FLAG_KEYED : 0) | (map.seededHashing ? FLAG_SEEDED : 0))
+                    .putInt(regionShift).putInt(capacity).putInt(map.size).putFloat(map.loadFactor)
+                    .putInt(map.hashStrategy == null ? 0 : ((HashStrategy.Builtin) map.hashStrategy).ordinal())
+                    .putLong(map.hashSeed0).putLong(map.hashSeed1).putLong(pos);
+            header.position(HEADER_BYTES);
+            writeFully(channel, header, 0);
+            channel.force(false);
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        int written = 0;
+        while (buffer.hasRemaining())
+            written += channel.write(buffer, position + written);
+        buffer.clear();
+        return written;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 按快照保存的哈希方式计算键的 hash，与写出快照的 map 一致
+     */
+    final int hash(Object key) {
+        return keyedHashing ? SafeHashMap.keyedHash(key, seededHashing, hashSeed0, hashSeed1)
+                : SafeHashMap.strategyHash(hashStrategy, key);
+    }
+
+    /**
+     * 查找键，只解码 hash 相同的键和命中的值
+     */
+    public V get(Object key) {
+        long pos = find(key);
+        if (pos < 0)
+            return null;
+        ByteBuffer region = regions[(int) (pos >>> regionShift)];
+        int offset = (int) (pos & regionMask);
+        int keyLength = region.getInt(offset + 4), valueLength = region.getInt(offset + 8);
+        if (valueLength == NULL_LENGTH)
+            return null;
+        return valueCodec.decode(region, offset + RECORD_HEADER + Math.max(keyLength, 0), valueLength);
+    }
+
+    public boolean containsKey(Object key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * 返回键所在记录的文件偏移，不存在时返回 -1
+     */
+    private long find(Object key) {
+        int h = hash(key);
+        int index = h & (capacity - 1);
+        long pos = directoryEntry(index);
+        if (pos == 0)
+            return -1;
+        while (pos < dataEnd) {
+            ByteBuffer region = regions[(int) (pos >>> regionShift)];
+            int offset = (int) (pos & regionMask);
+            if ((1L << regionShift) - offset < RECORD_HEADER || region.getInt(offset + 4) == PADDING) {
+                pos = (pos | regionMask) + 1;
+                continue;
+            }
+            int rh = region.getInt(offset);
+            if ((rh & (capacity - 1)) != index)
+                return -1; // 已经走到下一个桶
+            int keyLength = region.getInt(offset + 4), valueLength = region.getInt(offset + 8);
+            if (rh == h) {
+                K k = keyLength == NULL_LENGTH ? null : keyCodec.decode(region, offset + RECORD_HEADER, keyLength);
+                if (Objects.equals(k, key))
+                    return pos;
+            }
+            pos += RECORD_HEADER + Math.max(keyLength, 0) + Math.max(valueLength, 0);
+        }
+        return -1;
+    }
+
+    private long directoryEntry(int index) {
+        long pos = HEADER_BYTES + (long) index * 8;
+        return regions[(int) (pos >>> regionShift)].getLong((int) (pos & regionMask));
+    }
+
+    /**
+     * 按文件顺序遍历所有条目（会解码全部键值）
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        long pos = HEADER_BYTES + (long) capacity * 8;
+        while (pos < dataEnd) {
+            ByteBuffer region = regions[(int) (pos >>> regionShift)];
+            int offset = (int) (pos & regionMask);
+            if ((1L << regionShift) - offset < RECORD_HEADER || region.getInt(offset + 4) == PADDING) {
+                pos = (pos | regionMask) + 1;
+                continue;
+            }
+            int keyLength = region.getInt(offset + 4), valueLength = region.getInt(offset + 8);
+            int keyBytes = Math.max(keyLength, 0);
+            K k = keyLength == NULL_LENGTH ? null : keyCodec.decode(region, offset + RECORD_HEADER, keyLength);
+            V v = valueLength == NULL_LENGTH ? null :
+                    valueCodec.decode(region, offset + RECORD_HEADER + keyBytes, valueLength);
+            action.accept(k, v);
+            pos += RECORD_HEADER + keyBytes + Math.max(valueLength, 0);
+        }
+    }
+
+    /**
+     * 构建普通 SafeHashMap：沿用快照的容量、哈希种子和保存的 hash，节点按文件顺序直接挂到桶尾，
+     * 不计算哈希也不比较键；达到树化阈值的桶构建完成后树化
+     */
+    public SafeHashMap<K, V> toSafeHashMap() {
+        SafeHashMap<K, V> map = new SafeHashMap<>(capacity, loadFactor, keyedHashing);
+        map.seededHashing = seededHashing;
+        map.hashStrategy = hashStrategy;
+        map.hashSeed0 = hashSeed0;
+        map.hashSeed1 = hashSeed1;
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        SafeHashMap.Node<K, V>[] tab = (SafeHashMap.Node<K, V>[]) new SafeHashMap.Node[capacity];
+        map.table = tab;
+        map.threshold = (int) Math.min(capacity * loadFactor, (float) Integer.MAX_VALUE);
+
+        int mask = capacity - 1, count = 0, binCount = 0, lastIndex = -1;
+        SafeHashMap.Node<K, V> tail = null;
+        long pos = HEADER_BYTES + (long) capacity * 8;
+        while (pos < dataEnd) {
+            ByteBuffer region = regions[(int) (pos >>> regionShift)];
+            int offset = (int) (pos & regionMask);
+            if ((1L << regionShift) - offset < RECORD_HEADER || region.getInt(offset + 4) == PADDING) {
+                pos = (pos | regionMask) + 1;
+                continue;
+            }
+            int h = region.getInt(offset);
+            int keyLength = region.getInt(offset + 4), valueLength = region.getInt(offset + 8);
+            int keyBytes = Math.max(keyLength, 0);
+            K k = keyLength == NULL_LENGTH ? null : keyCodec.decode(region, offset + RECORD_HEADER, keyLength);
+            V v = valueLength == NULL_LENGTH ? null :
+                    valueCodec.decode(region, offset + RECORD_HEADER + keyBytes, valueLength);
+            SafeHashMap.Node<K, V> node = map.newNode(h, k, v, null);
+            int index = h & mask;
+            if (index != lastIndex) {
+                if (binCount >= SafeHashMap.TREEIFY_THRESHOLD && capacity >= SafeHashMap.MIN_TREEIFY_CAPACITY)
+                    map.treeifyBucket(tab, lastIndex);
+                tab[index] = node;
+                lastIndex = index;
+                binCount = 0;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            binCount++;
+            count++;
+            pos += RECORD_HEADER + keyBytes + Math.max(valueLength, 0);
+        }
+        if (binCount >= SafeHashMap.TREEIFY_THRESHOLD && capacity >= SafeHashMap.MIN_TREEIFY_CAPACITY)
+            map.treeifyBucket(tab, lastIndex);
+        map.size = count;
+        return map;
+    }
+
+    /**
+     * 关闭文件；映射的缓冲区在 GC 回收后才解除映射
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,159 @@
+package com.nieran;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * 单个 SafeHashMap 的运行统计，仅在启动参数 -Dsafehashmap.stats=true 时创建和记录
+ * 开关是 static final 常量，关闭时 JIT 会把所有记录代码当作死代码删除
+ * 与 SafeHashMap 一样不是线程安全的，计数器由修改 map 的线程更新
+ */
+public final class SafeHashMapStats implements SafeHashMapStatsMXBean {
+    // 统计开关
+    static final boolean ENABLED = Boolean.getBoolean("safehashmap.stats");
+    // 直方图格数，最后一格累计深度 >= HISTOGRAM_SIZE - 1 的桶
+    static final int HISTOGRAM_SIZE = 32;
+
+    private final SafeHashMap<?, ?> map;
+    long resizeCount;
+    long resizeNanos;
+    long treeifyCount;
+    long untreeifyCount;
+    int maxProbeLength;
+    // 注册到 MBeanServer 后的名字
+    private ObjectName objectName;
+
+    SafeHashMapStats(SafeHashMap<?, ?> map) {
+        this.map = map;
+    }
+
+    /**
+     * 记录一次扩容，并在 JFR 开启该事件时提交 SafeHashMapResizeEvent
+     */
+    void recordResize(int oldCapacity, int newCapacity, long startNanos) {
+        long duration = System.nanoTime() - startNanos;
+        resizeCount++;
+        resizeNanos += duration;
+        SafeHashMapResizeEvent event = new SafeHashMapResizeEvent();
+        if (event.shouldCommit()) {
+            event.oldCapacity = oldCapacity;
+            event.newCapacity = newCapacity;
+            event.size = map.size;
+            event.durationNanos = duration;
+            event.commit();
+        }
+    }
+
+    /**
+     * 记录一次链表转红黑树
+     */
+    void recordTreeify(int capacity, int binCount, boolean keyedHashing) {
+        treeifyCount++;
+        SafeHashMapTreeifyEvent event = new SafeHashMapTreeifyEvent();
+        if (event.shouldCommit()) {
+            event.capacity = capacity;
+            event.binCount = binCount;
+            event.keyedHashing = keyedHashing;
+            event.commit();
+        }
+    }
+
+    void recordUntreeify() {
+        untreeifyCount++;
+    }
+
+    void recordProbe(int probeLength) {
+        if (probeLength > maxProbeLength)
+            maxProbeLength = probeLength;
+    }
+
+    /**
+     * 以 com.nieran:type=SafeHashMap,name=<name> 注册为 MXBean
+     * 注册后 MBeanServer 会一直引用这个 map，不再使用时需要调用 unregister
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        if (objectName != null)
+            throw new IllegalStateException("已注册为 " + objectName);
+        ObjectName on = new ObjectName("com.nieran:type=SafeHashMap,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+        return objectName = on;
+    }
+
+    public synchronized void unregister() throws JMException {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+
+    public int getSize() {
+        return map.size;
+    }
+
+    public int getCapacity() {
+        SafeHashMap.Node<?, ?>[] tab = map.table;
+        return tab == null ? 0 : tab.length;
+    }
+
+    public double getActualLoadFactor() {
+        int capacity = getCapacity();
+        return capacity == 0 ? 0.0 : map.size / (double) capacity;
+    }
+
+    public long getResizeCount() {
+        return resizeCount;
+    }
+
+    public long getTotalResizeNanos() {
+        return resizeNanos;
+    }
+
+    public long getTreeifyCount() {
+        return treeifyCount;
+    }
+
+    public long getUntreeifyCount() {
+        return untreeifyCount;
+    }
+
+    public int getMaxProbeLength() {
+        return maxProbeLength;
+    }
+
+    public int getAttackRehashCount() {
+        return map.getAttackRehashCount();
+    }
+
+    public long[] getBucketDepthHistogram() {
+        long[] histogram = new long[HISTOGRAM_SIZE];
+        SafeHashMap.Node<?, ?>[] tab = map.table;
+        if (tab == null)
+            return histogram;
+        for (SafeHashMap.Node<?, ?> e : tab) {
+            int depth;
+            if (e instanceof SafeHashMap.TreeNode) {
+                SafeHashMap.TreeNode<?, ?> root = (SafeHashMap.TreeNode<?, ?>) e;
+                // 并发修改时首节点可能暂时不是根
+                while (root.parent != null)
+                    root = root.parent;
+                depth = treeHeight(root, HISTOGRAM_SIZE);
+            } else {
+                depth = 0;
+                for (; e != null && depth < HISTOGRAM_SIZE; e = e.next)
+                    depth++;
+            }
+            histogram[Math.min(depth, HISTOGRAM_SIZE - 1)]++;
+        }
+        return histogram;
+    }
+
+    // 树高，超过 limit 后不再深入（直方图只区分到 limit）
+    private static int treeHeight(SafeHashMap.TreeNode<?, ?> node, int limit) {
+        if (node == null || limit == 0)
+            return 0;
+        return 1 + Math.max(treeHeight(node.left, limit - 1), treeHeight(node.right, limit - 1));
+    }
+}
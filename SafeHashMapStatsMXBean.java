@@ -0,0 +1,38 @@
+package com.nieran;
+
+/**
+ * SafeHashMap 统计信息的 JMX 接口，由 SafeHashMapStats 实现
+ * 桶深度直方图和实际负载因子在调用时扫描桶数组得到，map 被并发修改时只是近似值
+ */
+public interface SafeHashMapStatsMXBean {
+
+    // 当前键值对数量
+    int getSize();
+
+    // 当前桶数组长度
+    int getCapacity();
+
+    // 实际负载因子：size / capacity
+    double getActualLoadFactor();
+
+    // 扩容次数
+    long getResizeCount();
+
+    // 扩容累计耗时（纳秒）
+    long getTotalResizeNanos();
+
+    // 链表转红黑树的次数
+    long getTreeifyCount();
+
+    // 红黑树退化为链表的次数
+    long getUntreeifyCount();
+
+    // 插入时遍历过的最长链表长度
+    int getMaxProbeLength();
+
+    // 因检测到碰撞攻击而换种子重哈希的次数
+    int getAttackRehashCount();
+
+    // 桶深度直方图：下标为链表长度或树高，最后一格累计所有更深的桶
+    long[] getBucketDepthHistogram();
+}
@@ -0,0 +1,26 @@
+package com.nieran;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * SafeHashMap 链表转红黑树的 JFR 事件，开启统计（-Dsafehashmap.stats=true）后才会产生
+ * 正常数据极少触发树化，持续出现该事件往往意味着碰撞攻击或 hashCode 实现很差
+ */
+@Name("com.nieran.SafeHashMap.Treeify")
+@Label("SafeHashMap Treeify")
+@Category({"SafeHashMap"})
+@Description("SafeHashMap 桶由链表转为红黑树")
+final class SafeHashMapTreeifyEvent extends Event {
+    @Label("Capacity")
+    int capacity;
+
+    @Label("Bin Count")
+    int binCount;
+
+    @Label("Keyed Hashing")
+    boolean keyedHashing;
+}
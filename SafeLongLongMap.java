@@ -0,0 +1,290 @@
+package com.nieran;
+
+import java.util.Arrays;
+
+/**
+ * long -> long 的开放寻址哈希表，键值存放在两个平行的 long 数组中，get/put 不产生任何对象。
+ * 1.哈希：键先与实例随机种子混合，再经过 SafeHashMap.perturb 扰动，顺序键和攻击键都不会聚集
+ * 2.冲突：线性探测，删除时向后移动元素（不留墓碑）
+ * 3.防御：探测长度超过上限时换种子重哈希，同一规模下再次超限则扩容
+ * 键 0 用作空槽标记，真实的键 0 单独存放
+ */
+public class SafeLongLongMap {
+    // 默认初始容量
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+    // 最大容量
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+    // 默认负载因子，线性探测在 0.5 以下探测长度最稳定
+    static final float DEFAULT_LOAD_FACTOR = 0.5f;
+    // 探测长度上限的基数，实际上限为 MAX_PROBE_BASE + 3 * log2(容量)
+    static final int MAX_PROBE_BASE = 16;
+
+    // 键数组，0 表示空槽
+    long[] keys;
+    // 值数组
+    long[] values;
+    // 不含键 0 的元素数量
+    int size;
+    // 扩容阈值
+    int threshold;
+    // 负载因子
+    final float loadFactor;
+    // 键不存在时 get 返回的值
+    final long noEntryValue;
+    // 键 0 是否存在及其值
+    boolean hasZeroKey;
+    long zeroValue;
+    // 当前探测长度上限
+    int maxProbe;
+    // 哈希种子
+    int seed;
+    // 上次换种子时的元素数量，用于判断换种子是否无效
+    int lastReseedSize = -1;
+    // 因探测过长而换种子的次数
+    int reseedCount;
+
+    /**
+     * 默认构造函数
+     */
+    public SafeLongLongMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, 0);
+    }
+
+    /**
+     * 带初始容量的构造函数
+     */
+    public SafeLongLongMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR, 0);
+    }
+
+    /**
+     * 完整构造函数
+     */
+    public SafeLongLongMap(int initialCapacity, float loadFactor, long noEntryValue) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor))
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        this.loadFactor = loadFactor;
+        this.noEntryValue = noEntryValue;
+        this.seed = PrimitiveHashing.newSeed();
+        allocate(PrimitiveHashing.capacityFor(initialCapacity, loadFactor));
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        threshold = Math.min(capacity - 1, (int) (capacity * loadFactor));
+        maxProbe = PrimitiveHashing.maxProbe(MAX_PROBE_BASE, capacity);
+    }
+
+    /**
+     * 键值对数量
+     */
+    public int size() {
+        return hasZeroKey ? size + 1 : size;
+    }
+
+    /**
+     * 是否为空
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 因探测过长而换种子的次数，可用于监控碰撞攻击
+     */
+    public int getReseedCount() {
+        return reseedCount;
+    }
+
+    /**
+     * 获取元素，不存在时返回 noEntryValue
+     */
+    public long get(long key) {
+        return getOrDefault(key, noEntryValue);
+    }
+
+    /**
+     * 获取元素，不存在时返回 defaultValue
+     */
+    public long getOrDefault(long key, long defaultValue) {
+        if (key == 0)
+            return hasZeroKey ? zeroValue : defaultValue;
+        long[] tab = keys;
+        int mask = tab.length - 1;
+        for (int i = PrimitiveHashing.mix(key, seed) & mask; ; i = (i + 1) & mask) {
+            long k = tab[i];
+            if (k == key)
+                return values[i];
+            if (k == 0)
+                return defaultValue;
+        }
+    }
+
+    /**
+     * 是否包含指定键
+     */
+    public boolean containsKey(long key) {
+        if (key == 0)
+            return hasZeroKey;
+        long[] tab = keys;
+        int mask = tab.length - 1;
+        for (int i = PrimitiveHashing.mix(key, seed) & mask; ; i = (i + 1) & mask) {
+            long k = tab[i];
+            if (k == key)
+                return true;
+            if (k == 0)
+                return false;
+        }
+    }
+
+    /**
+     * 放入元素，返回旧值（不存在时返回 noEntryValue）
+     */
+    public long put(long key, long value) {
+        if (key == 0) {
+            long old = hasZeroKey ? zeroValue : noEntryValue;
+            hasZeroKey = true;
+            zeroValue = value;
+            return old;
+        }
+        long[] tab = keys;
+        int mask = tab.length - 1;
+        int probe = 0;
+        for (int i = PrimitiveHashing.mix(key, seed) & mask; ; i = (i + 1) & mask, probe++) {
+            long k = tab[i];
+            if (k == key) {
+                long old = values[i];
+                values[i] = value;
+                return old;
+            }
+            if (k == 0) {
+                tab[i] = key;
+                values[i] = value;
+                afterInsert(probe);
+                return noEntryValue;
+            }
+        }
+    }
+
+    /**
+     * 把 delta 加到键对应的值上（不存在时视为 noEntryValue），返回新值。计数场景只需一次探测
+     */
+    public long addTo(long key, long delta) {
+        if (key == 0) {
+            zeroValue = (hasZeroKey ? zeroValue : noEntryValue) + delta;
+            hasZeroKey = true;
+            return zeroValue;
+        }
+        long[] tab = keys;
+        int mask = tab.length - 1;
+        int probe = 0;
+        for (int i = PrimitiveHashing.mix(key, seed) & mask; ; i = (i + 1) & mask, probe++) {
+            long k = tab[i];
+            if (k == key)
+                return values[i] += delta;
+            if (k == 0) {
+                long v = noEntryValue + delta;
+                tab[i] = key;
+                values[i] = v;
+                afterInsert(probe);
+                return v;
+            }
+        }
+    }
+
+    /**
+     * 删除元素，返回旧值（不存在时返回 noEntryValue）
+     */
+    public long remove(long key) {
+        if (key == 0) {
+            if (!hasZeroKey)
+                return noEntryValue;
+            hasZeroKey = false;
+            return zeroValue;
+        }
+        long[] tab = keys;
+        int mask = tab.length - 1;
+        for (int i = PrimitiveHashing.mix(key, seed) & mask; ; i = (i + 1) & mask) {
+            long k = tab[i];
+            if (k == key) {
+                long old = values[i];
+                shiftBackward(i);
+                size--;
+                return old;
+            }
+            if (k == 0)
+                return noEntryValue;
+        }
+    }
+
+    /**
+     * 清空
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+        hasZeroKey = false;
+    }
+
+    /**
+     * 删除位置 i 后，把后续探测链上的元素前移，保持"从理想位置到实际位置之间没有空槽"
+     */
+    private void shiftBackward(int i) {
+        long[] tab = keys;
+        int mask = tab.length - 1;
+        for (int j = (i + 1) & mask; ; j = (j + 1) & mask) {
+            long k = tab[j];
+            if (k == 0)
+                break;
+            int ideal = PrimitiveHashing.mix(k, seed) & mask;
+            // 理想位置不在 (i, j] 区间内的元素可以移到 i
+            if (((j - ideal) & mask) >= ((j - i) & mask)) {
+                tab[i] = k;
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        tab[i] = 0;
+    }
+
+    /**
+     * 插入后检查容量和探测长度
+     */
+    private void afterInsert(int probe) {
+        if (++size > threshold)
+            rehash(keys.length << 1, seed);
+        else if (probe > maxProbe) {
+            // 规模没有翻倍又超限，说明换种子无效，只能扩容
+            if (lastReseedSize >= 0 && size < lastReseedSize << 1)
+                rehash(keys.length << 1, seed);
+            else {
+                lastReseedSize = size;
+                reseedCount++;
+                rehash(keys.length, PrimitiveHashing.newSeed());
+            }
+        }
+    }
+
+    private void rehash(int newCapacity, int newSeed) {
+        if (newCapacity > MAXIMUM_CAPACITY)
+            throw new IllegalStateException("SafeLongLongMap 容量超出上限");
+        long[] oldKeys = keys, oldValues = values;
+        allocate(newCapacity);
+        seed = newSeed;
+        long[] tab = keys;
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long k = oldKeys[j];
+            if (k != 0) {
+                int i = PrimitiveHashing.mix(k, seed) & mask;
+                while (tab[i] != 0)
+                    i = (i + 1) & mask;
+                tab[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -1,6 +1,17 @@
+package com.nieran;
+
 import org.junit.jupiter.api.*;
 
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -65,67 +76,950 @@ class SecurityTest {
             }
         }
 
+        // 容量达到 MIN_TREEIFY_CAPACITY 时才会树化
+        SafeHashMap<FixedHashKey, Integer> treeMap = new SafeHashMap<>(64);
+
         // 添加8个相同哈希键
         for (int i = 0; i < 8; i++) {
-            map.put(new FixedHashKey(1, "Key" + i), i);
+            treeMap.put(new FixedHashKey(1, "Key" + i), i);
         }
 
         // 添加第9个键应触发树化
-        map.put(new FixedHashKey(1, "Key8"), 8);
+        treeMap.put(new FixedHashKey(1, "Key8"), 8);
 
-        // 通过控制台输出验证树化
-        // 实际实现中会检查桶类型
+        // 检查桶类型
+        int index = (treeMap.table.length - 1) & SafeHashMap.safeHash(new FixedHashKey(1, "Key0"));
+        assertTrue(treeMap.table[index] instanceof SafeHashMap.TreeNode);
+        for (int i = 0; i < 9; i++) {
+            assertEquals(i, treeMap.get(new FixedHashKey(1, "Key" + i)));
+        }
+        assertEquals(9, treeMap.size());
     }
 
-    // 测试树化后的查询性能
+    // 测试树桶中的插入、查找与删除（可比较键）
     @Test
-    void testTreePerformance() {
-        // 使用高冲突键加载数据
-        for (int i = 0; i < 10_000; i++) {
-            map.put("KEY" + i, i);
+    void testTreeBinWithComparableKeys() {
+        SafeHashMap<HashCollisionAttack1.HashCollisionKey, Integer> treeMap = new SafeHashMap<>(1 << 16);
+        for (int i = 0; i < 1000; i++) {
+            treeMap.put(new HashCollisionAttack1.HashCollisionKey(i), i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals(i, treeMap.remove(new HashCollisionAttack1.HashCollisionKey(i)));
         }
+        for (int i = 0; i < 1000; i++) {
+            Integer v = treeMap.get(new HashCollisionAttack1.HashCollisionKey(i));
+            if (i % 2 == 0) {
+                assertNull(v);
+            } else {
+                assertEquals(i, v);
+            }
+        }
+        assertEquals(500, treeMap.size());
+    }
 
-        // 测试查询性能
-        long startTime = System.nanoTime();
-        for (int i = 0; i < 10_000; i++) {
-            assertNotNull(map.get("KEY" + i));
+    // 测试树化后的查询性能：不再依赖机器快慢计时（耗时对比见 benchmarks 模块），
+    // 而是检查树桶高度不超过红黑树上界 2*log2(n+1)，保证查找为 O(log n)
+    @Test
+    void testTreePerformance() {
+        SafeHashMap<HashCollisionAttack1.HashCollisionKey, Integer> treeMap = new SafeHashMap<>();
+        int n = 10_000;
+        for (int i = 0; i < n; i++) {
+            treeMap.put(new HashCollisionAttack1.HashCollisionKey(i), i);
+        }
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, treeMap.get(new HashCollisionAttack1.HashCollisionKey(i)));
         }
-        long duration = System.nanoTime() - startTime;
 
-        // 查询时间应在合理范围内 (避免GC干扰使用相对时间)
-        assertTrue(duration < 10_000_000, "树查询时间异常");
+        int index = (treeMap.table.length - 1) & SafeHashMap.safeHash(new HashCollisionAttack1.HashCollisionKey(0));
+        assertTrue(treeMap.table[index] instanceof SafeHashMap.TreeNode);
+        SafeHashMap.TreeNode<HashCollisionAttack1.HashCollisionKey, Integer> root =
+                ((SafeHashMap.TreeNode<HashCollisionAttack1.HashCollisionKey, Integer>) treeMap.table[index]).root();
+        int maxHeight = 2 * (32 - Integer.numberOfLeadingZeros(n + 1));
+        assertTrue(treeHeight(root) <= maxHeight, "树桶高度超出红黑树上界");
     }
 
-    // 测试扩容与树化协调
+    private static int treeHeight(SafeHashMap.TreeNode<?, ?> node) {
+        return node == null ? 0 : 1 + Math.max(treeHeight(node.left), treeHeight(node.right));
+    }
+
+    // 测试扩容与树化协调：容量不足 MIN_TREEIFY_CAPACITY 时超长桶先扩容，容量足够后才树化，树桶在之后的扩容中保持为树
     @Test
     void testResizeAndTreeify() {
-        // 在小容量下添加数据
-        SafeHashMap<String, Integer> smallMap = new SafeHashMap<>(16);
+        SafeHashMap<Object, Integer> smallMap = new SafeHashMap<>(16);
+        for (int i = 0; i < 8; i++) {
+            smallMap.put(new HashCollisionAttack1.HashCollisionKey(i), i);
+        }
+        // 第 8 个同哈希键使链表达到树化阈值，容量 16 时只扩容
+        int index = (smallMap.table.length - 1) & SafeHashMap.safeHash(new HashCollisionAttack1.HashCollisionKey(0));
+        assertEquals(32, smallMap.table.length);
+        assertFalse(smallMap.table[index] instanceof SafeHashMap.TreeNode);
 
-        // 创建冲突键
-        for (int i = 0; i < 20; i++) {
-            smallMap.put("CONFLICT-" + i, i);
+        smallMap.put(new HashCollisionAttack1.HashCollisionKey(8), 8);
+        assertEquals(64, smallMap.table.length);
+        index = (smallMap.table.length - 1) & SafeHashMap.safeHash(new HashCollisionAttack1.HashCollisionKey(0));
+        assertFalse(smallMap.table[index] instanceof SafeHashMap.TreeNode);
+
+        smallMap.put(new HashCollisionAttack1.HashCollisionKey(9), 9);
+        assertEquals(64, smallMap.table.length);
+        assertTrue(smallMap.table[index] instanceof SafeHashMap.TreeNode);
+
+        // 普通键把表撑大，hash 相同的树桶整体留在同一半，扩容后仍是树
+        for (int i = 0; i < 1000; i++) {
+            smallMap.put(i, i);
+        }
+        assertTrue(smallMap.table.length >= 1024);
+        index = (smallMap.table.length - 1) & smallMap.hash(new HashCollisionAttack1.HashCollisionKey(0));
+        assertTrue(smallMap.table[index] instanceof SafeHashMap.TreeNode);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, smallMap.get(new HashCollisionAttack1.HashCollisionKey(i)));
+        }
+    }
+
+    // 测试扩容时树桶拆分不丢失数据
+    @Test
+    void testResizeSplitsTreeBins() {
+        // 默认容量下插入大量同哈希键，会经历多次扩容
+        SafeHashMap<HashCollisionAttack1.HashCollisionKey, Integer> treeMap = new SafeHashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            treeMap.put(new HashCollisionAttack1.HashCollisionKey(i), i);
         }
 
-        // 验证不会过早树化（容量不足MIN_TREEIFY_CAPACITY）
-        // 实际实现中会检查resize次数
+        assertEquals(5000, treeMap.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i, treeMap.get(new HashCollisionAttack1.HashCollisionKey(i)));
+        }
     }
 
-    // 测试反树化机制
+    // 测试反树化机制：删除到树桶太小时退化为链表；扩容拆分后不超过 UNTREEIFY_THRESHOLD 的一半也退化为链表
     @Test
     void testUntreeify() {
-        // 创建达到树化条件的数据
+        class HashKey {
+            final int hash, id;
+
+            HashKey(int hash, int id) {
+                this.hash = hash;
+                this.id = id;
+            }
+
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof HashKey && ((HashKey) o).hash == hash && ((HashKey) o).id == id;
+            }
+        }
+
+        SafeHashMap<Object, Integer> treeMap = new SafeHashMap<>(64);
         for (int i = 0; i < 10; i++) {
-            map.put("ITEM" + i, i);
+            treeMap.put(new HashKey(1, i), i);
+        }
+        int index = 63 & SafeHashMap.safeHash(new HashKey(1, 0));
+        assertTrue(treeMap.table[index] instanceof SafeHashMap.TreeNode);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i, treeMap.remove(new HashKey(1, i)));
+        }
+        assertFalse(treeMap.table[index] instanceof SafeHashMap.TreeNode);
+        assertEquals(8, treeMap.get(new HashKey(1, 8)));
+        assertEquals(9, treeMap.get(new HashKey(1, 9)));
+
+        // 找一个在 64 桶的表中与 1 同桶、在 128 桶的表中分到高半部分的 hashCode
+        int other = 2;
+        while ((SafeHashMap.safeHash(new HashKey(other, 0)) & 127) != (SafeHashMap.safeHash(new HashKey(1, 0)) & 63) + 64)
+            other++;
+        SafeHashMap<Object, Integer> splitMap = new SafeHashMap<>(64);
+        for (int i = 0; i < 5; i++) {
+            splitMap.put(new HashKey(1, i), i);
+            splitMap.put(new HashKey(other, i), -i);
+        }
+        assertEquals(64, splitMap.table.length);
+        assertTrue(splitMap.table[index] instanceof SafeHashMap.TreeNode);
+        // 用不落入这个桶的键把表撑大
+        for (int i = 0; splitMap.table.length == 64; i++) {
+            if ((SafeHashMap.safeHash("filler" + i) & 63) != index)
+                splitMap.put("filler" + i, i);
+        }
+        // 拆成各 5 个节点的两半，都退化为链表
+        assertEquals(128, splitMap.table.length);
+        assertFalse(splitMap.table[index] instanceof SafeHashMap.TreeNode);
+        assertFalse(splitMap.table[index + 64] instanceof SafeHashMap.TreeNode);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, splitMap.get(new HashKey(1, i)));
+            assertEquals(-i, splitMap.get(new HashKey(other, i)));
+        }
+    }
+
+    // 测试带密钥哈希能区分 hashCode 相同的字符串
+    @Test
+    void testKeyedHashing() {
+        SafeHashMap<String, Integer> keyedMap = new SafeHashMap<>(16, 0.75f, true);
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertNotEquals(keyedMap.hash("Aa"), keyedMap.hash("BB"));
+        // 相同内容的不同实例哈希一致
+        assertEquals(keyedMap.hash("AaBB"), keyedMap.hash(new String("AaBB")));
+        // 非字符串键仍使用 safeHash
+        assertEquals(SafeHashMap.safeHash(42), keyedMap.hash(42));
+        // 按引用比较的 CharSequence 和 byte[] 不按内容哈希，插入后修改内容仍能找到
+        StringBuilder builder = new StringBuilder("Aa");
+        byte[] bytes = {1, 2, 3};
+        assertEquals(SafeHashMap.safeHash(builder), keyedMap.hash(builder));
+        assertEquals(SafeHashMap.safeHash(bytes), keyedMap.hash(bytes));
+        SafeHashMap<Object, Integer> mutableKeys = new SafeHashMap<>(16, 0.75f, true);
+        mutableKeys.put(builder, 1);
+        mutableKeys.put(bytes, 2);
+        builder.append("BB");
+        bytes[0] = 9;
+        assertEquals(1, mutableKeys.get(builder));
+        assertEquals(2, mutableKeys.get(bytes));
+
+        keyedMap.put("Aa", 1);
+        keyedMap.put("BB", 2);
+        keyedMap.put(null, 3);
+        assertEquals(1, keyedMap.get("Aa"));
+        assertEquals(2, keyedMap.get("BB"));
+        assertEquals(3, keyedMap.get(null));
+    }
+
+    // 测试检测到字符串碰撞攻击后换种子重哈希
+    @Test
+    void testAttackDetectionRehash() {
+        String[] keys = CollisionKeyGenerator.sameHash(1 << 12);
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i);
+        }
+        assertEquals(1, map.getAttackRehashCount());
+        assertEquals(keys.length, map.size());
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, map.get(keys[i]));
+        }
+
+        // hashCode 完全相同的普通键换种子无济于事，只交给树桶处理
+        SafeHashMap<HashCollisionAttack1.HashCollisionKey, Integer> treeMap = new SafeHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            treeMap.put(new HashCollisionAttack1.HashCollisionKey(i), i);
+        }
+        assertEquals(0, treeMap.getAttackRehashCount());
+    }
+
+    // 测试攻击检测不误报：perturb 对顺序键分布不均，普通数据也会出现超长桶，但不应当换种子
+    @Test
+    void testNoFalseAttackDetection() {
+        SafeHashMap<Integer, Integer> ints = new SafeHashMap<>();
+        SafeHashMap<String, Integer> strings = new SafeHashMap<>();
+        CompactSafeHashMap<String, Integer> compact = new CompactSafeHashMap<>();
+        for (int i = 0; i < 1_000_000; i++) {
+            ints.put(i, i);
+            strings.put("key" + i, i);
+            compact.put("key" + i, i);
+            if (i == 999 || i == 9_999 || i == 99_999) {
+                assertEquals(0, ints.getAttackRehashCount(), "Integer n=" + (i + 1));
+                assertEquals(0, strings.getAttackRehashCount(), "String n=" + (i + 1));
+            }
+        }
+        assertEquals(0, ints.getAttackRehashCount());
+        assertEquals(0, strings.getAttackRehashCount());
+        assertEquals(0, compact.getAttackRehashCount());
+        assertFalse(ints.keyedHashing);
+        assertFalse(strings.keyedHashing);
+    }
+
+    // 测试并发 map：多个线程同时写入和删除并跨越多次扩容、同 hash 键并发进入同一个树桶、拒绝 null
+    @Test
+    void testConcurrentMap() throws Exception {
+        ConcurrentSafeHashMap<Object, Integer> concurrent = new ConcurrentSafeHashMap<>();
+        int threads = 4, perThread = 50_000;
+        java.util.concurrent.CyclicBarrier start = new java.util.concurrent.CyclicBarrier(threads);
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(threads);
+        try {
+            java.util.List<java.util.concurrent.Future<?>> futures = new java.util.ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int base = t * perThread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        concurrent.put(base + i, i);
+                        if (i % 100 == 0)
+                            concurrent.put(new HashCollisionAttack1.HashCollisionKey(base + i), -i);
+                        // 边写边删前面写入的键，删除与扩容迁移交错
+                        if (i >= 1000 && i % 2 == 0)
+                            assertEquals(i - 1000, concurrent.remove(base + i - 1000));
+                    }
+                    for (int i = perThread - 1000; i < perThread; i += 2) {
+                        assertEquals(i, concurrent.remove(base + i));
+                    }
+                    for (int i = 0; i < perThread; i += 200) {
+                        assertEquals(-i, concurrent.remove(new HashCollisionAttack1.HashCollisionKey(base + i)));
+                    }
+                    return null;
+                }));
+            }
+            for (java.util.concurrent.Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(threads * (perThread / 2 + perThread / 200), concurrent.size());
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < perThread; i++) {
+                int key = t * perThread + i;
+                assertEquals(i % 2 == 0 ? null : i, concurrent.get(key));
+                if (i % 100 == 0)
+                    assertEquals(i % 200 == 0 ? null : -i, concurrent.get(new HashCollisionAttack1.HashCollisionKey(key)));
+            }
+        }
+        assertTrue(concurrent.table.length > 1 << 16);
+        int index = (concurrent.table.length - 1) & ConcurrentSafeHashMap.spread(new HashCollisionAttack1.HashCollisionKey(0));
+        assertTrue(concurrent.table[index] instanceof ConcurrentSafeHashMap.TreeBin);
+
+        assertThrows(NullPointerException.class, () -> concurrent.put(null, 1));
+        assertThrows(NullPointerException.class, () -> concurrent.put(1, null));
+        assertThrows(NullPointerException.class, () -> concurrent.putIfAbsent(null, 1));
+        assertThrows(NullPointerException.class, () -> concurrent.get(null));
+        assertThrows(NullPointerException.class, () -> concurrent.remove(null));
+        assertThrows(NullPointerException.class, () -> concurrent.containsKey(null));
+    }
+
+    // 原始类型 map 与 HashMap 做差分测试：随机 put/remove/get（含键 0 和负数键），并周期性把探测上限压到 0 强制换种子，
+    // 同一规模下连续超限则走扩容分支
+    @Test
+    void testPrimitiveMaps() {
+        SafeIntIntMap intInt = new SafeIntIntMap(4, 0.5f, -1);
+        SafeIntObjectMap<String> intObject = new SafeIntObjectMap<>();
+        SafeLongLongMap longLong = new SafeLongLongMap();
+        Map<Integer, Integer> intIntExpected = new HashMap<>();
+        Map<Integer, String> intObjectExpected = new HashMap<>();
+        Map<Long, Long> longLongExpected = new HashMap<>();
+        Random random = new Random(42);
+        for (int op = 0; op < 300_000; op++) {
+            int key = random.nextInt(4096) - 2048;
+            // 高 32 位与低 32 位都参与，键 0 仍然映射到 0
+            long longKey = (long) key << 32 ^ key * 31L;
+            int value = random.nextInt();
+            switch (random.nextInt(10)) {
+                case 0, 1, 2, 3 -> {
+                    assertEquals(intIntExpected.getOrDefault(key, -1), intInt.put(key, value));
+                    intIntExpected.put(key, value);
+                    assertEquals(intObjectExpected.put(key, "v" + value), intObject.put(key, "v" + value));
+                    assertEquals(longLongExpected.getOrDefault(longKey, 0L), longLong.put(longKey, value));
+                    longLongExpected.put(longKey, (long) value);
+                }
+                case 4 -> {
+                    int sum = intIntExpected.getOrDefault(key, -1) + value;
+                    intIntExpected.put(key, sum);
+                    assertEquals(sum, intInt.addTo(key, value));
+                    assertEquals(longLongExpected.merge(longKey, (long) value, Long::sum) + 0, longLong.addTo(longKey, value));
+                }
+                case 5, 6, 7 -> {
+                    Integer old = intIntExpected.remove(key);
+                    assertEquals(old == null ? -1 : old, intInt.remove(key));
+                    assertEquals(intObjectExpected.remove(key), intObject.remove(key));
+                    Long oldLong = longLongExpected.remove(longKey);
+                    assertEquals(oldLong == null ? 0L : oldLong, longLong.remove(longKey));
+                }
+                default -> {
+                    assertEquals(intIntExpected.getOrDefault(key, -1), intInt.get(key));
+                    assertEquals(intIntExpected.containsKey(key), intInt.containsKey(key));
+                    assertEquals(intObjectExpected.get(key), intObject.get(key));
+                    assertEquals(longLongExpected.getOrDefault(longKey, 0L), longLong.get(longKey));
+                    assertEquals(longLongExpected.containsKey(longKey), longLong.containsKey(longKey));
+                }
+            }
+            // 规模稳定后：第一次超限换种子，之后规模没有翻倍又超限则扩容
+            if (op == 100_000 || op == 100_500 || op == 101_000) {
+                intInt.maxProbe = intObject.maxProbe = longLong.maxProbe = 0;
+            }
+            if (op == 200_000) {
+                intInt.clear();
+                intObject.clear();
+                longLong.clear();
+                intIntExpected.clear();
+                intObjectExpected.clear();
+                longLongExpected.clear();
+            }
+            assertEquals(intIntExpected.size(), intInt.size());
+            assertEquals(intObjectExpected.size(), intObject.size());
+            assertEquals(longLongExpected.size(), longLong.size());
+        }
+        intIntExpected.forEach((k, v) -> assertEquals(v, intInt.get(k)));
+        intObjectExpected.forEach((k, v) -> assertEquals(v, intObject.get(k)));
+        longLongExpected.forEach((k, v) -> assertEquals(v, longLong.get(k)));
+        // 换种子和扩容两个分支都走到了
+        assertTrue(intInt.getReseedCount() > 0 && intObject.getReseedCount() > 0 && longLong.getReseedCount() > 0);
+        // 键最多 4096 个，按负载因子只需 8192 个槽，更大说明强制扩容生效
+        assertTrue(intInt.keys.length > PrimitiveHashing.capacityFor(4096, 0.5f));
+        assertTrue(intObject.keys.length > PrimitiveHashing.capacityFor(4096, 0.5f));
+        assertTrue(longLong.keys.length > PrimitiveHashing.capacityFor(4096, 0.5f));
+    }
+
+    // 测试 Robin Hood 引擎：基本操作、删除后的向后移动，以及碰撞攻击下换种子
+    @Test
+    void testRobinHoodEngine() {
+        Map<String, Integer> rh = SafeHashMap.newMap(SafeHashMap.Engine.ROBIN_HOOD, 16);
+        assertTrue(rh instanceof RobinHoodSafeHashMap);
+        for (int i = 0; i < 1000; i++) {
+            rh.put("key" + i, i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals(i, rh.remove("key" + i));
+        }
+        rh.put(null, -1);
+        assertEquals(501, rh.size());
+        assertEquals(-1, rh.get(null));
+        for (int i = 1; i < 1000; i += 2) {
+            assertEquals(i, rh.get("key" + i));
+            assertNull(rh.get("key" + (i - 1)));
+        }
+
+        RobinHoodSafeHashMap<String, Integer> attacked = new RobinHoodSafeHashMap<>();
+        String[] keys = CollisionKeyGenerator.sameHash(1 << 12);
+        for (int i = 0; i < keys.length; i++) {
+            attacked.put(keys[i], i);
+        }
+        assertTrue(attacked.getReseedCount() >= 1);
+        assertEquals(keys.length, attacked.size());
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, attacked.get(keys[i]));
+        }
+        assertFalse(attacked.isFallback());
+
+        // hashCode 完全相同的非字符串键：换种子无效，转存到链式引擎的树桶，而不是反复扩容
+        RobinHoodSafeHashMap<HashCollisionAttack1.HashCollisionKey, Integer> sameHash = new RobinHoodSafeHashMap<>();
+        // 测试开启了 -ea，树桶每次修改都做全树校验，规模取 2^13
+        int n = 1 << 13;
+        assertTimeout(java.time.Duration.ofSeconds(5), () -> {
+            for (int i = 0; i < n; i++) {
+                sameHash.put(new HashCollisionAttack1.HashCollisionKey(i), i);
+            }
+        });
+        assertTrue(sameHash.isFallback());
+        assertTrue(sameHash.hashes.length <= RobinHoodSafeHashMap.DEFAULT_INITIAL_CAPACITY * 2);
+        assertEquals(n, sameHash.size());
+        for (int i = 0; i < n; i += 2) {
+            assertEquals(i, sameHash.remove(new HashCollisionAttack1.HashCollisionKey(i)));
+        }
+        for (int i = 0; i < n; i++) {
+            assertEquals(i % 2 == 0 ? null : i, sameHash.get(new HashCollisionAttack1.HashCollisionKey(i)));
+        }
+        int iterated = 0;
+        for (Map.Entry<HashCollisionAttack1.HashCollisionKey, Integer> e : sameHash.entrySet()) {
+            e.setValue(-e.getValue());
+            iterated++;
+        }
+        assertEquals(n / 2, iterated);
+        assertEquals(-1, sameHash.get(new HashCollisionAttack1.HashCollisionKey(1)));
+        sameHash.clear();
+        assertFalse(sameHash.isFallback());
+        assertTrue(sameHash.isEmpty());
+
+        // 普通的顺序整数键不会触发转存
+        RobinHoodSafeHashMap<Integer, Integer> sequential = new RobinHoodSafeHashMap<>();
+        for (int i = 0; i < 1_000_000; i++) {
+            sequential.put(i, i);
+        }
+        assertFalse(sequential.isFallback());
+        assertEquals(1_000_000, sequential.size());
+    }
+
+    // 测试运行统计（surefire 以 -Dsafehashmap.stats=true 运行）
+    @Test
+    void testStats() throws Exception {
+        Assumptions.assumeTrue(SafeHashMapStats.ENABLED);
+        SafeHashMap<HashCollisionAttack1.HashCollisionKey, Integer> treeMap = new SafeHashMap<>(64);
+        // 40 个键不超过扩容阈值 48
+        for (int i = 0; i < 40; i++) {
+            treeMap.put(new HashCollisionAttack1.HashCollisionKey(i), i);
+        }
+        SafeHashMapStats stats = treeMap.getStats();
+        assertEquals(1, stats.getTreeifyCount());
+        assertEquals(SafeHashMap.TREEIFY_THRESHOLD - 1, stats.getMaxProbeLength());
+        assertEquals(1, stats.getResizeCount()); // 只有首次 put 时分配桶数组
+        long[] histogram = stats.getBucketDepthHistogram();
+        assertEquals(63, histogram[0]);
+        assertEquals(1, Arrays.stream(histogram).skip(1).sum());
+
+        for (int i = 0; i < 100; i++) {
+            map.put("key" + i, i);
+        }
+        assertTrue(map.getStats().getResizeCount() >= 4);
+        assertEquals(100 / (double) map.table.length, map.getStats().getActualLoadFactor());
+
+        ObjectName name = map.getStats().register("testStats");
+        try {
+            assertEquals(100, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Size"));
+        } finally {
+            map.getStats().unregister();
+        }
+    }
+
+    // 测试有界缓存：LRU 淘汰最久未访问的条目，W-TinyLFU 不会被一次性扫描冲掉热点
+    @Test
+    void testSafeCache() {
+        SafeCache<String, Integer> lru = new SafeCache<>(3, SafeCache.Policy.LRU);
+        lru.put("a", 1);
+        lru.put("b", 2);
+        lru.put("c", 3);
+        assertEquals(1, lru.get("a"));
+        lru.put("d", 4);
+        assertEquals(3, lru.size());
+        assertNull(lru.get("b"));
+        assertEquals(1, lru.getEvictionCount());
+        assertEquals(1, lru.getHitCount());
+        assertEquals(1, lru.getMissCount());
+
+        // 热点键被反复访问后遇到一次长扫描：LRU 被扫描冲掉，W-TinyLFU 的保护区保住热点
+        assertEquals(0, hotKeysAfterScan(SafeCache.Policy.LRU));
+        assertTrue(hotKeysAfterScan(SafeCache.Policy.W_TINY_LFU) >= 49);
+
+        SafeCache<String, String> weighted = new SafeCache<>(10, (k, v) -> v.length(), SafeCache.Policy.LRU);
+        weighted.put("a", "12345");
+        weighted.put("b", "12345");
+        weighted.put("c", "1");
+        assertEquals(2, weighted.size());
+        assertTrue(weighted.weightedSize() <= 10);
+    }
+
+    // 50 个热点键访问 5 轮后插入 10000 个只出现一次的扫描键，返回仍在缓存中的热点键数
+    private static int hotKeysAfterScan(SafeCache.Policy policy) {
+        SafeCache<String, Integer> cache = new SafeCache<>(100, policy);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                if (cache.get("hot" + i) == null)
+                    cache.put("hot" + i, i);
+            }
+        }
+        for (int i = 0; i < 10_000; i++) {
+            cache.put("scan" + i, i);
+        }
+        assertEquals(100, cache.size());
+        int retained = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.containsKey("hot" + i))
+                retained++;
+        }
+        return retained;
+    }
+
+    // 测试并行批量加载和按桶区间拆分的并行遍历
+    @Test
+    void testBulkLoad() {
+        Map<String, Integer> source = new java.util.HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            source.put("key" + i, i);
+        }
+        // 混入碰撞字符串，批量加载同样要触发攻击检测
+        String[] colliding = CollisionKeyGenerator.sameHash(1 << 12);
+        for (int i = 0; i < colliding.length; i++) {
+            source.put(colliding[i], -i);
+        }
+        SafeHashMap<String, Integer> loaded = new SafeHashMap<>();
+        loaded.putAll(source);
+        assertEquals(source, loaded);
+        assertTrue(loaded.getAttackRehashCount() >= 1);
+
+        long sum = source.values().stream().mapToLong(Integer::longValue).sum();
+        assertEquals(source.size(), loaded.entrySet().parallelStream().count());
+        assertEquals(sum, loaded.entrySet().parallelStream().mapToLong(Map.Entry::getValue).sum());
+        assertThrows(IllegalStateException.class, () -> loaded.bulkLoad(source));
+
+        // 全部是同 hash 字符串：超长桶不再挂链，剩下的条目逐个插入树桶并触发换种子，耗时与逐个 put 同一量级
+        Map<String, Integer> attack = new java.util.HashMap<>();
+        String[] sameHash = CollisionKeyGenerator.sameHash(1 << 16);
+        for (int i = 0; i < sameHash.length; i++) {
+            attack.put(sameHash[i], i);
+        }
+        SafeHashMap<String, Integer> attacked = new SafeHashMap<>();
+        assertTimeout(java.time.Duration.ofSeconds(5), () -> attacked.putAll(attack));
+        assertTrue(attacked.getAttackRehashCount() >= 1);
+        assertEquals(attack, attacked);
+    }
+
+    // 测试键/值视图、forEach、replaceAll 和迭代器的快速失败
+    @Test
+    void testMapViews() {
+        Map<String, Integer> expected = new java.util.HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.put("key" + i, i);
+            expected.put("key" + i, i);
+        }
+        assertEquals(expected.keySet(), map.keySet());
+        assertTrue(map.containsValue(42));
+        assertFalse(map.containsValue(100));
+
+        map.keySet().remove("key0");
+        map.values().removeIf(v -> v % 2 == 1);
+        assertEquals(49, map.size());
+        map.replaceAll((k, v) -> v * 10);
+        int[] sum = new int[1];
+        map.forEach((k, v) -> sum[0] += v);
+        assertEquals(24_500, sum[0]);
+
+        assertThrows(ConcurrentModificationException.class, () -> {
+            for (String key : map.keySet())
+                map.put(key + "x", 0);
+        });
+        assertThrows(ConcurrentModificationException.class,
+                () -> map.forEach((k, v) -> map.remove(k)));
+    }
+
+    // 测试 compute 系列：链表桶、树桶和触发攻击重哈希时的单次遍历插入
+    @Test
+    void testComputeFamily() {
+        String[] keys = CollisionKeyGenerator.sameHash(1 << 12);
+        SafeHashMap<String, Integer> counts = new SafeHashMap<>();
+        for (int round = 0; round < 3; round++) {
+            for (String key : keys) {
+                counts.merge(key, 1, Integer::sum);
+            }
+        }
+        assertTrue(counts.getAttackRehashCount() >= 1);
+        assertEquals(keys.length, counts.size());
+        for (String key : keys) {
+            assertEquals(3, counts.get(key));
+        }
+
+        SafeHashMap<HashCollisionAttack1.HashCollisionKey, Integer> treeMap = new SafeHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            int id = i;
+            HashCollisionAttack1.HashCollisionKey key = new HashCollisionAttack1.HashCollisionKey(i);
+            assertEquals(i, treeMap.computeIfAbsent(key, k -> id));
+            assertEquals(i, treeMap.computeIfAbsent(key, k -> -1));
+            assertEquals(i + 1, treeMap.compute(key, (k, v) -> v + 1));
+        }
+        assertEquals(100, treeMap.size());
+        for (int i = 0; i < 100; i += 2) {
+            assertNull(treeMap.computeIfPresent(new HashCollisionAttack1.HashCollisionKey(i), (k, v) -> null));
+        }
+        assertEquals(50, treeMap.size());
+        // 树桶未命中时按第一次下降记下的插入点挂节点，函数内部的命中查找不能改变这个插入点
+        HashCollisionAttack1.HashCollisionKey missing = new HashCollisionAttack1.HashCollisionKey(200);
+        assertEquals(7, treeMap.compute(missing, (k, v) ->
+                treeMap.computeIfAbsent(new HashCollisionAttack1.HashCollisionKey(1), x -> -1) + 5));
+        assertEquals(8, treeMap.merge(new HashCollisionAttack1.HashCollisionKey(201), 8, Integer::sum));
+        assertEquals(52, treeMap.size());
+        assertEquals(7, treeMap.get(missing));
+        assertEquals(2, treeMap.remove(new HashCollisionAttack1.HashCollisionKey(1)));
+
+        assertNull(map.putIfAbsent("a", 1));
+        assertEquals(1, map.putIfAbsent("a", 2));
+        assertNull(map.merge("a", 5, (x, y) -> null));
+        assertFalse(map.containsKey("a"));
+        assertThrows(ConcurrentModificationException.class,
+                () -> map.computeIfAbsent("b", k -> map.put("c", 3)));
+    }
+
+    // 测试增量扩容：扩容后旧表分批迁移，期间查找、删除和遍历结果不变
+    @Test
+    void testIncrementalResize() {
+        SafeHashMap<Integer, Integer> incremental = new SafeHashMap<>();
+        incremental.setIncrementalResize(true);
+        int n = 100_000;
+        boolean sawTransfer = false;
+        for (int i = 0; i < n; i++) {
+            incremental.put(i, i);
+            sawTransfer |= incremental.oldTable != null;
+        }
+        assertTrue(sawTransfer);
+        for (int i = 0; i < n; i += 2) {
+            assertEquals(i, incremental.remove(i));
+        }
+        for (int i = 1; i < n; i += 2) {
+            assertEquals(i, incremental.get(i));
+        }
+        assertEquals(n / 2, incremental.size());
+        assertEquals(n / 2, incremental.entrySet().stream().count());
+        assertNull(incremental.oldTable);
+    }
+
+    // 测试并行扩容：树桶和链表桶在多个线程中迁移后内容不变
+    @Test
+    void testParallelResize() {
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        try {
+            SafeHashMap<Object, Integer> parallel = new SafeHashMap<>();
+            parallel.setParallelResize(pool, 1 << 10);
+            for (int i = 0; i < 200_000; i++) {
+                parallel.put(i, i);
+                if (i % 1000 == 0)
+                    parallel.put(new HashCollisionAttack1.HashCollisionKey(i), i);
+            }
+            assertEquals(200_200, parallel.size());
+            for (int i = 0; i < 200_000; i++) {
+                assertEquals(i, parallel.get(i));
+                if (i % 1000 == 0)
+                    assertEquals(i, parallel.get(new HashCollisionAttack1.HashCollisionKey(i)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // 测试堆外 map：按字节切片读写、变长覆盖、删除后整理 arena
+    @Test
+    void testOffHeapMap() {
+        OffHeapSafeHashMap offHeap = new OffHeapSafeHashMap();
+        byte[] buffer = "__key42__".getBytes();
+        offHeap.put("key42", new byte[]{1, 2, 3});
+        byte[] dst = new byte[8];
+        assertEquals(3, offHeap.get(buffer, 2, 5, dst, 1));
+        assertArrayEquals(new byte[]{0, 1, 2, 3, 0, 0, 0, 0}, dst);
+        assertEquals(3, offHeap.get(buffer, 2, 5, new byte[2], 0));
+        assertTrue(offHeap.put("key42", new byte[20]));
+        assertArrayEquals(new byte[20], offHeap.get("key42"));
+
+        for (int i = 0; i < 100_000; i++) {
+            offHeap.put("key" + i, ("value" + i).getBytes());
         }
+        for (int i = 0; i < 100_000; i += 2) {
+            assertTrue(offHeap.remove("key" + i));
+        }
+        assertEquals(50_000, offHeap.size());
+        assertTrue(offHeap.garbageBytes <= offHeap.liveBytes);
+        for (int i = 1; i < 100_000; i += 2) {
+            assertArrayEquals(("value" + i).getBytes(), offHeap.get("key" + i));
+            assertNull(offHeap.get("key" + (i - 1)));
+        }
+        offHeap.close();
+    }
+
+    // 测试快照：写出后按映射方式查询，并按保存的桶布局还原
+    @Test
+    void testSnapshot() throws Exception {
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("safehashmap", ".snapshot");
+        // 映射的缓冲区被回收前 Windows 上不能删除文件，退出时再删
+        file.toFile().deleteOnExit();
+        for (int i = 0; i < 10_000; i++) {
+            map.put("key" + i, i);
+        }
+        map.put(null, -1);
+        // 小区域触发跨区域填充
+        SafeHashMapSnapshot.write(map, file, SnapshotCodec.STRING, SnapshotCodec.INTEGER, 12);
+        try (SafeHashMapSnapshot<String, Integer> snapshot =
+                     SafeHashMapSnapshot.open(file, SnapshotCodec.STRING, SnapshotCodec.INTEGER)) {
+            assertEquals(map.size(), snapshot.size());
+            assertEquals(42, snapshot.get("key42"));
+            assertEquals(-1, snapshot.get(null));
+            assertFalse(snapshot.containsKey("absent"));
+            SafeHashMap<String, Integer> restored = snapshot.toSafeHashMap();
+            assertEquals(map, restored);
+            assertEquals(map.table.length, restored.table.length);
+        }
+    }
+
+    // 测试列式存储的 map：删除时搬移最后一个条目、树桶查找与退化、迭代器删除
+    @Test
+    void testCompactMap() {
+        CompactSafeHashMap<Object, Integer> compact = new CompactSafeHashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            compact.put(i, i);
+            if (i % 100 == 0)
+                compact.put(new HashCollisionAttack1.HashCollisionKey(i), i);
+        }
+        compact.put(null, -1);
+        assertEquals(10_101, compact.size());
+        int treeBins = compact.treeBinCount;
+        assertTrue(treeBins > 0);
+        for (int i = 0; i < 10_000; i += 2) {
+            assertEquals(i, compact.remove(i));
+            if (i % 100 == 0)
+                assertEquals(i, compact.remove(new HashCollisionAttack1.HashCollisionKey(i)));
+        }
+        for (int i = 1; i < 10_000; i += 2) {
+            assertEquals(i, compact.get(i));
+            assertNull(compact.get(i - 1));
+        }
+        assertEquals(-1, compact.get(null));
+
+        compact.entrySet().removeIf(e -> e.getKey() == null || (Integer) e.getKey() % 3 == 0);
+        assertEquals(3_333, compact.size());
+        // 删到不超过反树化阈值的树桶都已退化为链表；剩下的树桶来自 perturb 对顺序 Integer 的扎堆
+        assertTrue(compact.treeBinCount < treeBins);
+        for (int id = 0; id < compact.treeBinCount; id++) {
+            assertTrue(compact.treeBinSizes[id] > SafeHashMap.UNTREEIFY_THRESHOLD);
+        }
+        assertEquals(new java.util.HashMap<>(compact), compact);
+        assertEquals(7, compact.get(7));
+    }
+
+    // 测试冻结的只读 map：完美哈希命中、hashCode 相同的键走溢出表、不支持修改
+    @Test
+    void testFrozenMap() {
+        SafeHashMap<Object, Integer> source = new SafeHashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            source.put("key" + i, i);
+            if (i % 100 == 0)
+                source.put(new HashCollisionAttack1.HashCollisionKey(i), i);
+        }
+        source.put(null, -1);
+        FrozenSafeHashMap<Object, Integer> frozen = source.freeze();
+        assertEquals(source, frozen);
+        assertEquals(10_001, frozen.slots);
+        assertEquals(100, frozen.overflow.size());
+        assertEquals(42, frozen.get("key42"));
+        assertEquals(300, frozen.get(new HashCollisionAttack1.HashCollisionKey(300)));
+        assertEquals(-1, frozen.get(null));
+        assertNull(frozen.get("absent"));
+        assertFalse(frozen.containsKey(new HashCollisionAttack1.HashCollisionKey(301)));
+        assertThrows(UnsupportedOperationException.class, () -> frozen.put("key1", 0));
+        assertThrows(UnsupportedOperationException.class, () -> frozen.entrySet().iterator().remove());
+    }
+
+    // 测试批量查找：跨批次、缺失的键、null 键和树桶中的键
+    @Test
+    void testGetAll() {
+        SafeHashMap<Object, Integer> source = new SafeHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            source.put(i, i);
+            source.put(new HashCollisionAttack1.HashCollisionKey(i), -i);
+        }
+        source.put(null, 7);
+        Object[] keys = new Object[100];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i % 3 == 0 ? new HashCollisionAttack1.HashCollisionKey(i) : i * 20;
+        }
+        keys[50] = null;
+        Integer[] out = new Integer[keys.length];
+        int expected = 0;
+        for (Object key : keys) {
+            if (source.containsKey(key))
+                expected++;
+        }
+        assertEquals(expected, source.getAll(keys, out));
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(source.get(keys[i]), out[i]);
+        }
+        assertEquals(7, out[50]);
+        assertFalse(source.containsAll(keys));
+        assertTrue(source.containsAll(Arrays.copyOf(keys, 40)));
+        assertThrows(IllegalArgumentException.class, () -> source.getAll(keys, new Integer[1]));
+    }
+
+    // 测试持久化 map：旧版本不受新版本影响、冲突键、批量编辑器失效和 null 键
+    @Test
+    void testPersistentMap() {
+        PersistentSafeHashMap<Object, Integer> v1 = PersistentSafeHashMap.empty();
+        for (int i = 0; i < 1000; i++) {
+            v1 = v1.plus(i, i).plus(new HashCollisionAttack1.HashCollisionKey(i), -i);
+        }
+        PersistentSafeHashMap<Object, Integer> v2 = v1.plus(5, 50).minus(new HashCollisionAttack1.HashCollisionKey(7)).plus(null, 0);
+        assertEquals(2000, v1.size());
+        assertEquals(2000, v2.size());
+        assertEquals(5, v1.get(5));
+        assertEquals(50, v2.get(5));
+        assertEquals(-7, v1.get(new HashCollisionAttack1.HashCollisionKey(7)));
+        assertFalse(v2.containsKey(new HashCollisionAttack1.HashCollisionKey(7)));
+        assertFalse(v1.containsKey(null));
+        assertEquals(0, v2.get(null));
+        assertSame(v1, v1.minus("absent"));
+
+        PersistentSafeHashMap.Transient<Object, Integer> t = v2.asTransient();
+        for (int i = 0; i < 1000; i++) {
+            t.remove(i);
+        }
+        PersistentSafeHashMap<Object, Integer> v3 = t.persistent();
+        assertEquals(1000, v3.size());
+        assertEquals(50, v2.get(5));
+        assertNull(v3.get(5));
+        assertEquals(new HashMap<>(v3), v3);
+        assertThrows(IllegalStateException.class, () -> t.put(1, 1));
+        assertThrows(UnsupportedOperationException.class, () -> v3.put(1, 1));
+
+        // 2^16 个 hashCode 相同的字符串逐个 plus：冲突节点内是平衡树，每次只复制一条路径
+        String[] colliding = CollisionKeyGenerator.sameHash(1 << 16);
+        int half = colliding.length / 2;
+        PersistentSafeHashMap<Object, Integer> halfVersion = assertTimeout(java.time.Duration.ofSeconds(5), () -> {
+            PersistentSafeHashMap<Object, Integer> m = PersistentSafeHashMap.empty();
+            for (int i = 0; i < half; i++) {
+                m = m.plus(colliding[i], i);
+            }
+            return m;
+        });
+        PersistentSafeHashMap<Object, Integer> full = assertTimeout(java.time.Duration.ofSeconds(5), () -> {
+            PersistentSafeHashMap<Object, Integer> m = halfVersion;
+            for (int i = half; i < colliding.length; i++) {
+                m = m.plus(colliding[i], i);
+            }
+            for (int i = 0; i < colliding.length; i += 2) {
+                m = m.minus(colliding[i]);
+            }
+            return m;
+        });
+        assertEquals(half, halfVersion.size());
+        assertEquals(half, full.size());
+        for (int i = 0; i < colliding.length; i++) {
+            assertEquals(i < half ? i : null, halfVersion.get(colliding[i]));
+            assertEquals(i % 2 == 0 ? null : i, full.get(colliding[i]));
+        }
+        assertEquals(half, full.entrySet().stream().count());
+        assertEquals(new HashMap<>(full), full);
 
-        // 删除元素直到低于反树化阈值
-        for (int i = 0; i < 4; i++) {
-            map.remove("ITEM" + i);
+        // 批量编辑器与 hashCode 固定为 1 的可比较键
+        PersistentSafeHashMap<Object, Integer> keys = assertTimeout(java.time.Duration.ofSeconds(5), () -> {
+            PersistentSafeHashMap.Transient<Object, Integer> edit = PersistentSafeHashMap.<Object, Integer>empty().asTransient();
+            for (int i = 0; i < 1 << 16; i++) {
+                edit.put(new HashCollisionAttack1.HashCollisionKey(i), i);
+            }
+            for (int i = 0; i < 1 << 16; i += 2) {
+                assertEquals(i, edit.remove(new HashCollisionAttack1.HashCollisionKey(i)));
+            }
+            return edit.persistent();
+        });
+        assertEquals(1 << 15, keys.size());
+        for (int i = 0; i < 1 << 16; i++) {
+            assertEquals(i % 2 == 0 ? null : i, keys.get(new HashCollisionAttack1.HashCollisionKey(i)));
         }
+    }
 
-        // 验证不再处于树化状态
-        // 实际实现中会检查桶类型
+    // 测试碰撞键生成器：同 hashCode 的键和针对 perturb 的同桶键都互不相等
+    @Test
+    void testCollisionKeyGenerator() {
+        String[] sameHash = CollisionKeyGenerator.sameHash(1000);
+        String[] sameBucket = CollisionKeyGenerator.sameBucket(1000, 12, 77, 4);
+        assertEquals(1000, new HashSet<>(Arrays.asList(sameHash)).size());
+        assertEquals(1000, new HashSet<>(Arrays.asList(sameBucket)).size());
+        Set<Integer> hashes = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(sameHash[0].hashCode(), sameHash[i].hashCode());
+            assertEquals(77, SafeHashMap.safeHash(sameBucket[i]) & 4095);
+            hashes.add(sameBucket[i].hashCode());
+        }
+        assertEquals(1000 / 16 + 1, hashes.size());
+    }
+
+    // 测试扩散策略：各内置策略下的读写、非空 map 不能更换策略、快照记录策略
+    @Test
+    void testHashStrategy() throws Exception {
+        for (HashStrategy strategy : HashStrategy.Builtin.values()) {
+            SafeHashMap<Integer, Integer> m = new SafeHashMap<>();
+            m.setHashStrategy(strategy);
+            for (int i = 0; i < 1000; i++) {
+                m.put(i << 16, i);
+            }
+            m.put(null, -1);
+            assertSame(strategy, m.getHashStrategy());
+            assertEquals(1001, m.size());
+            assertEquals(500, m.get(500 << 16));
+            assertEquals(-1, m.get(null));
+            assertThrows(IllegalStateException.class, () -> m.setHashStrategy(HashStrategy.JDK));
+        }
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("safehashmap", ".snapshot");
+        file.toFile().deleteOnExit();
+        map.setHashStrategy(HashStrategy.MURMUR3);
+        for (int i = 0; i < 1000; i++) {
+            map.put("key" + i, i);
+        }
+        map.writeSnapshot(file, SnapshotCodec.STRING, SnapshotCodec.INTEGER);
+        try (SafeHashMapSnapshot<String, Integer> snapshot =
+                     SafeHashMapSnapshot.open(file, SnapshotCodec.STRING, SnapshotCodec.INTEGER)) {
+            assertEquals(42, snapshot.get("key42"));
+            assertSame(HashStrategy.MURMUR3, snapshot.toSafeHashMap().getHashStrategy());
+        }
+        SafeHashMap<String, Integer> custom = new SafeHashMap<>();
+        custom.setHashStrategy(h -> h * 31);
+        assertThrows(IllegalArgumentException.class,
+                () -> custom.writeSnapshot(file, SnapshotCodec.STRING, SnapshotCodec.INTEGER));
     }
 
     // 测试键为null的情况
@@ -137,4 +1031,4 @@ class SecurityTest {
         map.put(null, 200);
         assertEquals(200, map.get(null));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,316 @@
+package com.example.test;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.LongStream;
+
+/**
+ * 分段埃氏筛，回答区间内的素数个数、列出区间内的素数
+ * 1.只筛奇数：第 i 位表示奇数 2i + 1，置位表示合数，每个 long 覆盖 128 个数
+ * 2.按段筛：每段的位图默认 32KB（一般 CPU 的 L1 数据缓存大小），先复制 3..13 的倍数的周期图样，
+ *   再用 17..sqrt(hi) 的基础素数标记段内的倍数，标记时只访问这一段位图，不会因为跨度大而反复缺失缓存
+ * 3.各段互不依赖，countPrimes 在 ForkJoinPool 中并行筛；primesIn 按顺序逐段生成，流被消费到哪一段才筛哪一段
+ * 4.isPrime 查询缓存的前缀位图，前缀按需翻倍扩展到 maxPrefix，更大的数交给 MillerRabin
+ * 区间上界不超过 MAX_LIMIT（基础素数要放进 int 数组）；基础素数表随查询过的最大上界增长，10^10 只需 9592 个
+ * 扩展性测试见 SieveBenchmark
+ */
+public final class SegmentedSieve {
+    // 区间上界：sqrt(2^60) = 2^30，基础素数仍能放进 int
+    public static final long MAX_LIMIT = 1L << 60;
+    public static final int DEFAULT_SEGMENT_BYTES = 32 * 1024;
+    // 默认的前缀上限：2^27 个数，位图 8MB
+    public static final long DEFAULT_MAX_PREFIX = 1L << 27;
+    // 预筛的小素数：它们的奇数倍按下标以 3*5*7*11*13 = 15015 为周期重复
+    static final int[] PRESIEVE_PRIMES = {3, 5, 7, 11, 13};
+    // 取 64 个周期，图样正好是整数个 long
+    static final int PRESIEVE_WORDS = 15015;
+    static final int PRESIEVE_BITS = PRESIEVE_WORDS * 64;
+    // 多出的最后一个 long 等于第一个，移位拼接时不用处理回绕
+    static final long[] PRESIEVE = new long[PRESIEVE_WORDS + 1];
+
+    static {
+        for (int p : PRESIEVE_PRIMES) {
+            for (int j = (p - 1) >>> 1; j < PRESIEVE_BITS; j += p) {
+                PRESIEVE[j >>> 6] |= 1L << j;
+            }
+        }
+        PRESIEVE[PRESIEVE_WORDS] = PRESIEVE[0];
+    }
+
+    final ForkJoinPool pool;
+    // 每段的奇数个数，是 64 的倍数，段与段之间的位图按 long 对齐
+    final int segmentBits;
+    final long maxPrefix;
+    // 不超过 basePrimeLimit 的奇素数（从 3 开始）
+    volatile int[] basePrimes = new int[0];
+    volatile long basePrimeLimit = 1;
+    // isPrime 使用的前缀位图，覆盖奇数下标 [0, prefixBits)
+    volatile long[] prefix = new long[0];
+    volatile long prefixBits;
+
+    public SegmentedSieve() {
+        this(ForkJoinPool.commonPool(), DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_PREFIX);
+    }
+
+    /**
+     * segmentBytes 为每段位图的字节数，一般取 L1 或 L2 缓存大小；maxPrefix 为 isPrime 前缀缓存最多覆盖的数
+     */
+    public SegmentedSieve(ForkJoinPool pool, int segmentBytes, long maxPrefix) {
+        if (pool == null)
+            throw new NullPointerException();
+        if (segmentBytes < 8 || segmentBytes > (1 << 27))
+            throw new IllegalArgumentException("Illegal segment size: " + segmentBytes);
+        if (maxPrefix < 0 || maxPrefix > MAX_LIMIT)
+            throw new IllegalArgumentException("Illegal prefix limit: " + maxPrefix);
+        this.pool = pool;
+        this.segmentBits = (segmentBytes >>> 3) << 6;
+        this.maxPrefix = maxPrefix;
+    }
+
+    /**
+     * 闭区间 [lo, hi] 内的素数个数
+     */
+    public long countPrimes(long lo, long hi) {
+        checkRange(lo, hi);
+        if (lo > hi)
+            return 0;
+        long count = lo <= 2 && hi >= 2 ? 1 : 0;
+        long from = lo >>> 1, to = (hi + 1) >>> 1;
+        if (from < to) {
+            ensureBasePrimes(hi);
+            count += pool.invoke(new CountTask(this, from, to));
+        }
+        return count;
+    }
+
+    /**
+     * 闭区间 [lo, hi] 内的素数，升序；逐段筛出，适合上界很大、只需要流式处理的场景
+     */
+    public LongStream primesIn(long lo, long hi) {
+        checkRange(lo, hi);
+        if (lo > hi)
+            return LongStream.empty();
+        LongStream two = lo <= 2 && hi >= 2 ? LongStream.of(2) : LongStream.empty();
+        long from = lo >>> 1, to = (hi + 1) >>> 1;
+        if (from >= to)
+            return two;
+        ensureBasePrimes(hi);
+        long segments = (to - from + segmentBits - 1) / segmentBits;
+        return LongStream.concat(two, LongStream.range(0, segments).flatMap(s -> {
+            long a = from + s * segmentBits;
+            int bits = (int) Math.min(segmentBits, to - a);
+            long[] words = new long[(bits + 63) >>> 6];
+            sieve(a, bits, words, 0);
+            long[] primes = new long[bits - countComposites(words, bits)];
+            int n = 0;
+            for (int w = 0; w < words.length; w++) {
+                // 取反后置位的是素数
+                long free = ~words[w];
+                while (free != 0) {
+                    int bit = (w << 6) + Long.numberOfTrailingZeros(free);
+                    if (bit >= bits)
+                        break;
+                    primes[n++] = 2 * (a + bit) + 1;
+                    free &= free - 1;
+                }
+            }
+            return LongStream.of(primes);
+        }));
+    }
+
+    /**
+     * n 是否为素数：落在前缀缓存内时查位图，前缀不够时按需扩展，超过 maxPrefix 时使用 MillerRabin
+     */
+    public boolean isPrime(long n) {
+        if (n < 2)
+            return false;
+        if ((n & 1) == 0)
+            return n == 2;
+        long index = n >>> 1;
+        if (index >= prefixBits) {
+            if (n >= maxPrefix)
+                return MillerRabin.isPrime(n);
+            growPrefix(index + 1);
+        }
+        return (prefix[(int) (index >>> 6)] & (1L << index)) == 0;
+    }
+
+    private static void checkRange(long lo, long hi) {
+        if (lo < 0 || hi > MAX_LIMIT)
+            throw new IllegalArgumentException("Illegal range: [" + lo + ", " + hi + "]");
+    }
+
+    /**
+     * 把前缀扩展到至少覆盖 bits 个奇数：容量翻倍并按段对齐，只筛新增的部分
+     */
+    private synchronized void growPrefix(long bits) {
+        long old = prefixBits;
+        if (bits <= old)
+            return;
+        long maxBits = (maxPrefix + 1) >>> 1;
+        long target = Math.min(maxBits, Math.max(bits, old << 1));
+        target = Math.min(maxBits, (target + segmentBits - 1) / segmentBits * segmentBits);
+        long[] words = Arrays.copyOf(prefix, (int) ((target + 63) >>> 6));
+        ensureBasePrimes(2 * target);
+        pool.invoke(new FillTask(this, old, target, words));
+        prefix = words;
+        prefixBits = target;
+    }
+
+    /**
+     * 保证基础素数覆盖 sqrt(hi)：用一个不分段的奇数筛求出，按需扩展
+     */
+    private synchronized void ensureBasePrimes(long hi) {
+        long limit = (long) Math.sqrt((double) hi);
+        while (limit * limit > hi)
+            limit--;
+        while ((limit + 1) * (limit + 1) <= hi)
+            limit++;
+        if (limit <= basePrimeLimit)
+            return;
+        // 多筛一些，避免上界缓慢增长时反复重算
+        limit = Math.max(limit, Math.min(1L << 30, basePrimeLimit << 1));
+        int n = (int) ((limit + 1) >>> 1); // 奇数 1, 3, ..., 不超过 limit
+        long[] composite = new long[(n + 63) >>> 6];
+        for (long i = 1; 2 * i + 1 <= limit / (2 * i + 1); i++) {
+            if ((composite[(int) (i >>> 6)] & (1L << i)) != 0)
+                continue;
+            long p = 2 * i + 1;
+            for (long j = (p * p) >>> 1; j < n; j += p) {
+                composite[(int) (j >>> 6)] |= 1L << j;
+            }
+        }
+        composite[0] |= 1L; // 1 不是素数
+        if ((n & 63) != 0)
+            composite[composite.length - 1] |= -1L << n;
+        int[] primes = new int[composite.length * 64 - countComposites(composite, composite.length * 64)];
+        int count = 0;
+        for (int i = 1; i < n; i++) {
+            if ((composite[i >>> 6] & (1L << i)) == 0)
+                primes[count++] = 2 * i + 1;
+        }
+        basePrimes = primes;
+        basePrimeLimit = limit;
+    }
+
+    /**
+     * 筛奇数下标 [a, a + bits)，结果写入 words 从 wordOffset 开始的位置（合数置位，超出 bits 的尾部也置位）
+     * 调用前基础素数必须已覆盖 sqrt(2 * (a + bits) - 1)
+     */
+    void sieve(long a, int bits, long[] words, int wordOffset) {
+        int wordCount = (bits + 63) >>> 6;
+        // 先按周期复制 3..13 的预筛图样，省掉这几个最密集的素数的逐位标记
+        int shift = (int) (a & 63);
+        int k = (int) ((a % PRESIEVE_BITS) >>> 6);
+        for (int w = 0; w < wordCount; w++) {
+            words[wordOffset + w] = shift == 0 ? PRESIEVE[k]
+                    : (PRESIEVE[k] >>> shift) | (PRESIEVE[k + 1] << (64 - shift));
+            if (++k == PRESIEVE_WORDS)
+                k = 0;
+        }
+        if ((bits & 63) != 0)
+            words[wordOffset + wordCount - 1] |= -1L << bits;
+        long firstNumber = 2 * a + 1, lastNumber = 2 * (a + bits) - 1;
+        if (firstNumber <= PRESIEVE_PRIMES[PRESIEVE_PRIMES.length - 1]) {
+            // 图样把预筛素数自己也标成了合数，1 则没有标
+            for (int p : PRESIEVE_PRIMES) {
+                long j = ((p - 1) >>> 1) - a;
+                if (j >= 0 && j < bits)
+                    words[wordOffset + (int) (j >>> 6)] &= ~(1L << j);
+            }
+            if (a == 0)
+                words[wordOffset] |= 1L;
+        }
+        int[] primes = basePrimes;
+        for (int i = PRESIEVE_PRIMES.length; i < primes.length; i++) {
+            int p = primes[i];
+            long square = (long) p * p;
+            if (square > lastNumber)
+                break;
+            // 段内第一个不小于 p^2 的奇数倍
+            long m = Math.max(square, (firstNumber + p - 1) / p * p);
+            if ((m & 1) == 0)
+                m += p;
+            // 相邻奇数倍相差 2p，对应下标相差 p
+            // m 不超过 lastNumber + 2p，下标放得进 int
+            for (int j = (int) (((m - 1) >>> 1) - a); j < bits; j += p) {
+                words[wordOffset + (j >>> 6)] |= 1L << j;
+            }
+        }
+    }
+
+    static int countComposites(long[] words, int bits) {
+        int count = 0;
+        for (int w = 0, n = (bits + 63) >>> 6; w < n; w++) {
+            count += Long.bitCount(words[w]);
+        }
+        // 尾部填充位不算
+        return count - (((bits + 63) & ~63) - bits);
+    }
+
+    /**
+     * 并行计数：把奇数下标区间对半拆分到每份不超过 8 段，叶子任务复用一块位图依次筛各段
+     */
+    @SuppressWarnings("serial")
+    static final class CountTask extends RecursiveTask<Long> {
+        final SegmentedSieve sieve;
+        final long from, to;
+
+        CountTask(SegmentedSieve sieve, long from, long to) {
+            this.sieve = sieve;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected Long compute() {
+            int segmentBits = sieve.segmentBits;
+            if (to - from > 8L * segmentBits) {
+                // 拆分点按段对齐
+                long mid = from + (to - from) / segmentBits / 2 * segmentBits;
+                CountTask left = new CountTask(sieve, from, mid);
+                left.fork();
+                long right = new CountTask(sieve, mid, to).compute();
+                return left.join() + right;
+            }
+            long[] words = new long[segmentBits >>> 6];
+            long primes = 0;
+            for (long a = from; a < to; a += segmentBits) {
+                int bits = (int) Math.min(segmentBits, to - a);
+                sieve.sieve(a, bits, words, 0);
+                primes += bits - countComposites(words, bits);
+            }
+            return primes;
+        }
+    }
+
+    /**
+     * 并行填充前缀位图：区间两端都按段对齐，各叶子任务写入互不重叠的 long
+     */
+    @SuppressWarnings("serial")
+    static final class FillTask extends RecursiveAction {
+        final SegmentedSieve sieve;
+        final long from, to;
+        final long[] words;
+
+        FillTask(SegmentedSieve sieve, long from, long to, long[] words) {
+            this.sieve = sieve;
+            this.from = from;
+            this.to = to;
+            this.words = words;
+        }
+
+        protected void compute() {
+            int segmentBits = sieve.segmentBits;
+            if (to - from > 8L * segmentBits) {
+                long mid = from + (to - from) / segmentBits / 2 * segmentBits;
+                invokeAll(new FillTask(sieve, from, mid, words), new FillTask(sieve, mid, to, words));
+                return;
+            }
+            for (long a = from; a < to; a += segmentBits) {
+                sieve.sieve(a, (int) Math.min(segmentBits, to - a), words, (int) (a >>> 6));
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.nieran;
+
+/**
+ * SipHash-1-3 带密钥哈希，用于 SafeHashMap 的随机种子哈希模式
+ * 每次压缩 1 轮、收尾 3 轮，速度接近普通哈希，但不知道密钥时无法构造碰撞
+ */
+final class SipHash {
+
+    private SipHash() {
+    }
+
+    /**
+     * 对字节数组的 [off, off + len) 区间计算哈希
+     */
+    static long hash13(long k0, long k1, byte[] data, int off, int len) {
+        long v0 = 0x736f6d6570736575L ^ k0;
+        long v1 = 0x646f72616e646f6dL ^ k1;
+        long v2 = 0x6c7967656e657261L ^ k0;
+        long v3 = 0x7465646279746573L ^ k1;
+
+        int end = off + (len & ~7);
+        for (int i = off; i < end; i += 8) {
+            long m = (data[i] & 0xFFL)
+                    | (data[i + 1] & 0xFFL) << 8
+                    | (data[i + 2] & 0xFFL) << 16
+                    | (data[i + 3] & 0xFFL) << 24
+                    | (data[i + 4] & 0xFFL) << 32
+                    | (data[i + 5] & 0xFFL) << 40
+                    | (data[i + 6] & 0xFFL) << 48
+                    | (data[i + 7] & 0xFFL) << 56;
+            v3 ^= m;
+            // SIPROUND
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            v0 ^= m;
+        }
+
+        // 最后不足 8 字节的部分，最高字节存放长度
+        long b = ((long) len) << 56;
+        for (int i = off + len - 1, shift = ((len & 7) - 1) * 8; i >= end; i--, shift -= 8) {
+            b |= (data[i] & 0xFFL) << shift;
+        }
+        return finish(v0, v1, v2, v3, b);
+    }
+
+    /**
+     * 对字符序列按 UTF-16 小端字节序计算哈希，不复制字符
+     */
+    static long hash13(long k0, long k1, CharSequence s) {
+        long v0 = 0x736f6d6570736575L ^ k0;
+        long v1 = 0x646f72616e646f6dL ^ k1;
+        long v2 = 0x6c7967656e657261L ^ k0;
+        long v3 = 0x7465646279746573L ^ k1;
+
+        int len = s.length();
+        int end = len & ~3;
+        for (int i = 0; i < end; i += 4) {
+            long m = (long) s.charAt(i)
+                    | (long) s.charAt(i + 1) << 16
+                    | (long) s.charAt(i + 2) << 32
+                    | (long) s.charAt(i + 3) << 48;
+            v3 ^= m;
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            v0 ^= m;
+        }
+
+        // 字节长度 = 字符数 * 2
+        long b = ((long) (len << 1)) << 56;
+        for (int i = end, shift = 0; i < len; i++, shift += 16) {
+            b |= (long) s.charAt(i) << shift;
+        }
+        return finish(v0, v1, v2, v3, b);
+    }
+
+    private static long finish(long v0, long v1, long v2, long v3, long b) {
+        v3 ^= b;
+        v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+        v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+        v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+        v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        v0 ^= b;
+
+        v2 ^= 0xff;
+        for (int i = 0; i < 3; i++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+}
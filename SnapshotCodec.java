@@ -0,0 +1,59 @@
+package com.nieran;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 快照中键和值的编解码器
+ * decode 直接从内存映射的缓冲区读取 [offset, offset + length)，不能修改缓冲区的 position/limit
+ */
+public interface SnapshotCodec<T> {
+
+    byte[] encode(T value);
+
+    T decode(ByteBuffer buffer, int offset, int length);
+
+    SnapshotCodec<String> STRING = new SnapshotCodec<String>() {
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public String decode(ByteBuffer buffer, int offset, int length) {
+            byte[] bytes = new byte[length];
+            buffer.get(offset, bytes, 0, length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    SnapshotCodec<byte[]> BYTES = new SnapshotCodec<byte[]>() {
+        public byte[] encode(byte[] value) {
+            return value;
+        }
+
+        public byte[] decode(ByteBuffer buffer, int offset, int length) {
+            byte[] bytes = new byte[length];
+            buffer.get(offset, bytes, 0, length);
+            return bytes;
+        }
+    };
+
+    SnapshotCodec<Integer> INTEGER = new SnapshotCodec<Integer>() {
+        public byte[] encode(Integer value) {
+            return ByteBuffer.allocate(4).putInt(value).array();
+        }
+
+        public Integer decode(ByteBuffer buffer, int offset, int length) {
+            return buffer.getInt(offset);
+        }
+    };
+
+    SnapshotCodec<Long> LONG = new SnapshotCodec<Long>() {
+        public byte[] encode(Long value) {
+            return ByteBuffer.allocate(8).putLong(value).array();
+        }
+
+        public Long decode(ByteBuffer buffer, int offset, int length) {
+            return buffer.getLong(offset);
+        }
+    };
+}
@@ -0,0 +1,72 @@
+package com.nieran.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 攻击键分布下的对比。hashCode 全部相同的键在 HashMap 中每次操作为 O(log n) 甚至 O(n)，
+ * 最坏时填充代价随规模平方增长，因此规模只扫到 1 万
+ * Throughput 给出吞吐量，SampleTime 给出 p99 等分位延迟；分配速率用 -prof gc 查看
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class AttackBenchmark {
+
+    @Param
+    MapImpl impl;
+
+    @Param({"SAME_HASH_COMPARABLE", "SAME_HASH", "STRING_COLLISION"})
+    KeyDistribution distribution;
+
+    @Param({"16", "1000", "10000"})
+    int size;
+
+    MapWorkload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = new MapWorkload(impl, distribution, size);
+    }
+
+    @Benchmark
+    public Object get() {
+        return workload.get();
+    }
+
+    @Benchmark
+    public Object put() {
+        return workload.put();
+    }
+
+    @Benchmark
+    public Object mixed() {
+        return workload.mixed();
+    }
+
+    @Benchmark
+    public Map<Object, Object> resize() {
+        return workload.resize();
+    }
+
+    @Benchmark
+    public int iterate() {
+        return workload.iterate();
+    }
+}
@@ -0,0 +1,150 @@
+package com.nieran.bench;
+
+import com.nieran.CollisionKeyGenerator;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * 按固定速率向 map 发送请求，其中一部分是攻击者插入的碰撞键，记录正常请求的延迟分位
+ * 用法：java -Xms2g -Xmx2g -cp benchmarks/target/benchmarks.jar com.nieran.bench.AttackLatencyHarness [每秒请求数] [攻击流量占比] [每轮秒数]
+ * 请求按计划时间发出（开环），延迟从计划时间算起：攻击请求拖慢的不只是自己，也包括排在它后面的正常请求
+ * 攻击类型：NONE 无攻击；SAME_HASH "Aa"/"BB" 组合的同 hashCode 字符串；SAME_BUCKET 针对 perturb 暴力搜索的同桶字符串
+ */
+public class AttackLatencyHarness {
+    // 正常请求使用的键数
+    static final int LEGIT_KEYS = 100_000;
+    // 攻击者准备的碰撞键数
+    static final int ATTACK_KEYS = 1 << 16;
+    // SAME_BUCKET 覆盖的表大小：容量不超过 2^20 的表中都落在同一个桶
+    static final int TABLE_BITS = 20;
+    static final Object VALUE = Boolean.TRUE;
+
+    enum Attack {
+        NONE, SAME_HASH, SAME_BUCKET
+    }
+
+    public static void main(String[] args) {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        double attackShare = args.length > 1 ? Double.parseDouble(args[1]) : 0.01;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        SplittableRandom random = new SplittableRandom(MapWorkload.SEED);
+        String[] legitKeys = new String[LEGIT_KEYS];
+        for (int i = 0; i < LEGIT_KEYS; i++) {
+            legitKeys[i] = Long.toHexString(random.nextLong());
+        }
+        long start = System.nanoTime();
+        String[] sameBucket = CollisionKeyGenerator.sameBucket(ATTACK_KEYS, TABLE_BITS, 0x5A5A5, 10);
+        System.out.printf("生成 %d 个同桶键耗时 %,d ms%n", ATTACK_KEYS, (System.nanoTime() - start) / 1_000_000);
+        String[] sameHash = CollisionKeyGenerator.sameHash(ATTACK_KEYS);
+
+        System.out.printf("速率 %,d 次/秒，攻击流量 %.2f%%，每轮 %d 秒%n", rate, attackShare * 100, seconds);
+        // 第一遍预热 JIT，第二遍计时
+        for (boolean print : new boolean[]{false, true}) {
+            for (MapImpl impl : new MapImpl[]{MapImpl.HASH_MAP, MapImpl.SAFE_HASH_MAP}) {
+                for (Attack attack : Attack.values()) {
+                    String[] attackKeys = attack == Attack.SAME_HASH ? sameHash
+                            : attack == Attack.SAME_BUCKET ? sameBucket : null;
+                    run(impl, attack, legitKeys, attackKeys, rate, attackKeys == null ? 0 : attackShare,
+                            print ? seconds : 1, print);
+                }
+            }
+        }
+    }
+
+    static void run(MapImpl impl, Attack attack, String[] legitKeys, String[] attackKeys,
+                    int rate, double attackShare, int seconds, boolean print) {
+        System.gc();
+        Map<Object, Object> map = impl.create();
+        for (String key : legitKeys) {
+            map.put(key, VALUE);
+        }
+        SplittableRandom random = new SplittableRandom(MapWorkload.SEED);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long interval = 1_000_000_000L / rate;
+        long total = (long) rate * seconds;
+        int attackCursor = 0;
+        long late = 0;
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long intended = start + i * interval;
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                Thread.onSpinWait();
+            }
+            if (now - intended > interval)
+                late++;
+            if (attackShare > 0 && random.nextDouble() < attackShare) {
+                // 攻击者循环插入碰撞键，第一轮之后变成对长链/大树桶的查找覆盖
+                map.put(attackKeys[attackCursor], VALUE);
+                attackCursor = attackCursor + 1 == attackKeys.length ? 0 : attackCursor + 1;
+                continue;
+            }
+            // 正常请求：90% 读 + 10% 覆盖写
+            String key = legitKeys[random.nextInt(legitKeys.length)];
+            if (random.nextInt(10) == 0)
+                map.put(key, VALUE);
+            else
+                map.get(key);
+            histogram.record(System.nanoTime() - intended);
+        }
+        if (print) {
+            System.out.printf("%-13s %-11s p50 %9s  p99 %9s  p999 %9s  max %9s  落后计划 %.1f%%  size %,d%n",
+                    impl, attack, format(histogram.percentile(0.5)), format(histogram.percentile(0.99)),
+                    format(histogram.percentile(0.999)), format(histogram.max), late * 100.0 / total, map.size());
+        }
+    }
+
+    static String format(long ns) {
+        return ns < 1000 ? ns + " ns" : String.format("%,.1f us", ns / 1000.0);
+    }
+
+    /**
+     * 对数-线性直方图（与 HdrHistogram 的分桶方式相同）：每个 2 的幂区间再线性分成 32 份，相对误差不超过 1/32
+     */
+    static final class LatencyHistogram {
+        static final int SUB_BITS = 5;
+        static final int SUB_COUNT = 1 << SUB_BITS;
+
+        final long[] counts = new long[(64 - SUB_BITS + 1) << SUB_BITS];
+        long total;
+        long max;
+
+        void record(long ns) {
+            long v = Math.max(0, ns);
+            counts[index(v)]++;
+            total++;
+            max = Math.max(max, v);
+        }
+
+        static int index(long v) {
+            if (v < SUB_COUNT)
+                return (int) v;
+            int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+            return ((shift + 1) << SUB_BITS) + (int) (v >>> shift) - SUB_COUNT;
+        }
+
+        // 桶内最大的值
+        static long upperBound(int index) {
+            if (index < SUB_COUNT)
+                return index;
+            int shift = (index >>> SUB_BITS) - 1;
+            long sub = (index & (SUB_COUNT - 1)) + SUB_COUNT;
+            return ((sub + 1) << shift) - 1;
+        }
+
+        /**
+         * 返回分位所在桶的上界，不超过记录到的最大值
+         */
+        long percentile(double p) {
+            long target = Math.max(1, (long) Math.ceil(total * p)), seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target)
+                    return Math.min(upperBound(i), max);
+            }
+            return max;
+        }
+    }
+}
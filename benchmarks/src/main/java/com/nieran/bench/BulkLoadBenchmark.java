@@ -0,0 +1,86 @@
+package com.nieran.bench;
+
+import com.nieran.SafeHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量加载与并行遍历：逐个 put、预分配容量的 putAll、并行 bulkLoad，以及 entrySet 的串行/并行流
+ * 并行部分使用 ForkJoin 公共池，可用 -Djava.util.concurrent.ForkJoinPool.common.parallelism 调整线程数
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class BulkLoadBenchmark {
+
+    @Param({"RANDOM", "SEQUENTIAL"})
+    KeyDistribution distribution;
+
+    @Param({"100000", "1000000", "10000000"})
+    int size;
+
+    Map<Object, Object> source;
+    SafeHashMap<Object, Object> loaded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Object[] keys = distribution.generate(size, new Random(MapWorkload.SEED));
+        source = new HashMap<>(keys.length * 2);
+        for (Object key : keys) {
+            source.put(key, MapWorkload.VALUE);
+        }
+        loaded = new SafeHashMap<>();
+        loaded.bulkLoad(source);
+    }
+
+    @Benchmark
+    public Map<Object, Object> putLoop() {
+        SafeHashMap<Object, Object> map = new SafeHashMap<>();
+        for (Map.Entry<Object, Object> e : source.entrySet()) {
+            map.put(e.getKey(), e.getValue());
+        }
+        return map;
+    }
+
+    @Benchmark
+    public Map<Object, Object> putAll() {
+        SafeHashMap<Object, Object> map = new SafeHashMap<>();
+        map.putAll(source);
+        return map;
+    }
+
+    @Benchmark
+    public Map<Object, Object> bulkLoad() {
+        SafeHashMap<Object, Object> map = new SafeHashMap<>();
+        map.bulkLoad(source);
+        return map;
+    }
+
+    @Benchmark
+    public long sequentialStream() {
+        return loaded.entrySet().stream().filter(e -> e.getValue() == MapWorkload.VALUE).count();
+    }
+
+    @Benchmark
+    public long parallelStream() {
+        return loaded.entrySet().parallelStream().filter(e -> e.getValue() == MapWorkload.VALUE).count();
+    }
+}
@@ -0,0 +1,81 @@
+package com.nieran.bench;
+
+import com.nieran.SafeCache;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按访问序列回放 SafeCache：命中直接返回，未命中则放入缓存
+ * 吞吐量为每微秒的访问次数；hits/misses 两个辅助计数器之比即命中率
+ * （只看命中率可以直接运行 CacheTraceSimulator）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class CacheBenchmark {
+    static final int TRACE_LENGTH = 1 << 20;
+
+    @Param
+    SafeCache.Policy policy;
+
+    @Param
+    CacheTrace trace;
+
+    @Param({"1000", "10000"})
+    int maximumSize;
+
+    SafeCache<String, String> cache;
+    String[] events;
+    int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        events = trace.generate(TRACE_LENGTH, new Random(MapWorkload.SEED));
+        cache = new SafeCache<>(maximumSize, policy);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class HitCounters {
+        public long hits;
+        public long misses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            misses = 0;
+        }
+    }
+
+    @Benchmark
+    public String access(HitCounters counters) {
+        int i = cursor;
+        cursor = (i + 1) & (TRACE_LENGTH - 1);
+        String key = events[i];
+        String value = cache.get(key);
+        if (value == null) {
+            counters.misses++;
+            cache.put(key, key);
+            return key;
+        }
+        counters.hits++;
+        return value;
+    }
+}
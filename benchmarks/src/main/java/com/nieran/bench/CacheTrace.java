@@ -0,0 +1,91 @@
+package com.nieran.bench;
+
+import com.nieran.CollisionKeyGenerator;
+
+import java.util.Random;
+
+/**
+ * 缓存基准使用的访问序列
+ */
+public enum CacheTrace {
+    // Zipf(0.99) 分布的热点访问
+    ZIPF {
+        String[] generate(int length, Random random) {
+            Zipf zipf = new Zipf(KEY_SPACE, 0.99);
+            String[] events = new String[length];
+            for (int i = 0; i < length; i++) {
+                events[i] = "key" + zipf.next(random);
+            }
+            return events;
+        }
+    },
+    // Zipf 访问中每隔 10000 次插入一次 5000 个从未出现过的键的顺序扫描
+    ZIPF_WITH_SCAN {
+        String[] generate(int length, Random random) {
+            Zipf zipf = new Zipf(KEY_SPACE, 0.99);
+            String[] events = new String[length];
+            int scanned = 0;
+            for (int i = 0; i < length; ) {
+                for (int j = 0; j < 10_000 && i < length; j++) {
+                    events[i++] = "key" + zipf.next(random);
+                }
+                for (int j = 0; j < 5_000 && i < length; j++) {
+                    events[i++] = "scan" + scanned++;
+                }
+            }
+            return events;
+        }
+    },
+    // 一半 Zipf 热点访问，一半是攻击者发送的互不相同、hashCode 全部相同的字符串
+    COLLISION_ATTACK {
+        String[] generate(int length, Random random) {
+            Zipf zipf = new Zipf(KEY_SPACE, 0.99);
+            String[] attack = CollisionKeyGenerator.sameHash(1 << 17);
+            String[] events = new String[length];
+            for (int i = 0; i < length; i++) {
+                events[i] = (i & 1) == 0 ? "key" + zipf.next(random) : attack[random.nextInt(attack.length)];
+            }
+            return events;
+        }
+    };
+
+    // 正常访问的键空间大小
+    static final int KEY_SPACE = 100_000;
+
+    /**
+     * 生成长度为 length 的访问序列
+     */
+    abstract String[] generate(int length, Random random);
+
+    /**
+     * 按预先计算的累积分布做二分查找的 Zipf 采样器，返回 [0, n)
+     */
+    static final class Zipf {
+        private final double[] cdf;
+
+        Zipf(int n, double skew) {
+            cdf = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1.0 / Math.pow(i + 1, skew);
+                cdf[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cdf[i] /= sum;
+            }
+        }
+
+        int next(Random random) {
+            double u = random.nextDouble();
+            int lo = 0, hi = cdf.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cdf[mid] < u)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.nieran.bench;
+
+import com.nieran.SafeCache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * 回放访问序列，输出各淘汰策略的命中率和耗时
+ * 用法：CacheTraceSimulator [最大条目数] [序列文件]
+ * 不指定文件时回放 CacheTrace 中的合成序列；序列文件每行一个键
+ */
+public class CacheTraceSimulator {
+
+    public static void main(String[] args) throws IOException {
+        int maximumSize = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        if (args.length > 1) {
+            String[] events = Files.readAllLines(Paths.get(args[1])).toArray(new String[0]);
+            replayAll(args[1], events, maximumSize);
+            return;
+        }
+        for (CacheTrace trace : CacheTrace.values()) {
+            String[] events = trace.generate(CacheBenchmark.TRACE_LENGTH, new Random(MapWorkload.SEED));
+            replayAll(trace.name(), events, maximumSize);
+        }
+    }
+
+    static void replayAll(String name, String[] events, int maximumSize) {
+        System.out.println("\n===== " + name + "（" + events.length + " 次访问，最多 " + maximumSize + " 条） =====");
+        for (SafeCache.Policy policy : SafeCache.Policy.values()) {
+            // 第一遍预热 JIT，第二遍计时
+            replay(events, maximumSize, policy);
+            long startTime = System.nanoTime();
+            SafeCache<String, String> cache = replay(events, maximumSize, policy);
+            long totalTime = System.nanoTime() - startTime;
+            System.out.printf("%-10s 命中率 %5.2f%%  淘汰 %8d  %6.1f ns/次%n", policy,
+                    cache.hitRate() * 100, cache.getEvictionCount(), totalTime / (double) events.length);
+        }
+    }
+
+    static SafeCache<String, String> replay(String[] events, int maximumSize, SafeCache.Policy policy) {
+        SafeCache<String, String> cache = new SafeCache<>(maximumSize, policy);
+        for (String key : events) {
+            if (cache.get(key) == null) {
+                cache.put(key, key);
+            }
+        }
+        return cache;
+    }
+}
@@ -0,0 +1,67 @@
+package com.nieran.bench;
+
+import com.nieran.ConcurrentSafeHashMap;
+import com.nieran.SafeHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程吞吐量：ConcurrentSafeHashMap 对比用一把全局锁保护的 SafeHashMap，每次操作 90% get / 10% put，
+ * 预先放入键空间中一半的键。默认线程数为 CPU 核数，用 -t 1,2,4,... 逐个指定线程数看扩展性
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+@Threads(Threads.MAX)
+public class ConcurrentSafeHashMapBenchmark {
+    static final int KEY_SPACE = 1 << 20;
+
+    @Param({"CONCURRENT", "SYNCHRONIZED"})
+    String impl;
+
+    ConcurrentSafeHashMap<Integer, Integer> concurrent;
+    SafeHashMap<Integer, Integer> locked;
+    final Object lock = new Object();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (impl.equals("CONCURRENT")) {
+            concurrent = new ConcurrentSafeHashMap<>();
+            for (int i = 0; i < KEY_SPACE; i += 2)
+                concurrent.put(i, i);
+        } else {
+            locked = new SafeHashMap<>();
+            for (int i = 0; i < KEY_SPACE; i += 2)
+                locked.put(i, i);
+        }
+    }
+
+    @Benchmark
+    public Integer mixed() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Integer key = random.nextInt(KEY_SPACE);
+        boolean write = random.nextInt(10) == 0;
+        if (concurrent != null)
+            return write ? concurrent.put(key, key) : concurrent.get(key);
+        synchronized (lock) {
+            return write ? locked.put(key, key) : locked.get(key);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.nieran.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Map;
+
+/**
+ * 对比各 MapImpl 的每条目堆内存开销
+ * 用法：java -XX:+UseSerialGC -Xms3g -Xmx3g -cp benchmarks/target/benchmarks.jar com.nieran.bench.FootprintHarness [条目数] [实现名...]
+ * 键为预先创建并在 map 外持有的 Integer，值为共享的 MapWorkload.VALUE，
+ * 因此 Full GC 前后的存活堆差值只包含 map 自身的结构（桶数组、节点/条目数组）
+ * 存活堆取各堆内存池在最近一次 GC 后的占用，比 totalMemory - freeMemory 稳定
+ */
+public class FootprintHarness {
+
+    public static void main(String[] args) throws InterruptedException {
+        int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        MapImpl[] impls = MapImpl.values();
+        if (args.length > 1) {
+            impls = new MapImpl[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+                impls[i - 1] = MapImpl.valueOf(args[i]);
+        }
+        Integer[] keys = new Integer[entryCount];
+        for (int i = 0; i < entryCount; i++)
+            keys[i] = i;
+
+        System.out.printf("%-14s %12s %10s%n", "impl", "MB", "字节/条");
+        for (MapImpl impl : impls) {
+            long bytes = measure(impl, keys);
+            System.out.printf("%-14s %,12.1f %10.1f%n", impl, bytes / 1048576.0, bytes / (double) entryCount);
+        }
+    }
+
+    /**
+     * 先 Full GC 取基线，再填充 map 并在 map 存活时再次 Full GC
+     */
+    static long measure(MapImpl impl, Integer[] keys) throws InterruptedException {
+        long heapBefore = settledHeap();
+        Map<Object, Object> map = impl.create();
+        for (Integer key : keys)
+            map.put(key, MapWorkload.VALUE);
+        long bytes = settledHeap() - heapBefore;
+        // 保证 map 在测量期间存活
+        if (map.size() != keys.length)
+            throw new IllegalStateException(impl + " size " + map.size());
+        return bytes;
+    }
+
+    /**
+     * 反复 Full GC 直到存活堆不再下降：刚失效的大数组有时要隔一段时间后的 GC 才能回收
+     */
+    static long settledHeap() throws InterruptedException {
+        OffHeapGcHarness.fullGc();
+        long used = liveHeap();
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(100);
+            OffHeapGcHarness.fullGc();
+            long now = liveHeap();
+            if (now >= used)
+                return now;
+            used = now;
+        }
+        return used;
+    }
+
+    /**
+     * 最近一次 GC 结束时各堆内存池的占用之和
+     */
+    static long liveHeap() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null)
+                used += pool.getCollectionUsage().getUsed();
+        }
+        return used;
+    }
+}
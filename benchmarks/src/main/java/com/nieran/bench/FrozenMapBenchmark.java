@@ -0,0 +1,71 @@
+package com.nieran.bench;
+
+import com.nieran.FrozenSafeHashMap;
+import com.nieran.SafeHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 只读 FrozenSafeHashMap 与可变 SafeHashMap 的对比：构建耗时（freeze 与逐个 put）和查找延迟
+ * STRING_COLLISION 下可变 map 要靠换种子重哈希和树桶抵抗攻击，冻结后每次查找仍只有一次探测
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class FrozenMapBenchmark {
+
+    @Param({"RANDOM", "STRING_COLLISION"})
+    KeyDistribution distribution;
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    MapWorkload workload;
+    SafeHashMap<Object, Object> mutable;
+    FrozenSafeHashMap<Object, Object> frozen;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = new MapWorkload(MapImpl.SAFE_HASH_MAP, distribution, size);
+        mutable = (SafeHashMap<Object, Object>) workload.map;
+        frozen = mutable.freeze();
+    }
+
+    @Benchmark
+    public Object getMutable() {
+        return mutable.get(workload.nextKey());
+    }
+
+    @Benchmark
+    public Object getFrozen() {
+        return frozen.get(workload.nextKey());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Map<Object, Object> buildMutable() {
+        return workload.resize();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Map<Object, Object> freeze() {
+        return mutable.freeze();
+    }
+}
@@ -0,0 +1,105 @@
+package com.nieran.bench;
+
+import com.nieran.CollisionKeyGenerator;
+
+import java.util.Random;
+
+/**
+ * 基准测试用的键分布
+ */
+public enum KeyDistribution {
+    // 随机 Integer
+    RANDOM {
+        Object[] generate(int n, Random random) {
+            Object[] keys = new Object[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = random.nextInt();
+            }
+            return keys;
+        }
+    },
+    // 连续 Integer，0..n-1
+    SEQUENTIAL {
+        Object[] generate(int n, Random random) {
+            Object[] keys = new Object[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = i;
+            }
+            return keys;
+        }
+    },
+    // hashCode 全部相同但可比较，树桶可以按 compareTo 查找
+    SAME_HASH_COMPARABLE {
+        Object[] generate(int n, Random random) {
+            Object[] keys = new Object[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = new ComparableCollidingKey(i);
+            }
+            return keys;
+        }
+    },
+    // hashCode 全部相同且不可比较，树桶只能遍历
+    SAME_HASH {
+        Object[] generate(int n, Random random) {
+            Object[] keys = new Object[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = new CollidingKey(i);
+            }
+            return keys;
+        }
+    },
+    // 真实的 String.hashCode 碰撞（"Aa"/"BB" 组合）
+    STRING_COLLISION {
+        Object[] generate(int n, Random random) {
+            // 每个键都是新建的实例，equals 不会因引用相同而直接返回
+            Object[] keys = new Object[n];
+            System.arraycopy(CollisionKeyGenerator.sameHash(n), 0, keys, 0, n);
+            return keys;
+        }
+    };
+
+    /**
+     * 生成 n 个互不相等的键
+     */
+    abstract Object[] generate(int n, Random random);
+
+    /**
+     * 哈希码固定为 1 的键
+     */
+    static class CollidingKey {
+        final int id;
+
+        CollidingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).id == id;
+        }
+    }
+
+    /**
+     * 哈希码固定为 1、实现了 Comparable 的键
+     */
+    static final class ComparableCollidingKey extends CollidingKey implements Comparable<ComparableCollidingKey> {
+        ComparableCollidingKey(int id) {
+            super(id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ComparableCollidingKey && ((ComparableCollidingKey) o).id == id;
+        }
+
+        @Override
+        public int compareTo(ComparableCollidingKey o) {
+            return Integer.compare(id, o.id);
+        }
+    }
+}
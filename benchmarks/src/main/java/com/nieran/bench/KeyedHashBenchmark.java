@@ -0,0 +1,91 @@
+package com.nieran.bench;
+
+import com.nieran.CollisionKeyGenerator;
+import com.nieran.SafeHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SafeHashMap 默认扰动哈希与带密钥哈希（SipHash-1-3）的对比：从空 map 放入全部字符串键再逐个 get 一遍
+ * 键集：顺序编号的短字符串、随机令牌（会话 ID 一类）各 ENTRY_COUNT 个，"Aa"/"BB" 碰撞字符串 2^14 个
+ * 真实请求中的键都是新解析出来的字符串：每次调用前重新复制一份，hashCode 尚未缓存，equals 也不能靠引用相等短路
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyedHashBenchmark {
+    static final int ENTRY_COUNT = 100_000;
+
+    @Param({"PERTURB", "KEYED"})
+    String hashing;
+
+    @Param({"ORDINARY", "RANDOM", "COLLIDING"})
+    String keySet;
+
+    String[] keys;
+    String[] putKeys;
+    String[] getKeys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        switch (keySet) {
+            case "ORDINARY" -> {
+                keys = new String[ENTRY_COUNT];
+                for (int i = 0; i < ENTRY_COUNT; i++)
+                    keys[i] = "param_" + i;
+            }
+            case "RANDOM" -> {
+                Random random = new Random(MapWorkload.SEED);
+                keys = new String[ENTRY_COUNT];
+                for (int i = 0; i < ENTRY_COUNT; i++)
+                    keys[i] = Long.toHexString(random.nextLong());
+            }
+            default -> keys = CollisionKeyGenerator.sameHash(1 << 14);
+        }
+    }
+
+    // 一次调用要插入上万个键，耗时在毫秒级，按调用重新复制键的开销可以忽略
+    @Setup(Level.Invocation)
+    public void freshKeys() {
+        putKeys = freshCopies(keys);
+        getKeys = freshCopies(keys);
+    }
+
+    @Benchmark
+    public int putThenGet() {
+        SafeHashMap<String, Integer> map = new SafeHashMap<>(16, 0.75f, hashing.equals("KEYED"));
+        for (int i = 0; i < putKeys.length; i++) {
+            map.put(putKeys[i], i);
+        }
+        int hits = 0;
+        for (String key : getKeys) {
+            if (map.get(key) != null)
+                hits++;
+        }
+        return hits;
+    }
+
+    static String[] freshCopies(String[] keys) {
+        String[] copies = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            copies[i] = new String(keys[i].toCharArray());
+        }
+        return copies;
+    }
+}
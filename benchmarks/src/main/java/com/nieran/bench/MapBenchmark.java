@@ -0,0 +1,84 @@
+package com.nieran.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 常规键分布下 SafeHashMap（CHAINED/ROBIN_HOOD/COMPACT 三种引擎）与 java.util.HashMap 的对比，规模从 16 到 1000 万
+ * get/getMiss 分别是命中与未命中的查找；各引擎的每条目内存见 FootprintHarness
+ * Throughput 给出吞吐量，SampleTime 给出 p99 等分位延迟；分配速率用 -prof gc 查看
+ * （iterate/forEach 的 gc.alloc.rate.norm 应与元素数量无关）
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class MapBenchmark {
+
+    @Param
+    MapImpl impl;
+
+    @Param({"RANDOM", "SEQUENTIAL"})
+    KeyDistribution distribution;
+
+    @Param({"16", "1000", "100000", "1000000", "10000000"})
+    int size;
+
+    MapWorkload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = new MapWorkload(impl, distribution, size);
+        workload.prepareMisses(distribution);
+    }
+
+    @Benchmark
+    public Object get() {
+        return workload.get();
+    }
+
+    @Benchmark
+    public Object getMiss() {
+        return workload.getMiss();
+    }
+
+    @Benchmark
+    public Object put() {
+        return workload.put();
+    }
+
+    @Benchmark
+    public Object mixed() {
+        return workload.mixed();
+    }
+
+    @Benchmark
+    public Map<Object, Object> resize() {
+        return workload.resize();
+    }
+
+    @Benchmark
+    public int iterate() {
+        return workload.iterate();
+    }
+
+    @Benchmark
+    public int forEach() {
+        return workload.forEach();
+    }
+}
@@ -0,0 +1,37 @@
+package com.nieran.bench;
+
+import com.nieran.SafeHashMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 参与对比的 Map 实现
+ */
+public enum MapImpl {
+    SAFE_HASH_MAP {
+        Map<Object, Object> create() {
+            return new SafeHashMap<>();
+        }
+    },
+    ROBIN_HOOD {
+        Map<Object, Object> create() {
+            return SafeHashMap.newMap(SafeHashMap.Engine.ROBIN_HOOD, 16);
+        }
+    },
+    COMPACT {
+        Map<Object, Object> create() {
+            return SafeHashMap.newMap(SafeHashMap.Engine.COMPACT, 16);
+        }
+    },
+    HASH_MAP {
+        Map<Object, Object> create() {
+            return new HashMap<>();
+        }
+    };
+
+    /**
+     * 以默认容量创建，resize 基准依赖这一点
+     */
+    abstract Map<Object, Object> create();
+}
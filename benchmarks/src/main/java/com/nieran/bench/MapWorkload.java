@@ -0,0 +1,124 @@
+package com.nieran.bench;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 预先填充好的 map 和按随机顺序轮转的键，供各个基准方法共用
+ */
+final class MapWorkload {
+    // 固定种子，不同实现看到完全相同的键和访问顺序
+    static final long SEED = 42;
+    static final Object VALUE = Boolean.TRUE;
+
+    final MapImpl impl;
+    final Object[] keys;
+    final Map<Object, Object> map;
+    // 访问顺序：keys 的随机排列，避免按插入顺序访问带来的内存局部性
+    final Object[] order;
+    int cursor;
+    // 不在 map 中的同分布键，由 prepareMisses 生成
+    Object[] misses;
+    int missCursor;
+    int ops;
+
+    MapWorkload(MapImpl impl, KeyDistribution distribution, int size) {
+        Random random = new Random(SEED);
+        this.impl = impl;
+        this.keys = distribution.generate(size, random);
+        this.map = fill(impl, keys);
+        this.order = keys.clone();
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Object tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+
+    static Map<Object, Object> fill(MapImpl impl, Object[] keys) {
+        Map<Object, Object> map = impl.create();
+        for (Object key : keys) {
+            map.put(key, VALUE);
+        }
+        return map;
+    }
+
+    Object nextKey() {
+        int i = cursor;
+        cursor = i + 1 == order.length ? 0 : i + 1;
+        return order[i];
+    }
+
+    Object get() {
+        return map.get(nextKey());
+    }
+
+    /**
+     * 生成 2n 个同分布的键，保留不在 map 中的作为未命中查找的键（连续键即 n..2n-1）
+     */
+    void prepareMisses(KeyDistribution distribution) {
+        Object[] candidates = distribution.generate(keys.length * 2, new Random(SEED + 1));
+        int n = 0;
+        for (Object key : candidates) {
+            if (!map.containsKey(key))
+                candidates[n++] = key;
+        }
+        if (n == 0)
+            throw new IllegalStateException(distribution + " 生成不出 map 中没有的键");
+        misses = Arrays.copyOf(candidates, n);
+    }
+
+    /**
+     * 查找不存在的键，开放寻址引擎要探测到空槽（或更短的探测距离）才能确定
+     */
+    Object getMiss() {
+        int i = missCursor;
+        missCursor = i + 1 == misses.length ? 0 : i + 1;
+        return map.get(misses[i]);
+    }
+
+    Object put() {
+        // 覆盖已有键，map 大小不变
+        return map.put(nextKey(), VALUE);
+    }
+
+    /**
+     * 90% 读 + 10% 写
+     */
+    Object mixed() {
+        return ++ops % 10 == 0 ? put() : get();
+    }
+
+    /**
+     * 从默认容量开始插入全部键，包含全部扩容开销
+     */
+    Map<Object, Object> resize() {
+        return fill(impl, keys);
+    }
+
+    /**
+     * 遍历全部条目并读取键值
+     */
+    int iterate() {
+        int count = 0;
+        for (Map.Entry<Object, Object> e : map.entrySet()) {
+            if (e.getKey() != null && e.getValue() == VALUE)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * 通过 forEach 遍历全部条目，SafeHashMap 直接遍历桶数组，不创建迭代器
+     */
+    int forEach() {
+        int[] count = new int[1];
+        map.forEach((k, v) -> {
+            if (k != null && v == VALUE)
+                count[0]++;
+        });
+        return count[0];
+    }
+}
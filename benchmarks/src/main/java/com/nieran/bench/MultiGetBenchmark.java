@@ -0,0 +1,80 @@
+package com.nieran.bench;
+
+import com.nieran.SafeHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量查找 getAll 与逐个 get 的每键耗时对比，表远大于 L3 缓存时每次查找都是缓存缺失
+ * 每次调用查找 BATCH 个随机顺序的键，结果按键数折算
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class MultiGetBenchmark {
+    static final int BATCH = 32;
+
+    @Param({"RANDOM"})
+    KeyDistribution distribution;
+
+    @Param({"1000", "1000000", "10000000"})
+    int size;
+
+    MapWorkload workload;
+    SafeHashMap<Object, Object> map;
+    Object[] batch = new Object[BATCH];
+    Object[] out = new Object[BATCH];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = new MapWorkload(MapImpl.SAFE_HASH_MAP, distribution, size);
+        map = (SafeHashMap<Object, Object>) workload.map;
+    }
+
+    void nextBatch() {
+        for (int i = 0; i < BATCH; i++)
+            batch[i] = workload.nextKey();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int get() {
+        nextBatch();
+        int found = 0;
+        for (Object key : batch) {
+            if (map.get(key) != null)
+                found++;
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int getAll() {
+        nextBatch();
+        return map.getAll(batch, out);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public boolean containsAll() {
+        nextBatch();
+        return map.containsAll(batch);
+    }
+}
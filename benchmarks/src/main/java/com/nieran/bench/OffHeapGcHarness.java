@@ -0,0 +1,117 @@
+package com.nieran.bench;
+
+import com.nieran.OffHeapSafeHashMap;
+import com.nieran.SafeHashMap;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * 对比堆内 SafeHashMap<String, byte[]> 与 OffHeapSafeHashMap 的堆占用和 GC 停顿
+ * 用法：java -Xms4g -Xmx4g -XX:MaxDirectMemorySize=4g -cp benchmarks/target/benchmarks.jar
+ *       com.nieran.bench.OffHeapGcHarness [条目数] [on|off]
+ * 分别加载条目后输出加载期间的 GC 次数/总耗时、存活堆大小，以及 map 存活时一次 System.gc() 的耗时（近似 Full GC 停顿）
+ * 建议两种模式分开运行，互不影响
+ */
+public class OffHeapGcHarness {
+    static final int VALUE_LENGTH = 16;
+
+    public static void main(String[] args) {
+        int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        String mode = args.length > 1 ? args[1] : "both";
+        if (!mode.equals("off"))
+            run(entryCount, false);
+        if (!mode.equals("on"))
+            run(entryCount, true);
+    }
+
+    static void run(int entryCount, boolean offHeap) {
+        Random random = new Random(MapWorkload.SEED);
+        byte[] value = new byte[VALUE_LENGTH];
+        fullGc();
+        long heapBefore = usedHeap();
+        long[] gcBefore = gcCountAndTime();
+        long startTime = System.nanoTime();
+
+        Object map;
+        if (offHeap) {
+            OffHeapSafeHashMap m = new OffHeapSafeHashMap();
+            byte[] key = new byte[32];
+            for (int i = 0; i < entryCount; i++) {
+                random.nextBytes(value);
+                int keyLength = encodeKey(i, key);
+                m.put(key, 0, keyLength, value, 0, VALUE_LENGTH);
+            }
+            map = m;
+        } else {
+            SafeHashMap<String, byte[]> m = new SafeHashMap<>();
+            for (int i = 0; i < entryCount; i++) {
+                random.nextBytes(value);
+                m.put("key" + i, value.clone());
+            }
+            map = m;
+        }
+
+        long loadTime = System.nanoTime() - startTime;
+        long[] gcAfter = gcCountAndTime();
+        long fullGcStart = System.nanoTime();
+        fullGc();
+        long fullGcTime = System.nanoTime() - fullGcStart;
+        long heapAfter = usedHeap();
+
+        System.out.println("\n===== " + (offHeap ? "OffHeapSafeHashMap" : "SafeHashMap<String, byte[]>") +
+                "（" + entryCount + " 条） =====");
+        System.out.printf("加载耗时 %,.0f ms，期间 GC %d 次共 %,d ms%n", loadTime / 1e6,
+                gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+        System.out.printf("存活堆 %,.1f MB（%.1f 字节/条）%n", (heapAfter - heapBefore) / 1048576.0,
+                (heapAfter - heapBefore) / (double) entryCount);
+        if (offHeap)
+            System.out.printf("直接内存 %,.1f MB%n", ((OffHeapSafeHashMap) map).offHeapBytes() / 1048576.0);
+        System.out.printf("map 存活时 System.gc() 耗时 %,.1f ms%n", fullGcTime / 1e6);
+        // 保证 map 在测量期间存活
+        if (map.hashCode() == 42)
+            System.out.println();
+    }
+
+    // 与堆内模式相同的键 "key" + i，直接编码为字节，不创建 String
+    static int encodeKey(int i, byte[] key) {
+        key[0] = 'k';
+        key[1] = 'e';
+        key[2] = 'y';
+        int length = 3;
+        if (i == 0) {
+            key[length++] = '0';
+            return length;
+        }
+        int start = length;
+        for (int v = i; v > 0; v /= 10)
+            key[length++] = (byte) ('0' + v % 10);
+        for (int lo = start, hi = length - 1; lo < hi; lo++, hi--) {
+            byte tmp = key[lo];
+            key[lo] = key[hi];
+            key[hi] = tmp;
+        }
+        return length;
+    }
+
+    static long[] gcCountAndTime() {
+        long count = 0, time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, time};
+    }
+
+    static void fullGc() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,74 @@
+package com.nieran.bench;
+
+import com.nieran.SafeHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单次扩容的迁移耗时：threads 为 0 表示串行，其他值为并行迁移使用的 ForkJoinPool 线程数
+ * 每次调用前把 map 填到恰好等于扩容阈值，基准方法只插入一个键，测到的就是一次完整扩容
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class ParallelResizeBenchmark {
+
+    @Param({"0", "1", "2", "4", "8"})
+    int threads;
+
+    // 扩容前的桶数组容量
+    @Param({"1048576", "8388608"})
+    int capacity;
+
+    ForkJoinPool pool;
+    Integer[] keys;
+    SafeHashMap<Integer, Integer> map;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        pool = threads == 0 ? null : new ForkJoinPool(threads);
+        int count = (int) (capacity * 0.75f) + 1;
+        keys = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = i * 0x9E3779B9;
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        map = new SafeHashMap<>(capacity);
+        map.setParallelResize(pool, 0);
+        for (int i = 0; i < keys.length - 1; i++) {
+            map.put(keys[i], i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    @Benchmark
+    public SafeHashMap<Integer, Integer> resize() {
+        map.put(keys[keys.length - 1], 0);
+        return map;
+    }
+}
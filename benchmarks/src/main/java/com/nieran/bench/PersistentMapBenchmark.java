@@ -0,0 +1,90 @@
+package com.nieran.bench;
+
+import com.nieran.PersistentSafeHashMap;
+import com.nieran.SafeHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 发布只读快照后再做 1000 次更新：复制一份 SafeHashMap 再修改，对比持久化 map 的 plus 和批量编辑器
+ * 复制的代价随 map 大小线性增长，持久化 map 只复制被修改的路径
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class PersistentMapBenchmark {
+    // 每个快照之后的更新次数
+    static final int UPDATES = 1000;
+    // 与 MapWorkload.VALUE 不同，保证每次更新都真正改变映射
+    static final Object UPDATED = Boolean.FALSE;
+
+    @Param({"RANDOM"})
+    KeyDistribution distribution;
+
+    @Param({"10000", "1000000"})
+    int size;
+
+    MapWorkload workload;
+    SafeHashMap<Object, Object> mutable;
+    PersistentSafeHashMap<Object, Object> persistent;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = new MapWorkload(MapImpl.SAFE_HASH_MAP, distribution, size);
+        mutable = (SafeHashMap<Object, Object>) workload.map;
+        persistent = PersistentSafeHashMap.copyOf(mutable);
+    }
+
+    @Benchmark
+    public Map<Object, Object> copyThenPut() {
+        SafeHashMap<Object, Object> copy = new SafeHashMap<>();
+        copy.putAll(mutable);
+        for (int i = 0; i < UPDATES; i++)
+            copy.put(workload.nextKey(), UPDATED);
+        return copy;
+    }
+
+    @Benchmark
+    public Map<Object, Object> persistentPlus() {
+        PersistentSafeHashMap<Object, Object> m = persistent;
+        for (int i = 0; i < UPDATES; i++)
+            m = m.plus(workload.nextKey(), UPDATED);
+        return m;
+    }
+
+    @Benchmark
+    public Map<Object, Object> transientPut() {
+        PersistentSafeHashMap.Transient<Object, Object> t = persistent.asTransient();
+        for (int i = 0; i < UPDATES; i++)
+            t.put(workload.nextKey(), UPDATED);
+        return t.persistent();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object getMutable() {
+        return mutable.get(workload.nextKey());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object getPersistent() {
+        return persistent.get(workload.nextKey());
+    }
+}
@@ -0,0 +1,120 @@
+package com.nieran.bench;
+
+import com.example.test.MillerRabin;
+import com.example.test.PrimeJudgement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 素数判定吞吐量（每秒判定的数字个数），每次调用判定 COUNT 个数
+ * 1.随机 63 位 ID 与随机 63 位素数（素数要跑完全部 7 个底数，是最慢的情况）
+ * 2.31 位随机整数：原来的逐个试除（每轮都算 sqrt、偶数也试）与 MillerRabin 对比
+ * 3.批量模式：PrimeJudgement.batch 解析文本并写出结果的端到端吞吐量
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimeBenchmark {
+    static final int COUNT = 1 << 16;
+
+    long[] ids = new long[COUNT];
+    long[] primes = new long[COUNT];
+    long[] ints = new long[COUNT];
+    byte[] input;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(MapWorkload.SEED);
+        for (int i = 0; i < COUNT; i++) {
+            ids[i] = random.nextLong() >>> 1;
+            ints[i] = random.nextInt() >>> 1;
+        }
+        for (int i = 0; i < COUNT; ) {
+            long n = random.nextLong() >>> 1;
+            if (MillerRabin.isPrime(n))
+                primes[i++] = n;
+        }
+        StringBuilder text = new StringBuilder(COUNT * 20);
+        for (long id : ids) {
+            text.append(id).append('\n');
+        }
+        input = text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static int millerRabin(long[] numbers) {
+        int found = 0;
+        for (long n : numbers) {
+            if (MillerRabin.isPrime(n))
+                found++;
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int randomIds() {
+        return millerRabin(ids);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int primes63() {
+        return millerRabin(primes);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int ints31() {
+        return millerRabin(ints);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int trialDivision31() {
+        int found = 0;
+        for (long n : ints) {
+            if (trialDivision((int) n))
+                found++;
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long batch() throws IOException {
+        return PrimeJudgement.batch(new ByteArrayInputStream(input), OutputStream.nullOutputStream());
+    }
+
+    // 原来的 PrimeJudgement 算法（原样保留，包括把 2 判成合数的问题）
+    static boolean trialDivision(int number) {
+        if (number <= 1)
+            return false;
+        int remainder = 0;
+        for (int i = 2; i < Math.sqrt(number) + 1; i++) {
+            remainder = number % i;
+            if (remainder == 0)
+                break;
+        }
+        return remainder != 0;
+    }
+}
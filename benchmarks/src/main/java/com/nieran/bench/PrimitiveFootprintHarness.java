@@ -0,0 +1,57 @@
+package com.nieran.bench;
+
+import com.nieran.SafeHashMap;
+import com.nieran.SafeIntIntMap;
+
+/**
+ * SafeIntIntMap 与 SafeHashMap<Integer, Integer> 的每条目堆内存开销
+ * 用法：java -XX:+UseSerialGC -Xms3g -Xmx3g -cp benchmarks/target/benchmarks.jar com.nieran.bench.PrimitiveFootprintHarness [条目数]
+ * 开放寻址表的开销随负载率成倍变化，因此分别测量刚好达到扩容阈值（负载最高）和刚扩容一次（负载减半）两种规模；
+ * 装箱 map 的键值 Integer 由 map 独占，计入开销
+ */
+public class PrimitiveFootprintHarness {
+
+    public static void main(String[] args) throws InterruptedException {
+        int requested = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        // 默认负载因子 0.5、容量为 2 的幂，扩容阈值也是 2 的幂：取不小于 requested 的最小阈值
+        int peak = requested <= 1 ? 1 : Integer.highestOneBit(requested - 1) << 1;
+        int[] counts = {peak, peak + 1};
+        String[] labels = {"扩容前（负载最高）", "刚扩容（负载减半）"};
+
+        System.out.printf("%-20s %12s %14s %18s %8s%n", "规模", "条目数", "原始类型 字节/条", "装箱 字节/条", "倍数");
+        for (int c = 0; c < counts.length; c++) {
+            int count = counts[c];
+            // 奇数乘法是 int 上的双射，键互不相同且看起来随机，条目数就是 count
+            int[] keys = new int[count];
+            for (int i = 0; i < count; i++)
+                keys[i] = (i + 1) * 0x9E3779B9;
+            double primitive = measurePrimitive(keys) / (double) count;
+            double boxed = measureBoxed(keys) / (double) count;
+            System.out.printf("%-20s %,12d %14.1f %18.1f %8.2f%n", labels[c], count, primitive, boxed, boxed / primitive);
+        }
+    }
+
+    static long measurePrimitive(int[] keys) throws InterruptedException {
+        long heapBefore = FootprintHarness.settledHeap();
+        SafeIntIntMap map = new SafeIntIntMap();
+        for (int i = 0; i < keys.length; i++)
+            map.put(keys[i], i + 1_000_000);
+        long bytes = FootprintHarness.settledHeap() - heapBefore;
+        // 保证 map 在测量期间存活
+        if (map.isEmpty())
+            throw new IllegalStateException();
+        return bytes;
+    }
+
+    static long measureBoxed(int[] keys) throws InterruptedException {
+        long heapBefore = FootprintHarness.settledHeap();
+        SafeHashMap<Integer, Integer> map = new SafeHashMap<>();
+        // 值避开 Integer 缓存范围，每个值都是独立对象
+        for (int i = 0; i < keys.length; i++)
+            map.put(keys[i], i + 1_000_000);
+        long bytes = FootprintHarness.settledHeap() - heapBefore;
+        if (map.isEmpty())
+            throw new IllegalStateException();
+        return bytes;
+    }
+}
@@ -0,0 +1,87 @@
+package com.nieran.bench;
+
+import com.nieran.SafeHashMap;
+import com.nieran.SafeIntIntMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SafeIntIntMap 与 SafeHashMap<Integer, Integer> 的 put/get 耗时对比，键为随机 int
+ * build 从空 map 开始放入全部键（含扩容），get 查找随机一个已存在的键
+ * 每条目内存占用见 PrimitiveFootprintHarness
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class PrimitiveMapBenchmark {
+
+    @Param({"PRIMITIVE", "BOXED"})
+    String impl;
+
+    @Param({"1000", "1000000"})
+    int size;
+
+    int[] keys;
+    SafeIntIntMap primitive;
+    SafeHashMap<Integer, Integer> boxed;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = new int[size];
+        Random random = new Random(MapWorkload.SEED);
+        for (int i = 0; i < size; i++)
+            keys[i] = random.nextInt();
+        if (impl.equals("PRIMITIVE"))
+            primitive = buildPrimitive();
+        else
+            boxed = buildBoxed();
+    }
+
+    SafeIntIntMap buildPrimitive() {
+        SafeIntIntMap map = new SafeIntIntMap();
+        for (int i = 0; i < keys.length; i++)
+            map.put(keys[i], i);
+        return map;
+    }
+
+    SafeHashMap<Integer, Integer> buildBoxed() {
+        SafeHashMap<Integer, Integer> map = new SafeHashMap<>();
+        for (int i = 0; i < keys.length; i++)
+            map.put(keys[i], i);
+        return map;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public Object build() {
+        return primitive != null ? buildPrimitive() : buildBoxed();
+    }
+
+    @Benchmark
+    public int get() {
+        // 键按固定步长跳跃访问，不顺序读也不依赖随机数生成器
+        next = (next + 7919) % keys.length;
+        int key = keys[next];
+        return primitive != null ? primitive.get(key) : boxed.get(key);
+    }
+}
@@ -0,0 +1,70 @@
+package com.nieran.bench;
+
+import com.nieran.SafeHashMap;
+
+/**
+ * 逐个 put 到千万级，记录每次 put 的耗时，对比一次性扩容与增量扩容的尾延迟
+ * 用法：java -Xms4g -Xmx4g -cp benchmarks/target/benchmarks.jar com.nieran.bench.ResizeLatencyHarness [条目数]
+ * 每跨过一次 2 的幂输出该区间的最大 put 耗时，最后输出整体的 p50/p99/p999/max
+ */
+public class ResizeLatencyHarness {
+    // 直方图按 2 的幂分桶：第 i 桶为 [2^i, 2^(i+1)) 纳秒
+    static final int BUCKETS = 40;
+
+    public static void main(String[] args) {
+        int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Integer[] keys = new Integer[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            keys[i] = i * 0x9E3779B9;
+        }
+        // 第一遍预热 JIT，第二遍计时
+        for (boolean incremental : new boolean[]{false, true}) {
+            run(keys, Math.min(entryCount, 1 << 20), incremental, false);
+        }
+        for (boolean incremental : new boolean[]{false, true}) {
+            run(keys, entryCount, incremental, true);
+        }
+    }
+
+    static void run(Integer[] keys, int entryCount, boolean incremental, boolean print) {
+        System.gc();
+        SafeHashMap<Integer, Integer> map = new SafeHashMap<>();
+        map.setIncrementalResize(incremental);
+        long[] histogram = new long[BUCKETS];
+        long phaseMax = 0, max = 0;
+        if (print)
+            System.out.println("\n===== " + (incremental ? "增量扩容" : "一次性扩容") + "（" + entryCount + " 条） =====");
+        for (int i = 0; i < entryCount; i++) {
+            long start = System.nanoTime();
+            map.put(keys[i], i);
+            long elapsed = System.nanoTime() - start;
+            histogram[Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1L, elapsed)))]++;
+            phaseMax = Math.max(phaseMax, elapsed);
+            if (Integer.bitCount(i + 1) == 1 && i + 1 >= 1 << 16) {
+                if (print)
+                    System.out.printf("  %,11d 条  区间最大 %,10.1f us%n", i + 1, phaseMax / 1000.0);
+                max = Math.max(max, phaseMax);
+                phaseMax = 0;
+            }
+        }
+        max = Math.max(max, phaseMax);
+        if (print) {
+            System.out.printf("p50 < %s  p99 < %s  p999 < %s  max %,.1f us%n",
+                    percentile(histogram, entryCount, 0.5), percentile(histogram, entryCount, 0.99),
+                    percentile(histogram, entryCount, 0.999), max / 1000.0);
+        }
+    }
+
+    // 返回分位所在直方图桶的上界
+    static String percentile(long[] histogram, long total, double p) {
+        long target = (long) Math.ceil(total * p), seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= target) {
+                long ns = 1L << (i + 1);
+                return ns < 1000 ? ns + " ns" : String.format("%,.1f us", ns / 1000.0);
+            }
+        }
+        return "-";
+    }
+}
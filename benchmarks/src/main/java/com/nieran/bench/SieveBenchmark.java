@@ -0,0 +1,67 @@
+package com.nieran.bench;
+
+import com.example.test.SegmentedSieve;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SegmentedSieve 的扩展性：countPrimes(0, 上界) 在不同上界、线程数和段大小（L1 32KB / L2 256KB）下的耗时
+ * 线程数 0 表示 CPU 核数；加速比用 threads=1 的结果相除。例如只看 10^9：-p limit=1000000000
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SieveBenchmark {
+    // 已知的 π(10^k)，用于核对结果
+    static final long[] PI = {0, 4, 25, 168, 1229, 9592, 78498, 664579, 5761455, 50847534, 455052511,
+            4118054813L, 37607912018L};
+
+    @Param({"100000000", "1000000000", "10000000000"})
+    long limit;
+
+    @Param({"1", "2", "4", "0"})
+    int threads;
+
+    @Param({"32768", "262144"})
+    int segmentBytes;
+
+    ForkJoinPool pool;
+    SegmentedSieve sieve;
+    long count;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+        sieve = new SegmentedSieve(pool, segmentBytes, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+        int exponent = (int) Math.round(Math.log10(limit));
+        if (exponent < PI.length && Math.pow(10, exponent) == limit && PI[exponent] != count)
+            throw new IllegalStateException("π(" + limit + ") 计算错误: " + count);
+    }
+
+    @Benchmark
+    public long countPrimes() {
+        return count = sieve.countPrimes(0, limit);
+    }
+}
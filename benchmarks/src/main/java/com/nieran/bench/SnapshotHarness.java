@@ -0,0 +1,72 @@
+package com.nieran.bench;
+
+import com.nieran.SafeHashMap;
+import com.nieran.SafeHashMapSnapshot;
+import com.nieran.SnapshotCodec;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * 对比三种重建方式的启动耗时：逐个 put、从快照构建 SafeHashMap、映射快照后只查少量键
+ * 用法：java -Xms4g -Xmx4g -cp benchmarks/target/benchmarks.jar com.nieran.bench.SnapshotHarness [条目数] [快照文件]
+ * 逐个 put 的输入在计时前已经解码好，只包含哈希和插入的开销
+ */
+public class SnapshotHarness {
+    static final int LOOKUPS = 1000;
+
+    public static void main(String[] args) throws IOException {
+        int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        Path file = args.length > 1 ? Path.of(args[1]) : Files.createTempFile("safehashmap", ".snapshot");
+        file.toFile().deleteOnExit();
+
+        String[] keys = new String[entryCount], values = new String[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            keys[i] = "user:" + i;
+            values[i] = "profile-" + Integer.toHexString(i * 0x9E3779B9);
+        }
+        SafeHashMap<String, String> source = new SafeHashMap<>(16, 0.75f, true);
+        for (int i = 0; i < entryCount; i++) {
+            source.put(keys[i], values[i]);
+        }
+        long startTime = System.nanoTime();
+        source.writeSnapshot(file, SnapshotCodec.STRING, SnapshotCodec.STRING);
+        System.out.printf("%n写出快照 %,d 条，%,.1f MB，耗时 %,.0f ms%n", entryCount,
+                Files.size(file) / 1048576.0, (System.nanoTime() - startTime) / 1e6);
+        source = null;
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("\n===== 第 " + (round + 1) + " 轮 =====");
+            startTime = System.nanoTime();
+            SafeHashMap<String, String> rebuilt = new SafeHashMap<>(16, 0.75f, true);
+            for (int i = 0; i < entryCount; i++) {
+                rebuilt.put(keys[i], values[i]);
+            }
+            report("逐个 put", startTime, rebuilt);
+            rebuilt = null;
+
+            startTime = System.nanoTime();
+            SafeHashMap<String, String> loaded = SafeHashMap.loadSnapshot(file, SnapshotCodec.STRING, SnapshotCodec.STRING);
+            report("loadSnapshot", startTime, loaded);
+            loaded = null;
+
+            startTime = System.nanoTime();
+            try (SafeHashMapSnapshot<String, String> snapshot =
+                         SafeHashMapSnapshot.open(file, SnapshotCodec.STRING, SnapshotCodec.STRING)) {
+                int found = 0;
+                for (int i = 0; i < LOOKUPS; i++) {
+                    if (snapshot.get(keys[(int) ((long) i * entryCount / LOOKUPS)]) != null)
+                        found++;
+                }
+                System.out.printf("%-24s %,10.1f ms（命中 %d）%n", "open + " + LOOKUPS + " 次 get",
+                        (System.nanoTime() - startTime) / 1e6, found);
+            }
+        }
+    }
+
+    static void report(String name, long startTime, Map<String, String> map) {
+        System.out.printf("%-24s %,10.1f ms（%d 条）%n", name, (System.nanoTime() - startTime) / 1e6, map.size());
+    }
+}
@@ -0,0 +1,116 @@
+package com.nieran.bench;
+
+import com.nieran.SafeHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 词频统计：get + put 与单次遍历的 merge / compute 对比
+ * 每次调用用新 map 统计 WORDS 个按 Zipf(0.99) 分布的单词；keyed 为 true 时每次查找都要计算 SipHash。
+ * COLLIDING 把单词换成 hashCode 全部相同的可比较键，整个词表落在一个树桶里，
+ * 对比 get + put 的两次树下降与 merge / compute 的一次下降
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class WordCountBenchmark {
+    static final int WORDS = 100_000;
+
+    @Param({"1000", "100000"})
+    int vocabulary;
+
+    @Param({"false", "true"})
+    boolean keyed;
+
+    @Param({"WORDS", "COLLIDING"})
+    String keySet;
+
+    Object[] words;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(MapWorkload.SEED);
+        CacheTrace.Zipf zipf = new CacheTrace.Zipf(vocabulary, 0.99);
+        boolean colliding = keySet.equals("COLLIDING");
+        words = new Object[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            int rank = zipf.next(random);
+            words[i] = colliding ? new SameHashWord(rank) : "word" + rank;
+        }
+    }
+
+    /**
+     * hashCode 恒为 0 的可比较键：换种子也打不散，始终留在树桶中
+     */
+    static final class SameHashWord implements Comparable<SameHashWord> {
+        final int rank;
+
+        SameHashWord(int rank) {
+            this.rank = rank;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SameHashWord && ((SameHashWord) o).rank == rank;
+        }
+
+        @Override
+        public int compareTo(SameHashWord o) {
+            return Integer.compare(rank, o.rank);
+        }
+    }
+
+    SafeHashMap<Object, Integer> newMap() {
+        return new SafeHashMap<>(16, 0.75f, keyed);
+    }
+
+    @Benchmark
+    public Map<Object, Integer> getPut() {
+        SafeHashMap<Object, Integer> counts = newMap();
+        for (Object word : words) {
+            Integer count = counts.get(word);
+            counts.put(word, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    @Benchmark
+    public Map<Object, Integer> merge() {
+        SafeHashMap<Object, Integer> counts = newMap();
+        for (Object word : words) {
+            counts.merge(word, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    @Benchmark
+    public Map<Object, Integer> compute() {
+        SafeHashMap<Object, Integer> counts = newMap();
+        for (Object word : words) {
+            counts.compute(word, (k, v) -> v == null ? 1 : v + 1);
+        }
+        return counts;
+    }
+}